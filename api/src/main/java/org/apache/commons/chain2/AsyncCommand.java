@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * <p>An {@link AsyncCommand} is a {@link Command} whose processing completes
+ * asynchronously, for instance because it waits on I/O.  Instead of holding
+ * the calling thread until the work is done, <code>executeAsync()</code>
+ * returns a <code>CompletionStage</code> that completes with the
+ * {@link Processing} value once the work is done, or completes
+ * exceptionally if the work failed.</p>
+ *
+ * <p>An {@link AsyncCommand} can be added anywhere a {@link Command} is
+ * expected.  When it is executed synchronously, the default
+ * <code>execute()</code> implementation waits for the returned stage to
+ * complete.  Chains that are aware of asynchronous commands, such as
+ * {@code org.apache.commons.chain2.impl.AsyncChainBase}, release the
+ * calling thread instead.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this command
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public interface AsyncCommand<K, V, C extends Map<K, V>> extends Command<K, V, C> {
+
+    /**
+     * <p>Start a unit of processing work to be performed, and return a stage
+     * that completes once the work is done.</p>
+     *
+     * @param context The {@link Context} to be processed by this
+     *  {@link Command}
+     *
+     * @throws IllegalArgumentException if <code>context</code>
+     *  is <code>null</code>
+     *
+     * @return A stage completing with {@link Processing#FINISHED} if the
+     *  processing of this context has been completed, or with
+     *  {@link Processing#CONTINUE} if the processing of this context should
+     *  be delegated to a subsequent command in an enclosing chain.
+     */
+    CompletionStage<Processing> executeAsync(C context);
+
+    /**
+     * <p>Execute this command synchronously, waiting for the stage returned
+     * by <code>executeAsync()</code> to complete.</p>
+     *
+     * @param context The {@link Context} to be processed by this
+     *  {@link Command}
+     *
+     * @throws ChainException if the stage completed exceptionally with a
+     *  checked exception
+     * @throws IllegalArgumentException if <code>context</code>
+     *  is <code>null</code>
+     *
+     * @return The {@link Processing} value the stage completed with
+     */
+    @Override
+    default Processing execute(C context) {
+        try {
+            return executeAsync(context).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ChainException("An error occurred when executing the command "
+                    + getClass().getName(), cause, context, this);
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Outcome of the execution of one {@link Command} over a batch of
+ * contexts: for every context, in the order of the batch, either the
+ * {@link Processing} result or the exception that was thrown.  A failure
+ * does not abort the processing of the rest of the batch.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the contexts of the batch
+ *
+ * @since 2.0
+ */
+public final class BatchResult<K, V, C extends Map<K, V>> {
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final List<C> contexts;
+
+    private final Processing[] results;
+
+    private final RuntimeException[] failures;
+
+    private final int failureCount;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct the outcome of the execution of a batch.  The arrays are
+     * not copied, and must not be modified afterwards.</p>
+     *
+     * @param contexts The contexts of the batch, in order
+     * @param results For every context, the returned {@link Processing}, or
+     *  <code>null</code> if the execution failed
+     * @param failures For every context, the thrown exception, or
+     *  <code>null</code> if the execution succeeded
+     *
+     * @throws IllegalArgumentException if any parameter is <code>null</code>
+     *  or if their sizes differ
+     */
+    public BatchResult(List<C> contexts, Processing[] results, RuntimeException[] failures) {
+        if (contexts == null || results == null || failures == null) {
+            throw new IllegalArgumentException("Batch contexts, results and failures must be not null");
+        }
+        if (results.length != contexts.size() || failures.length != contexts.size()) {
+            throw new IllegalArgumentException("Batch contexts, results and failures must have the same size");
+        }
+        this.contexts = Collections.unmodifiableList(contexts);
+        this.results = results;
+        this.failures = failures;
+
+        int count = 0;
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                count++;
+            }
+        }
+        this.failureCount = count;
+    }
+
+    // --------------------------------------------------------- Static Methods
+
+    /**
+     * <p>Execute the specified {@link Command} over each context of a
+     * batch, in order, recording the exception thrown while processing a
+     * context instead of propagating it.  This is the default
+     * implementation of {@link Chain#executeAll(Collection)} and
+     * {@link ChainExecutor#executeAll(Collection)}.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the contexts of the batch
+     * @param command The {@link Command} to be executed
+     * @param contexts The contexts to be processed
+     * @return The per-context results and failures
+     *
+     * @throws IllegalArgumentException if <code>contexts</code> is
+     *  <code>null</code>
+     */
+    public static <K, V, C extends Map<K, V>> BatchResult<K, V, C> executeEach(Command<K, V, C> command,
+            Collection<? extends C> contexts) {
+        if (contexts == null) {
+            throw new IllegalArgumentException("Can't execute a null batch");
+        }
+        List<C> batch = new ArrayList<C>(contexts);
+        int n = batch.size();
+        Processing[] results = new Processing[n];
+        RuntimeException[] failures = new RuntimeException[n];
+        for (int i = 0; i < n; i++) {
+            try {
+                results[i] = command.execute(batch.get(i));
+            } catch (RuntimeException e) {
+                failures[i] = e;
+            }
+        }
+        return new BatchResult<K, V, C>(batch, results, failures);
+    }
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the number of contexts of the batch.</p>
+     * @return The size of the batch.
+     */
+    public int size() {
+        return contexts.size();
+    }
+
+    /**
+     * <p>Return the contexts of the batch, in order.</p>
+     * @return The unmodifiable list of contexts.
+     */
+    public List<C> getContexts() {
+        return contexts;
+    }
+
+    /**
+     * <p>Return the context at the specified position in the batch.</p>
+     *
+     * @param index The position in the batch
+     * @return The context.
+     */
+    public C getContext(int index) {
+        return contexts.get(index);
+    }
+
+    /**
+     * <p>Return the {@link Processing} result of the context at the
+     * specified position in the batch.</p>
+     *
+     * @param index The position in the batch
+     * @return The result, or <code>null</code> if the execution failed.
+     */
+    public Processing getProcessing(int index) {
+        return results[index];
+    }
+
+    /**
+     * <p>Return the exception thrown while processing the context at the
+     * specified position in the batch.</p>
+     *
+     * @param index The position in the batch
+     * @return The exception, or <code>null</code> if the execution succeeded.
+     */
+    public RuntimeException getFailure(int index) {
+        return failures[index];
+    }
+
+    /**
+     * <p>Return whether the processing of the context at the specified
+     * position in the batch failed.</p>
+     *
+     * @param index The position in the batch
+     * @return <code>true</code> if an exception was thrown.
+     */
+    public boolean isFailed(int index) {
+        return failures[index] != null;
+    }
+
+    /**
+     * <p>Return the number of contexts whose processing failed.</p>
+     * @return The number of failures.
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * <p>Return whether the processing of every context succeeded.</p>
+     * @return <code>true</code> if no exception was thrown.
+     */
+    public boolean isSuccessful() {
+        return failureCount == 0;
+    }
+
+}
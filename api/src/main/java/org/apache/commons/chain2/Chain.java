@@ -16,6 +16,7 @@
  */
 package org.apache.commons.chain2;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -112,4 +113,27 @@ public interface Chain<K, V, C extends Map<K, V>> extends Command<K, V, C> {
      */
     Processing execute(C context);
 
+    /**
+     * <p>Execute the processing represented by this {@link Chain} over each
+     * context of a batch, in order.  An exception thrown while processing a
+     * context is recorded in the result, and does not prevent the processing
+     * of the remaining contexts.</p>
+     *
+     * <p>The default implementation calls <code>execute()</code> once per
+     * context; implementations may amortize the per-call setup over the
+     * batch, or partition it across threads.</p>
+     *
+     * @param contexts The contexts to be processed by this {@link Chain}
+     *
+     * @throws IllegalArgumentException if <code>contexts</code>
+     *  is <code>null</code>
+     *
+     * @return The per-context results and failures
+     *
+     * @since 2.0
+     */
+    default BatchResult<K, V, C> executeAll(Collection<? extends C> contexts) {
+        return BatchResult.executeEach(this, contexts);
+    }
+
 }
@@ -16,6 +16,7 @@
  */
 package org.apache.commons.chain2;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -41,4 +42,42 @@ public interface ChainExecutor<K, V, C extends Map<K, V>> extends CommandSetter<
      */
     Processing execute(C context);
 
+    /**
+     * Execute the processing represented by the target chain over each context of a batch.
+     * <p>
+     * The default implementation calls {@link #execute(Map)} once per context, as
+     * {@link Chain#executeAll(Collection)} does; executors holding the target chain delegate
+     * to it instead, so that chains amortizing the per-call setup keep doing so.
+     *
+     * @param contexts the contexts processed by the target chain
+     * @return the per-context results and failures
+     * @throws IllegalArgumentException if <code>contexts</code> is <code>null</code>
+     *
+     * @see Chain#executeAll(Collection)
+     */
+    default BatchResult<K, V, C> executeAll(Collection<? extends C> contexts) {
+        return BatchResult.executeEach(new Command<K, V, C>() {
+            public Processing execute(C context) {
+                return ChainExecutor.this.execute(context);
+            }
+        }, contexts);
+    }
+
+    /**
+     * Switch to an executor running each processing of the target chain on a thread of its own,
+     * virtual on JDK 21 and later, with at most <code>maxInFlight</code> executions in flight.
+     *
+     * <p>
+     * The default implementation runs {@link #execute(Map)} of this executor on each thread.
+     *
+     * @param maxInFlight the maximum number of executions in flight, strictly positive
+     * @return the concurrent executor of the target chain
+     * @throws IllegalArgumentException if <code>maxInFlight</code> is not strictly positive
+     *
+     * @see ConcurrentChainExecutor
+     */
+    default ConcurrentChainExecutor<K, V, C> onVirtualThreads(int maxInFlight) {
+        return Chains.onVirtualThreads(this, maxInFlight);
+    }
+
 }
@@ -18,7 +18,10 @@ package org.apache.commons.chain2;
 
 import static java.lang.String.format;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
 /**
  * Simple fluent chain EDSL to simplify {@link Chain} instances invocation.
@@ -94,6 +97,77 @@ public final class Chains {
             return chain.execute(checkNotNullArgument(context, "Chain cannot be applied to a null context."));
         }
 
+        public BatchResult<K, V, C> executeAll(Collection<? extends C> contexts) {
+            return chain.executeAll(checkNotNullArgument(contexts, "Chain cannot be applied to a null batch."));
+        }
+
+    }
+
+    private static final class DefaultConcurrentChainExecutor<K, V, C extends Map<K, V>>
+        implements ConcurrentChainExecutor<K, V, C> {
+
+        private final ChainExecutor<K, V, C> executor;
+
+        private final int maxInFlight;
+
+        private final Semaphore permits;
+
+        public DefaultConcurrentChainExecutor(ChainExecutor<K, V, C> executor, int maxInFlight) {
+            this.executor = executor;
+            this.maxInFlight = maxInFlight;
+            this.permits = new Semaphore(maxInFlight);
+        }
+
+        public CompletableFuture<Processing> execute(final C context) {
+            checkNotNullArgument(context, "Chain cannot be applied to a null context.");
+
+            final CompletableFuture<Processing> result = new CompletableFuture<Processing>();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+                return result;
+            }
+
+            try {
+                ExecutionThreads.newThread(new Runnable() {
+                    public void run() {
+                        Processing processing;
+                        try {
+                            processing = executor.execute(context);
+                        } catch (Throwable t) {
+                            // release first, so that dependent stages may execute again
+                            permits.release();
+                            result.completeExceptionally(t);
+                            return;
+                        }
+                        permits.release();
+                        result.complete(processing);
+                    }
+                }).start();
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            } catch (Error e) {
+                permits.release();
+                throw e;
+            }
+            return result;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public int getInFlight() {
+            return maxInFlight - permits.availablePermits();
+        }
+
+        public boolean isVirtual() {
+            return ExecutionThreads.isVirtual();
+        }
+
     }
 
     private static final class DefaultNamedCommandSetter<K, V, C extends Map<K, V>>
@@ -131,6 +205,19 @@ public final class Chains {
 
     }
 
+    /**
+     * Wraps the given executor, running each of its executions on a thread of its own.
+     *
+     * @see ChainExecutor#onVirtualThreads(int)
+     */
+    static <K, V, C extends Map<K, V>> ConcurrentChainExecutor<K, V, C> onVirtualThreads(
+            ChainExecutor<K, V, C> executor, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException(format("In-flight limit must be positive, was %s", maxInFlight));
+        }
+        return new DefaultConcurrentChainExecutor<K, V, C>(executor, maxInFlight);
+    }
+
     private static <T> T checkNotNullArgument(T reference, String message, Object...args) {
         if (reference == null) {
             throw new IllegalArgumentException(format(message, args));
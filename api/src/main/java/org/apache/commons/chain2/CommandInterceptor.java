@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * <p>A {@link CommandInterceptor} is called around the
+ * <code>execute()</code> method of {@link Command}s, and around the
+ * <code>postprocess()</code> method of {@link Filter}s, to add behavior
+ * such as timing, tracing or throttling without changing the configuration
+ * of the chains.</p>
+ *
+ * <p>Interceptors are registered on a {@link Catalog} or a
+ * {@link CatalogFactory} implementation supporting them.  When several
+ * interceptors apply, the first registered one is the outermost.  Each
+ * interceptor is responsible for proceeding with the invocation, by
+ * calling <code>next</code>, exactly once, unless it deliberately
+ * short-circuits it.</p>
+ *
+ * <p>{@link CommandInterceptor} implementations should be designed in a
+ * thread-safe manner, suitable for being called on multiple threads
+ * simultaneously.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this interceptor
+ *
+ * @since 2.0
+ */
+public interface CommandInterceptor<K, V, C extends Map<K, V>> {
+
+    /**
+     * <p>Intercept the execution of a {@link Command}.  The default
+     * implementation simply proceeds.</p>
+     *
+     * @param command The intercepted {@link Command}
+     * @param context The {@link Context} to be processed
+     * @param next The rest of the invocation: the next interceptor, or the
+     *  intercepted {@link Command} itself
+     *
+     * @return The result of the execution, usually the result of
+     *  <code>next.execute(context)</code>
+     */
+    default Processing execute(Command<K, V, C> command, C context, Command<K, V, C> next) {
+        return next.execute(context);
+    }
+
+    /**
+     * <p>Intercept the start of an {@link AsyncCommand} by a chain executing
+     * it without blocking.  The invocation is over once the returned stage
+     * completes, usually on another thread.  The default implementation
+     * simply proceeds.</p>
+     *
+     * @param command The intercepted {@link AsyncCommand}
+     * @param context The {@link Context} to be processed
+     * @param next The rest of the invocation: the next interceptor, or the
+     *  intercepted {@link AsyncCommand} itself
+     *
+     * @return The stage completing with the result of the execution,
+     *  usually the stage returned by <code>next.executeAsync(context)</code>
+     *
+     * @since 2.0
+     */
+    default CompletionStage<Processing> executeAsync(AsyncCommand<K, V, C> command, C context,
+            AsyncCommand<K, V, C> next) {
+        return next.executeAsync(context);
+    }
+
+    /**
+     * <p>Intercept the postprocessing of a {@link Filter}.  The default
+     * implementation simply proceeds.</p>
+     *
+     * @param filter The intercepted {@link Filter}
+     * @param context The {@link Context} being processed
+     * @param exception The exception thrown by the chain, if any
+     * @param next The rest of the invocation: the next interceptor, or the
+     *  intercepted {@link Filter} itself
+     *
+     * @return Whether the exception was handled, usually the result of
+     *  <code>next.postprocess(context, exception)</code>
+     */
+    default boolean postprocess(Filter<K, V, C> filter, C context, Exception exception, Filter<K, V, C> next) {
+        return next.postprocess(context, exception);
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Executor that runs each processing of the target chain on a thread of its own, with a bounded
+ * number of executions in flight.
+ * <p>
+ * On JDK 21 and later each execution runs on a new virtual thread, so that chains of blocking
+ * commands can be executed by the hundred thousand without sizing a thread pool. On earlier JDKs
+ * each execution runs on a new platform daemon thread.
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this chain executor
+ * @since 2.0
+ */
+public interface ConcurrentChainExecutor<K, V, C extends Map<K, V>> {
+
+    /**
+     * Start the processing represented by the target chain on a new thread.
+     * <p>
+     * If the in-flight limit is reached, the calling thread blocks until a running execution
+     * completes. If the calling thread is interrupted while waiting, the processing is not started
+     * and the returned future is completed with the <code>InterruptedException</code>.
+     *
+     * @param context the context processed by the target chain
+     * @return the future result of {@link Chain#execute(Map)}, completed exceptionally with the
+     *  exception thrown by the chain, if any
+     *
+     * @see Chain#execute(Map)
+     */
+    CompletableFuture<Processing> execute(C context);
+
+    /**
+     * Return the maximum number of executions in flight.
+     *
+     * @return the in-flight limit
+     */
+    int getMaxInFlight();
+
+    /**
+     * Return the number of executions currently in flight.
+     *
+     * @return the number of started and not yet completed executions
+     */
+    int getInFlight();
+
+    /**
+     * Return whether executions run on virtual threads, that is whether this executor is running
+     * on JDK 21 or later.
+     *
+     * @return <code>true</code> if executions run on virtual threads
+     */
+    boolean isVirtual();
+
+}
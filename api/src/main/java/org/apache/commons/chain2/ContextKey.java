@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Typed key of a value stored in a {@link Context} supporting typed
+ * keys.  Every key is registered under a unique name, and given the next
+ * free ordinal, which such a context uses as the index of the value in an
+ * array: reading or writing the value then involves neither hashing the
+ * key nor casting the value.</p>
+ *
+ * <p>Keys are meant to be declared once, as constants of the
+ * {@link Command}s sharing them, so that ordinals stay dense:</p>
+ *
+ * <pre>
+ * public static final ContextKey&lt;User&gt; USER =
+ *     ContextKey.of("user", User.class);
+ * </pre>
+ *
+ * <p>Ordinals depend on the order in which keys are registered, and are
+ * only meaningful within the class loader of this class.  When it is
+ * shared by several applications, such as the web applications of a
+ * container, their keys share a single registry, and therefore a single
+ * namespace: names should be qualified, for instance by a package name.
+ * The registry only references the value types weakly, so that it does
+ * not keep the class loader of an undeployed application alive; a key
+ * registered again once its previous value type has been unloaded keeps
+ * its ordinal.</p>
+ *
+ * @param <T> the type of the value stored under the key
+ *
+ * @since 2.0
+ */
+public final class ContextKey<T> {
+
+    // ----------------------------------------------------- Static Variables
+
+    /**
+     * <p>The keys registered so far, by name.  The keys only reference
+     * their value type weakly.</p>
+     */
+    private static final Map<String, ContextKey<?>> registry =
+        new HashMap<String, ContextKey<?>>();
+
+    /**
+     * <p>The number of keys in the registry, readable without locking it.</p>
+     */
+    private static volatile int registered = 0;
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final String name;
+
+    private final WeakReference<Class<T>> type;
+
+    private final int ordinal;
+
+    // ----------------------------------------------------------- Constructors
+
+    private ContextKey(String name, Class<T> type, int ordinal) {
+        this.name = name;
+        this.type = new WeakReference<Class<T>>(type);
+        this.ordinal = ordinal;
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Return the key registered under the specified name, registering
+     * it first if needed.</p>
+     *
+     * @param <T> the type of the value stored under the key
+     * @param name The name of the key
+     * @param type The type of the value stored under the key
+     * @return The key
+     * @throws IllegalArgumentException if <code>name</code> or
+     *  <code>type</code> is <code>null</code>, or if a key with another
+     *  value type is registered under <code>name</code>
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ContextKey<T> of(String name, Class<T> type) {
+        if (name == null || type == null) {
+            throw new IllegalArgumentException("Key name and type are required");
+        }
+        synchronized (registry) {
+            ContextKey<?> key = registry.get(name);
+            if (key == null) {
+                key = new ContextKey<T>(name, type, registered);
+                registry.put(name, key);
+                registered++;
+            } else {
+                Class<?> registeredType = key.type.get();
+                if (registeredType == null) {
+                    // The previous value type has been unloaded
+                    key = new ContextKey<T>(name, type, key.ordinal);
+                    registry.put(name, key);
+                } else if (registeredType != type) {
+                    throw new IllegalArgumentException("Key '" + name + "' is registered with type "
+                            + registeredType.getName() + ", not " + type.getName());
+                }
+            }
+            return (ContextKey<T>) key;
+        }
+    }
+
+    /**
+     * <p>Return the number of keys registered so far, which is greater
+     * than the ordinal of any of them.</p>
+     *
+     * @return The number of keys
+     */
+    public static int count() {
+        return registered;
+    }
+
+    /**
+     * <p>Return the name of this key.</p>
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * <p>Return the type of the value stored under this key.</p>
+     *
+     * @return The value type, or <code>null</code> if it has been unloaded
+     */
+    public Class<T> getType() {
+        return type.get();
+    }
+
+    /**
+     * <p>Return the ordinal of this key, unique among the keys registered
+     * in the class loader of this class.</p>
+     *
+     * @return The ordinal, from <code>0</code>
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * <p>Describe this key.</p>
+     *
+     * @return The name and value type of the key
+     */
+    @Override
+    public String toString() {
+        Class<T> valueType = type.get();
+        return "ContextKey[" + name + ": " + (valueType == null ? "?" : valueType.getName()) + "]";
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Point in time by which the execution of a {@link Context} must be
+ * over, and cancellation token of that execution.  A deadline is stored
+ * in the {@link Context} under the reserved {@link #KEY}, so that every
+ * {@link Command} processing the context, in nested chains or looked up
+ * from a {@link Catalog} included, shares the remaining budget.</p>
+ *
+ * <p>Chains check the deadline between their commands, and end with a
+ * {@link DeadlineExceededException} once it has expired or been
+ * cancelled, after postprocessing their {@link Filter}s as for any other
+ * exception.  Long-running commands poll it with {@link #isExpired()} or
+ * {@link #check()} to stop early.</p>
+ *
+ * <p>A deadline may be derived from a parent deadline with a tighter
+ * timeout, for instance by a chain with a timeout of its own: the
+ * derived deadline expires no later than its parent, and is cancelled
+ * with it.</p>
+ *
+ * @since 2.0
+ */
+public final class Deadline {
+
+    // ----------------------------------------------------- Manifest Constants
+
+    /**
+     * <p>The context key of the deadline of the current execution.</p>
+     */
+    public static final String KEY = "org.apache.commons.chain2.Deadline";
+
+    // ------------------------------------------------------- Static Variables
+
+    /**
+     * <p>Whether a deadline was ever created.</p>
+     */
+    private static volatile boolean used = false;
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The point in time, as a <code>System.nanoTime()</code> value.</p>
+     */
+    private final long expiresAt;
+
+    private final Deadline parent;
+
+    private volatile boolean cancelled = false;
+
+    // ----------------------------------------------------------- Constructors
+
+    private Deadline(long expiresAt, Deadline parent) {
+        this.expiresAt = expiresAt;
+        this.parent = parent;
+        if (!used) {
+            used = true;
+        }
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Create a deadline expiring after the specified timeout.</p>
+     *
+     * @param timeout The timeout
+     * @param unit The unit of <code>timeout</code>
+     * @return The new deadline
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout), null);
+    }
+
+    /**
+     * <p>Create a deadline expiring after the specified timeout, or with
+     * this deadline if it expires earlier, and cancelled with this
+     * deadline.</p>
+     *
+     * @param timeout The timeout
+     * @param unit The unit of <code>timeout</code>
+     * @return The derived deadline
+     */
+    public Deadline derive(long timeout, TimeUnit unit) {
+        long candidate = System.nanoTime() + unit.toNanos(timeout);
+        return new Deadline(candidate - expiresAt < 0L ? candidate : expiresAt, this);
+    }
+
+    /**
+     * <p>Return whether a deadline was ever created.  Until one is, no
+     * context holds a deadline, so that executions may skip looking it
+     * up.</p>
+     *
+     * @return <code>true</code> once a deadline was created
+     */
+    public static boolean isUsed() {
+        return used;
+    }
+
+    /**
+     * <p>Return the deadline stored in the specified context.</p>
+     *
+     * @param context The context
+     * @return The deadline, or <code>null</code> if the execution is not
+     *  bounded
+     */
+    public static Deadline get(Map<?, ?> context) {
+        return (Deadline) context.get(KEY);
+    }
+
+    /**
+     * <p>Store the specified deadline in the specified context.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param context The context
+     * @param deadline The deadline, or <code>null</code> to remove the
+     *  deadline of the context
+     * @return The deadline previously stored, if any
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Deadline put(Map<K, V> context, Deadline deadline) {
+        if (deadline == null) {
+            return (Deadline) context.remove(KEY);
+        }
+        return (Deadline) context.put((K) KEY, (V) deadline);
+    }
+
+    /**
+     * <p>Return the time left before this deadline expires.</p>
+     *
+     * @param unit The unit of the returned value
+     * @return The remaining time, negative once expired
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * <p>Cancel the execution bounded by this deadline, and by the
+     * deadlines derived from it.</p>
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * <p>Return <code>true</code> if this deadline, or its parent, has
+     * been cancelled.</p>
+     *
+     * @return <code>true</code> if the execution is cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * <p>Return <code>true</code> if this deadline has passed, or has been
+     * cancelled.</p>
+     *
+     * @return <code>true</code> if the execution must stop
+     */
+    public boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0L || isCancelled();
+    }
+
+    /**
+     * <p>Throw a {@link DeadlineExceededException} if this deadline has
+     * passed, or has been cancelled.</p>
+     *
+     * @throws DeadlineExceededException if the execution must stop
+     */
+    public void check() {
+        if (isExpired()) {
+            throw new DeadlineExceededException(this);
+        }
+    }
+
+    /**
+     * <p>Describe this deadline.</p>
+     *
+     * @return A description of the remaining time
+     */
+    @Override
+    public String toString() {
+        if (isCancelled()) {
+            return "Deadline[cancelled]";
+        }
+        return "Deadline[" + remaining(TimeUnit.MILLISECONDS) + " ms]";
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runtime Exception ending an execution whose {@link Deadline} has passed
+ * or has been cancelled.
+ *
+ * @since 2.0
+ */
+public class DeadlineExceededException extends ChainException {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 20261018L;
+
+    /**
+     * The deadline that was exceeded.
+     */
+    private final transient Deadline deadline;
+
+    /**
+     * Create an exception reporting the specified deadline.
+     * @param deadline The deadline that was exceeded
+     */
+    public DeadlineExceededException(Deadline deadline) {
+        super(message(deadline));
+        this.deadline = deadline;
+    }
+
+    /**
+     * Create an exception reporting the specified deadline, with references
+     * to the {@link Context} and to the {@link Command} that was about to
+     * be executed.
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the context associated with this command
+     * @param deadline The deadline that was exceeded
+     * @param context The Context object being processed
+     * @param failedCommand The Command object that was not executed
+     */
+    public <K, V, C extends Map<K, V>> DeadlineExceededException(Deadline deadline,
+                                                                 C context, Command<K, V, C> failedCommand) {
+        super(message(deadline), null, context, failedCommand);
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return The deadline that was exceeded, or <code>null</code> if this
+     * exception was deserialized.
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    private static String message(Deadline deadline) {
+        if (deadline.isCancelled()) {
+            return "Execution cancelled";
+        }
+        return "Deadline exceeded by " + -deadline.remaining(TimeUnit.MILLISECONDS) + " ms";
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the threads of {@link ConcurrentChainExecutor}s.
+ * <p>
+ * This is the Java 8 implementation, creating platform daemon threads; the multi-release jar
+ * replaces it on JDK 21 and later with an implementation creating virtual threads.
+ *
+ * @since 2.0
+ */
+final class ExecutionThreads {
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    /**
+     * Private constructor, this class cannot be instantiated directly.
+     */
+    private ExecutionThreads() {
+        // do nothing
+    }
+
+    /**
+     * Create an unstarted thread running the specified task.
+     *
+     * @param task the task to run
+     * @return the new thread
+     */
+    static Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "commons-chain2-" + COUNTER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Return whether the created threads are virtual threads.
+     *
+     * @return <code>false</code>
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+
+}
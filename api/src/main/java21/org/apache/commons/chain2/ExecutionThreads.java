@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads of {@link ConcurrentChainExecutor}s.
+ * <p>
+ * This is the JDK 21 implementation, creating virtual threads.
+ *
+ * @since 2.0
+ */
+final class ExecutionThreads {
+
+    private static final ThreadFactory FACTORY = Thread.ofVirtual().name("commons-chain2-", 0).factory();
+
+    /**
+     * Private constructor, this class cannot be instantiated directly.
+     */
+    private ExecutionThreads() {
+        // do nothing
+    }
+
+    /**
+     * Create an unstarted thread running the specified task.
+     *
+     * @param task the task to run
+     * @return the new thread
+     */
+    static Thread newThread(Runnable task) {
+        return FACTORY.newThread(task);
+    }
+
+    /**
+     * Return whether the created threads are virtual threads.
+     *
+     * @return <code>true</code>
+     */
+    static boolean isVirtual() {
+        return true;
+    }
+
+}
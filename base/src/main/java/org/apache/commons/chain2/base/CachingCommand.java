@@ -0,0 +1,520 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
+import org.apache.commons.chain2.Processing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Memoize the result of an idempotent delegate, whose outcome only
+ * depends on the values of a few context attributes: the <code>keys</code>.
+ * The first execution for given key values executes the delegate, and
+ * captures its {@link Processing} result and the values it stored under
+ * the <code>outputKeys</code>.  Later executions for the same key values
+ * store the captured values into the context and return the captured
+ * result, without executing the delegate.</p>
+ *
+ * <p>Concurrent executions for the same key values while the delegate
+ * executes wait for its outcome instead of executing it again.  If it
+ * fails, nothing is cached, and one of the waiting executions executes the
+ * delegate in turn.  A waiting execution gives up when the {@link Deadline}
+ * of its context expires, or when its thread is interrupted; an execution
+ * for the same key values on the thread executing the delegate, which
+ * would wait for itself, fails at once.</p>
+ *
+ * <p>The cache holds at most <code>maxSize</code> entries, evicting the
+ * least recently used ones beyond that, and forgets entries older than
+ * <code>timeToLive</code> milliseconds, if positive.  Output keys the
+ * delegate did not set are left untouched on a cache hit.</p>
+ *
+ * <p>The delegate is set through the <code>command</code> property, or
+ * looked up as configured by the properties inherited from
+ * {@link LookupCommand}.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public class CachingCommand<K, V, C extends Map<K, V>> extends DecoratingCommand<K, V, C> {
+
+    // -------------------------------------------------------------- Constructors
+
+    /**
+     * Create an instance looking up its delegate in the
+     * <code>CatalogFactory.getInstance()</code> catalogs, unless the
+     * <code>command</code> property is set.
+     */
+    public CachingCommand() {
+        super();
+    }
+
+    /**
+     * Create an instance looking up its delegate in the catalogs of the
+     * given <code>factory</code>, unless the <code>command</code> property
+     * is set.
+     *
+     * @param factory The Catalog Factory.
+     */
+    public CachingCommand(CatalogFactory<K, V, C> factory) {
+        super(factory);
+    }
+
+    // ------------------------------------------------------- Static Variables
+
+    private static final String[] NO_KEYS = new String[0];
+
+    /**
+     * <p>Orders cache entries from the least to the most recently used.</p>
+     */
+    private static final Comparator<Map.Entry<?, Entry>> LEAST_RECENTLY_USED = new Comparator<Map.Entry<?, Entry>>() {
+        public int compare(Map.Entry<?, Entry> a, Map.Entry<?, Entry> b) {
+            long x = a.getValue().lastAccess;
+            long y = b.getValue().lastAccess;
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The cached entries, by key values.</p>
+     */
+    private final ConcurrentHashMap<CacheKey, Entry> entries = new ConcurrentHashMap<CacheKey, Entry>();
+
+    /**
+     * <p>Logical clock ordering the accesses to the entries.</p>
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * <p>Lock held by the thread evicting entries.</p>
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    // -------------------------------------------------------------- Properties
+
+    private String[] keys = NO_KEYS;
+
+    private String[] outputKeys = NO_KEYS;
+
+    private int maxSize = 1000;
+
+    private long timeToLive = 0L;
+
+    /**
+     * <p>Return the context keys whose values identify a cache entry.</p>
+     *
+     * @return The comma-separated keys
+     */
+    public String getKeys() {
+        return join(keys);
+    }
+
+    /**
+     * <p>Set the context keys whose values identify a cache entry.</p>
+     *
+     * @param keys The comma-separated keys
+     */
+    public void setKeys(String keys) {
+        this.keys = split(keys);
+    }
+
+    /**
+     * <p>Return the context keys whose values are captured after the
+     * execution of the delegate, and restored on a cache hit.</p>
+     *
+     * @return The comma-separated keys
+     */
+    public String getOutputKeys() {
+        return join(outputKeys);
+    }
+
+    /**
+     * <p>Set the context keys whose values are captured after the
+     * execution of the delegate, and restored on a cache hit.</p>
+     *
+     * @param outputKeys The comma-separated keys
+     */
+    public void setOutputKeys(String outputKeys) {
+        this.outputKeys = split(outputKeys);
+    }
+
+    /**
+     * <p>Return the maximum number of cached entries.</p>
+     *
+     * @return The maximum number of entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * <p>Set the maximum number of cached entries; the least recently used
+     * entries are evicted beyond that.</p>
+     *
+     * @param maxSize The maximum number of entries
+     *
+     * @throws IllegalArgumentException if <code>maxSize</code> is not
+     *  positive
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("'maxSize' parameter must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * <p>Return the time to live of the cached entries.</p>
+     *
+     * @return The time to live in milliseconds, or <code>0</code> if
+     *  entries do not expire
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * <p>Set the time to live of the cached entries.</p>
+     *
+     * @param timeToLive The time to live in milliseconds, or <code>0</code>
+     *  if entries do not expire
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = Math.max(0L, timeToLive);
+    }
+
+    /**
+     * <p>Return the number of executions served from the cache, waiting
+     * for a concurrent execution of the delegate included.</p>
+     *
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * <p>Return the number of executions that executed the delegate.</p>
+     *
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * <p>Return the number of entries evicted because the cache was
+     * full.</p>
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * <p>Return the number of cached entries, entries being computed
+     * included.</p>
+     *
+     * @return The number of entries
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Restore the outcome cached for the key values of the context, or
+     * else execute the delegate and cache its outcome.</p>
+     *
+     * @param context The context for this request
+     * @return The result of the delegate, cached or not
+     */
+    @Override
+    public Processing execute(C context) {
+        CacheKey key = new CacheKey(context, keys);
+        for (;;) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                Entry loading = new Entry();
+                entry = entries.putIfAbsent(key, loading);
+                if (entry == null) {
+                    misses.increment();
+                    return load(key, loading, context);
+                }
+            }
+            if (!await(entry, context) || entry.isExpired(System.nanoTime())) {
+                // Failed or expired: compute it again
+                entries.remove(key, entry);
+                continue;
+            }
+            hits.increment();
+            entry.lastAccess = clock.incrementAndGet();
+            restore(entry, context);
+            return entry.result;
+        }
+    }
+
+    /**
+     * <p>Forget all cached entries.</p>
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Execute the delegate and cache its outcome, unless it fails.</p>
+     */
+    private Processing load(CacheKey key, Entry entry, C context) {
+        Processing result = null;
+        try {
+            result = executeDelegate(context);
+        } finally {
+            if (result == null) {
+                entries.remove(key, entry);
+                entry.fail();
+            } else {
+                Object[] outputs = new Object[outputKeys.length];
+                for (int i = 0; i < outputKeys.length; i++) {
+                    outputs[i] = context.get(outputKeys[i]);
+                }
+                long expiresAt = timeToLive > 0L ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLive) : 0L;
+                entry.lastAccess = clock.incrementAndGet();
+                entry.complete(result, outputs, expiresAt);
+            }
+        }
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return result;
+    }
+
+    /**
+     * <p>Wait for the completion of the specified entry, at most until the
+     * {@link Deadline} of the context expires.</p>
+     *
+     * @return <code>true</code> if the delegate executed successfully
+     * @throws IllegalStateException if the entry is being computed by the
+     *  current thread
+     * @throws DeadlineExceededException if the deadline expires first
+     * @throws ChainException if the current thread is interrupted
+     */
+    private boolean await(Entry entry, C context) {
+        if (entry.isDone()) {
+            return !entry.failed;
+        }
+        if (entry.owner == Thread.currentThread()) {
+            throw new IllegalStateException("Reentrant execution of the delegate for the same key values");
+        }
+        Deadline deadline = Deadline.isUsed() ? Deadline.get(context) : null;
+        try {
+            if (deadline == null) {
+                entry.completion.await();
+            } else if (!entry.completion.await(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+                throw new DeadlineExceededException(deadline, context, this);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChainException("Interrupted while waiting for the cached outcome", e, context, this);
+        }
+        return !entry.failed;
+    }
+
+    /**
+     * <p>Store the captured output values into the context.</p>
+     */
+    @SuppressWarnings("unchecked")
+    private void restore(Entry entry, C context) {
+        Object[] outputs = entry.outputs;
+        for (int i = 0; i < outputKeys.length; i++) {
+            if (outputs[i] != null) {
+                context.put((K) outputKeys[i], (V) outputs[i]);
+            }
+        }
+    }
+
+    /**
+     * <p>Evict the expired entries, then the least recently used ones,
+     * down to 90% of <code>maxSize</code> so that evictions are batched.
+     * Executions never wait for an eviction in progress.</p>
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            List<Map.Entry<CacheKey, Entry>> completed = new ArrayList<Map.Entry<CacheKey, Entry>>(entries.size());
+            for (Map.Entry<CacheKey, Entry> candidate : entries.entrySet()) {
+                Entry entry = candidate.getValue();
+                if (entry.isCompleted()) {
+                    if (entry.isExpired(now)) {
+                        entries.remove(candidate.getKey(), entry);
+                    } else {
+                        completed.add(candidate);
+                    }
+                }
+            }
+            int excess = entries.size() - (maxSize - maxSize / 10);
+            if (excess <= 0) {
+                return;
+            }
+            Collections.sort(completed, LEAST_RECENTLY_USED);
+            for (int i = 0; i < excess && i < completed.size(); i++) {
+                Map.Entry<CacheKey, Entry> victim = completed.get(i);
+                if (entries.remove(victim.getKey(), victim.getValue())) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static String[] split(String keys) {
+        if (keys == null || keys.trim().length() == 0) {
+            return NO_KEYS;
+        }
+        String[] split = keys.split(",");
+        for (int i = 0; i < split.length; i++) {
+            split[i] = split[i].trim();
+        }
+        return split;
+    }
+
+    private static String join(String[] keys) {
+        StringBuilder joined = new StringBuilder();
+        for (String key : keys) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(key);
+        }
+        return joined.toString();
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>The values of the <code>keys</code> in a context.</p>
+     */
+    private static final class CacheKey {
+
+        private final Object[] values;
+
+        private final int hash;
+
+        CacheKey(Map<?, ?> context, String[] keys) {
+            values = new Object[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = context.get(keys[i]);
+            }
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CacheKey && hash == ((CacheKey) obj).hash
+                    && Arrays.equals(values, ((CacheKey) obj).values);
+        }
+
+    }
+
+    /**
+     * <p>A cache entry, completed once the delegate has executed.</p>
+     */
+    private static final class Entry {
+
+        private final CountDownLatch completion = new CountDownLatch(1);
+
+        /**
+         * <p>The thread executing the delegate, until it completes.</p>
+         */
+        private volatile Thread owner = Thread.currentThread();
+
+        private volatile boolean failed;
+
+        private Processing result;
+
+        private Object[] outputs;
+
+        private long expiresAt;
+
+        private volatile long lastAccess;
+
+        void complete(Processing result, Object[] outputs, long expiresAt) {
+            this.result = result;
+            this.outputs = outputs;
+            this.expiresAt = expiresAt;
+            owner = null;
+            completion.countDown();
+        }
+
+        void fail() {
+            failed = true;
+            owner = null;
+            completion.countDown();
+        }
+
+        boolean isCompleted() {
+            return isDone() && !failed;
+        }
+
+        boolean isDone() {
+            return completion.getCount() == 0;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0L && now - expiresAt >= 0L;
+        }
+
+    }
+
+}
@@ -0,0 +1,593 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Processing;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Stop executing a delegate that keeps failing or responding slowly,
+ * so that executions return immediately during an outage instead of
+ * waiting for it.</p>
+ *
+ * <p>The breaker is initially {@link State#CLOSED}: it executes the
+ * delegate, and records the outcome of the last <code>windowSize</code>
+ * executions.  An execution fails if the delegate throws an exception,
+ * and is slow if it lasts more than <code>slowCallDuration</code>
+ * milliseconds, when positive.  Once the window holds at least
+ * <code>minimumCalls</code> outcomes, and the percentage of failed
+ * executions reaches the <code>failureRateThreshold</code> or the
+ * percentage of slow executions reaches the
+ * <code>slowCallRateThreshold</code>, the breaker opens.</p>
+ *
+ * <p>While {@link State#OPEN}, the breaker does not execute the delegate:
+ * it executes the command named <code>fallback</code> in the catalog of
+ * the delegate, if any, or else throws a {@link RejectedCommandException}.
+ * After <code>openDuration</code> milliseconds, the breaker becomes
+ * {@link State#HALF_OPEN}: it lets <code>halfOpenCalls</code> trial
+ * executions through, and short-circuits the others.  Once the trials
+ * completed, the breaker closes if their rates are below the thresholds,
+ * and opens again otherwise.</p>
+ *
+ * <p>The outcomes of the executions are recorded without locking while
+ * the breaker is closed; only the state transitions and the half open
+ * trials are serialized.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public class CircuitBreakerCommand<K, V, C extends Map<K, V>> extends DecoratingCommand<K, V, C> {
+
+    /**
+     * <p>The states of a {@link CircuitBreakerCommand}.</p>
+     */
+    public enum State {
+
+        /**
+         * The delegate is executed.
+         */
+        CLOSED,
+
+        /**
+         * The delegate is not executed.
+         */
+        OPEN,
+
+        /**
+         * A few trial executions of the delegate decide whether the
+         * breaker closes.
+         */
+        HALF_OPEN;
+
+    }
+
+    // -------------------------------------------------------------- Constructors
+
+    /**
+     * Create an instance looking up its delegate in the
+     * <code>CatalogFactory.getInstance()</code> catalogs, unless the
+     * <code>command</code> property is set.
+     */
+    public CircuitBreakerCommand() {
+        super();
+    }
+
+    /**
+     * Create an instance looking up its delegate in the catalogs of the
+     * given <code>factory</code>, unless the <code>command</code> property
+     * is set.
+     *
+     * @param factory The Catalog Factory.
+     */
+    public CircuitBreakerCommand(CatalogFactory<K, V, C> factory) {
+        super(factory);
+    }
+
+    // ------------------------------------------------------- Static Variables
+
+    private static final int FAILED = 1;
+
+    private static final int SLOW = 2;
+
+    /**
+     * <p>Marks the slots of a window holding an outcome.</p>
+     */
+    private static final int RECORDED = 4;
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>Guards the state transitions and the half open trials.</p>
+     */
+    private final Object lock = new Object();
+
+    private volatile State state = State.CLOSED;
+
+    /**
+     * <p>When the breaker last opened, in nanoseconds.</p>
+     */
+    private volatile long openedAt;
+
+    /**
+     * <p>The outcomes of the last executions in the current state;
+     * allocated on first use, and replaced on every transition.</p>
+     */
+    private volatile Window window = null;
+
+    /**
+     * <p>Trial executions let through while half open.</p>
+     */
+    private int trials = 0;
+
+    private final LongAdder shortCircuited = new LongAdder();
+
+    // -------------------------------------------------------------- Properties
+
+    private int windowSize = 100;
+
+    private int minimumCalls = 10;
+
+    private double failureRateThreshold = 50.0;
+
+    private long slowCallDuration = 0L;
+
+    private double slowCallRateThreshold = 100.0;
+
+    private long openDuration = 30000L;
+
+    private int halfOpenCalls = 5;
+
+    private String fallback = null;
+
+    /**
+     * <p>Return the number of executions whose outcome is recorded.</p>
+     *
+     * @return The size of the sliding window
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * <p>Set the number of executions whose outcome is recorded.</p>
+     *
+     * @param windowSize The size of the sliding window
+     *
+     * @throws IllegalArgumentException if <code>windowSize</code> is not
+     *  positive
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("'windowSize' parameter must be positive");
+        }
+        synchronized (lock) {
+            this.windowSize = windowSize;
+            reset();
+        }
+    }
+
+    /**
+     * <p>Return the number of recorded outcomes needed to open the
+     * breaker.</p>
+     *
+     * @return The minimum number of executions
+     */
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * <p>Set the number of recorded outcomes needed to open the
+     * breaker.</p>
+     *
+     * @param minimumCalls The minimum number of executions
+     */
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = Math.max(1, minimumCalls);
+    }
+
+    /**
+     * <p>Return the percentage of failed executions opening the
+     * breaker.</p>
+     *
+     * @return The failure rate threshold
+     */
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * <p>Set the percentage of failed executions opening the breaker.</p>
+     *
+     * @param failureRateThreshold The failure rate threshold
+     *
+     * @throws IllegalArgumentException unless
+     *  <code>0 &lt; failureRateThreshold &lt;= 100</code>
+     */
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        if (!(failureRateThreshold > 0.0 && failureRateThreshold <= 100.0)) {
+            throw new IllegalArgumentException("'failureRateThreshold' parameter must be in ]0, 100]");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * <p>Return the duration beyond which an execution is slow.</p>
+     *
+     * @return The duration in milliseconds, or <code>0</code> if slow
+     *  executions are not tracked
+     */
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * <p>Set the duration beyond which an execution is slow.</p>
+     *
+     * @param slowCallDuration The duration in milliseconds, or
+     *  <code>0</code> not to track slow executions
+     */
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = Math.max(0L, slowCallDuration);
+    }
+
+    /**
+     * <p>Return the percentage of slow executions opening the
+     * breaker.</p>
+     *
+     * @return The slow call rate threshold
+     */
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * <p>Set the percentage of slow executions opening the breaker.</p>
+     *
+     * @param slowCallRateThreshold The slow call rate threshold
+     *
+     * @throws IllegalArgumentException unless
+     *  <code>0 &lt; slowCallRateThreshold &lt;= 100</code>
+     */
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        if (!(slowCallRateThreshold > 0.0 && slowCallRateThreshold <= 100.0)) {
+            throw new IllegalArgumentException("'slowCallRateThreshold' parameter must be in ]0, 100]");
+        }
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * <p>Return the time the breaker stays open before trial
+     * executions.</p>
+     *
+     * @return The time in milliseconds
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * <p>Set the time the breaker stays open before trial
+     * executions.</p>
+     *
+     * @param openDuration The time in milliseconds
+     */
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = Math.max(0L, openDuration);
+    }
+
+    /**
+     * <p>Return the number of trial executions while half open.</p>
+     *
+     * @return The number of trial executions
+     */
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * <p>Set the number of trial executions while half open.</p>
+     *
+     * @param halfOpenCalls The number of trial executions
+     */
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+    }
+
+    /**
+     * <p>Return the name of the command executed instead of the delegate
+     * while the breaker is open.</p>
+     *
+     * @return The name of the fallback command
+     */
+    public String getFallback() {
+        return fallback;
+    }
+
+    /**
+     * <p>Set the name of the command executed instead of the delegate
+     * while the breaker is open, looked up in the catalog named by
+     * <code>catalogName</code>, or in the default catalog.</p>
+     *
+     * @param fallback The name of the fallback command, or
+     *  <code>null</code> to fail instead
+     */
+    public void setFallback(String fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * <p>Return the current state of the breaker.</p>
+     *
+     * @return The state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * <p>Return the percentage of failed executions in the window.</p>
+     *
+     * @return The failure rate, or <code>0</code> if the window is empty
+     */
+    public double getFailureRate() {
+        Window current = this.window;
+        return current == null ? 0.0 : current.getFailureRate();
+    }
+
+    /**
+     * <p>Return the percentage of slow executions in the window.</p>
+     *
+     * @return The slow call rate, or <code>0</code> if the window is empty
+     */
+    public double getSlowCallRate() {
+        Window current = this.window;
+        return current == null ? 0.0 : current.getSlowCallRate();
+    }
+
+    /**
+     * <p>Return the number of executions that did not execute the
+     * delegate.</p>
+     *
+     * @return The number of short-circuited executions
+     */
+    public long getShortCircuitedCount() {
+        return shortCircuited.sum();
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Execute the delegate, unless the breaker is open.</p>
+     *
+     * @param context The context for this request
+     * @return The result of the delegate, or of the fallback command
+     *
+     * @throws RejectedCommandException if the breaker is open and no
+     *  fallback is configured
+     */
+    @Override
+    public Processing execute(C context) {
+        if (!tryAcquirePermission()) {
+            shortCircuited.increment();
+            return executeFallback(context);
+        }
+        long start = nanoTime();
+        boolean failed = true;
+        try {
+            Processing result = executeDelegate(context);
+            failed = false;
+            return result;
+        } finally {
+            record(failed, nanoTime() - start);
+        }
+    }
+
+    /**
+     * <p>Close the breaker and forget the recorded outcomes.</p>
+     */
+    public void reset() {
+        synchronized (lock) {
+            transition(State.CLOSED);
+        }
+    }
+
+    // ------------------------------------------------------ Protected Methods
+
+    /**
+     * <p>Execute the fallback command, or else reject the execution.</p>
+     *
+     * @param context The context for this request
+     * @return The result of the fallback command
+     *
+     * @throws RejectedCommandException if no fallback is configured
+     */
+    protected Processing executeFallback(C context) {
+        String name = this.fallback;
+        if (name == null) {
+            throw new RejectedCommandException("Circuit breaker is " + state, context, this);
+        }
+        Command<K, V, C> command = getCatalog(context).getCommand(name);
+        if (command == null) {
+            throw new IllegalArgumentException("Cannot find fallback command '" + name + "'");
+        }
+        return command.execute(context);
+    }
+
+    /**
+     * <p>Return the current value of the time source, in nanoseconds.</p>
+     *
+     * @return <code>System.nanoTime()</code>
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    private boolean tryAcquirePermission() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (lock) {
+            if (state == State.OPEN) {
+                if (nanoTime() - openedAt < TimeUnit.MILLISECONDS.toNanos(openDuration)) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (trials >= halfOpenCalls) {
+                    return false;
+                }
+                trials++;
+            }
+            return true;
+        }
+    }
+
+    private void record(boolean failed, long duration) {
+        int outcome = failed ? FAILED : 0;
+        if (slowCallDuration > 0L && duration > TimeUnit.MILLISECONDS.toNanos(slowCallDuration)) {
+            outcome |= SLOW;
+        }
+        Window current = this.window;
+        if (state != State.CLOSED || current == null) {
+            synchronized (lock) {
+                if (state == State.OPEN) {
+                    // Started before the breaker opened
+                    return;
+                }
+                if (window == null) {
+                    window = new Window(state == State.HALF_OPEN ? halfOpenCalls : windowSize);
+                }
+                current = window;
+                if (state == State.HALF_OPEN) {
+                    current.record(outcome);
+                    if (current.isFull()) {
+                        transition(exceedsThresholds(current) ? State.OPEN : State.CLOSED);
+                    }
+                    return;
+                }
+            }
+        }
+        current.record(outcome);
+        if (current.getCalls() >= minimumCalls && exceedsThresholds(current)) {
+            synchronized (lock) {
+                // Unless another execution already left this window
+                if (window == current) {
+                    transition(State.OPEN);
+                }
+            }
+        }
+    }
+
+    private boolean exceedsThresholds(Window current) {
+        return current.getFailureRate() >= failureRateThreshold
+                || (slowCallDuration > 0L && current.getSlowCallRate() >= slowCallRateThreshold);
+    }
+
+    /**
+     * <p>Enter the specified state with an empty window.  Must be called
+     * with the lock held.</p>
+     */
+    private void transition(State target) {
+        window = null;
+        trials = 0;
+        if (target == State.OPEN) {
+            openedAt = nanoTime();
+        }
+        state = target;
+    }
+
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>Sliding window of execution outcomes, recorded without locking:
+     * each execution claims the next slot of the ring, and replaces the
+     * outcome it held in the counters.</p>
+     */
+    private static final class Window {
+
+        /**
+         * <p>The outcomes, as combinations of <code>FAILED</code> and
+         * <code>SLOW</code> marked <code>RECORDED</code>, or
+         * <code>0</code> for a free slot.</p>
+         */
+        private final AtomicIntegerArray outcomes;
+
+        private final AtomicLong next = new AtomicLong();
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private final AtomicInteger slowCalls = new AtomicInteger();
+
+        Window(int size) {
+            outcomes = new AtomicIntegerArray(size);
+        }
+
+        void record(int outcome) {
+            int slot = (int) (next.getAndIncrement() % outcomes.length());
+            int evicted = outcomes.getAndSet(slot, outcome | RECORDED);
+            if (evicted == 0) {
+                calls.incrementAndGet();
+            }
+            int failed = (outcome & FAILED) - (evicted & FAILED);
+            if (failed != 0) {
+                failures.addAndGet(failed);
+            }
+            int slow = ((outcome & SLOW) - (evicted & SLOW)) >> 1;
+            if (slow != 0) {
+                slowCalls.addAndGet(slow);
+            }
+        }
+
+        int getCalls() {
+            return calls.get();
+        }
+
+        boolean isFull() {
+            return calls.get() == outcomes.length();
+        }
+
+        double getFailureRate() {
+            int recorded = calls.get();
+            return recorded == 0 ? 0.0 : 100.0 * failures.get() / recorded;
+        }
+
+        double getSlowCallRate() {
+            int recorded = calls.get();
+            return recorded == 0 ? 0.0 : 100.0 * slowCalls.get() / recorded;
+        }
+
+    }
+
+}
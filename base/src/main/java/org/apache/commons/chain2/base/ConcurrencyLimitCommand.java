@@ -0,0 +1,366 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.Catalog;
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Processing;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Bound the number of concurrent executions of a delegate, so that a
+ * slow delegate cannot hold every request thread.  The bound adapts to
+ * the latency of the delegate, as described by
+ * {@link ConcurrencyLimiter}.</p>
+ *
+ * <p>Once the limit is reached, an execution waits at most
+ * <code>maxWait</code> milliseconds for another one to complete, then
+ * fails with a {@link RejectedCommandException}.  With the default
+ * <code>maxWait</code> of <code>0</code>, it fails immediately.</p>
+ *
+ * <p>When the delegate is looked up, each command name gets a limiter of
+ * its own, so that with a <code>nameKey</code> a single instance limits
+ * every looked up command separately.  The limiters are created once the
+ * command is found, with the properties of this command, which should
+ * therefore be configured before the first execution.  The limits must
+ * satisfy <code>0 &lt; minLimit &lt;= initialLimit &lt;= maxLimit</code>;
+ * each setter rejects a non-positive limit, and the creation of a limiter
+ * rejects limits out of order.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public class ConcurrencyLimitCommand<K, V, C extends Map<K, V>> extends DecoratingCommand<K, V, C> {
+
+    // -------------------------------------------------------------- Constructors
+
+    /**
+     * Create an instance looking up its delegate in the
+     * <code>CatalogFactory.getInstance()</code> catalogs, unless the
+     * <code>command</code> property is set.
+     */
+    public ConcurrencyLimitCommand() {
+        super();
+    }
+
+    /**
+     * Create an instance looking up its delegate in the catalogs of the
+     * given <code>factory</code>, unless the <code>command</code> property
+     * is set.
+     *
+     * @param factory The Catalog Factory.
+     */
+    public ConcurrencyLimitCommand(CatalogFactory<K, V, C> factory) {
+        super(factory);
+    }
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The limiters, by command name; the delegate set directly uses
+     * the empty name.</p>
+     */
+    private final ConcurrentMap<String, ConcurrencyLimiter> limiters =
+            new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    // -------------------------------------------------------------- Properties
+
+    private int initialLimit = 20;
+
+    private int minLimit = 1;
+
+    private int maxLimit = 200;
+
+    private long maxWait = 0L;
+
+    private long latencyThreshold = 0L;
+
+    private double tolerance = 2.0;
+
+    private double backoffRatio = 0.9;
+
+    /**
+     * <p>Return the initial limit of the concurrent executions.</p>
+     *
+     * @return The initial limit
+     */
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * <p>Set the initial limit of the concurrent executions.</p>
+     *
+     * @param initialLimit The initial limit
+     *
+     * @throws IllegalArgumentException if <code>initialLimit</code> is not
+     *  positive
+     */
+    public void setInitialLimit(int initialLimit) {
+        if (initialLimit <= 0) {
+            throw new IllegalArgumentException("'initialLimit' parameter must be positive");
+        }
+        this.initialLimit = initialLimit;
+    }
+
+    /**
+     * <p>Return the smallest limit of the concurrent executions.</p>
+     *
+     * @return The smallest limit
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * <p>Set the smallest limit of the concurrent executions.</p>
+     *
+     * @param minLimit The smallest limit
+     *
+     * @throws IllegalArgumentException if <code>minLimit</code> is not
+     *  positive
+     */
+    public void setMinLimit(int minLimit) {
+        if (minLimit <= 0) {
+            throw new IllegalArgumentException("'minLimit' parameter must be positive");
+        }
+        this.minLimit = minLimit;
+    }
+
+    /**
+     * <p>Return the largest limit of the concurrent executions.</p>
+     *
+     * @return The largest limit
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * <p>Set the largest limit of the concurrent executions.</p>
+     *
+     * @param maxLimit The largest limit
+     *
+     * @throws IllegalArgumentException if <code>maxLimit</code> is not
+     *  positive
+     */
+    public void setMaxLimit(int maxLimit) {
+        if (maxLimit <= 0) {
+            throw new IllegalArgumentException("'maxLimit' parameter must be positive");
+        }
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * <p>Return the maximum time an execution waits once the limit is
+     * reached.</p>
+     *
+     * @return The time in milliseconds, <code>0</code> to fail fast
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * <p>Set the maximum time an execution waits once the limit is
+     * reached.</p>
+     *
+     * @param maxWait The time in milliseconds, <code>0</code> to fail fast
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = Math.max(0L, maxWait);
+    }
+
+    /**
+     * <p>Return the latency beyond which an execution is slow.</p>
+     *
+     * @return The latency in milliseconds, or <code>0</code> if it is
+     *  derived from the baseline latency
+     */
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    /**
+     * <p>Set the latency beyond which an execution is slow.</p>
+     *
+     * @param latencyThreshold The latency in milliseconds, or
+     *  <code>0</code> to derive it from the baseline latency
+     */
+    public void setLatencyThreshold(long latencyThreshold) {
+        this.latencyThreshold = Math.max(0L, latencyThreshold);
+    }
+
+    /**
+     * <p>Return the factor of the baseline latency beyond which an
+     * execution is slow.</p>
+     *
+     * @return The latency tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * <p>Set the factor of the baseline latency beyond which an execution
+     * is slow.</p>
+     *
+     * @param tolerance The latency tolerance
+     *
+     * @throws IllegalArgumentException if <code>tolerance</code> is less
+     *  than <code>1</code>
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance >= 1.0)) {
+            throw new IllegalArgumentException("'tolerance' parameter must be at least 1");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * <p>Return the factor applied to the limit after a slow
+     * execution.</p>
+     *
+     * @return The backoff ratio
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * <p>Set the factor applied to the limit after a slow execution.</p>
+     *
+     * @param backoffRatio The backoff ratio
+     *
+     * @throws IllegalArgumentException unless
+     *  <code>0 &lt; backoffRatio &lt; 1</code>
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (!(backoffRatio > 0.0 && backoffRatio < 1.0)) {
+            throw new IllegalArgumentException("'backoffRatio' parameter must be between 0 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Execute the delegate if a permit is available within
+     * <code>maxWait</code> milliseconds.</p>
+     *
+     * @param context The context for this request
+     * @return The result of the delegate, or {@link Processing#CONTINUE}
+     *  if an optional delegate is not found
+     *
+     * @throws RejectedCommandException if the limit was reached
+     */
+    @Override
+    public Processing execute(C context) {
+        Command<K, V, C> delegate = getCommand();
+        Catalog<K, V, C> catalog = null;
+        if (delegate == null) {
+            // Only the names of existing commands get a limiter
+            catalog = getCatalog(context);
+            delegate = getCommand(catalog, context);
+            if (delegate == null) {
+                return Processing.CONTINUE;
+            }
+        }
+        ConcurrencyLimiter limiter = getLimiter(getLimiterName(context));
+        if (!limiter.acquire(maxWait, TimeUnit.MILLISECONDS)) {
+            throw new RejectedCommandException("Concurrency limit of " + limiter.getLimit()
+                    + " reached", context, this);
+        }
+        long start = System.nanoTime();
+        try {
+            return executeDelegate(context, catalog, delegate);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * <p>Return the limiter of the specified command name, creating it if
+     * needed.</p>
+     *
+     * @param name The name of the looked up command, or the empty string
+     *  for the delegate set directly
+     * @return The limiter
+     */
+    public ConcurrencyLimiter getLimiter(String name) {
+        ConcurrencyLimiter limiter = limiters.get(name);
+        if (limiter == null) {
+            limiter = createLimiter();
+            ConcurrencyLimiter existing = limiters.putIfAbsent(name, limiter);
+            if (existing != null) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * <p>Return the limiters created so far, by command name.</p>
+     *
+     * @return An unmodifiable view of the limiters
+     */
+    public Map<String, ConcurrencyLimiter> getLimiters() {
+        return Collections.unmodifiableMap(limiters);
+    }
+
+    // ------------------------------------------------------ Protected Methods
+
+    /**
+     * <p>Return the name of the limiter the specified execution is
+     * subject to: the name of the looked up command, or the empty string
+     * for the delegate set directly.</p>
+     *
+     * @param context The context for this request
+     * @return The limiter name
+     */
+    protected String getLimiterName(C context) {
+        if (getCommand() != null) {
+            return "";
+        }
+        String name = getCommandName(context);
+        return name == null ? "" : name;
+    }
+
+    /**
+     * <p>Create a limiter configured with the properties of this
+     * command.</p>
+     *
+     * @return The new limiter
+     */
+    protected ConcurrencyLimiter createLimiter() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(initialLimit, minLimit, maxLimit);
+        limiter.setTolerance(tolerance);
+        limiter.setBackoffRatio(backoffRatio);
+        limiter.setLatencyThreshold(latencyThreshold, TimeUnit.MILLISECONDS);
+        return limiter;
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Adaptive bound on the number of executions in flight, used by
+ * {@link ConcurrencyLimitCommand}.</p>
+ *
+ * <p>The limit follows an additive increase, multiplicative decrease
+ * (AIMD) rule driven by the latency of the executions.  An execution is
+ * <em>slow</em> if its latency exceeds the <code>latencyThreshold</code>,
+ * if set, or else <code>tolerance</code> times the baseline latency: the
+ * smallest latency observed recently, approximating the latency without
+ * queueing.  Every slow execution multiplies the limit by
+ * <code>backoffRatio</code>; every other execution completing while at
+ * least half of the limit is in use adds <code>1 / limit</code> to it, so
+ * that the limit grows by about one per round of executions.  The limit
+ * stays between <code>minLimit</code> and <code>maxLimit</code>.</p>
+ *
+ * <p>Acquiring a permit when the limit is not reached, and releasing it,
+ * never lock.  Only executions waiting for a permit take a lock.</p>
+ *
+ * @since 2.0
+ */
+public class ConcurrencyLimiter {
+
+    // ------------------------------------------------------- Static Variables
+
+    /**
+     * <p>Number of executions after which the baseline latency is reset,
+     * so that it follows a drifting latency.</p>
+     */
+    private static final long BASELINE_WINDOW = 1000L;
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    /**
+     * <p>The current limit, as the bits of a <code>double</code>.</p>
+     */
+    private final AtomicLong limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * <p>The smallest latency observed in the current window, in
+     * nanoseconds.</p>
+     */
+    private final AtomicLong baseline = new AtomicLong(Long.MAX_VALUE);
+
+    private final AtomicLong samples = new AtomicLong();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private final LongAdder accepted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile double tolerance = 2.0;
+
+    private volatile double backoffRatio = 0.9;
+
+    private volatile long latencyThreshold = 0L;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a limiter.</p>
+     *
+     * @param initialLimit The initial limit
+     * @param minLimit The smallest limit
+     * @param maxLimit The largest limit
+     *
+     * @throws IllegalArgumentException unless
+     *  <code>0 &lt; minLimit &lt;= initialLimit &lt;= maxLimit</code>
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Invalid limits: initial " + initialLimit
+                    + ", min " + minLimit + ", max " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = new AtomicLong(Double.doubleToLongBits(initialLimit));
+    }
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the factor of the baseline latency beyond which an
+     * execution is slow.</p>
+     *
+     * @return The latency tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * <p>Set the factor of the baseline latency beyond which an execution
+     * is slow.</p>
+     *
+     * @param tolerance The latency tolerance
+     *
+     * @throws IllegalArgumentException if <code>tolerance</code> is less
+     *  than <code>1</code>
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance >= 1.0)) {
+            throw new IllegalArgumentException("'tolerance' parameter must be at least 1");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * <p>Return the factor applied to the limit after a slow
+     * execution.</p>
+     *
+     * @return The backoff ratio
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * <p>Set the factor applied to the limit after a slow execution.</p>
+     *
+     * @param backoffRatio The backoff ratio
+     *
+     * @throws IllegalArgumentException unless
+     *  <code>0 &lt; backoffRatio &lt; 1</code>
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (!(backoffRatio > 0.0 && backoffRatio < 1.0)) {
+            throw new IllegalArgumentException("'backoffRatio' parameter must be between 0 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * <p>Return the latency beyond which an execution is slow.</p>
+     *
+     * @param unit The unit of the returned value
+     * @return The latency threshold, or <code>0</code> if it is derived
+     *  from the baseline latency
+     */
+    public long getLatencyThreshold(TimeUnit unit) {
+        return unit.convert(latencyThreshold, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * <p>Set the latency beyond which an execution is slow.</p>
+     *
+     * @param latencyThreshold The latency threshold, or <code>0</code> to
+     *  derive it from the baseline latency
+     * @param unit The unit of <code>latencyThreshold</code>
+     */
+    public void setLatencyThreshold(long latencyThreshold, TimeUnit unit) {
+        this.latencyThreshold = Math.max(0L, unit.toNanos(latencyThreshold));
+    }
+
+    /**
+     * <p>Return the current limit.</p>
+     *
+     * @return The maximum number of executions in flight
+     */
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    /**
+     * <p>Return the number of executions in flight.</p>
+     *
+     * @return The number of permits acquired and not released
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * <p>Return the number of permits granted.</p>
+     *
+     * @return The number of accepted executions
+     */
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * <p>Return the number of permits refused.</p>
+     *
+     * @return The number of rejected executions
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Acquire a permit, waiting at most the specified time for one to
+     * be released if the limit is reached.</p>
+     *
+     * @param timeout The maximum time to wait, <code>0</code> to fail fast
+     * @param unit The unit of <code>timeout</code>
+     * @return <code>true</code> if a permit was acquired, which must then
+     *  be released
+     */
+    public boolean acquire(long timeout, TimeUnit unit) {
+        if (tryIncrement()) {
+            accepted.increment();
+            return true;
+        }
+        long remaining = unit.toNanos(timeout);
+        if (remaining <= 0L) {
+            rejected.increment();
+            return false;
+        }
+        waiters.incrementAndGet();
+        lock.lock();
+        try {
+            for (;;) {
+                if (tryIncrement()) {
+                    accepted.increment();
+                    return true;
+                }
+                if (remaining <= 0L) {
+                    rejected.increment();
+                    return false;
+                }
+                try {
+                    remaining = released.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected.increment();
+                    return false;
+                }
+            }
+        } finally {
+            lock.unlock();
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * <p>Release a permit, and adapt the limit to the latency of the
+     * execution that held it.</p>
+     *
+     * @param latency The latency of the execution, in nanoseconds
+     */
+    public void release(long latency) {
+        int current = inFlight.getAndDecrement();
+        adapt(latency, current);
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    private boolean tryIncrement() {
+        for (;;) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * <p>Apply the AIMD rule.</p>
+     *
+     * @param latency The latency of the execution, in nanoseconds
+     * @param current The number of executions in flight, this one included
+     */
+    private void adapt(long latency, int current) {
+        long threshold = latencyThreshold;
+        if (threshold == 0L) {
+            long base = updateBaseline(latency);
+            threshold = base > Long.MAX_VALUE / 4 ? Long.MAX_VALUE : (long) (base * tolerance);
+        }
+        for (;;) {
+            long bits = limit.get();
+            double value = Double.longBitsToDouble(bits);
+            double next;
+            if (latency > threshold) {
+                next = Math.max(minLimit, value * backoffRatio);
+            } else if (current * 2 >= value) {
+                next = Math.min(maxLimit, value + 1.0 / value);
+            } else {
+                return;
+            }
+            if (next == value || limit.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>Fold the latency into the baseline latency, and return it.</p>
+     */
+    private long updateBaseline(long latency) {
+        if (samples.incrementAndGet() % BASELINE_WINDOW == 0L) {
+            baseline.set(latency);
+            return latency;
+        }
+        for (;;) {
+            long base = baseline.get();
+            if (latency >= base) {
+                return base;
+            }
+            if (baseline.compareAndSet(base, latency)) {
+                return latency;
+            }
+        }
+    }
+
+}
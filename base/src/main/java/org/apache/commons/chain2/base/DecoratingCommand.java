@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.Catalog;
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * <p>Base class of the commands adding a behavior, such as caching or
+ * retrying, around the execution of another {@link Command}: the
+ * <em>delegate</em>.  The delegate is either set directly, through the
+ * <code>command</code> property, or looked up in a
+ * {@link org.apache.commons.chain2.Catalog} on every execution, as
+ * configured by the properties inherited from {@link LookupCommand}.</p>
+ *
+ * <p>Subclasses override <code>execute()</code>, and call
+ * {@link #executeDelegate(Map)} to proceed with the execution of the
+ * delegate.  The <code>postprocess()</code> method of a delegate that is a
+ * {@link Filter} is only called when the delegate was executed: not after
+ * a cache hit, a rejection or a short-circuit.  To that end, this
+ * instance remembers the contexts it executed such a delegate for, until
+ * <code>postprocess()</code>; the contexts themselves are left untouched,
+ * and only weakly referenced.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public abstract class DecoratingCommand<K, V, C extends Map<K, V>> extends LookupCommand<K, V, C> {
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The contexts this instance executed a {@link Filter} delegate for,
+     * and has not postprocessed yet.</p>
+     */
+    private final ExecutedContexts executed = new ExecutedContexts();
+
+    // -------------------------------------------------------------- Constructors
+
+    /**
+     * Create an instance looking up its delegate in the
+     * <code>CatalogFactory.getInstance()</code> catalogs, unless the
+     * <code>command</code> property is set.
+     */
+    public DecoratingCommand() {
+        super();
+    }
+
+    /**
+     * Create an instance looking up its delegate in the catalogs of the
+     * given <code>factory</code>, unless the <code>command</code> property
+     * is set.
+     *
+     * @param factory The Catalog Factory.
+     */
+    public DecoratingCommand(CatalogFactory<K, V, C> factory) {
+        super(factory);
+    }
+
+    // -------------------------------------------------------------- Properties
+
+    private Command<K, V, C> command = null;
+
+    /**
+     * <p>Return the delegate set directly, if any.</p>
+     *
+     * @return The delegate, or <code>null</code> if it is looked up
+     */
+    public Command<K, V, C> getCommand() {
+        return command;
+    }
+
+    /**
+     * <p>Set the delegate directly, instead of looking it up.</p>
+     *
+     * @param command The delegate, or <code>null</code> to look it up
+     */
+    public void setCommand(Command<K, V, C> command) {
+        this.command = command;
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Call the <code>postprocess()</code> method of the delegate, if it
+     * is a {@link Filter} and was executed by this instance.</p>
+     *
+     * @param context The context for this request
+     * @param exception Any <code>Exception</code> thrown by command execution
+     *
+     * @return the result of the <code>postprocess()</code> method of the
+     *  delegate, unless <code>ignorePostprocessResult</code> is
+     *  <code>true</code>
+     */
+    @Override
+    public boolean postprocess(C context, Exception exception) {
+        if (!executed.remove(context)) {
+            return false;
+        }
+        Command<K, V, C> delegate = this.command;
+        if (delegate == null) {
+            return super.postprocess(context, exception);
+        }
+        if (delegate instanceof Filter) {
+            boolean result = ((Filter<K, V, C>) delegate).postprocess(context, exception);
+            return !isIgnorePostprocessResult() && result;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------ Protected Methods
+
+    /**
+     * <p>Execute the delegate: the command set directly, or else the
+     * command looked up as done by {@link LookupCommand}.</p>
+     *
+     * @param context The context for this request
+     * @return The result of the delegate, or {@link Processing#CONTINUE}
+     *  if an optional delegate is not found
+     */
+    protected Processing executeDelegate(C context) {
+        Command<K, V, C> delegate = this.command;
+        Catalog<K, V, C> catalog = null;
+        if (delegate == null) {
+            catalog = getCatalog(context);
+            delegate = getCommand(catalog, context);
+            if (delegate == null) {
+                return Processing.CONTINUE;
+            }
+        }
+        return executeDelegate(context, catalog, delegate);
+    }
+
+    /**
+     * <p>Execute the specified delegate, already resolved by the
+     * caller.</p>
+     *
+     * @param context The context for this request
+     * @param catalog The catalog the delegate was looked up in, or
+     *  <code>null</code> for the delegate set directly
+     * @param delegate The delegate
+     * @return The result of the delegate
+     */
+    Processing executeDelegate(C context, Catalog<K, V, C> catalog, Command<K, V, C> delegate) {
+        if (delegate instanceof Filter) {
+            executed.add(context);
+        }
+        if (catalog != null) {
+            return executeCommand(context, catalog, delegate);
+        }
+        Processing result = delegate.execute(context);
+        return isIgnoreExecuteResult() ? Processing.CONTINUE : result;
+    }
+
+    /**
+     * <p>Execute the delegate asynchronously if it is an
+     * {@link AsyncCommand}, or else as {@link #executeDelegate(Map)} does.
+     * A looked-up delegate is resolved first, so that its actual type is
+     * tested.</p>
+     *
+     * @param context The context for this request
+     * @return A stage completing with the result of the delegate, or
+     *  {@link Processing#CONTINUE} if an optional delegate is not found
+     */
+    protected CompletionStage<Processing> executeDelegateAsync(C context) {
+        Command<K, V, C> delegate = this.command;
+        Catalog<K, V, C> catalog = null;
+        if (delegate == null) {
+            catalog = getCatalog(context);
+            delegate = getCommand(catalog, context);
+            if (delegate == null) {
+                return CompletableFuture.completedFuture(Processing.CONTINUE);
+            }
+        }
+        if (delegate instanceof Filter) {
+            executed.add(context);
+        }
+        if (!(delegate instanceof AsyncCommand)) {
+            Processing result = catalog != null
+                    ? executeCommand(context, catalog, delegate) : delegate.execute(context);
+            return CompletableFuture.completedFuture(isIgnoreExecuteResult() ? Processing.CONTINUE : result);
+        }
+        AsyncCommand<K, V, C> asyncDelegate = (AsyncCommand<K, V, C>) delegate;
+        CompletionStage<Processing> stage = catalog != null
+                ? executeCommandAsync(context, catalog, asyncDelegate) : asyncDelegate.executeAsync(context);
+        if (!isIgnoreExecuteResult()) {
+            return stage;
+        }
+        return stage.thenApply(new Function<Processing, Processing>() {
+            public Processing apply(Processing result) {
+                return Processing.CONTINUE;
+            }
+        });
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>Set of contexts compared by identity, rather than by their mutable
+     * contents, and weakly referenced, so that a context which is never
+     * postprocessed, such as one executed outside of a chain, is not
+     * retained.</p>
+     */
+    private static final class ExecutedContexts {
+
+        private final Set<Key> keys = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+
+        private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+        void add(Object context) {
+            expunge();
+            keys.add(new Key(context, queue));
+        }
+
+        boolean remove(Object context) {
+            expunge();
+            return keys.remove(new Key(context, null));
+        }
+
+        private void expunge() {
+            for (Reference<?> cleared = queue.poll(); cleared != null; cleared = queue.poll()) {
+                keys.remove(cleared);
+            }
+        }
+
+    }
+
+    /**
+     * <p>Weak reference equal to the references to the same object.</p>
+     */
+    private static final class Key extends WeakReference<Object> {
+
+        private final int hash;
+
+        Key(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((Key) obj).get();
+        }
+
+    }
+
+}
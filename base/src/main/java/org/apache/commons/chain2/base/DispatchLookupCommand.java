@@ -16,6 +16,7 @@
  */
 package org.apache.commons.chain2.base;
 
+import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.CatalogFactory;
 import org.apache.commons.chain2.Command;
 import org.apache.commons.chain2.Context;
@@ -144,31 +145,33 @@ public class DispatchLookupCommand<K, V, C extends Context<K, V>>
             throw new IllegalStateException("Neither 'method' nor 'methodKey' properties are defined");
         }
 
-        Command<K, V, C> command = getCommand(context);
+        Catalog<K, V, C> catalog = getCatalog(context);
+        Command<K, V, C> command = getCommand(catalog, context);
 
         if (command != null) {
-            try {
-                Method methodObject = extractMethod(command, context);
-                Object obj = methodObject.invoke(command, getArguments(context));
-                
-                if(obj instanceof Processing) {
-                    Processing result = (Processing) obj;
-                    return result;
-                } else {
-                    return Processing.CONTINUE;
-                }
-            } catch (NoSuchMethodException e) {
-                throw new DispatchException("Error extracting method from context", e, context, this);
-            } catch (IllegalAccessException e) {
-                throw new DispatchException("Error accessing method", e, context, this);
-            } catch (InvocationTargetException e) {
-                Throwable cause = e.getTargetException();
-                throw new DispatchException("Error in reflected dispatched command", cause, context, this);
-            }
+            return getInvoker(context, catalog, command).execute(context);
         }
         return Processing.CONTINUE;
     }
 
+    // --------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Return the invocation of the specified looked-up command performed
+     * by the innermost interceptor: a call of its dispatch method.</p>
+     *
+     * @param command The looked-up command
+     * @return The invocation
+     */
+    @Override
+    Command<K, V, C> getInvocation(final Command<K, V, C> command) {
+        return new Command<K, V, C>() {
+            public Processing execute(C context) {
+                return dispatch(command, context);
+            }
+        };
+    }
+
     // ------------------------------------------------------ Protected Methods
 
     /**
@@ -200,6 +203,34 @@ public class DispatchLookupCommand<K, V, C extends Context<K, V>>
 
     // -------------------------------------------------------- Private Methods
 
+    /**
+     * <p>Invoke the dispatch method of the looked-up command.</p>
+     *
+     * @param command The looked-up command
+     * @param context The context associated with this request
+     * @return the result of the invoked method
+     */
+    private Processing dispatch(Command<K, V, C> command, C context) {
+        try {
+            Method methodObject = extractMethod(command, context);
+            Object obj = methodObject.invoke(command, getArguments(context));
+            
+            if(obj instanceof Processing) {
+                Processing result = (Processing) obj;
+                return result;
+            } else {
+                return Processing.CONTINUE;
+            }
+        } catch (NoSuchMethodException e) {
+            throw new DispatchException("Error extracting method from context", e, context, this);
+        } catch (IllegalAccessException e) {
+            throw new DispatchException("Error accessing method", e, context, this);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getTargetException();
+            throw new DispatchException("Error in reflected dispatched command", cause, context, this);
+        }
+    }
+
     /**
      * Extract the dispatch method.  The base implementation uses the
      * command's <code>method</code> property at the name of a method
@@ -16,15 +16,27 @@
  */
 package org.apache.commons.chain2.base;
 
+import org.apache.commons.chain2.AsyncCommand;
 import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.CatalogFactory;
 import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
 import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
 import org.apache.commons.chain2.Filter;
 import org.apache.commons.chain2.Processing;
 import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.apache.commons.chain2.impl.ExecutionEvents;
+import org.apache.commons.chain2.impl.Interceptors;
+import org.apache.commons.chain2.impl.LatencyRecorder;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
 
 /**
  * <p>Look up a specified {@link Command} (which could also be a
@@ -37,6 +49,10 @@ import java.util.Map;
  * the <code>name</code> property) or indirectly (via the <code>nameKey</code>
  * property).  Exactly one of these must be set.</p>
  *
+ * <p>The {@link org.apache.commons.chain2.CommandInterceptor}s registered
+ * on the {@link CatalogFactoryBase} and on the {@link Catalog} searched
+ * apply to the execution and postprocessing of the looked-up command.</p>
+ *
  * <p>If the <code>optional</code> property is set to <code>true</code>,
  * failure to find the specified command in the specified catalog will be
  * silently ignored.  Otherwise, a lookup failure will trigger an
@@ -73,6 +89,16 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
         this.catalogFactory = factory;
     }
 
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The intercepted invocations of the looked-up commands, by command
+     * name, reused as long as the catalog, the command and the number of
+     * interceptors resolved for that name stay the same.</p>
+     */
+    private final ConcurrentMap<String, Invokers<K, V, C>> invokers =
+            new ConcurrentHashMap<String, Invokers<K, V, C>>();
+
     // -------------------------------------------------------------- Properties
 
     private CatalogFactory<K, V, C> catalogFactory = null;
@@ -249,6 +275,34 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
         this.ignorePostprocessResult = ignorePostprocessResult;
     }
 
+    private LatencyRecorder latencyRecorder = null;
+
+    /**
+     * <p>Return the recorder of the latencies of the looked-up commands.</p>
+     * @return The recorder, or <code>null</code> if latencies are not
+     * recorded.
+     *
+     * @since 2.0
+     */
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /**
+     * <p>Record the latency of every execution of a looked-up command into
+     * the specified recorder, under the key
+     * <code>catalogName:commandName</code>, where the default catalog is
+     * named <code>default</code>.</p>
+     *
+     * @param latencyRecorder The recorder, or <code>null</code> to disable
+     * recording
+     *
+     * @since 2.0
+     */
+    public void setLatencyRecorder(LatencyRecorder latencyRecorder) {
+        this.latencyRecorder = latencyRecorder;
+    }
+
     // ---------------------------------------------------------- Filter Methods
 
     /**
@@ -270,19 +324,84 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
      * is found but the <code>ignoreExecuteResult</code> property of this
      * instance is <code>true</code>
      * @throws org.apache.commons.chain2.ChainException if and error occurs in the looked-up Command.
+     * @throws DeadlineExceededException if the {@link Deadline} of the
+     *  context has expired or has been cancelled
      */
     public Processing execute(C context) {
-        Command<K, V, C> command = getCommand(context);
+        Catalog<K, V, C> catalog = getCatalog(context);
+        Command<K, V, C> command = getCommand(catalog, context);
         if (command != null) {
-            Processing result = command.execute(context);
-            if (isIgnoreExecuteResult()) {
-                return Processing.CONTINUE;
-            }
-            return result;
+            return executeCommand(context, catalog, command);
         }
         return Processing.CONTINUE;
     }
 
+    /**
+     * <p>Execute the specified looked-up command, through the
+     * interceptors of its catalog.</p>
+     *
+     * @param context The context for this request
+     * @param catalog The catalog the command was looked up in
+     * @param command The looked-up command
+     * @return the result of executing the command, or <code>CONTINUE</code>
+     * if the <code>ignoreExecuteResult</code> property is <code>true</code>
+     */
+    Processing executeCommand(C context, Catalog<K, V, C> catalog, Command<K, V, C> command) {
+        Deadline deadline = Deadline.isUsed() ? Deadline.get(context) : null;
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException(deadline, context, command);
+        }
+        Command<K, V, C> invoker = getInvokers(context, catalog, command).invoker;
+        LatencyRecorder recorder = this.latencyRecorder;
+        Object event = ExecutionEvents.beginCommandExecution();
+        Processing result = null;
+        long start = recorder == null ? 0L : System.nanoTime();
+        try {
+            result = invoker.execute(context);
+        } finally {
+            complete(context, command, recorder, event, start, result);
+        }
+        if (isIgnoreExecuteResult()) {
+            return Processing.CONTINUE;
+        }
+        return result;
+    }
+
+    /**
+     * <p>Execute the specified looked-up command asynchronously, through
+     * the interceptors of its catalog.  Its latency and execution event
+     * last until the returned stage completes.</p>
+     *
+     * @param context The context for this request
+     * @param catalog The catalog the command was looked up in
+     * @param command The looked-up command
+     * @return A stage completing with the result of the command
+     */
+    CompletionStage<Processing> executeCommandAsync(final C context, Catalog<K, V, C> catalog,
+            final AsyncCommand<K, V, C> command) {
+        Deadline deadline = Deadline.isUsed() ? Deadline.get(context) : null;
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException(deadline, context, command);
+        }
+        AsyncCommand<K, V, C> invoker = (AsyncCommand<K, V, C>) getInvokers(context, catalog, command).invoker;
+        final LatencyRecorder recorder = this.latencyRecorder;
+        final Object event = ExecutionEvents.beginCommandExecution();
+        final long start = recorder == null ? 0L : System.nanoTime();
+        CompletionStage<Processing> stage;
+        try {
+            stage = invoker.executeAsync(context);
+        } catch (RuntimeException e) {
+            complete(context, command, recorder, event, start, null);
+            throw e;
+        }
+        stage.whenComplete(new BiConsumer<Processing, Throwable>() {
+            public void accept(Processing result, Throwable failure) {
+                complete(context, command, recorder, event, start, result);
+            }
+        });
+        return stage;
+    }
+
 
     /**
      * <p>If the executed command was itself a {@link Filter}, call the
@@ -298,18 +417,106 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
      * case <code>IllegalArgumentException</code> will be thrown.
      */
     public boolean postprocess(C context, Exception exception) {
-        Command<K, V, C> command = getCommand(context);
+        Catalog<K, V, C> catalog = getCatalog(context);
+        Command<K, V, C> command = getCommand(catalog, context);
         if (command != null) {
             if (command instanceof Filter) {
-                boolean result = ((Filter<K, V, C>) command).postprocess(context, exception);
+                Filter<K, V, C> invoker = getInvokers(context, catalog, command).postprocessor;
+                Object event = ExecutionEvents.beginFilterPostprocess();
+                boolean result = false;
+                try {
+                    result = invoker.postprocess(context, exception);
+                } finally {
+                    if (event != null) {
+                        ExecutionEvents.endFilterPostprocess(event, (Filter<K, V, C>) command, getCatalogName(),
+                                getCommandName(context), -1, exception, result);
+                    }
+                }
                 return !isIgnorePostprocessResult() && result;
             }
         }
         return false;
     }
 
+    // --------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Return the intercepted invocation of the specified looked-up
+     * command, built once per catalog and command, and rebuilt when
+     * interceptors are added.</p>
+     *
+     * @param context The context for this request
+     * @param catalog The catalog the command was looked up in
+     * @param command The looked-up command
+     * @return The intercepted invocation
+     */
+    Command<K, V, C> getInvoker(C context, Catalog<K, V, C> catalog, Command<K, V, C> command) {
+        return getInvokers(context, catalog, command).invoker;
+    }
+
+    /**
+     * <p>Return the invocation of the specified looked-up command performed
+     * by the innermost interceptor: the command itself.</p>
+     *
+     * @param command The looked-up command
+     * @return The invocation
+     */
+    Command<K, V, C> getInvocation(Command<K, V, C> command) {
+        return command;
+    }
+
     // --------------------------------------------------------- Private Methods
 
+    /**
+     * <p>Return the intercepted invocations of the specified looked-up
+     * command, building them if the cached ones are missing or stale.</p>
+     */
+    private Invokers<K, V, C> getInvokers(C context, Catalog<K, V, C> catalog, Command<K, V, C> command) {
+        CatalogFactory<K, V, C> lookupFactory = getLookupFactory();
+        String name = getCommandName(context);
+        int count = Interceptors.count(lookupFactory, catalog);
+        Invokers<K, V, C> cached = name == null ? null : invokers.get(name);
+        if (cached != null && cached.catalog == catalog && cached.command == command
+                && cached.factory == lookupFactory && cached.count == count) {
+            return cached;
+        }
+        List<CommandInterceptor<K, V, C>> interceptors = getInterceptors(catalog);
+        Invokers<K, V, C> built = new Invokers<K, V, C>(lookupFactory, catalog, command, count,
+                Interceptors.intercept(interceptors, command, getInvocation(command)),
+                command instanceof Filter
+                        ? Interceptors.interceptPostprocess(interceptors, (Filter<K, V, C>) command) : null);
+        if (name != null) {
+            invokers.put(name, built);
+        }
+        return built;
+    }
+
+    /**
+     * <p>Return the {@link CatalogFactory} to look up catalogs in.</p>
+     */
+    private CatalogFactory<K, V, C> getLookupFactory() {
+        CatalogFactory<K, V, C> lookupFactory = this.catalogFactory;
+        if (lookupFactory == null) {
+            lookupFactory = CatalogFactoryBase.getInstance();
+        }
+        return lookupFactory;
+    }
+
+    /**
+     * <p>Record the latency and end the execution event of the specified
+     * command.</p>
+     */
+    private void complete(C context, Command<K, V, C> command, LatencyRecorder recorder, Object event,
+            long start, Processing result) {
+        if (recorder != null) {
+            recorder.histogram(getLatencyKey(context)).record(System.nanoTime() - start);
+        }
+        if (event != null) {
+            ExecutionEvents.endCommandExecution(event, command, getCatalogName(),
+                    getCommandName(context), -1, result);
+        }
+    }
+
     /**
      * <p>Return the {@link Catalog} to look up the {@link Command} in.</p>
      *
@@ -321,10 +528,7 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
      * @since 1.2
      */
     protected Catalog<K, V, C> getCatalog(C context) {
-        CatalogFactory<K, V, C> lookupFactory = this.catalogFactory;
-        if (lookupFactory == null) {
-            lookupFactory = CatalogFactoryBase.getInstance();
-        }
+        CatalogFactory<K, V, C> lookupFactory = getLookupFactory();
 
         String catalogName = getCatalogName();
         Catalog<K, V, C> catalog = null;
@@ -357,12 +561,29 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
      *  to <code>false</code>
      */
     protected Command<K, V, C> getCommand(C context) {
-        Catalog<K, V, C> catalog = getCatalog(context);
+        return getCommand(getCatalog(context), context);
+    }
 
+    /**
+     * <p>Return the {@link Command} instance to be delegated to, looked up
+     * in the specified {@link Catalog}.</p>
+     *
+     * @param catalog The {@link Catalog} returned by {@link #getCatalog(Map)}
+     * @param context {@link Context} for this request
+     * @return The looked-up Command.
+     * @throws IllegalArgumentException if no such {@link Command}
+     *  can be found and the <code>optional</code> property is set
+     *  to <code>false</code>
+     *
+     * @since 2.0
+     */
+    protected Command<K, V, C> getCommand(Catalog<K, V, C> catalog, C context) {
         Command<K, V, C> command;
         String name = getCommandName(context);
         if (name != null) {
+            Object event = ExecutionEvents.beginCatalogLookup();
             command = catalog.getCommand(name);
+            ExecutionEvents.endCatalogLookup(event, catalogName, name, command);
             if (command == null && !isOptional()) {
                 if (catalogName == null) {
                     throw new IllegalArgumentException
@@ -379,6 +600,36 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
         throw new IllegalArgumentException("No command name");
     }
 
+    /**
+     * <p>Return the {@link CommandInterceptor}s applying to the
+     * {@link Command} delegated to: those of the {@link CatalogFactoryBase},
+     * then those of the specified {@link Catalog}.  The invocation built
+     * from them is reused until the catalog or the command looked up
+     * changes, or an interceptor is added.</p>
+     *
+     * @param catalog The {@link Catalog} searched
+     * @return The interceptors, outermost first, possibly empty
+     *
+     * @since 2.0
+     */
+    protected List<CommandInterceptor<K, V, C>> getInterceptors(Catalog<K, V, C> catalog) {
+        return Interceptors.of(getLookupFactory(), catalog);
+    }
+
+    /**
+     * <p>Return the key of the latency histogram of the {@link Command}
+     * instance delegated to.</p>
+     *
+     * @param context {@link Context} for this request
+     * @return The key of the histogram
+     *
+     * @since 2.0
+     */
+    protected String getLatencyKey(C context) {
+        String catalogName = getCatalogName();
+        return (catalogName == null ? "default" : catalogName) + ":" + getCommandName(context);
+    }
+
     /**
      * <p>Return the name of the {@link Command} instance to be delegated to.</p>
      *
@@ -395,4 +646,36 @@ public class LookupCommand<K, V, C extends Map<K, V>> implements Filter<K, V, C>
         return name;
     }
 
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>The intercepted invocations of a command looked up in a catalog,
+     * and what they were built from.</p>
+     */
+    private static final class Invokers<K, V, C extends Map<K, V>> {
+
+        final CatalogFactory<K, V, C> factory;
+
+        final Catalog<K, V, C> catalog;
+
+        final Command<K, V, C> command;
+
+        final int count;
+
+        final Command<K, V, C> invoker;
+
+        final Filter<K, V, C> postprocessor;
+
+        Invokers(CatalogFactory<K, V, C> factory, Catalog<K, V, C> catalog, Command<K, V, C> command, int count,
+                Command<K, V, C> invoker, Filter<K, V, C> postprocessor) {
+            this.factory = factory;
+            this.catalog = catalog;
+            this.command = command;
+            this.count = count;
+            this.invoker = invoker;
+            this.postprocessor = postprocessor;
+        }
+
+    }
+
 }
@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.Chain;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.tracing.TraceContext;
+import org.apache.commons.chain2.tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>Composite {@link Command} that executes its child {@link Command}s
+ * concurrently, on a configurable <code>Executor</code>, and joins their
+ * results.  It is meant for independent steps that only read from the
+ * {@link Context} they share, or write to distinct keys of a
+ * thread-safe {@link Context}.</p>
+ *
+ * <p>All children but the last one are submitted to the executor, the last
+ * one is executed on the calling thread.  The results are merged according
+ * to the {@link Policy} of this command:</p>
+ * <ul>
+ * <li>{@link Policy#ALL_CONTINUE} (the default) waits for every child, and
+ *     returns {@link Processing#CONTINUE} only if all of them returned
+ *     <code>CONTINUE</code>; otherwise it returns
+ *     {@link Processing#FINISHED}.</li>
+ * <li>{@link Policy#FIRST_FINISHED} returns {@link Processing#FINISHED} as
+ *     soon as one child returned <code>FINISHED</code>, without waiting for
+ *     the others, whose results and exceptions are then discarded.  If no
+ *     child returns <code>FINISHED</code>, it waits for every child and
+ *     returns {@link Processing#CONTINUE}.</li>
+ * </ul>
+ *
+ * <p>If any of the awaited children throws an exception (or returns
+ * <code>null</code>), a single {@link ChainException} is thrown once all
+ * children completed.  Its cause is the first failure, the failures of the
+ * other children are attached as suppressed exceptions.</p>
+ *
+ * <p>This class implements {@link Chain} so that children can be configured
+ * like the commands of a chain, for instance with nested elements in an XML
+ * configuration.  The configuration is frozen by the first call to
+ * <code>execute()</code>.  Unlike {@link org.apache.commons.chain2.impl.ChainBase},
+ * children that are {@link Filter}s are not postprocessed; a child that needs
+ * this guarantee should be a chain of its own.</p>
+ *
+ * <p>When the execution is traced by a {@link Tracer}, the spans of every
+ * child are children of the span current when this command is executed,
+ * as described by {@link Tracer#executeBranch(TraceContext, Command, Map)}.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this command
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public class ParallelCommand<K, V, C extends Map<K, V>> implements Chain<K, V, C> {
+
+    /**
+     * <p>Rules for merging the results of the children of a
+     * {@link ParallelCommand}.</p>
+     */
+    public enum Policy {
+
+        /**
+         * Return <code>FINISHED</code> as soon as one child returned
+         * <code>FINISHED</code>.
+         */
+        FIRST_FINISHED,
+
+        /**
+         * Wait for every child; return <code>CONTINUE</code> only if all
+         * of them returned <code>CONTINUE</code>.
+         */
+        ALL_CONTINUE;
+
+    }
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a {@link ParallelCommand} with no configured children,
+     * running on the common <code>ForkJoinPool</code>.</p>
+     */
+    public ParallelCommand() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * <p>Construct a {@link ParallelCommand} with no configured children,
+     * running on the specified <code>Executor</code>.</p>
+     *
+     * @param executor The <code>Executor</code> children are submitted to
+     *
+     * @throws IllegalArgumentException if <code>executor</code>
+     *  is <code>null</code>
+     */
+    public ParallelCommand(Executor executor) {
+        setExecutor(executor);
+    }
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final List<Command<K, V, C>> commands = new ArrayList<Command<K, V, C>>();
+
+    /**
+     * <p>The children, as an array, once the configuration is frozen.</p>
+     */
+    private volatile Command<K, V, C>[] frozen = null;
+
+    private volatile Executor executor;
+
+    private volatile Policy policy = Policy.ALL_CONTINUE;
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the <code>Executor</code> children are submitted to.</p>
+     * @return The <code>Executor</code>.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * <p>Set the <code>Executor</code> children are submitted to.</p>
+     *
+     * @param executor The new <code>Executor</code>
+     *
+     * @throws IllegalArgumentException if <code>executor</code>
+     *  is <code>null</code>
+     */
+    public void setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("'executor' parameter must be not null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * <p>Return the rule used to merge the results of the children.</p>
+     * @return The merge {@link Policy}.
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * <p>Set the rule used to merge the results of the children.</p>
+     *
+     * @param policy The new merge {@link Policy}
+     *
+     * @throws IllegalArgumentException if <code>policy</code>
+     *  is <code>null</code>
+     */
+    public void setPolicy(Policy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("'policy' parameter must be not null");
+        }
+        this.policy = policy;
+    }
+
+    // ---------------------------------------------------------- Chain Methods
+
+    /**
+     * <p>Add a child {@link Command}.</p>
+     *
+     * @param <CMD> the {@link Command} type to be added
+     * @param command The {@link Command} to be added
+     *
+     * @throws IllegalArgumentException if <code>command</code>
+     *  is <code>null</code>
+     * @throws IllegalStateException if this command has already been
+     *  executed at least once, so no further configuration is allowed
+     */
+    public <CMD extends Command<K, V, C>> void addCommand(CMD command) {
+        if (command == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (commands) {
+            if (frozen != null) {
+                throw new IllegalStateException();
+            }
+            commands.add(command);
+        }
+    }
+
+    /**
+     * <p>Execute the children concurrently and merge their results
+     * according to the configured {@link Policy}.</p>
+     *
+     * @param context The {@link Context} to be processed by the children
+     *
+     * @throws ChainException if any of the awaited children failed
+     * @throws IllegalArgumentException if <code>context</code>
+     *  is <code>null</code>
+     *
+     * @return The merged {@link Processing} result
+     */
+    public Processing execute(final C context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Can't execute a null context");
+        }
+
+        final Command<K, V, C>[] children = freeze();
+        final int n = children.length;
+        if (n == 0) {
+            return Processing.CONTINUE;
+        }
+
+        final boolean firstFinished = policy == Policy.FIRST_FINISHED;
+        final CompletableFuture<Processing> finished = new CompletableFuture<Processing>();
+        // Generic arrays cannot be created, and the array only holds the results of the children
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Processing>[] results = (CompletableFuture<Processing>[]) new CompletableFuture<?>[n];
+        final Executor executor = this.executor;
+        final TraceContext traceContext = Tracer.current(context);
+
+        // Fork all children but the last one
+        for (int i = 0; i < n - 1; i++) {
+            results[i] = CompletableFuture.supplyAsync(new Child(children[i], context, traceContext), executor);
+            if (firstFinished) {
+                results[i].whenComplete(new BiConsumer<Processing, Throwable>() {
+                    public void accept(Processing result, Throwable failure) {
+                        if (result == Processing.FINISHED) {
+                            finished.complete(result);
+                        }
+                    }
+                });
+            }
+        }
+
+        // Compute the last one on the calling thread
+        results[n - 1] = new CompletableFuture<Processing>();
+        try {
+            results[n - 1].complete(new Child(children[n - 1], context, traceContext).get());
+        } catch (RuntimeException e) {
+            results[n - 1].completeExceptionally(e);
+        }
+
+        // Join
+        if (firstFinished) {
+            if (results[n - 1].getNow(null) == Processing.FINISHED) {
+                return Processing.FINISHED;
+            }
+            CompletableFuture.allOf(results).whenComplete(new BiConsumer<Void, Throwable>() {
+                public void accept(Void result, Throwable failure) {
+                    finished.complete(null);
+                }
+            });
+            if (finished.join() == Processing.FINISHED) {
+                return Processing.FINISHED;
+            }
+        }
+
+        Processing merged = Processing.CONTINUE;
+        ChainException failure = null;
+        for (int i = 0; i < n; i++) {
+            try {
+                if (results[i].join() != Processing.CONTINUE) {
+                    merged = Processing.FINISHED;
+                }
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (failure == null) {
+                    failure = new ChainException(String.format(
+                            "An error occurred when executing the command %s in parallel",
+                            children[i].getClass().getName()), cause, context, children[i]);
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return merged;
+    }
+
+    // -------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Return the configured children.  This method is package private,
+     * and is used only for the unit tests.</p>
+     */
+    List<Command<K, V, C>> getCommands() {
+        return commands;
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Freeze the configuration of the children, unless this has already
+     * been done.</p>
+     */
+    @SuppressWarnings("unchecked") // Generic arrays cannot be created
+    private Command<K, V, C>[] freeze() {
+        Command<K, V, C>[] children = frozen;
+        if (children == null) {
+            synchronized (commands) {
+                children = frozen;
+                if (children == null) {
+                    children = (Command<K, V, C>[]) commands.toArray(new Command<?, ?, ?>[commands.size()]);
+                    frozen = children;
+                }
+            }
+        }
+        return children;
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>Execution of one child.</p>
+     */
+    private final class Child implements Supplier<Processing> {
+
+        private final Command<K, V, C> command;
+
+        private final C context;
+
+        private final TraceContext traceContext;
+
+        Child(Command<K, V, C> command, C context, TraceContext traceContext) {
+            this.command = command;
+            this.context = context;
+            this.traceContext = traceContext;
+        }
+
+        public Processing get() {
+            Processing result = Tracer.executeBranch(traceContext, command, context);
+            if (result == null) {
+                throw new ChainException(String.format(
+                        "The command '%s' returned an invalid processing value: '%s'",
+                        command.getClass().getName(), null));
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,471 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Throttle the executions of the rest of a chain per client, as
+ * identified by the value of a context attribute: the <code>key</code>.
+ * If that value is a <code>Map</code>, such as the
+ * <code>header</code> attribute of a
+ * <code>org.apache.commons.chain2.web.WebContext</code>, the client is
+ * identified by its <code>entry</code> instead, for instance a client
+ * id header.  Executions without a client identifier share one
+ * bucket.</p>
+ *
+ * <p>Each client is allowed <code>rate</code> executions per second on
+ * average, and bursts of up to <code>burst</code> executions.  A
+ * throttled execution stores the <code>outcome</code> under the
+ * <code>outcomeKey</code>, and the milliseconds to wait before the next
+ * allowed execution under the <code>retryAfterKey</code>, if set, and
+ * returns {@link Processing#FINISHED}.  Other executions return
+ * {@link Processing#CONTINUE}.</p>
+ *
+ * <p>The buckets implement the generic cell rate algorithm (GCRA): the
+ * state of a bucket is a single <code>long</code>, the theoretical
+ * arrival time of the next execution, updated with a compare-and-set.
+ * A bucket whose theoretical arrival time has passed is full, and is
+ * indistinguishable from a new bucket; such idle buckets are evicted,
+ * at most once per <code>evictionInterval</code>, so that memory only
+ * holds the recently active clients.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this command
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public class RateLimitFilter<K, V, C extends Map<K, V>> implements Filter<K, V, C> {
+
+    // ------------------------------------------------------- Static Variables
+
+    /**
+     * <p>Bucket identifier of the executions without a client
+     * identifier.</p>
+     */
+    private static final Object ANONYMOUS = new Object();
+
+    /**
+     * <p>State of an evicted bucket, which must no longer be updated.</p>
+     */
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    /**
+     * <p>Average number of executions between two checks for idle
+     * buckets.</p>
+     */
+    private static final int SWEEP_PERIOD = 4096;
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final ConcurrentHashMap<Object, Bucket> buckets = new ConcurrentHashMap<Object, Bucket>();
+
+    /**
+     * <p>Set while a thread evicts idle buckets.</p>
+     */
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private final AtomicLong lastSweep = new AtomicLong(Long.MIN_VALUE);
+
+    private final LongAdder throttled = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    // -------------------------------------------------------------- Properties
+
+    private K key = null;
+
+    private String entry = null;
+
+    private K outcomeKey = null;
+
+    private V outcome = null;
+
+    private K retryAfterKey = null;
+
+    private volatile double rate = 10.0;
+
+    private volatile int burst = 10;
+
+    /**
+     * <p>Interval between two executions at the average rate.</p>
+     */
+    private volatile long interval = TimeUnit.SECONDS.toNanos(1L) / 10;
+
+    private volatile long evictionInterval = TimeUnit.SECONDS.toNanos(60L);
+
+    /**
+     * <p>Return the context attribute key identifying the client.</p>
+     * @return The client attribute key.
+     */
+    public K getKey() {
+        return this.key;
+    }
+
+    /**
+     * <p>Set the context attribute key identifying the client.</p>
+     *
+     * @param key The new key
+     */
+    public void setKey(K key) {
+        this.key = key;
+    }
+
+    /**
+     * <p>Return the entry identifying the client, when the client
+     * attribute is a <code>Map</code>.</p>
+     * @return The entry name.
+     */
+    public String getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * <p>Set the entry identifying the client, when the client attribute
+     * is a <code>Map</code>, such as the name of a header.</p>
+     *
+     * @param entry The new entry name
+     */
+    public void setEntry(String entry) {
+        this.entry = entry;
+    }
+
+    /**
+     * <p>Return the context attribute key storing the outcome of throttled
+     * executions.</p>
+     * @return The outcome attribute key.
+     */
+    public K getOutcomeKey() {
+        return this.outcomeKey;
+    }
+
+    /**
+     * <p>Set the context attribute key storing the outcome of throttled
+     * executions.</p>
+     *
+     * @param outcomeKey The new key
+     */
+    public void setOutcomeKey(K outcomeKey) {
+        this.outcomeKey = outcomeKey;
+    }
+
+    /**
+     * <p>Return the outcome stored by throttled executions.</p>
+     * @return The outcome.
+     */
+    public V getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * <p>Set the outcome stored by throttled executions.</p>
+     *
+     * @param outcome The new outcome
+     */
+    public void setOutcome(V outcome) {
+        this.outcome = outcome;
+    }
+
+    /**
+     * <p>Return the context attribute key storing the milliseconds to
+     * wait before the next allowed execution.</p>
+     * @return The retry delay attribute key.
+     */
+    public K getRetryAfterKey() {
+        return this.retryAfterKey;
+    }
+
+    /**
+     * <p>Set the context attribute key storing, as a <code>Long</code>,
+     * the milliseconds to wait before the next allowed execution.</p>
+     *
+     * @param retryAfterKey The new key
+     */
+    public void setRetryAfterKey(K retryAfterKey) {
+        this.retryAfterKey = retryAfterKey;
+    }
+
+    /**
+     * <p>Return the average number of executions allowed per second and
+     * client.</p>
+     * @return The rate.
+     */
+    public double getRate() {
+        return this.rate;
+    }
+
+    /**
+     * <p>Set the average number of executions allowed per second and
+     * client.</p>
+     *
+     * @param rate The new rate
+     *
+     * @throws IllegalArgumentException if <code>rate</code> is not
+     *  positive
+     */
+    public void setRate(double rate) {
+        if (!(rate > 0.0)) {
+            throw new IllegalArgumentException("'rate' parameter must be positive");
+        }
+        this.rate = rate;
+        this.interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1L) / rate));
+    }
+
+    /**
+     * <p>Return the number of executions a client is allowed at once.</p>
+     * @return The burst size.
+     */
+    public int getBurst() {
+        return this.burst;
+    }
+
+    /**
+     * <p>Set the number of executions a client is allowed at once.</p>
+     *
+     * @param burst The new burst size
+     *
+     * @throws IllegalArgumentException if <code>burst</code> is not
+     *  positive
+     */
+    public void setBurst(int burst) {
+        if (burst <= 0) {
+            throw new IllegalArgumentException("'burst' parameter must be positive");
+        }
+        this.burst = burst;
+    }
+
+    /**
+     * <p>Return the minimum time between two evictions of idle
+     * buckets.</p>
+     * @return The time in milliseconds.
+     */
+    public long getEvictionInterval() {
+        return TimeUnit.NANOSECONDS.toMillis(this.evictionInterval);
+    }
+
+    /**
+     * <p>Set the minimum time between two evictions of idle buckets.</p>
+     *
+     * @param evictionInterval The time in milliseconds
+     */
+    public void setEvictionInterval(long evictionInterval) {
+        this.evictionInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, evictionInterval));
+    }
+
+    /**
+     * <p>Return the number of buckets in memory.</p>
+     * @return The number of buckets.
+     */
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * <p>Return the number of throttled executions.</p>
+     * @return The number of throttled executions.
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * <p>Return the number of evicted idle buckets.</p>
+     * @return The number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    // ---------------------------------------------------------- Filter Methods
+
+    /**
+     * <p>Take a token from the bucket of the client, or throttle the
+     * execution if the bucket is empty.</p>
+     *
+     * @param context The {@link org.apache.commons.chain2.Context} to be processed by this
+     *  {@link Filter}
+     *
+     * @return {@link Processing#FINISHED} if the execution is throttled,
+     *  {@link Processing#CONTINUE} otherwise
+     */
+    @SuppressWarnings("unchecked")
+    public Processing execute(C context) {
+        long now = nanoTime();
+        Object client = getClient(context);
+        long interval = this.interval;
+        long tolerance = interval * (burst - 1);
+        long wait;
+        for (;;) {
+            Bucket bucket = buckets.get(client);
+            if (bucket == null) {
+                bucket = new Bucket(now);
+                Bucket existing = buckets.putIfAbsent(client, bucket);
+                if (existing != null) {
+                    bucket = existing;
+                }
+            }
+            wait = bucket.take(now, interval, tolerance);
+            if (wait != EVICTED) {
+                break;
+            }
+        }
+
+        if (ThreadLocalRandom.current().nextInt(SWEEP_PERIOD) == 0) {
+            sweep(now);
+        }
+
+        if (wait <= 0L) {
+            return Processing.CONTINUE;
+        }
+        throttled.increment();
+        if (outcomeKey != null) {
+            context.put(outcomeKey, outcome);
+        }
+        if (retryAfterKey != null) {
+            context.put(retryAfterKey, (V) Long.valueOf(TimeUnit.NANOSECONDS.toMillis(wait + 999999L)));
+        }
+        return Processing.FINISHED;
+    }
+
+    /**
+     * <p>Nothing to clean up.</p>
+     *
+     * @param context The {@link org.apache.commons.chain2.Context} to be processed by this
+     *  {@link Filter}
+     * @param exception The <code>Exception</code> (if any) that was thrown
+     *  by the last {@link org.apache.commons.chain2.Command} that was executed
+     *
+     * @return <code>false</code>
+     */
+    public boolean postprocess(C context, Exception exception) {
+        return false;
+    }
+
+    /**
+     * <p>Evict all idle buckets now.</p>
+     */
+    public void evictIdle() {
+        lastSweep.set(Long.MIN_VALUE);
+        sweep(nanoTime());
+    }
+
+    // ------------------------------------------------------ Protected Methods
+
+    /**
+     * <p>Return the current value of the time source, in nanoseconds.</p>
+     *
+     * @return <code>System.nanoTime()</code>
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    private Object getClient(C context) {
+        Object client = key == null ? null : context.get(key);
+        if (client instanceof Map && entry != null) {
+            client = ((Map<?, ?>) client).get(entry);
+        }
+        return client == null ? ANONYMOUS : client;
+    }
+
+    /**
+     * <p>Evict the idle buckets, unless they were evicted less than
+     * <code>evictionInterval</code> ago or another thread is evicting
+     * them.</p>
+     */
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (last != Long.MIN_VALUE && now - last < evictionInterval) {
+            return;
+        }
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            lastSweep.set(now);
+            for (Iterator<Bucket> i = buckets.values().iterator(); i.hasNext();) {
+                if (i.next().evictIfIdle(now)) {
+                    i.remove();
+                    evictions.increment();
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>A bucket, holding the theoretical arrival time of the next
+     * execution.</p>
+     */
+    @SuppressWarnings("serial")
+    private static final class Bucket extends AtomicLong {
+
+        Bucket(long now) {
+            super(now);
+        }
+
+        /**
+         * <p>Take a token.</p>
+         *
+         * @return <code>0</code> if a token was taken, the time to wait for
+         *  one otherwise, or <code>EVICTED</code> if this bucket was
+         *  evicted
+         */
+        long take(long now, long interval, long tolerance) {
+            for (;;) {
+                long tat = get();
+                if (tat == EVICTED) {
+                    return EVICTED;
+                }
+                long start = tat - now > 0L ? tat : now;
+                long wait = start - now - tolerance;
+                if (wait > 0L) {
+                    return wait;
+                }
+                if (compareAndSet(tat, start + interval)) {
+                    return 0L;
+                }
+            }
+        }
+
+        /**
+         * <p>Mark this bucket as evicted if it is full.</p>
+         */
+        boolean evictIfIdle(long now) {
+            long tat = get();
+            return tat != EVICTED && now - tat >= 0L && compareAndSet(tat, EVICTED);
+        }
+
+    }
+
+}
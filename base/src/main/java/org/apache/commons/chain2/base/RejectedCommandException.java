@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Command;
+
+import java.util.Map;
+
+/**
+ * Runtime Exception thrown by a {@link DecoratingCommand} that refuses to
+ * execute its delegate, for instance because too many executions are
+ * already in flight.
+ *
+ * @since 2.0
+ */
+public class RejectedCommandException extends ChainException {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 20261018L;
+
+    public RejectedCommandException(String message) {
+        super(message);
+    }
+
+    public <K, V, C extends Map<K, V>> RejectedCommandException(String message,
+                                                                C context, Command<K, V, C> rejectingCommand) {
+        super(message, null, context, rejectingCommand);
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bound on the number of retries performed by {@link RetryCommand}s,
+ * relative to the number of executions, so that retries cannot amplify an
+ * overload of the commands they retry.</p>
+ *
+ * <p>The budget is a bucket of tokens.  Every execution deposits
+ * <code>ratio</code> tokens, up to <code>capacity</code>, and every retry
+ * withdraws one token; a retry is only allowed when a whole token is
+ * available.  With a ratio of <code>0.1</code>, retries add at most 10% to
+ * the load of the retried commands, once the initial <code>capacity</code>
+ * tokens have been spent.</p>
+ *
+ * <p>A budget may be shared by several {@link RetryCommand}s.  Unless
+ * configured otherwise, they all share the {@link #getGlobal() global}
+ * budget.</p>
+ *
+ * @since 2.0
+ */
+public class RetryBudget {
+
+    // ------------------------------------------------------- Static Variables
+
+    /**
+     * <p>Number of balance units per token.</p>
+     */
+    private static final long SCALE = 1000L;
+
+    /**
+     * <p>The budget shared by default by all {@link RetryCommand}s.</p>
+     */
+    private static final RetryBudget GLOBAL = new RetryBudget(0.1, 100);
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final double ratio;
+
+    private final int capacity;
+
+    /**
+     * <p>Balance units deposited by every execution.</p>
+     */
+    private final long deposit;
+
+    /**
+     * <p>Maximum balance, in balance units.</p>
+     */
+    private final long limit;
+
+    /**
+     * <p>Current balance, in balance units.</p>
+     */
+    private final AtomicLong balance;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a budget, initially holding <code>capacity</code>
+     * tokens.</p>
+     *
+     * @param ratio Tokens deposited by every execution
+     * @param capacity Maximum number of tokens
+     *
+     * @throws IllegalArgumentException if <code>ratio</code> is negative or
+     *  <code>capacity</code> is not positive
+     */
+    public RetryBudget(double ratio, int capacity) {
+        if (!(ratio >= 0.0)) {
+            throw new IllegalArgumentException("'ratio' parameter must be positive or zero");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("'capacity' parameter must be positive");
+        }
+        this.ratio = ratio;
+        this.capacity = capacity;
+        this.deposit = Math.round(ratio * SCALE);
+        this.limit = capacity * SCALE;
+        this.balance = new AtomicLong(limit);
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Return the budget shared by default by all
+     * {@link RetryCommand}s.</p>
+     *
+     * @return The global budget
+     */
+    public static RetryBudget getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * <p>Return the number of tokens deposited by every execution.</p>
+     *
+     * @return The ratio of retries to executions
+     */
+    public double getRatio() {
+        return ratio;
+    }
+
+    /**
+     * <p>Return the maximum number of tokens.</p>
+     *
+     * @return The capacity of this budget
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * <p>Return the number of tokens currently available.</p>
+     *
+     * @return The available tokens, fractions included
+     */
+    public double getBalance() {
+        return (double) balance.get() / SCALE;
+    }
+
+    /**
+     * <p>Deposit the tokens earned by one execution.</p>
+     */
+    public void deposit() {
+        for (;;) {
+            long current = balance.get();
+            long next = Math.min(limit, current + deposit);
+            if (next == current || balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>Withdraw the token needed by one retry, if available.</p>
+     *
+     * @return <code>true</code> if the retry is allowed
+     */
+    public boolean tryWithdraw() {
+        for (;;) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+}
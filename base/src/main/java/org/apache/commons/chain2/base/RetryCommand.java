@@ -0,0 +1,622 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.Processing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>Execute a delegate again when it fails with a transient exception,
+ * waiting between attempts for an exponentially growing, randomized
+ * delay.</p>
+ *
+ * <p>A failure is retried if the exception thrown by the delegate, or one
+ * of its causes, is an instance of one of the <code>retryOn</code>
+ * classes (any <code>Exception</code> if none is configured), the
+ * delegate has been attempted less than <code>maxAttempts</code> times,
+ * the {@link Deadline} of the context, if any, does not expire before
+ * the retry, and the {@link RetryBudget} of this command allows one more
+ * retry.
+ * <code>Error</code>s are never retried.  Once the delegate gives up, the
+ * exception of the last attempt is thrown.</p>
+ *
+ * <p>The delay before the retry <code>n</code> is
+ * <code>initialDelay * multiplier^(n - 1)</code>, at most
+ * <code>maxDelay</code> milliseconds, reduced by a random fraction of up
+ * to <code>jitter</code> of itself so that clients failing together do
+ * not retry together.  The values the context held under the
+ * <code>restoreKeys</code> before the first attempt are restored before
+ * every retry, so that a retry does not see the partial updates of the
+ * failed attempt.</p>
+ *
+ * <p>When a <code>ScheduledExecutorService</code> is configured, this
+ * command does not block while waiting: retries are scheduled on it, and
+ * a delegate that is an {@link AsyncCommand} is executed asynchronously,
+ * so that an asynchronous chain such as
+ * {@link org.apache.commons.chain2.impl.AsyncChainBase} releases its
+ * thread between attempts.  A looked-up delegate is resolved before its
+ * type is tested.  Without one, the calling thread sleeps
+ * between attempts.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public class RetryCommand<K, V, C extends Map<K, V>> extends DecoratingCommand<K, V, C>
+        implements AsyncCommand<K, V, C> {
+
+    // -------------------------------------------------------------- Constructors
+
+    /**
+     * Create an instance looking up its delegate in the
+     * <code>CatalogFactory.getInstance()</code> catalogs, unless the
+     * <code>command</code> property is set.
+     */
+    public RetryCommand() {
+        super();
+    }
+
+    /**
+     * Create an instance looking up its delegate in the catalogs of the
+     * given <code>factory</code>, unless the <code>command</code> property
+     * is set.
+     *
+     * @param factory The Catalog Factory.
+     */
+    public RetryCommand(CatalogFactory<K, V, C> factory) {
+        super(factory);
+    }
+
+    // ------------------------------------------------------- Static Variables
+
+    private static final String[] NO_KEYS = new String[0];
+
+    private static final Class<?>[] NO_CLASSES = new Class<?>[0];
+
+    /**
+     * <p>Bound on the depth of the cause chains searched for a retryable
+     * exception.</p>
+     */
+    private static final int MAX_CAUSE_DEPTH = 16;
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final LongAdder attempts = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder exhausted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    // -------------------------------------------------------------- Properties
+
+    private volatile Class<?>[] retryOn = NO_CLASSES;
+
+    private String[] restoreKeys = NO_KEYS;
+
+    private int maxAttempts = 3;
+
+    private long initialDelay = 100L;
+
+    private long maxDelay = 10000L;
+
+    private double multiplier = 2.0;
+
+    private double jitter = 0.5;
+
+    private volatile RetryBudget budget = RetryBudget.getGlobal();
+
+    private volatile ScheduledExecutorService scheduler = null;
+
+    /**
+     * <p>Return the exception classes whose instances are retried.</p>
+     *
+     * @return The comma-separated class names
+     */
+    public String getRetryOn() {
+        StringBuilder names = new StringBuilder();
+        for (Class<?> type : retryOn) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(type.getName());
+        }
+        return names.toString();
+    }
+
+    /**
+     * <p>Set the exception classes whose instances are retried, loaded
+     * through the context class loader.</p>
+     *
+     * @param retryOn The comma-separated class names, or <code>null</code>
+     *  to retry any <code>Exception</code>
+     *
+     * @throws IllegalArgumentException if a class cannot be loaded, or is
+     *  not a <code>Throwable</code>
+     */
+    public void setRetryOn(String retryOn) {
+        String[] names = split(retryOn);
+        List<Class<?>> types = new ArrayList<Class<?>>(names.length);
+        for (String name : names) {
+            Class<?> type;
+            try {
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                if (loader == null) {
+                    loader = RetryCommand.class.getClassLoader();
+                }
+                type = Class.forName(name, false, loader);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Cannot load exception class '" + name + "'", e);
+            }
+            if (!Throwable.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException("'" + name + "' is not an exception class");
+            }
+            types.add(type);
+        }
+        this.retryOn = types.toArray(new Class<?>[types.size()]);
+    }
+
+    /**
+     * <p>Return the context keys whose values are restored before every
+     * retry.</p>
+     *
+     * @return The comma-separated keys
+     */
+    public String getRestoreKeys() {
+        StringBuilder joined = new StringBuilder();
+        for (String key : restoreKeys) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(key);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * <p>Set the context keys whose values are restored before every
+     * retry.  A key that was not set before the first attempt is
+     * removed.</p>
+     *
+     * @param restoreKeys The comma-separated keys
+     */
+    public void setRestoreKeys(String restoreKeys) {
+        this.restoreKeys = split(restoreKeys);
+    }
+
+    /**
+     * <p>Return the maximum number of attempts, the first one
+     * included.</p>
+     *
+     * @return The maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * <p>Set the maximum number of attempts, the first one included.</p>
+     *
+     * @param maxAttempts The maximum number of attempts
+     *
+     * @throws IllegalArgumentException if <code>maxAttempts</code> is not
+     *  positive
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("'maxAttempts' parameter must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * <p>Return the delay before the first retry.</p>
+     *
+     * @return The delay in milliseconds
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * <p>Set the delay before the first retry.</p>
+     *
+     * @param initialDelay The delay in milliseconds
+     */
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = Math.max(0L, initialDelay);
+    }
+
+    /**
+     * <p>Return the maximum delay between two attempts.</p>
+     *
+     * @return The delay in milliseconds
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * <p>Set the maximum delay between two attempts.</p>
+     *
+     * @param maxDelay The delay in milliseconds
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = Math.max(0L, maxDelay);
+    }
+
+    /**
+     * <p>Return the factor applied to the delay after every retry.</p>
+     *
+     * @return The backoff multiplier
+     */
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * <p>Set the factor applied to the delay after every retry.</p>
+     *
+     * @param multiplier The backoff multiplier
+     *
+     * @throws IllegalArgumentException if <code>multiplier</code> is less
+     *  than <code>1</code>
+     */
+    public void setMultiplier(double multiplier) {
+        if (!(multiplier >= 1.0)) {
+            throw new IllegalArgumentException("'multiplier' parameter must be at least 1");
+        }
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * <p>Return the maximum fraction of the delay randomly cut from
+     * it.</p>
+     *
+     * @return The jitter, between <code>0</code> and <code>1</code>
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * <p>Set the maximum fraction of the delay randomly cut from it;
+     * <code>0</code> disables randomization, <code>1</code> draws the delay
+     * uniformly between zero and its nominal value.</p>
+     *
+     * @param jitter The jitter, between <code>0</code> and <code>1</code>
+     *
+     * @throws IllegalArgumentException if <code>jitter</code> is not
+     *  between <code>0</code> and <code>1</code>
+     */
+    public void setJitter(double jitter) {
+        if (!(jitter >= 0.0 && jitter <= 1.0)) {
+            throw new IllegalArgumentException("'jitter' parameter must be between 0 and 1");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * <p>Return the budget the retries of this command are drawn
+     * from.</p>
+     *
+     * @return The retry budget
+     */
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * <p>Set the budget the retries of this command are drawn from.</p>
+     *
+     * @param budget The retry budget
+     *
+     * @throws IllegalArgumentException if <code>budget</code>
+     *  is <code>null</code>
+     */
+    public void setBudget(RetryBudget budget) {
+        if (budget == null) {
+            throw new IllegalArgumentException("'budget' parameter must be not null");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * <p>Return the executor retries are scheduled on.</p>
+     *
+     * @return The scheduler, or <code>null</code> if the calling thread
+     *  sleeps between attempts
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * <p>Set the executor retries are scheduled on.</p>
+     *
+     * @param scheduler The scheduler, or <code>null</code> to sleep between
+     *  attempts on the calling thread
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * <p>Return the number of attempts to execute the delegate, retries
+     * included.</p>
+     *
+     * @return The number of attempts
+     */
+    public long getAttemptCount() {
+        return attempts.sum();
+    }
+
+    /**
+     * <p>Return the number of retries.</p>
+     *
+     * @return The number of retries
+     */
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    /**
+     * <p>Return the number of executions that failed after
+     * <code>maxAttempts</code> attempts.</p>
+     *
+     * @return The number of exhausted executions
+     */
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+
+    /**
+     * <p>Return the number of retryable failures that were not retried
+     * because the {@link RetryBudget} was spent.</p>
+     *
+     * @return The number of retries denied by the budget
+     */
+    public long getBudgetRejectedCount() {
+        return rejected.sum();
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Execute the delegate, retrying it as configured, and wait for the
+     * outcome.</p>
+     *
+     * @param context The context for this request
+     * @return The result of the last attempt
+     */
+    @Override
+    public Processing execute(C context) {
+        return AsyncCommand.super.execute(context);
+    }
+
+    /**
+     * <p>Execute the delegate, retrying it as configured.</p>
+     *
+     * @param context The context for this request
+     * @return A stage completing with the result of the last attempt
+     */
+    public CompletionStage<Processing> executeAsync(C context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Can't execute a null context");
+        }
+        budget.deposit();
+        Attempts run = new Attempts(context);
+        run.run();
+        return run.result;
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Execute the delegate once, asynchronously if possible.</p>
+     */
+    private CompletionStage<Processing> attempt(C context) {
+        if (scheduler != null) {
+            return executeDelegateAsync(context);
+        }
+        return CompletableFuture.completedFuture(executeDelegate(context));
+    }
+
+    /**
+     * <p>Return the delay before the specified retry, or <code>-1</code>
+     * if the specified failure is not to be retried.</p>
+     */
+    private long retryDelay(Throwable failure, int attempt, C context) {
+        if (failure instanceof Error || !isRetryable(failure)) {
+            return -1L;
+        }
+        if (attempt >= maxAttempts) {
+            exhausted.increment();
+            return -1L;
+        }
+        double delay = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempt - 1));
+        if (jitter > 0.0) {
+            delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        }
+        Deadline deadline = Deadline.isUsed() ? Deadline.get(context) : null;
+        if (deadline != null
+                && (deadline.isExpired() || deadline.remaining(TimeUnit.MILLISECONDS) <= (long) delay)) {
+            return -1L;
+        }
+        if (!budget.tryWithdraw()) {
+            rejected.increment();
+            return -1L;
+        }
+        retries.increment();
+        return (long) delay;
+    }
+
+    private boolean isRetryable(Throwable failure) {
+        Class<?>[] types = this.retryOn;
+        if (types.length == 0) {
+            return failure instanceof Exception;
+        }
+        Throwable cause = failure;
+        for (int depth = 0; cause != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            for (Class<?> type : types) {
+                if (type.isInstance(cause)) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    private static String[] split(String keys) {
+        if (keys == null || keys.trim().length() == 0) {
+            return NO_KEYS;
+        }
+        String[] split = keys.split(",");
+        for (int i = 0; i < split.length; i++) {
+            split[i] = split[i].trim();
+        }
+        return split;
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>The successive attempts of one execution.</p>
+     */
+    private final class Attempts implements Runnable, BiConsumer<Processing, Throwable> {
+
+        private final CompletableFuture<Processing> result = new CompletableFuture<Processing>();
+
+        private final C context;
+
+        private final String[] keys;
+
+        /**
+         * <p>The values of the <code>keys</code> before the first
+         * attempt.</p>
+         */
+        private final Object[] saved;
+
+        private int attempt = 0;
+
+        Attempts(C context) {
+            this.context = context;
+            this.keys = restoreKeys;
+            this.saved = new Object[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                saved[i] = context.containsKey(keys[i]) ? context.get(keys[i]) : this;
+            }
+        }
+
+        /**
+         * <p>Perform the next attempt.</p>
+         */
+        public void run() {
+            if (attempt > 0) {
+                try {
+                    restore();
+                } catch (Throwable t) {
+                    // The context cannot be reset: retrying would not help
+                    result.completeExceptionally(t);
+                    return;
+                }
+            }
+            attempt++;
+            attempts.increment();
+            CompletionStage<Processing> stage;
+            try {
+                stage = attempt(context);
+            } catch (Throwable t) {
+                accept(null, t);
+                return;
+            }
+            stage.whenComplete(this);
+        }
+
+        /**
+         * <p>Complete the execution, or retry the failed attempt.</p>
+         */
+        public void accept(Processing processing, Throwable failure) {
+            if (failure == null) {
+                result.complete(processing);
+                return;
+            }
+            while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                    && failure.getCause() != null) {
+                failure = failure.getCause();
+            }
+            long delay = retryDelay(failure, attempt, context);
+            if (delay < 0L) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            ScheduledExecutorService scheduler = RetryCommand.this.scheduler;
+            if (scheduler != null) {
+                try {
+                    scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    result.completeExceptionally(failure);
+                }
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(failure);
+                return;
+            }
+            run();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void restore() {
+            for (int i = 0; i < keys.length; i++) {
+                if (saved[i] == this) {
+                    context.remove(keys[i]);
+                } else {
+                    context.put((K) keys[i], (V) saved[i]);
+                }
+            }
+        }
+
+    }
+
+}
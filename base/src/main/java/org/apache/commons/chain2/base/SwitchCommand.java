@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>{@link Command} that reads the value stored under a configurable key of
+ * the {@link Context}, and executes the child {@link Command} registered
+ * for that value.  When the key is missing, or no child is registered for
+ * its value, the default {@link Command} is executed if there is one;
+ * otherwise {@link Processing#CONTINUE} is returned.</p>
+ *
+ * <p>Values are matched with <code>equals()</code>.  Enum constants are
+ * matched by name, so that a case configured with the <code>String</code>
+ * <code>"GET"</code> (as all cases configured in XML are) is selected by
+ * the enum constant <code>GET</code> of any type.</p>
+ *
+ * <p>The cases are frozen by the first call to <code>execute()</code>, and
+ * compiled into an open addressing hash table, so that each execution costs
+ * one <code>hashCode()</code> and, typically, one <code>equals()</code>
+ * call, however many cases there are.  Enum values skip the hash table
+ * altogether: the first execution with a given enum type builds an array of
+ * children indexed by ordinal.  Unlike {@link org.apache.commons.chain2.impl.ChainBase},
+ * children that are {@link Filter}s are not postprocessed; a child that needs
+ * this guarantee should be a chain of its own.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this command
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this command
+ *
+ * @since 2.0
+ */
+public class SwitchCommand<K, V, C extends Map<K, V>> implements Command<K, V, C> {
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final Map<Object, Command<K, V, C>> cases = new LinkedHashMap<Object, Command<K, V, C>>();
+
+    private Command<K, V, C> defaultCommand = null;
+
+    private volatile K key = null;
+
+    /**
+     * <p>The compiled cases, once the configuration is frozen.</p>
+     */
+    private volatile Table<K, V, C> frozen = null;
+
+    /**
+     * <p>The children indexed by the ordinal of the constants, per enum
+     * type seen, replaced as a whole when a type is added.</p>
+     */
+    private volatile Map<Class<?>, Command<K, V, C>[]> enumTables = Collections.emptyMap();
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the context key whose value selects the child to be
+     * executed.</p>
+     * @return The context key.
+     */
+    public K getKey() {
+        return key;
+    }
+
+    /**
+     * <p>Set the context key whose value selects the child to be
+     * executed.</p>
+     *
+     * @param key The new context key
+     */
+    public void setKey(K key) {
+        this.key = key;
+    }
+
+    /**
+     * <p>Return the {@link Command} executed when no case matches, if
+     * any.</p>
+     * @return The default {@link Command}, or <code>null</code>.
+     */
+    public Command<K, V, C> getDefaultCommand() {
+        synchronized (cases) {
+            return defaultCommand;
+        }
+    }
+
+    /**
+     * <p>Set the {@link Command} executed when no case matches.</p>
+     *
+     * @param defaultCommand The new default {@link Command}, or
+     *  <code>null</code> to return <code>CONTINUE</code> instead
+     *
+     * @throws IllegalStateException if this command has already been
+     *  executed at least once, so no further configuration is allowed
+     */
+    public void setDefaultCommand(Command<K, V, C> defaultCommand) {
+        synchronized (cases) {
+            if (frozen != null) {
+                throw new IllegalStateException();
+            }
+            this.defaultCommand = defaultCommand;
+        }
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Register the child {@link Command} executed when the context value
+     * is equal to the specified value.</p>
+     *
+     * @param value The value selecting the child; an enum constant is
+     *  registered by name
+     * @param command The child {@link Command}
+     *
+     * @throws IllegalArgumentException if <code>value</code> or
+     *  <code>command</code> is <code>null</code>, or a child is already
+     *  registered for <code>value</code>
+     * @throws IllegalStateException if this command has already been
+     *  executed at least once, so no further configuration is allowed
+     */
+    public void addCase(Object value, Command<K, V, C> command) {
+        if (value == null) {
+            throw new IllegalArgumentException("'value' parameter must be not null");
+        }
+        if (command == null) {
+            throw new IllegalArgumentException("'command' parameter must be not null");
+        }
+        Object normalized = normalize(value);
+        synchronized (cases) {
+            if (frozen != null) {
+                throw new IllegalStateException();
+            }
+            if (cases.containsKey(normalized)) {
+                throw new IllegalArgumentException("Duplicate case '" + normalized + "'");
+            }
+            cases.put(normalized, command);
+        }
+    }
+
+    /**
+     * <p>Execute the child registered for the value stored under the
+     * configured key, or the default {@link Command}.</p>
+     *
+     * @param context The {@link Context} to be processed by this command
+     *
+     * @throws IllegalArgumentException if <code>context</code>
+     *  is <code>null</code>
+     *
+     * @return The result of the selected child, or
+     *  {@link Processing#CONTINUE} if there is none
+     */
+    public Processing execute(C context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Can't execute a null context");
+        }
+        Table<K, V, C> table = freeze();
+        Object value = key == null ? null : context.get(key);
+
+        Command<K, V, C> command;
+        if (value == null) {
+            command = table.defaultCommand;
+        } else if (value instanceof Enum) {
+            command = enumTable(table, ((Enum<?>) value).getDeclaringClass())[((Enum<?>) value).ordinal()];
+        } else {
+            command = table.get(value);
+        }
+        return command == null ? Processing.CONTINUE : command.execute(context);
+    }
+
+    // -------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Return the capacity of the compiled hash table, or <code>0</code>
+     * if the configuration is not frozen yet.  This method is package
+     * private, and is used only for the unit tests.</p>
+     */
+    int getCapacity() {
+        Table<K, V, C> table = frozen;
+        return table == null ? 0 : table.keys.length;
+    }
+
+    /**
+     * <p>Return the number of enum types whose ordinal table has been
+     * built.  This method is package private, and is used only for the
+     * unit tests.</p>
+     */
+    int getEnumTableCount() {
+        return enumTables.size();
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Freeze the configuration of the cases, unless this has already
+     * been done.</p>
+     */
+    private Table<K, V, C> freeze() {
+        Table<K, V, C> table = frozen;
+        if (table == null) {
+            synchronized (cases) {
+                table = frozen;
+                if (table == null) {
+                    table = new Table<K, V, C>(cases, defaultCommand);
+                    frozen = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * <p>Return the children indexed by the ordinals of the constants of
+     * the specified enum type, building them the first time the type is
+     * seen.</p>
+     */
+    @SuppressWarnings("unchecked") // Generic arrays cannot be created
+    private Command<K, V, C>[] enumTable(Table<K, V, C> table, Class<?> type) {
+        Command<K, V, C>[] commands = enumTables.get(type);
+        if (commands == null) {
+            Object[] constants = type.getEnumConstants();
+            commands = (Command<K, V, C>[]) new Command<?, ?, ?>[constants.length];
+            for (int i = 0; i < constants.length; i++) {
+                commands[i] = table.get(((Enum<?>) constants[i]).name());
+            }
+            synchronized (cases) {
+                Map<Class<?>, Command<K, V, C>[]> tables =
+                        new IdentityHashMap<Class<?>, Command<K, V, C>[]>(enumTables);
+                tables.put(type, commands);
+                enumTables = tables;
+            }
+        }
+        return commands;
+    }
+
+    private static Object normalize(Object value) {
+        return value instanceof Enum ? ((Enum<?>) value).name() : value;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>Open addressing hash table of the cases, with linear probing and a
+     * load factor of at most one half.</p>
+     */
+    private static final class Table<K, V, C extends Map<K, V>> {
+
+        private final Object[] keys;
+
+        private final Command<K, V, C>[] commands;
+
+        private final Command<K, V, C> defaultCommand;
+
+        @SuppressWarnings("unchecked") // Generic arrays cannot be created
+        Table(Map<Object, Command<K, V, C>> cases, Command<K, V, C> defaultCommand) {
+            int capacity = 2;
+            while (capacity < cases.size() * 2) {
+                capacity <<= 1;
+            }
+            this.keys = new Object[capacity];
+            this.commands = (Command<K, V, C>[]) new Command<?, ?, ?>[capacity];
+            this.defaultCommand = defaultCommand;
+
+            int mask = capacity - 1;
+            for (Map.Entry<Object, Command<K, V, C>> entry : cases.entrySet()) {
+                int i = spread(entry.getKey().hashCode()) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = entry.getKey();
+                commands[i] = entry.getValue();
+            }
+        }
+
+        Command<K, V, C> get(Object value) {
+            Object[] keys = this.keys;
+            int mask = keys.length - 1;
+            int i = spread(value.hashCode()) & mask;
+            Object candidate;
+            while ((candidate = keys[i]) != null) {
+                if (candidate == value || candidate.equals(value)) {
+                    return commands[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return defaultCommand;
+        }
+
+    }
+
+}
@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.Chain;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>{@link Chain} implementation that can also be executed asynchronously.
+ * When executed through <code>executeAsync()</code>, {@link AsyncCommand}s
+ * of this chain are started and the calling thread is released until the
+ * stage they returned completes; the next command then runs on the thread
+ * that completed that stage.  Plain {@link Command}s are executed
+ * synchronously, exactly as by {@link ChainBase}.</p>
+ *
+ * <p>The semantics of {@link Chain#execute(Map)} are preserved: commands are
+ * executed in order until one of them returns {@link Processing#FINISHED}
+ * or fails, then the <code>postprocess()</code> method of every executed
+ * {@link Filter} is called in reverse order, even when a stage completed
+ * exceptionally.  An exception that was not handled by a {@link Filter}
+ * completes the returned stage exceptionally, wrapped as by
+ * <code>wrapUnhandledExceptions()</code>.</p>
+ *
+ * <p>{@link AsyncCommand}s are started through the same invokers as the
+ * other commands: the interceptors of the catalog see them through
+ * {@link org.apache.commons.chain2.CommandInterceptor#executeAsync}, and
+ * their recorded latency lasts until their stage completes.</p>
+ *
+ * <p>The synchronous <code>execute()</code> method is inherited from
+ * {@link ChainBase}; it blocks on each {@link AsyncCommand} in turn.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this chain
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this chain
+ *
+ * @since 2.0
+ */
+public class AsyncChainBase<K, V, C extends Map<K, V>> extends ChainBase<K, V, C> implements AsyncCommand<K, V, C> {
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a {@link Chain} with no configured {@link Command}s.</p>
+     */
+    public AsyncChainBase() {
+    }
+
+    /**
+     * <p>Construct a {@link Chain} configured with the specified
+     * {@link Command}.</p>
+     *
+     * @param command The {@link Command} to be configured
+     *
+     * @throws IllegalArgumentException if <code>command</code>
+     *  is <code>null</code>
+     */
+    public AsyncChainBase(Command<K, V, C> command) {
+        super(command);
+    }
+
+    /**
+     * <p>Construct a {@link Chain} configured with the specified
+     * {@link Command Commands}.</p>
+     *
+     * @param commands The {@link Command Commands} to be configured
+     *
+     * @throws IllegalArgumentException if <code>commands</code>,
+     *  or one of the individual {@link Command} elements,
+     *  is <code>null</code>
+     */
+    @SafeVarargs // The commands are only read, by the constructor of ChainBase
+    @SuppressWarnings("varargs")
+    public AsyncChainBase(Command<K, V, C>... commands) {
+        super(commands);
+    }
+
+    /**
+     * <p>Construct a {@link Chain} configured with the specified
+     * {@link Command}s.</p>
+     *
+     * @param commands The {@link Command}s to be configured
+     *
+     * @throws IllegalArgumentException if <code>commands</code>,
+     *  or one of the individual {@link Command} elements,
+     *  is <code>null</code>
+     */
+    public AsyncChainBase(Collection<Command<K, V, C>> commands) {
+        super(commands);
+    }
+
+    // ----------------------------------------------------- AsyncCommand Methods
+
+    /**
+     * <p>Execute this {@link Chain} without blocking on its
+     * {@link AsyncCommand}s.</p>
+     *
+     * @param context The {@link Context} to be processed by this
+     *  {@link Chain}
+     *
+     * @throws IllegalArgumentException if <code>context</code>
+     *  is <code>null</code>
+     *
+     * @return A stage completing with the {@link Processing} value of the
+     *  last executed command, or completing exceptionally with the exception
+     *  that was not handled by a {@link Filter}
+     */
+    public CompletionStage<Processing> executeAsync(C context) {
+        // Verify our parameters
+        if (context == null) {
+            throw new IllegalArgumentException("Can't execute a null context");
+        }
+
+        AsyncExecution execution = new AsyncExecution(getExecutionPlan(), context, getTimeout());
+        execution.run(0);
+        return execution.result;
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>State of one asynchronous execution of this chain.  An instance is
+     * registered as the completion callback of the stage of the
+     * {@link AsyncCommand} being waited for.</p>
+     */
+    private final class AsyncExecution implements BiConsumer<Processing, Throwable> {
+
+        private final ExecutionPlan<K, V, C> plan;
+
+        private final C context;
+
+        private final CompletableFuture<Processing> result = new CompletableFuture<Processing>();
+
+        /**
+         * The {@link Deadline} of the context, if any.
+         */
+        private final Deadline deadline;
+
+        /**
+         * Whether the timeout of the chain installed <code>deadline</code>
+         * in the context, in place of <code>previous</code>.
+         */
+        private final boolean bounded;
+
+        private final Deadline previous;
+
+        /**
+         * Index of the {@link AsyncCommand} being waited for.
+         */
+        private int index;
+
+        /**
+         * The execution event of the {@link AsyncCommand} being waited for,
+         * if any.
+         */
+        private Object event;
+
+        AsyncExecution(ExecutionPlan<K, V, C> plan, C context, long timeout) {
+            this.plan = plan;
+            this.context = context;
+            this.bounded = timeout > 0L;
+            if (bounded) {
+                previous = Deadline.get(context);
+                deadline = previous == null ? Deadline.after(timeout, TimeUnit.MILLISECONDS)
+                        : previous.derive(timeout, TimeUnit.MILLISECONDS);
+                Deadline.put(context, deadline);
+            } else {
+                previous = null;
+                deadline = Deadline.isUsed() ? Deadline.get(context) : null;
+            }
+        }
+
+        /**
+         * <p>Execute the commands of the plan, starting at the specified
+         * index, until one of them returns a stage that is not completed
+         * yet or the execution is over.  An <code>Error</code>, which is
+         * not handed to {@link Filter}s, completes the result stage
+         * exceptionally rather than being lost in the stage of an
+         * {@link AsyncCommand}.</p>
+         */
+        void run(int start) {
+            try {
+                proceed(start);
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        private void proceed(int start) {
+            final Command<K, V, C>[] commands = plan.commands;
+            final Command<K, V, C>[] invokers = plan.invokers;
+            final int n = commands.length;
+            for (int i = start; i < n; i++) {
+                Command<K, V, C> command = commands[i];
+                if (deadline != null && deadline.isExpired()) {
+                    complete(i - 1, Processing.CONTINUE, new DeadlineExceededException(deadline, context, command));
+                    return;
+                }
+                Processing saveResult = null;
+                Exception saveException = null;
+                Object event = ExecutionEvents.beginCommandExecution();
+                // Inlined commands are executed synchronously, like the
+                // nested chain they come from.  Asynchronous commands are
+                // started through their invoker, so that interceptors and
+                // latency recording see them.
+                if (invokers[i] instanceof AsyncCommand && !plan.isInlined(i)) {
+                    CompletionStage<Processing> stage = null;
+                    try {
+                        stage = ((AsyncCommand<K, V, C>) invokers[i]).executeAsync(context);
+                    } catch (Exception e) {
+                        saveException = e;
+                    }
+                    if (stage != null) {
+                        if (!(stage instanceof CompletableFuture) || !((CompletableFuture<Processing>) stage).isDone()) {
+                            this.index = i;
+                            this.event = event;
+                            stage.whenComplete(this);
+                            return;
+                        }
+                        try {
+                            saveResult = ((CompletableFuture<Processing>) stage).join();
+                        } catch (CompletionException e) {
+                            saveException = unwrap(e);
+                        } catch (CancellationException e) {
+                            saveException = e;
+                        }
+                    }
+                } else {
+                    try {
+                        saveResult = invokers[i].execute(context);
+                    } catch (Exception e) {
+                        saveException = e;
+                    }
+                }
+                ExecutionEvents.endCommandExecution(event, command, null, getName(), i, saveResult);
+                if (saveException != null) {
+                    complete(i, Processing.CONTINUE, saveException);
+                    return;
+                }
+                if (saveResult != Processing.CONTINUE) {
+                    complete(i, saveResult, saveResult == null ? invalidProcessing(command) : null);
+                    return;
+                }
+            }
+            complete(n - 1, Processing.CONTINUE, null);
+        }
+
+        /**
+         * <p>Resume the execution once the stage of the {@link AsyncCommand}
+         * at <code>index</code> completed.</p>
+         */
+        public void accept(Processing saveResult, Throwable failure) {
+            try {
+                ExecutionEvents.endCommandExecution(event, plan.commands[index], null, getName(), index,
+                        failure == null ? saveResult : null);
+                if (failure != null) {
+                    complete(index, Processing.CONTINUE, unwrap(failure));
+                } else if (saveResult == null) {
+                    complete(index, null, invalidProcessing(plan.commands[index]));
+                } else if (saveResult != Processing.CONTINUE) {
+                    complete(index, saveResult, null);
+                } else {
+                    proceed(index + 1);
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        /**
+         * <p>Postprocess the executed {@link Filter}s in reverse order and
+         * complete the result stage.</p>
+         */
+        private void complete(int lastIndex, Processing saveResult, Exception saveException) {
+            boolean handled;
+            try {
+                handled = postprocess(plan, lastIndex, context, saveException);
+            } catch (Error e) {
+                fail(e);
+                return;
+            }
+            if (saveException != null && !handled) {
+                fail(wrapUnhandledExceptions(saveException, context,
+                        lastIndex < 0 ? null : plan.commands[lastIndex]));
+            } else {
+                if (bounded) {
+                    Deadline.put(context, previous);
+                }
+                result.complete(saveResult);
+            }
+        }
+
+        /**
+         * <p>Restore the deadline of the context, then complete the result
+         * stage exceptionally.</p>
+         */
+        private void fail(Throwable failure) {
+            if (bounded) {
+                Deadline.put(context, previous);
+            }
+            result.completeExceptionally(failure);
+        }
+
+        /**
+         * <p>Return the exception a failed stage completed with, as it was
+         * raised by the {@link AsyncCommand}.</p>
+         */
+        private Exception unwrap(Throwable failure) {
+            Throwable cause = failure;
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                return (Exception) cause;
+            }
+            return new ChainException("An asynchronous command failed", cause);
+        }
+
+    }
+
+}
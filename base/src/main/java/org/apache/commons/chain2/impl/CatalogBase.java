@@ -16,14 +16,18 @@
  */
 package org.apache.commons.chain2.impl;
 
+import static java.util.Collections.unmodifiableList;
 import static java.util.Collections.unmodifiableMap;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
 
 /**
  * <p>Simple in-memory implementation of {@link Catalog}.  This class can
@@ -45,6 +49,18 @@ public class CatalogBase<K, V, C extends Map<K, V>> implements Catalog<K, V, C>
      */
     private final Map<String, Command<K, V, C>> commands = new ConcurrentHashMap<String, Command<K, V, C>>();
 
+    /**
+     * <p>The {@link CommandInterceptor}s applying to the commands of this
+     * {@link Catalog}, outermost first.</p>
+     */
+    private final List<CommandInterceptor<K, V, C>> interceptors =
+            new CopyOnWriteArrayList<CommandInterceptor<K, V, C>>();
+
+    /**
+     * <p>Unmodifiable view of <code>interceptors</code>.</p>
+     */
+    private final List<CommandInterceptor<K, V, C>> interceptorsView = unmodifiableList(interceptors);
+
     // --------------------------------------------------------- Constructors
 
     /**
@@ -68,6 +84,9 @@ public class CatalogBase<K, V, C extends Map<K, V>> implements Catalog<K, V, C>
             throw new IllegalArgumentException("'commands' parameter must be not null");
         }
         this.commands.putAll( commands );
+        for (Command<K, V, C> command : commands.values()) {
+            register(command);
+        }
     }
 
     // --------------------------------------------------------- Public Methods
@@ -84,6 +103,39 @@ public class CatalogBase<K, V, C extends Map<K, V>> implements Catalog<K, V, C>
      */
     public <CMD extends Command<K, V, C>> void addCommand(String name, CMD command) {
         commands.put(name, command);
+        register(command);
+    }
+
+    /**
+     * <p>Add a {@link CommandInterceptor} applying to the commands of this
+     * {@link Catalog}: to the commands of the {@link ChainBase}s registered
+     * in it, and to the commands looked up in it by a
+     * {@link org.apache.commons.chain2.base.LookupCommand}.  The interceptor
+     * is inner to those already registered.  A {@link ChainBase} applies
+     * the interceptors registered when its configuration is frozen.</p>
+     *
+     * @param interceptor The {@link CommandInterceptor} to be added
+     *
+     * @throws IllegalArgumentException if <code>interceptor</code>
+     *  is <code>null</code>
+     * @since 2.0
+     */
+    public void addInterceptor(CommandInterceptor<K, V, C> interceptor) {
+        if (interceptor == null) {
+            throw new IllegalArgumentException("'interceptor' parameter must be not null");
+        }
+        interceptors.add(interceptor);
+    }
+
+    /**
+     * <p>Return the {@link CommandInterceptor}s applying to the commands of
+     * this {@link Catalog}, outermost first.</p>
+     *
+     * @return The unmodifiable list of interceptors
+     * @since 2.0
+     */
+    public List<CommandInterceptor<K, V, C>> getInterceptors() {
+        return interceptorsView;
     }
 
     /**
@@ -140,4 +192,18 @@ public class CatalogBase<K, V, C extends Map<K, V>> implements Catalog<K, V, C>
         return str.append("]").toString();
     }
 
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Let a registered {@link ChainBase} or {@link CopyOnWriteChain}
+     * know its {@link Catalog}.</p>
+     */
+    private void register(Command<K, V, C> command) {
+        if (command instanceof ChainBase) {
+            ((ChainBase<K, V, C>) command).registerIn(this);
+        } else if (command instanceof CopyOnWriteChain) {
+            ((CopyOnWriteChain<K, V, C>) command).registerIn(this);
+        }
+    }
+
 }
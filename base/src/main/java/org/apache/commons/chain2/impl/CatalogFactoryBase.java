@@ -17,14 +17,18 @@
 
 package org.apache.commons.chain2.impl;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.CatalogFactory;
 import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -58,8 +62,51 @@ public class CatalogFactoryBase<K, V, C extends Map<K, V>> implements CatalogFac
      */
     private final Map<String, Catalog<K, V, C>> catalogs = new ConcurrentHashMap<String, Catalog<K, V, C>>();
 
+    /**
+     * <p>The {@link CommandInterceptor}s applying to the commands of every
+     * {@link Catalog}, outermost first.</p>
+     */
+    private final List<CommandInterceptor<K, V, C>> interceptors =
+            new CopyOnWriteArrayList<CommandInterceptor<K, V, C>>();
+
+    /**
+     * <p>Unmodifiable view of <code>interceptors</code>.</p>
+     */
+    private final List<CommandInterceptor<K, V, C>> interceptorsView = Collections.unmodifiableList(interceptors);
+
     // --------------------------------------------------------- Public Methods
 
+    /**
+     * <p>Add a {@link CommandInterceptor} applying to the commands of every
+     * {@link Catalog}, outside of the interceptors of the catalogs
+     * themselves.  A {@link ChainBase} applies the interceptors of the
+     * {@link CatalogFactoryBase} instance of the current class loader
+     * registered when its configuration is frozen.</p>
+     *
+     * @param interceptor The {@link CommandInterceptor} to be added
+     *
+     * @throws IllegalArgumentException if <code>interceptor</code>
+     *  is <code>null</code>
+     * @since 2.0
+     */
+    public void addInterceptor(CommandInterceptor<K, V, C> interceptor) {
+        if (interceptor == null) {
+            throw new IllegalArgumentException("'interceptor' parameter must be not null");
+        }
+        interceptors.add(interceptor);
+    }
+
+    /**
+     * <p>Return the {@link CommandInterceptor}s applying to the commands of
+     * every {@link Catalog}, outermost first.</p>
+     *
+     * @return The unmodifiable list of interceptors
+     * @since 2.0
+     */
+    public List<CommandInterceptor<K, V, C>> getInterceptors() {
+        return interceptorsView;
+    }
+
     /**
      * <p>Gets the default instance of Catalog associated with the factory
      * (if any); otherwise, return <code>null</code>.</p>
@@ -119,6 +166,7 @@ public class CatalogFactoryBase<K, V, C extends Map<K, V>> implements CatalogFac
 
 
     public <CMD extends Command<K, V, C>> CMD getCommand(String commandID) {
+        Object event = ExecutionEvents.beginCatalogLookup();
         String commandName = commandID;
         String catalogName = null;
         Catalog<K, V, C> catalog;
@@ -141,6 +189,7 @@ public class CatalogFactoryBase<K, V, C extends Map<K, V>> implements CatalogFac
             if (catalog == null) {
                 Log log = LogFactory.getLog(CatalogFactoryBase.class);
                 log.warn("No catalog found for name: " + catalogName + ".");
+                ExecutionEvents.endCatalogLookup(event, catalogName, commandName, null);
                 return null;
             }
         } else {
@@ -148,11 +197,14 @@ public class CatalogFactoryBase<K, V, C extends Map<K, V>> implements CatalogFac
             if (catalog == null) {
                 Log log = LogFactory.getLog(CatalogFactoryBase.class);
                 log.warn("No default catalog found.");
+                ExecutionEvents.endCatalogLookup(event, null, commandName, null);
                 return null;
             }
         }
 
-        return catalog.<CMD>getCommand(commandName);
+        CMD command = catalog.<CMD>getCommand(commandName);
+        ExecutionEvents.endCatalogLookup(event, catalogName, commandName, command);
+        return command;
     }
 
     // ------------------------------------------------------- Static Variables
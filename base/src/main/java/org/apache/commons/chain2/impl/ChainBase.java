@@ -16,21 +16,44 @@
  */
 package org.apache.commons.chain2.impl;
 
+import org.apache.commons.chain2.BatchResult;
+import org.apache.commons.chain2.Catalog;
+import org.apache.commons.chain2.CatalogFactory;
 import org.apache.commons.chain2.Chain;
 import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
 import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
 import org.apache.commons.chain2.Filter;
 import org.apache.commons.chain2.ChainException;
 import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.base.LookupCommand;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Convenience base class for {@link Chain} implementations.</p>
  *
+ * <p>Before executing each of its {@link Command}s, a chain checks the
+ * {@link Deadline} stored in the context, if any.  Once it has expired or
+ * been cancelled, the chain stops, postprocesses the {@link Filter}s
+ * executed so far in reverse order, and throws a
+ * {@link DeadlineExceededException} unless one of them handled it.</p>
+ *
+ * <p>Optionally, nested chains can be inlined when the configuration is
+ * frozen: see {@link #setInlineNestedChains(boolean)}, and the execution
+ * plan can be specialized: see {@link #setSpecialized(boolean)}.</p>
+ *
  * @param <K> the type of keys maintained by the context associated with this chain
  * @param <V> the type of mapped values
  * @param <C> Type of the context associated with this chain
@@ -69,6 +92,7 @@ public class ChainBase<K, V, C extends Map<K, V>> implements Chain<K, V, C> {
      *  or one of the individual {@link Command} elements,
      *  is <code>null</code>
      */
+    @SafeVarargs // The commands are only read
     public ChainBase(Command<K, V, C>... commands) {
         if (commands == null) {
             throw new IllegalArgumentException();
@@ -110,7 +134,293 @@ public class ChainBase<K, V, C extends Map<K, V>> implements Chain<K, V, C> {
      * <p>Flag indicating whether the configuration of our commands list
      * has been frozen by a call to the <code>execute()</code> method.</p>
      */
-    private boolean frozen = false;
+    private volatile boolean frozen = false;
+
+    /**
+     * <p>The {@link ExecutionPlan} compiled from our commands list when the
+     * configuration was frozen, or <code>null</code> if it is not frozen
+     * yet.</p>
+     */
+    private volatile ExecutionPlan<K, V, C> plan = null;
+
+    /**
+     * <p>The number of partitions a batch is split into by
+     * <code>executeAll()</code>.</p>
+     */
+    private volatile int batchParallelism = 1;
+
+    /**
+     * <p>The name of this {@link Chain}, used to key its latency
+     * histograms.</p>
+     */
+    private String name = null;
+
+    /**
+     * <p>The recorder of the latencies of our commands, or
+     * <code>null</code> if latencies are not recorded.</p>
+     */
+    private LatencyRecorder latencyRecorder = null;
+
+    /**
+     * <p>The maximum duration of an execution of this {@link Chain}, in
+     * milliseconds, or <code>0</code> if it is only bounded by the
+     * {@link Deadline} of the context, if any.</p>
+     */
+    private volatile long timeout = 0L;
+
+    /**
+     * <p>The {@link CatalogBase} this {@link Chain} was first registered
+     * in, directly or through an enclosing chain, whose interceptors apply
+     * to our commands.</p>
+     */
+    private volatile CatalogBase<K, V, C> catalog = null;
+
+    /**
+     * <p>Flag indicating whether nested chains are inlined into our
+     * {@link ExecutionPlan}.</p>
+     */
+    private boolean inlineNestedChains = false;
+
+    /**
+     * <p>The number of nested chains inlined into our
+     * {@link ExecutionPlan}.</p>
+     */
+    private volatile int inlinedLevels = 0;
+
+    /**
+     * <p>Flag indicating whether our {@link ExecutionPlan} is specialized
+     * when the configuration is frozen.</p>
+     */
+    private boolean specialized = false;
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the number of partitions a batch is split into by
+     * <code>executeAll()</code>.</p>
+     *
+     * @return The batch parallelism
+     * @since 2.0
+     */
+    public int getBatchParallelism() {
+        return batchParallelism;
+    }
+
+    /**
+     * <p>Set the number of partitions a batch is split into by
+     * <code>executeAll()</code>.  With a value greater than one, the
+     * partitions are processed concurrently on the common
+     * <code>ForkJoinPool</code>, so the {@link Command}s of this chain must
+     * support being executed on multiple threads simultaneously.  The
+     * default value is one: the batch is processed on the calling
+     * thread.</p>
+     *
+     * @param batchParallelism The new batch parallelism
+     *
+     * @throws IllegalArgumentException if <code>batchParallelism</code>
+     *  is not strictly positive
+     * @since 2.0
+     */
+    public void setBatchParallelism(int batchParallelism) {
+        if (batchParallelism <= 0) {
+            throw new IllegalArgumentException("'batchParallelism' parameter must be strictly positive");
+        }
+        this.batchParallelism = batchParallelism;
+    }
+
+    /**
+     * <p>Return the name of this {@link Chain}.</p>
+     *
+     * @return The name, or <code>null</code> if not set
+     * @since 2.0
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * <p>Set the name of this {@link Chain}, used to key the latency
+     * histograms of its commands.  A chain registered in a
+     * {@link org.apache.commons.chain2.Catalog} from an XML configuration gets its name there.</p>
+     *
+     * @param name The new name
+     * @since 2.0
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * <p>Return the recorder of the latencies of the commands of this
+     * {@link Chain}.</p>
+     *
+     * @return The recorder, or <code>null</code> if latencies are not
+     *  recorded
+     * @since 2.0
+     */
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /**
+     * <p>Record the latency of every <code>execute()</code> call of the
+     * commands of this {@link Chain} into the specified recorder, under the
+     * key <code>name#position</code>, where <code>name</code> defaults to
+     * <code>chain</code>.  Latencies are recorded by wrappers compiled into
+     * the execution plan when the configuration is frozen; without a
+     * recorder, the commands are invoked directly.  Asynchronous execution
+     * by {@link AsyncChainBase} is not recorded.</p>
+     *
+     * @param latencyRecorder The recorder, or <code>null</code> to disable
+     *  recording
+     *
+     * @throws IllegalStateException if the configuration is already frozen
+     * @since 2.0
+     */
+    public void setLatencyRecorder(LatencyRecorder latencyRecorder) {
+        synchronized (commands) {
+            if (frozen) {
+                throw new IllegalStateException();
+            }
+            this.latencyRecorder = latencyRecorder;
+        }
+    }
+
+    /**
+     * <p>Return the maximum duration of an execution of this
+     * {@link Chain}.</p>
+     *
+     * @return The timeout in milliseconds, or <code>0</code> if executions
+     *  are only bounded by the {@link Deadline} of the context
+     * @since 2.0
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * <p>Set the maximum duration of an execution of this {@link Chain}.
+     * While the chain executes, the context holds a {@link Deadline}
+     * expiring after this timeout, or with the deadline of the context if
+     * it expires earlier; the deadline of the context is restored
+     * afterwards, before the stage returned by
+     * {@link AsyncChainBase#executeAsync(Map)} completes.</p>
+     *
+     * @param timeout The timeout in milliseconds, or <code>0</code> to only
+     *  bound executions by the {@link Deadline} of the context
+     * @since 2.0
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = Math.max(0L, timeout);
+    }
+
+    /**
+     * <p>Return whether nested chains are inlined into the execution plan of
+     * this {@link Chain} when its configuration is frozen.</p>
+     *
+     * @return <code>true</code> if nested chains are inlined
+     * @since 2.0
+     */
+    public boolean isInlineNestedChains() {
+        return inlineNestedChains;
+    }
+
+    /**
+     * <p>Set whether nested chains are inlined into the execution plan of
+     * this {@link Chain} when its configuration is frozen.  The commands of
+     * an inlined chain are executed directly by this chain, which saves a
+     * dispatch level per nested chain: the call to its
+     * <code>execute()</code> method, the check of its frozen flag and its
+     * postprocess walk.  Inlining is applied recursively, to the nested
+     * chains of inlined chains.</p>
+     *
+     * <p>A nested {@link Command} is inlined when it is a plain
+     * <code>ChainBase</code>, not a subclass, or a plain
+     * {@link LookupCommand} with a fixed <code>name</code> resolving to such
+     * a chain, and that chain</p>
+     * <ul>
+     * <li>has at least one command, none of which is a {@link Filter} once
+     *     its own nested chains are inlined;</li>
+     * <li>has no timeout and no latency recorder;</li>
+     * <li>is not subject to any {@link CommandInterceptor}.</li>
+     * </ul>
+     * <p>Under these conditions, the {@link Processing} results, the calls
+     * to <code>postprocess()</code> and the exceptions seen by the
+     * {@link Filter}s of this chain and by its caller are exactly those of
+     * the nested execution: a nested chain has no {@link Filter} to
+     * postprocess, and a failure of its commands is wrapped in a
+     * {@link ChainException} as the nested chain would have done.
+     * Lookups are resolved once, when the configuration is frozen, so that
+     * later changes of the catalogs are not seen.  Execution events,
+     * latency histograms and pipeline stages refer to the inlined commands
+     * by their position in the execution plan of this chain.  Nothing is
+     * inlined when a {@link CommandInterceptor} applies to this chain.</p>
+     *
+     * @param inlineNestedChains <code>true</code> to inline nested chains
+     *
+     * @throws IllegalStateException if the configuration is already frozen
+     * @since 2.0
+     */
+    public void setInlineNestedChains(boolean inlineNestedChains) {
+        synchronized (commands) {
+            if (frozen) {
+                throw new IllegalStateException();
+            }
+            this.inlineNestedChains = inlineNestedChains;
+        }
+    }
+
+    /**
+     * <p>Return the number of nested chains, at any depth, whose commands
+     * were inlined into the execution plan of this {@link Chain}, that is
+     * the number of dispatch levels removed.</p>
+     *
+     * @return The number of inlined chains, or <code>0</code> if the
+     *  configuration is not frozen yet
+     * @since 2.0
+     */
+    public int getInlinedLevels() {
+        return inlinedLevels;
+    }
+
+    /**
+     * <p>Return whether the execution plan of this {@link Chain} is
+     * specialized when its configuration is frozen.</p>
+     *
+     * @return <code>true</code> if the execution plan is specialized
+     * @since 2.0
+     */
+    public boolean isSpecialized() {
+        return specialized;
+    }
+
+    /**
+     * <p>Set whether the execution plan of this {@link Chain} is
+     * specialized when its configuration is frozen.  A specialized plan is
+     * a tree of <code>MethodHandle</code>s that gives each command, and
+     * each {@link Filter} to be postprocessed, its own call site resolved
+     * against its concrete class.  The single call site of the interpreted
+     * loop sees every command class of the application, which prevents the
+     * JIT compiler from inlining it.  The behavior, including deadline
+     * checks, events, interceptors and latency recording, is unchanged.</p>
+     *
+     * <p>Specialization only applies to <code>execute()</code> and
+     * <code>executeAll()</code>.  Plans whose commands cannot be resolved
+     * are left to the interpreted loop.</p>
+     *
+     * @param specialized <code>true</code> to specialize the execution plan
+     *
+     * @throws IllegalStateException if the configuration is already frozen
+     * @since 2.0
+     */
+    public void setSpecialized(boolean specialized) {
+        synchronized (commands) {
+            if (frozen) {
+                throw new IllegalStateException();
+            }
+            this.specialized = specialized;
+        }
+    }
 
     // ---------------------------------------------------------- Chain Methods
 
@@ -128,10 +438,12 @@ public class ChainBase<K, V, C extends Map<K, V>> implements Chain<K, V, C> {
         if (command == null) {
             throw new IllegalArgumentException();
         }
-        if (frozen) {
-            throw new IllegalStateException();
+        synchronized (commands) {
+            if (frozen) {
+                throw new IllegalStateException();
+            }
+            commands.add( command );
         }
-        commands.add( command );
     }
 
     /**
@@ -157,70 +469,176 @@ public class ChainBase<K, V, C extends Map<K, V>> implements Chain<K, V, C> {
         }
 
         // Freeze the configuration of the command list
-        frozen = true;
+        return execute(getExecutionPlan(), context);
+    }
 
-        // Execute the commands in this list until one returns something else 
-        // than Processing.CONTINUE or throws an exception
-        Processing saveResult = Processing.CONTINUE;
-        Exception saveException = null;
-        int i = 0;
-        int n = commands.size();
-        Command<K, V, C> lastCommand = null;
-        for (i = 0; i < n; i++) {
+    /**
+     * See the {@link Chain} Javadoc.  The configuration is frozen once for
+     * the whole batch, and the contexts are processed without going through
+     * <code>execute()</code>.  The batch is split into
+     * <code>batchParallelism</code> contiguous partitions, processed
+     * concurrently.
+     *
+     * @param contexts The contexts to be processed by this {@link Chain}
+     *
+     * @throws IllegalArgumentException if <code>contexts</code>
+     *  is <code>null</code>
+     *
+     * @return The per-context results and failures
+     * @since 2.0
+     */
+    public BatchResult<K, V, C> executeAll(Collection<? extends C> contexts) {
+        if (contexts == null) {
+            throw new IllegalArgumentException("Can't execute a null batch");
+        }
+
+        // Generic arrays cannot be created, and the array only holds the contexts of the batch
+        @SuppressWarnings("unchecked")
+        final C[] batch = (C[]) contexts.toArray(new Map<?, ?>[contexts.size()]);
+        final int n = batch.length;
+        final Processing[] results = new Processing[n];
+        final RuntimeException[] failures = new RuntimeException[n];
+        final ExecutionPlan<K, V, C> plan = getExecutionPlan();
+
+        int partitions = Math.min(batchParallelism, n);
+        if (partitions <= 1) {
+            executeAll(plan, batch, 0, n, results, failures);
+        } else {
+            // Fork all partitions but the last one, that runs on the calling thread
+            CompletableFuture<?>[] forked = new CompletableFuture<?>[partitions - 1];
+            for (int p = 0; p < partitions - 1; p++) {
+                final int from = (int) ((long) n * p / partitions);
+                final int to = (int) ((long) n * (p + 1) / partitions);
+                forked[p] = CompletableFuture.runAsync(new Runnable() {
+                    public void run() {
+                        executeAll(plan, batch, from, to, results, failures);
+                    }
+                }, ForkJoinPool.commonPool());
+            }
+            executeAll(plan, batch, (int) ((long) n * (partitions - 1) / partitions), n, results, failures);
             try {
-                lastCommand = commands.get(i);
-                saveResult = lastCommand.execute(context);
-                if(saveResult == null) {
-                    String format = String.format("The command '%s' returned an invalid processing value: '%s'",
-                            lastCommand.getClass().getName(), saveResult);
-                    throw new ChainException(format);
-                } else if (saveResult != Processing.CONTINUE) {
-                    break;
+                CompletableFuture.allOf(forked).join();
+            } catch (CompletionException e) {
+                // Only errors escape the processing of a partition
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
                 }
-            } catch (Exception e) {
-                saveException = e;
-                break;
+                throw e;
             }
         }
+        return new BatchResult<K, V, C>(Arrays.asList(batch), results, failures);
+    }
 
-        // Call postprocess methods on Filters in reverse order
-        if (i >= n) { // Fell off the end of the chain
-            i--;
+    /**
+     * Wraps an unhandled exception in a {@link ChainException} class.
+     * @param unhandled Unhandled exception as passed from failing command
+     * @param context Context that was passed to failing command
+     * @param failedCommand The command that failed
+     * @return Original unhandled exception wrapped in a ChainException
+     */
+    protected ChainException wrapUnhandledExceptions(Throwable unhandled, C context, Command<K, V, C> failedCommand) {
+        return wrap(unhandled, context, failedCommand);
+    }
+
+    /**
+     * Returns true, if the configuration of our commands list
+     * has been frozen by a call to the <code>execute()</code> method,
+     * false otherwise.
+     *
+     * @return true, if the configuration of our commands list
+     * has been frozen by a call to the <code>execute()</code> method,
+     * false otherwise.
+     * @since 2.0
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    // -------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Return an array of the configured {@link Command}s for this
+     * {@link Chain}.  This method is package private, and is used only
+     * for the unit tests.</p>
+     */
+    List<Command<K, V, C>> getCommands() {
+        return commands;
+    }
+
+    /**
+     * <p>Return the {@link ExecutionPlan} of this {@link Chain}, freezing
+     * the configuration of our commands list if this has not been done
+     * yet.</p>
+     *
+     * @return The {@link ExecutionPlan} of this {@link Chain}
+     */
+    final ExecutionPlan<K, V, C> getExecutionPlan() {
+        ExecutionPlan<K, V, C> plan = this.plan;
+        if (plan == null) {
+            plan = freeze();
+        }
+        return plan;
+    }
+
+    /**
+     * <p>Record the {@link CatalogBase} this {@link Chain} is registered
+     * in, unless it was already registered in another one.</p>
+     *
+     * @param catalog The {@link CatalogBase}
+     */
+    void registerIn(CatalogBase<K, V, C> catalog) {
+        if (this.catalog == null) {
+            this.catalog = catalog;
         }
+    }
+
+    /**
+     * <p>Call the <code>postprocess()</code> method of the {@link Filter}s
+     * executed so far, in reverse order, silently ignoring any exception
+     * they throw.</p>
+     *
+     * @param plan The {@link ExecutionPlan} being executed
+     * @param lastIndex Index of the last executed command, or <code>-1</code>
+     *  if no command was executed
+     * @param context The {@link Context} being processed
+     * @param exception The exception thrown by the last executed command,
+     *  if any; otherwise <code>null</code>
+     * @return <code>true</code> if one of the {@link Filter}s handled the
+     *  exception
+     */
+    final boolean postprocess(ExecutionPlan<K, V, C> plan, int lastIndex, C context, Exception exception) {
         boolean handled = false;
-        boolean result;
-        for (int j = i; j >= 0; j--) {
-            if (commands.get(j) instanceof Filter) {
-                try {
-                    result =
-                        ((Filter<K, V, C>) commands.get(j)).postprocess(context,
-                                                           saveException);
-                    if (result) {
-                        handled = true;
-                    }
-                } catch (Exception e) {
-                      // Silently ignore
+        final Filter<K, V, C>[] filters = plan.filterInvokers;
+        for (int j = plan.filtersToPostprocess(lastIndex) - 1; j >= 0; j--) {
+            Object event = ExecutionEvents.beginFilterPostprocess();
+            boolean result = false;
+            try {
+                result = filters[j].postprocess(context, exception);
+                if (result) {
+                    handled = true;
                 }
+            } catch (Exception e) {
+                  // Silently ignore
             }
+            ExecutionEvents.endFilterPostprocess(event, plan.filters[j], null, name, plan.filterIndices[j],
+                    exception, result);
         }
-
-        // Return the exception or result state from the last execute()
-        if (saveException != null && !handled) {
-            // Wrap and rethrow exception
-            throw wrapUnhandledExceptions(saveException, context,
-                    lastCommand);
-        }
-        return saveResult;
+        return handled;
     }
 
     /**
-     * Wraps an unhandled exception in a {@link ChainException} class.
+     * <p>Wrap an unhandled exception in a {@link ChainException}, as done
+     * by the default implementation of
+     * {@link #wrapUnhandledExceptions(Throwable, Map, Command)}.</p>
+     *
      * @param unhandled Unhandled exception as passed from failing command
      * @param context Context that was passed to failing command
      * @param failedCommand The command that failed
      * @return Original unhandled exception wrapped in a ChainException
      */
-    protected ChainException wrapUnhandledExceptions(Throwable unhandled, C context, Command<K, V, C> failedCommand) {
+    static <K, V, C extends Map<K, V>> ChainException wrap(Throwable unhandled, C context,
+            Command<K, V, C> failedCommand) {
         /* There should not be a reason to rewrap an exception that is already
          * wrapped in a ChainException because the first wrapping preserves
          * the {@link Context} necessary for debugging. Adding more wrapped
@@ -238,28 +656,330 @@ public class ChainBase<K, V, C extends Map<K, V>> implements Chain<K, V, C> {
     }
 
     /**
-     * Returns true, if the configuration of our commands list
-     * has been frozen by a call to the <code>execute()</code> method,
-     * false otherwise.
+     * <p>Create the exception reported when a {@link Command} returned a
+     * <code>null</code> {@link Processing} value.</p>
      *
-     * @return true, if the configuration of our commands list
-     * has been frozen by a call to the <code>execute()</code> method,
-     * false otherwise.
-     * @since 2.0
+     * @param command The {@link Command} that returned <code>null</code>
+     * @return The exception to be reported
      */
-    public boolean isFrozen() {
-        return frozen;
+    static ChainException invalidProcessing(Command<?, ?, ?> command) {
+        String format = String.format("The command '%s' returned an invalid processing value: '%s'",
+                command.getClass().getName(), null);
+        return new ChainException(format);
     }
 
-    // -------------------------------------------------------- Package Methods
+    // -------------------------------------------------------- Private Methods
 
     /**
-     * <p>Return an array of the configured {@link Command}s for this
-     * {@link Chain}.  This method is package private, and is used only
-     * for the unit tests.</p>
+     * <p>Execute the specified {@link ExecutionPlan} over the specified
+     * context, which has already been verified.</p>
+     *
+     * @param plan The {@link ExecutionPlan} of this {@link Chain}
+     * @param context The {@link Context} to be processed
+     * @return The {@link Processing} result of the last executed command
      */
-    List<Command<K, V, C>> getCommands() {
-        return commands;
+    private Processing execute(ExecutionPlan<K, V, C> plan, C context) {
+        long timeout = this.timeout;
+        if (timeout <= 0L) {
+            return executeObserved(plan, context);
+        }
+        Deadline previous = Deadline.get(context);
+        Deadline.put(context, previous == null ? Deadline.after(timeout, TimeUnit.MILLISECONDS)
+                : previous.derive(timeout, TimeUnit.MILLISECONDS));
+        try {
+            return executeObserved(plan, context);
+        } finally {
+            Deadline.put(context, previous);
+        }
+    }
+
+    /**
+     * <p>Execute the specified {@link ExecutionPlan} over the specified
+     * context, recording a chain execution event if enabled.</p>
+     *
+     * @param plan The {@link ExecutionPlan} of this {@link Chain}
+     * @param context The {@link Context} to be processed
+     * @return The {@link Processing} result of the last executed command
+     */
+    private Processing executeObserved(ExecutionPlan<K, V, C> plan, C context) {
+        Object event = ExecutionEvents.beginChainExecution();
+        if (event == null) {
+            return plan.specialized == null ? executeCommands(plan, context) : executeSpecialized(plan, context);
+        }
+        Processing result = null;
+        try {
+            result = plan.specialized == null ? executeCommands(plan, context) : executeSpecialized(plan, context);
+        } finally {
+            ExecutionEvents.endChainExecution(event, this, name, result);
+        }
+        return result;
+    }
+
+    /**
+     * <p>Execute the commands of the specified {@link ExecutionPlan}, then
+     * postprocess its filters.</p>
+     *
+     * @param plan The {@link ExecutionPlan} of this {@link Chain}
+     * @param context The {@link Context} to be processed
+     * @return The {@link Processing} result of the last executed command
+     */
+    private Processing executeCommands(ExecutionPlan<K, V, C> plan, C context) {
+        // Execute the commands in this list until one returns something else
+        // than Processing.CONTINUE or throws an exception
+        final Command<K, V, C>[] commands = plan.commands;
+        final Command<K, V, C>[] invokers = plan.invokers;
+        final int n = commands.length;
+        final Deadline deadline = Deadline.isUsed() ? Deadline.get(context) : null;
+        Processing saveResult = Processing.CONTINUE;
+        Exception saveException = null;
+        Command<K, V, C> skipped = null;
+        int i;
+        for (i = 0; i < n; i++) {
+            if (deadline != null && deadline.isExpired()) {
+                skipped = commands[i];
+                saveException = new DeadlineExceededException(deadline, context, skipped);
+                i--;
+                break;
+            }
+            Object event = ExecutionEvents.beginCommandExecution();
+            try {
+                saveResult = invokers[i].execute(context);
+            } catch (Exception e) {
+                ExecutionEvents.endCommandExecution(event, commands[i], null, name, i, null);
+                saveException = e;
+                break;
+            }
+            ExecutionEvents.endCommandExecution(event, commands[i], null, name, i, saveResult);
+            if (saveResult != Processing.CONTINUE) {
+                if (saveResult == null) {
+                    saveException = invalidProcessing(commands[i]);
+                }
+                break;
+            }
+        }
+
+        // Call postprocess methods on Filters in reverse order
+        if (i >= n) { // Fell off the end of the chain
+            i--;
+        }
+        boolean handled = postprocess(plan, i, context, saveException);
+
+        // Return the exception or result state from the last execute()
+        if (saveException != null && !handled) {
+            // Wrap and rethrow exception
+            throw wrapUnhandledExceptions(saveException, context,
+                    skipped != null ? skipped : i < 0 ? null : commands[i]);
+        }
+        return saveResult;
+    }
+
+    /**
+     * <p>Execute the commands of the specified {@link ExecutionPlan}, then
+     * postprocess its filters, through its {@link SpecializedPlan}.  This
+     * is the counterpart of <code>executeCommands()</code>.</p>
+     *
+     * @param plan The {@link ExecutionPlan} of this {@link Chain}
+     * @param context The {@link Context} to be processed
+     * @return The {@link Processing} result of the last executed command
+     */
+    private Processing executeSpecialized(ExecutionPlan<K, V, C> plan, C context) {
+        SpecializedPlan.Execution<K, V, C> execution = new SpecializedPlan.Execution<K, V, C>(plan, context, name);
+        plan.specialized.execute(execution);
+
+        // Call postprocess methods on Filters in reverse order
+        int i = execution.index;
+        Exception saveException = execution.exception;
+        plan.specialized.postprocess(execution, plan.filtersToPostprocess(i));
+
+        // Return the exception or result state from the last execute()
+        if (saveException != null && !execution.handled) {
+            throw wrapUnhandledExceptions(saveException, context,
+                    execution.skipped != null ? execution.skipped : i < 0 ? null : plan.commands[i]);
+        }
+        return execution.result;
+    }
+
+    /**
+     * <p>Execute the specified {@link ExecutionPlan} over a range of the
+     * contexts of a batch, recording the results and failures at the same
+     * positions.</p>
+     *
+     * @param plan The {@link ExecutionPlan} of this {@link Chain}
+     * @param batch The contexts of the batch
+     * @param from The first position of the range, inclusive
+     * @param to The last position of the range, exclusive
+     * @param results The results of the batch
+     * @param failures The failures of the batch
+     */
+    private void executeAll(ExecutionPlan<K, V, C> plan, C[] batch, int from, int to,
+            Processing[] results, RuntimeException[] failures) {
+        for (int i = from; i < to; i++) {
+            try {
+                if (batch[i] == null) {
+                    throw new IllegalArgumentException("Can't execute a null context");
+                }
+                results[i] = execute(plan, batch[i]);
+            } catch (RuntimeException e) {
+                failures[i] = e;
+            }
+        }
+    }
+
+    /**
+     * <p>Freeze the configuration of our commands list and compile it into
+     * an {@link ExecutionPlan}, unless this has already been done.  The
+     * plan calls our commands through the interceptors registered at this
+     * time on the {@link CatalogFactoryBase} instance of the current class
+     * loader and on the {@link CatalogBase} this chain is registered in,
+     * then through the latency recorder, if any.  Nested chains are
+     * inlined first, and the plan specialized last, if enabled.</p>
+     *
+     * @return The {@link ExecutionPlan} of this {@link Chain}
+     */
+    private ExecutionPlan<K, V, C> freeze() {
+        synchronized (commands) {
+            if (plan == null) {
+                frozen = true;
+                CatalogBase<K, V, C> catalog = this.catalog;
+                if (catalog != null) {
+                    for (Command<K, V, C> command : commands) {
+                        if (command instanceof ChainBase) {
+                            ((ChainBase<K, V, C>) command).registerIn(catalog);
+                        } else if (command instanceof CopyOnWriteChain) {
+                            ((CopyOnWriteChain<K, V, C>) command).registerIn(catalog);
+                        }
+                    }
+                }
+                List<CommandInterceptor<K, V, C>> interceptors =
+                        Interceptors.of(CatalogFactoryBase.<K, V, C>getInstance(), catalog);
+                ExecutionPlan<K, V, C> compiled;
+                if (inlineNestedChains && interceptors.isEmpty()) {
+                    List<Command<K, V, C>> flattened = new ArrayList<Command<K, V, C>>();
+                    IdentityHashMap<ChainBase<K, V, C>, Boolean> path =
+                            new IdentityHashMap<ChainBase<K, V, C>, Boolean>();
+                    path.put(this, Boolean.TRUE);
+                    inlinedLevels = inline(commands, flattened, path);
+                    compiled = new ExecutionPlan<K, V, C>(flattened);
+                } else {
+                    compiled = new ExecutionPlan<K, V, C>(commands);
+                }
+                if (!interceptors.isEmpty()) {
+                    compiled = compiled.intercepted(interceptors);
+                }
+                if (latencyRecorder != null) {
+                    compiled = compiled.recording(latencyRecorder, name == null ? "chain" : name);
+                }
+                if (specialized) {
+                    compiled = compiled.specialized();
+                }
+                plan = compiled;
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * <p>Append the specified commands to the specified list, replacing the
+     * nested chains that can be inlined by their own commands, wrapped in
+     * {@link ExecutionPlan.InlinedCommand}s.</p>
+     *
+     * @param source The commands to be inlined
+     * @param target The list the commands are appended to
+     * @param path The chains being inlined, to guard against cycles
+     * @return The number of inlined chains
+     */
+    private static <K, V, C extends Map<K, V>> int inline(List<Command<K, V, C>> source,
+            List<Command<K, V, C>> target, IdentityHashMap<ChainBase<K, V, C>, Boolean> path) {
+        int levels = 0;
+        for (Command<K, V, C> command : source) {
+            ChainBase<K, V, C> nested = inlineable(command, path);
+            if (nested == null) {
+                target.add(command);
+                continue;
+            }
+
+            // Freeze the configuration of the nested chain, as executing it
+            // would have done, without compiling its own plan
+            List<Command<K, V, C>> children;
+            synchronized (nested.commands) {
+                nested.frozen = true;
+                children = new ArrayList<Command<K, V, C>>(nested.commands);
+            }
+            if (nested.catalog != null) {
+                for (Command<K, V, C> child : children) {
+                    if (child instanceof ChainBase) {
+                        ((ChainBase<K, V, C>) child).registerIn(nested.catalog);
+                    }
+                }
+            }
+            List<Command<K, V, C>> flattened = new ArrayList<Command<K, V, C>>();
+            path.put(nested, Boolean.TRUE);
+            int nestedLevels = inline(children, flattened, path);
+            path.remove(nested);
+
+            boolean filtered = flattened.isEmpty();
+            for (Command<K, V, C> child : flattened) {
+                filtered |= child instanceof Filter;
+            }
+            if (filtered) {
+                target.add(command);
+                continue;
+            }
+            for (Command<K, V, C> child : flattened) {
+                target.add(child instanceof ExecutionPlan.InlinedCommand ? child
+                        : new ExecutionPlan.InlinedCommand<K, V, C>(child));
+            }
+            levels += nestedLevels + 1;
+        }
+        return levels;
+    }
+
+    /**
+     * <p>Return the chain to be inlined in place of the specified command,
+     * if any.</p>
+     *
+     * @param command The command of the enclosing chain
+     * @param path The chains being inlined, to guard against cycles
+     * @return The chain to be inlined, or <code>null</code>
+     */
+    private static <K, V, C extends Map<K, V>> ChainBase<K, V, C> inlineable(Command<K, V, C> command,
+            IdentityHashMap<ChainBase<K, V, C>, Boolean> path) {
+        if (command.getClass() == LookupCommand.class) {
+            command = resolve((LookupCommand<K, V, C>) command);
+        }
+        if (command == null || command.getClass() != ChainBase.class) {
+            return null;
+        }
+        ChainBase<K, V, C> nested = (ChainBase<K, V, C>) command;
+        if (path.containsKey(nested) || nested.timeout > 0L || nested.latencyRecorder != null
+                || !Interceptors.of(CatalogFactoryBase.<K, V, C>getInstance(), nested.catalog).isEmpty()) {
+            return null;
+        }
+        return nested;
+    }
+
+    /**
+     * <p>Return the {@link Command} a {@link LookupCommand} always delegates
+     * to, if it uses a fixed name, does not alter the result of the command
+     * and does not apply any {@link CommandInterceptor}.</p>
+     *
+     * @param lookup The {@link LookupCommand}
+     * @return The looked up {@link Command}, or <code>null</code>
+     */
+    private static <K, V, C extends Map<K, V>> Command<K, V, C> resolve(LookupCommand<K, V, C> lookup) {
+        if (lookup.getName() == null || lookup.isIgnoreExecuteResult() || lookup.getLatencyRecorder() != null) {
+            return null;
+        }
+        CatalogFactory<K, V, C> factory = lookup.getCatalogFactory();
+        if (factory == null) {
+            factory = CatalogFactoryBase.getInstance();
+        }
+        Catalog<K, V, C> catalog = lookup.getCatalogName() == null ? factory.getCatalog()
+                : factory.getCatalog(lookup.getCatalogName());
+        if (catalog == null || !Interceptors.of(factory, catalog).isEmpty()) {
+            return null;
+        }
+        return catalog.getCommand(lookup.getName());
     }
 
 }
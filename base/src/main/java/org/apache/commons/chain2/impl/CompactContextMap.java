@@ -0,0 +1,568 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.Context;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>{@link Context} implementation tuned for the small maps, confined to
+ * a single thread, that most contexts are.  Unlike {@link ContextMap}, it
+ * is <strong>not</strong> thread-safe: a context shared by the commands of
+ * an {@link AsyncChainBase} or a {@link PipelinedChain} must be a
+ * {@link ContextMap}.</p>
+ *
+ * <p>Keys and values are held in insertion order by two parallel arrays,
+ * and located through an open-addressing table of indices into these
+ * arrays, probed linearly and at most half full.  Storing a mapping
+ * allocates nothing unless the arrays have to grow, and removing one moves
+ * the last mapping into its place.  Like {@link ContextMap}, this map
+ * accepts neither <code>null</code> keys nor <code>null</code>
+ * values.</p>
+ *
+ * @param <K> the type of keys maintained by this context
+ * @param <V> the type of mapped values
+ *
+ * @since 2.0
+ */
+public class CompactContextMap<K, V> extends AbstractMap<K, V> implements Context<K, V>, Serializable {
+
+    // ------------------------------------------------------ Manifest Constants
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 20120724L;
+
+    /**
+     * <p>The number of mappings held without growing by default.</p>
+     */
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * <p>The arrays of a context which has never held a mapping.  The table
+     * has two empty slots that are never written.</p>
+     */
+    private static final Object[] NO_KEYS = new Object[0];
+
+    private static final int[] NO_SLOTS = new int[2];
+
+    // ------------------------------------------------------ Instance Variables
+
+    /**
+     * <p>The keys, in insertion order, in <code>keys[0..size-1]</code>.</p>
+     */
+    private transient Object[] keys;
+
+    /**
+     * <p>The value of each element of <code>keys</code>.</p>
+     */
+    private transient Object[] values;
+
+    /**
+     * <p>Open-addressing table, twice as long as <code>keys</code> once
+     * allocated, of the
+     * index plus one in <code>keys</code> of the key hashed to each slot,
+     * or <code>0</code> for an empty slot.  Being derived from the hash
+     * codes of the keys, which may differ from one virtual machine to
+     * another, it is rebuilt when the context is deserialized.</p>
+     */
+    private transient int[] slots;
+
+    /**
+     * <p>The number of mappings.</p>
+     */
+    private transient int size;
+
+    /**
+     * <p>The number of structural modifications, checked by the iterators.
+     * </p>
+     */
+    private transient int modCount;
+
+    /**
+     * <p>The lazily created view of the mappings.</p>
+     */
+    private transient Set<Entry<K, V>> entrySet;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * Creates a new, empty Context with a default initial capacity, allocated
+     * when the first mapping is stored.
+     */
+    public CompactContextMap() {
+        this(0);
+    }
+
+    /**
+     * Creates a new, empty Context holding the specified number of mappings
+     * without growing, or allocating its arrays with the default capacity
+     * when the first mapping is stored if the initial capacity is zero.
+     *
+     * @param initialCapacity the initial capacity.
+     * @throws IllegalArgumentException if the initial capacity is negative
+     */
+    public CompactContextMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Creates a new Context with the same mappings as the given map.
+     *
+     * @param t Map whose key-value pairs are added
+     */
+    public CompactContextMap(Map<? extends K, ? extends V> t) {
+        this(t.size());
+        putAll(t);
+    }
+
+    // ------------------------------------------------------------- Map Methods
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        for (int i = 0; i < size; i++) {
+            if (value.equals(values[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int mask = slots.length - 1;
+        int slot = home(key, slots);
+        for (int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+            Object candidate = keys[entry - 1];
+            if (candidate == key || candidate.equals(key)) {
+                V previous = (V) values[entry - 1];
+                values[entry - 1] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            grow();
+            mask = slots.length - 1;
+            slot = home(key, slots);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        keys[size] = key;
+        values[size] = value;
+        slots[slot] = ++size;
+        modCount++;
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        V previous = (V) values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            Arrays.fill(slots, 0);
+            size = 0;
+            modCount++;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> result = entrySet;
+        if (result == null) {
+            result = new EntrySet();
+            entrySet = result;
+        }
+        return result;
+    }
+
+    // --------------------------------------------------------- Context Methods
+
+    /**
+     * {@inheritDoc}
+     */
+    public <T extends V> T retrieve(K key) {
+        V valueObject = get(key);
+        if (valueObject == null) {
+            return null;
+        }
+        // will throw ClassCastException if type are not assignable anyway
+        @SuppressWarnings("unchecked")
+        T value = (T) valueObject;
+        return value;
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Allocate the arrays to hold the specified number of mappings
+     * without growing, or share the empty arrays if it is zero.</p>
+     *
+     * @param initialCapacity The number of mappings, which must not be
+     *  negative
+     */
+    private void allocate(int initialCapacity) {
+        if (initialCapacity == 0) {
+            keys = NO_KEYS;
+            values = NO_KEYS;
+            slots = NO_SLOTS;
+        } else {
+            int capacity = Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1;
+            keys = new Object[capacity];
+            values = new Object[capacity];
+            slots = new int[capacity * 2];
+        }
+    }
+
+    /**
+     * <p>Return the slot where probing for the specified key starts in the
+     * specified table.  The hash code of the key is multiplied by the golden
+     * ratio, and the top bits of the product are kept, so that keys with
+     * consecutive hash codes, such as <code>"key1"</code> and
+     * <code>"key2"</code>, are scattered instead of forming a single cluster
+     * in the table.</p>
+     *
+     * @param key The key, which must not be <code>null</code>
+     * @param table The table, whose length is a power of two greater than one
+     */
+    private static int home(Object key, int[] table) {
+        return (key.hashCode() * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(table.length - 1);
+    }
+
+    /**
+     * <p>Return the index in <code>keys</code> of the specified key, or
+     * <code>-1</code> if it is not mapped.</p>
+     *
+     * @param key The key to be located
+     */
+    private int indexOf(Object key) {
+        int mask = slots.length - 1;
+        int slot = home(key, slots);
+        for (int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+            Object candidate = keys[entry - 1];
+            if (candidate == key || candidate.equals(key)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * <p>Return the slot holding the specified index in <code>keys</code>.
+     * </p>
+     *
+     * @param index The index of a mapped key
+     */
+    private int slotOf(int index) {
+        int mask = slots.length - 1;
+        int slot = home(keys[index], slots);
+        while (slots[slot] != index + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * <p>Double the capacity of the arrays, or allocate them with the
+     * default capacity, and rebuild the table.</p>
+     */
+    private void grow() {
+        int capacity = Math.max(keys.length * 2, DEFAULT_CAPACITY);
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        slots = new int[capacity * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = home(keys[i], slots);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * <p>Remove the mapping at the specified index in <code>keys</code>,
+     * moving the last mapping into its place.</p>
+     *
+     * @param index The index of the mapping to be removed
+     */
+    private void removeAt(int index) {
+        // Empty the slot, shifting back the keys probed past it
+        int mask = slots.length - 1;
+        int hole = slotOf(index);
+        for (int slot = (hole + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int home = home(keys[slots[slot] - 1], slots);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slots[hole] = slots[slot];
+                hole = slot;
+            }
+        }
+        slots[hole] = 0;
+
+        // Keep the arrays dense
+        int last = size - 1;
+        if (index != last) {
+            slots[slotOf(last)] = index + 1;
+            keys[index] = keys[last];
+            values[index] = values[last];
+        }
+        keys[last] = null;
+        values[last] = null;
+        size = last;
+        modCount++;
+    }
+
+    /**
+     * <p>Write the number of mappings, then the key and the value of every
+     * mapping in insertion order.</p>
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeObject(keys[i]);
+            out.writeObject(values[i]);
+        }
+    }
+
+    /**
+     * <p>Read the mappings written by {@link #writeObject(ObjectOutputStream)},
+     * rebuilding the table from the hash codes of this virtual machine.</p>
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new InvalidObjectException("Illegal size: " + count);
+        }
+        allocate(count);
+        for (int i = 0; i < count; i++) {
+            Object key = in.readObject();
+            Object value = in.readObject();
+            if (key == null || value == null) {
+                throw new InvalidObjectException("Null key or value");
+            }
+            put((K) key, (V) value);
+        }
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>View of the mappings, backed by the arrays.</p>
+     */
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            Object key = entry.getKey();
+            int index = key == null ? -1 : indexOf(key);
+            return index >= 0 && values[index].equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            removeAt(indexOf(((Entry<?, ?>) o).getKey()));
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            CompactContextMap.this.clear();
+        }
+
+    }
+
+    /**
+     * <p>Iterator over the mappings, in the order of the arrays.  Removing
+     * the current mapping moves the last one into its place, where the
+     * iteration resumes.</p>
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private int next = 0;
+
+        private int current = -1;
+
+        private int expectedModCount = modCount;
+
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        public Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            current = next++;
+            return new MapEntry(current);
+        }
+
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current);
+            next = current;
+            current = -1;
+            expectedModCount = modCount;
+        }
+
+    }
+
+    /**
+     * <p>Mapping at an index of the arrays, writing its value through.</p>
+     */
+    private final class MapEntry extends SimpleEntry<K, V> {
+
+        private static final long serialVersionUID = 20120724L;
+
+        private final int index;
+
+        @SuppressWarnings("unchecked")
+        MapEntry(int index) {
+            super((K) keys[index], (V) values[index]);
+            this.index = index;
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (value == null) {
+                throw new NullPointerException();
+            }
+            if (index < size && keys[index] == getKey()) {
+                values[index] = value;
+            }
+            return super.setValue(value);
+        }
+
+    }
+
+}
@@ -17,15 +17,20 @@
 package org.apache.commons.chain2.impl;
 
 import org.apache.commons.chain2.Context;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.AbstractCollection;
 import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -83,24 +88,36 @@ public class ContextBase extends ContextMap<String, Object> {
 
     // ------------------------------------------------------ Instance Variables
 
-    // NOTE - PropertyDescriptor instances are not Serializable, so the
+    // NOTE - Property instances are not Serializable, so the
     // following variables must be declared as transient.  When a ContextBase
     // instance is deserialized, the no-arguments constructor is called,
     // and the initialize() method called there will repoopulate them.
     // Therefore, no special restoration activity is required.
 
     /**
-     * <p>The <code>PropertyDescriptor</code>s for all JavaBeans properties
-     * of this {@link Context} implementation class, keyed by property name.
-     * This collection is allocated only if there are any JavaBeans
-     * properties.</p>
+     * <p>The accessors of all JavaBeans properties of this {@link Context}
+     * implementation class, keyed by property name.  This unmodifiable
+     * collection is shared by all the instances of the class, and is
+     * <code>null</code> if there are no JavaBeans properties.</p>
      */
-    private transient Map<String, PropertyDescriptor> descriptors = null;
+    private transient Map<String, Property> descriptors = null;
 
     /**
-     * <p>The same <code>PropertyDescriptor</code>s as an array.</p>
+     * <p>The same accessors as an array, shared by all the instances of the
+     * class.</p>
      */
-    private transient PropertyDescriptor[] pd = null;
+    private transient Property[] pd = null;
+
+    /**
+     * <p>The property metadata of each {@link Context} implementation class,
+     * introspected the first time an instance of the class is created.</p>
+     */
+    private static final ClassValue<PropertyMetadata> metadata = new ClassValue<PropertyMetadata>() {
+        @Override
+        protected PropertyMetadata computeValue(Class<?> type) {
+            return new PropertyMetadata(type);
+        }
+    };
 
     /**
      * <p>Distinguished singleton value that is stored in the map for each
@@ -125,12 +142,6 @@ public class ContextBase extends ContextMap<String, Object> {
             };
     }
 
-    /**
-     * <p>Zero-length array of parameter values for calling property getters.
-     * </p>
-     */
-    private static Object[] zeroParams = new Object[0];
-
     // ------------------------------------------------------------- Map Methods
 
     /**
@@ -175,8 +186,8 @@ public class ContextBase extends ContextMap<String, Object> {
         }
 
         // Case 3 -- check the values of our readable properties
-        for (PropertyDescriptor aPd : pd) {
-            if (aPd.getReadMethod() != null) {
+        for (Property aPd : pd) {
+            if (aPd.getter != null) {
                 Object prop = readProperty(aPd);
                 if (value == null) {
                     if (prop == null) {
@@ -231,9 +242,9 @@ public class ContextBase extends ContextMap<String, Object> {
 
         // Case 2 -- this is a local property
         if (key != null) {
-            PropertyDescriptor descriptor = descriptors.get(key);
+            Property descriptor = descriptors.get(key);
             if (descriptor != null) {
-                if (descriptor.getReadMethod() != null) {
+                if (descriptor.getter != null) {
                     return readProperty(descriptor);
                 } else {
                     return null;
@@ -313,10 +324,10 @@ public class ContextBase extends ContextMap<String, Object> {
 
         // Case 2 -- this is a local property
         if (key != null) {
-            PropertyDescriptor descriptor = descriptors.get(key);
+            Property descriptor = descriptors.get(key);
             if (descriptor != null) {
                 Object previous = null;
-                if (descriptor.getReadMethod() != null) {
+                if (descriptor.getter != null) {
                     previous = readProperty(descriptor);
                 }
                 writeProperty(descriptor, value);
@@ -368,7 +379,7 @@ public class ContextBase extends ContextMap<String, Object> {
 
         // Case 2 -- this is a local property
         if (key != null) {
-            PropertyDescriptor descriptor = descriptors.get(key);
+            Property descriptor = descriptors.get(key);
             if (descriptor != null) {
                 throw new UnsupportedOperationException
                     ("Local property '" + key + "' cannot be removed");
@@ -428,53 +439,41 @@ public class ContextBase extends ContextMap<String, Object> {
      *  have a write method.
      */
     private void initialize() {
-        // Retrieve the set of property descriptors for this Context class
-        try {
-            pd = Introspector.getBeanInfo
-                (getClass()).getPropertyDescriptors();
-        } catch (IntrospectionException e) {
-            pd = new PropertyDescriptor[0]; // Should never happen
-        }
+        // Retrieve the property descriptors computed once for this Context class
+        PropertyMetadata local = metadata.get(getClass());
+        pd = local.pd;
+        descriptors = local.descriptors;
 
         // Initialize the underlying Map contents
-        for (PropertyDescriptor propertyDescriptor : pd) {
-            String name = propertyDescriptor.getName();
-
-            // Add descriptor (ignoring getClass() and isEmpty())
-            if (!("class".equals(name) || "empty".equals(name))) {
-                if (descriptors == null) {
-                    descriptors = new HashMap<String, PropertyDescriptor>(pd.length - 2);
-                }
-                descriptors.put(name, propertyDescriptor);
-                super.put(name, singleton);
-            }
+        for (String name : local.names) {
+            super.put(name, singleton);
         }
     }
 
     /**
      * <p>Get and return the value for the specified property.</p>
      *
-     * @param descriptor <code>PropertyDescriptor</code> for the
-     *  specified property
+     * @param descriptor <code>Property</code> for the specified property
      *
-     * @throws IllegalArgumentException if an exception is thrown
-     *  reading this local property value
      * @throws UnsupportedOperationException if this local property does not
-     *  have a read method.
+     *  have a read method, or if an exception is thrown reading this local
+     *  property value, which is then the cause of the exception
      */
-    private Object readProperty(PropertyDescriptor descriptor) {
+    @IgnoreJRERequirement // invokeExact() is signature polymorphic
+    private Object readProperty(Property descriptor) {
+        MethodHandle getter = descriptor.getter;
+        if (getter == null) {
+            throw new UnsupportedOperationException
+                ("Property '" + descriptor.name + "' is not readable");
+        }
         try {
-            Method method = descriptor.getReadMethod();
-            if (method == null) {
-                throw new UnsupportedOperationException
-                    ("Property '" + descriptor.getName()
-                     + "' is not readable");
-            }
-            return method.invoke(this, zeroParams);
-        } catch (Exception e) {
+            return (Object) getter.invokeExact((Object) this);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
             throw new UnsupportedOperationException
-                ("Exception reading property '" + descriptor.getName()
-                 + "': " + e.getMessage());
+                ("Exception reading property '" + descriptor.name
+                 + "': " + t.getMessage(), t);
         }
     }
 
@@ -511,34 +510,137 @@ public class ContextBase extends ContextMap<String, Object> {
     /**
      * <p>Set the value for the specified property.</p>
      *
-     * @param descriptor <code>PropertyDescriptor</code> for the
-     *  specified property
+     * @param descriptor <code>Property</code> for the specified property
      * @param value The new value for this property (must be of the
      *  correct type)
      *
-     * @throws IllegalArgumentException if an exception is thrown
-     *  writing this local property value
      * @throws UnsupportedOperationException if this local property does not
-     *  have a write method.
+     *  have a write method, or if an exception is thrown writing this local
+     *  property value, which is then the cause of the exception
      */
-    private void writeProperty(PropertyDescriptor descriptor, Object value) {
+    @IgnoreJRERequirement // invokeExact() is signature polymorphic
+    private void writeProperty(Property descriptor, Object value) {
+        MethodHandle setter = descriptor.setter;
+        if (setter == null) {
+            throw new UnsupportedOperationException
+                ("Property '" + descriptor.name + "' is not writeable");
+        }
         try {
-            Method method = descriptor.getWriteMethod();
-            if (method == null) {
-                throw new UnsupportedOperationException
-                    ("Property '" + descriptor.getName()
-                     + "' is not writeable");
-            }
-            method.invoke(this, new Object[] {value});
-        } catch (Exception e) {
+            setter.invokeExact((Object) this, value);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
             throw new UnsupportedOperationException
-                ("Exception writing property '" + descriptor.getName()
-                 + "': " + e.getMessage());
+                ("Exception writing property '" + descriptor.name
+                 + "': " + t.getMessage(), t);
         }
     }
 
     // --------------------------------------------------------- Private Classes
 
+    /**
+     * <p>Immutable JavaBeans property metadata of a {@link Context}
+     * implementation class.</p>
+     */
+    private static final class PropertyMetadata {
+
+        private final Property[] pd;
+
+        private final Map<String, Property> descriptors;
+
+        private final String[] names;
+
+        PropertyMetadata(Class<?> type) {
+            PropertyDescriptor[] pd;
+            try {
+                pd = Introspector.getBeanInfo(type).getPropertyDescriptors();
+            } catch (IntrospectionException e) {
+                pd = new PropertyDescriptor[0]; // Should never happen
+            }
+
+            // Collect accessors (ignoring getClass() and isEmpty())
+            this.pd = new Property[pd.length];
+            Map<String, Property> descriptors = null;
+            for (int i = 0; i < pd.length; i++) {
+                Property property = new Property(pd[i]);
+                this.pd[i] = property;
+                String name = property.name;
+                if (!("class".equals(name) || "empty".equals(name))) {
+                    if (descriptors == null) {
+                        descriptors = new HashMap<String, Property>(pd.length - 2);
+                    }
+                    descriptors.put(name, property);
+                }
+            }
+
+            if (descriptors == null) {
+                this.descriptors = null;
+                this.names = new String[0];
+            } else {
+                this.descriptors = Collections.unmodifiableMap(descriptors);
+                this.names = descriptors.keySet().toArray(new String[descriptors.size()]);
+            }
+        }
+
+    }
+
+    /**
+     * <p>JavaBeans property of a {@link Context} implementation class, read
+     * and written through method handles adapted to <code>Object</code>
+     * arguments and results, so that accessing it neither allocates an
+     * argument array nor goes through reflection.</p>
+     */
+    private static final class Property {
+
+        private static final MethodType GETTER =
+            MethodType.methodType(Object.class, Object.class);
+
+        private static final MethodType SETTER =
+            MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final String name;
+
+        private final MethodHandle getter;
+
+        private final MethodHandle setter;
+
+        Property(PropertyDescriptor descriptor) {
+            name = descriptor.getName();
+            getter = accessor(descriptor.getReadMethod(), GETTER);
+            setter = accessor(descriptor.getWriteMethod(), SETTER);
+        }
+
+        /**
+         * <p>Return a handle of the specified type invoking the specified
+         * public method, or <code>null</code> if there is no method.  A
+         * method which cannot be accessed is given a handle throwing the
+         * access failure, like reflection did on every invocation.</p>
+         */
+        private static MethodHandle accessor(Method method, MethodType type) {
+            if (method == null) {
+                return null;
+            }
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            try {
+                return lookup.unreflect(method).asType(type);
+            } catch (IllegalAccessException e) {
+                // Public method of a class which is not itself public
+                try {
+                    method.setAccessible(true);
+                    return lookup.unreflect(method).asType(type);
+                } catch (IllegalAccessException ignored) {
+                    // Fall through
+                } catch (RuntimeException ignored) {
+                    // Fall through
+                }
+                MethodHandle failure = MethodHandles.throwException
+                    (type.returnType(), IllegalAccessException.class).bindTo(e);
+                return MethodHandles.dropArguments(failure, 0, type.parameterList());
+            }
+        }
+
+    }
+
     /**
      * <p>Private implementation of <code>Set</code> that implements the
      * semantics required for the value returned by <code>entrySet()</code>.</p>
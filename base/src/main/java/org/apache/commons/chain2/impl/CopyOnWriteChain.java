@@ -0,0 +1,515 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.BatchResult;
+import org.apache.commons.chain2.Chain;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>{@link Chain} whose {@link Command}s can be added, inserted, removed
+ * and replaced while it is being executed.  Unlike {@link ChainBase}, whose
+ * configuration is frozen by the first execution, this chain never
+ * refuses a change.</p>
+ *
+ * <p>The commands are held by an immutable snapshot: a frozen
+ * {@link ChainBase} whose execution plan has already been compiled.  Every
+ * change copies the command list, compiles a new snapshot, then publishes
+ * it with a single volatile write.  An execution reads the current snapshot
+ * once, and runs to completion on it, whatever changes are published in
+ * the meantime; it never takes a lock.  Changes are serialized by a
+ * private lock, and cost a copy of the command list each, so this class
+ * suits chains that are reconfigured far less often than they are
+ * executed.</p>
+ *
+ * <p>The interceptors applying to the commands are those registered when
+ * a snapshot is compiled, on the {@link CatalogFactoryBase} instance of the
+ * current class loader and on the {@link CatalogBase} this chain is
+ * registered in.</p>
+ *
+ * <p>The properties of the snapshots, such as the timeout or the latency
+ * recorder, are set on this chain and copied to every snapshot it
+ * compiles.  A change of property publishes a new snapshot, like a change
+ * of commands.  All the snapshots share the same {@link LatencyRecorder},
+ * so that its histograms survive the swaps; they are keyed by position, so
+ * inserting or removing a command shifts the keys of the commands
+ * after it.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this chain
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this chain
+ *
+ * @since 2.0
+ */
+public class CopyOnWriteChain<K, V, C extends Map<K, V>> implements Chain<K, V, C> {
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a {@link Chain} with no configured {@link Command}s.</p>
+     */
+    public CopyOnWriteChain() {
+        publish(Collections.<Command<K, V, C>>emptyList());
+    }
+
+    /**
+     * <p>Construct a {@link Chain} configured with the specified
+     * {@link Command}s.</p>
+     *
+     * @param commands The {@link Command}s to be configured
+     *
+     * @throws IllegalArgumentException if <code>commands</code>,
+     *  or one of the individual {@link Command} elements,
+     *  is <code>null</code>
+     */
+    public CopyOnWriteChain(Collection<Command<K, V, C>> commands) {
+        if (commands == null) {
+            throw new IllegalArgumentException();
+        }
+        for (Command<K, V, C> command : commands) {
+            if (command == null) {
+                throw new IllegalArgumentException();
+            }
+        }
+        publish(new ArrayList<Command<K, V, C>>(commands));
+    }
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The lock serializing the changes of configuration.</p>
+     */
+    private final Object lock = new Object();
+
+    /**
+     * <p>The current snapshot: a frozen {@link ChainBase}, with a compiled
+     * execution plan.</p>
+     */
+    private volatile ChainBase<K, V, C> snapshot;
+
+    /**
+     * <p>The name given to the snapshots.</p>
+     */
+    private String name = null;
+
+    /**
+     * <p>The timeout given to the snapshots, in milliseconds.</p>
+     */
+    private long timeout = 0L;
+
+    /**
+     * <p>The recorder given to the snapshots, if any.</p>
+     */
+    private LatencyRecorder latencyRecorder = null;
+
+    /**
+     * <p>Whether the snapshots inline their nested chains.</p>
+     */
+    private boolean inlineNestedChains = false;
+
+    /**
+     * <p>Whether the execution plans of the snapshots are specialized.</p>
+     */
+    private boolean specialized = false;
+
+    /**
+     * <p>The batch parallelism given to the snapshots.</p>
+     */
+    private int batchParallelism = 1;
+
+    /**
+     * <p>The {@link CatalogBase} this {@link Chain} was first registered
+     * in.</p>
+     */
+    private CatalogBase<K, V, C> catalog = null;
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the name of this {@link Chain}.</p>
+     *
+     * @return The name, or <code>null</code> if not set
+     */
+    public String getName() {
+        synchronized (lock) {
+            return name;
+        }
+    }
+
+    /**
+     * <p>Set the name of this {@link Chain}, used to key the latency
+     * histograms and execution events of its commands.</p>
+     *
+     * @param name The new name
+     */
+    public void setName(String name) {
+        synchronized (lock) {
+            this.name = name;
+            publish(snapshot.getCommands());
+        }
+    }
+
+    /**
+     * <p>Return the maximum duration of an execution of this
+     * {@link Chain}.</p>
+     *
+     * @return The timeout in milliseconds, or <code>0</code> if executions
+     *  are only bounded by the deadline of the context
+     * @see ChainBase#getTimeout()
+     */
+    public long getTimeout() {
+        synchronized (lock) {
+            return timeout;
+        }
+    }
+
+    /**
+     * <p>Set the maximum duration of an execution of this {@link Chain}.
+     * Executions already started keep their timeout.</p>
+     *
+     * @param timeout The timeout in milliseconds, or <code>0</code> to only
+     *  bound executions by the deadline of the context
+     * @see ChainBase#setTimeout(long)
+     */
+    public void setTimeout(long timeout) {
+        synchronized (lock) {
+            this.timeout = Math.max(0L, timeout);
+            publish(snapshot.getCommands());
+        }
+    }
+
+    /**
+     * <p>Return the recorder of the latencies of the commands of this
+     * {@link Chain}.</p>
+     *
+     * @return The recorder, or <code>null</code> if latencies are not
+     *  recorded
+     * @see ChainBase#getLatencyRecorder()
+     */
+    public LatencyRecorder getLatencyRecorder() {
+        synchronized (lock) {
+            return latencyRecorder;
+        }
+    }
+
+    /**
+     * <p>Record the latency of the commands of this {@link Chain} into the
+     * specified recorder, shared by all the snapshots.  Executions already
+     * started keep their recorder.</p>
+     *
+     * @param latencyRecorder The recorder, or <code>null</code> to disable
+     *  recording
+     * @see ChainBase#setLatencyRecorder(LatencyRecorder)
+     */
+    public void setLatencyRecorder(LatencyRecorder latencyRecorder) {
+        synchronized (lock) {
+            this.latencyRecorder = latencyRecorder;
+            publish(snapshot.getCommands());
+        }
+    }
+
+    /**
+     * <p>Return whether nested chains are inlined into the execution plans
+     * of the snapshots.</p>
+     *
+     * @return <code>true</code> if nested chains are inlined
+     * @see ChainBase#isInlineNestedChains()
+     */
+    public boolean isInlineNestedChains() {
+        synchronized (lock) {
+            return inlineNestedChains;
+        }
+    }
+
+    /**
+     * <p>Set whether nested chains are inlined into the execution plans of
+     * the snapshots.  Nested chains are resolved when a snapshot is
+     * compiled, so that later changes of a nested chain are only seen by
+     * the next snapshot.</p>
+     *
+     * @param inlineNestedChains <code>true</code> to inline nested chains
+     * @see ChainBase#setInlineNestedChains(boolean)
+     */
+    public void setInlineNestedChains(boolean inlineNestedChains) {
+        synchronized (lock) {
+            this.inlineNestedChains = inlineNestedChains;
+            publish(snapshot.getCommands());
+        }
+    }
+
+    /**
+     * <p>Return whether the execution plans of the snapshots are
+     * specialized.</p>
+     *
+     * @return <code>true</code> if the execution plans are specialized
+     * @see ChainBase#isSpecialized()
+     */
+    public boolean isSpecialized() {
+        synchronized (lock) {
+            return specialized;
+        }
+    }
+
+    /**
+     * <p>Set whether the execution plans of the snapshots are specialized.
+     * Every change then pays for the specialization of a new plan.</p>
+     *
+     * @param specialized <code>true</code> to specialize the execution plans
+     * @see ChainBase#setSpecialized(boolean)
+     */
+    public void setSpecialized(boolean specialized) {
+        synchronized (lock) {
+            this.specialized = specialized;
+            publish(snapshot.getCommands());
+        }
+    }
+
+    /**
+     * <p>Return the number of partitions a batch is split into by
+     * <code>executeAll()</code>.</p>
+     *
+     * @return The batch parallelism
+     * @see ChainBase#getBatchParallelism()
+     */
+    public int getBatchParallelism() {
+        synchronized (lock) {
+            return batchParallelism;
+        }
+    }
+
+    /**
+     * <p>Set the number of partitions a batch is split into by
+     * <code>executeAll()</code>.</p>
+     *
+     * @param batchParallelism The new batch parallelism
+     *
+     * @throws IllegalArgumentException if <code>batchParallelism</code>
+     *  is not strictly positive
+     * @see ChainBase#setBatchParallelism(int)
+     */
+    public void setBatchParallelism(int batchParallelism) {
+        if (batchParallelism <= 0) {
+            throw new IllegalArgumentException("'batchParallelism' parameter must be strictly positive");
+        }
+        synchronized (lock) {
+            this.batchParallelism = batchParallelism;
+            publish(snapshot.getCommands());
+        }
+    }
+
+    /**
+     * <p>Return the {@link Command}s of the current snapshot.</p>
+     *
+     * @return An unmodifiable list of the {@link Command}s, in execution
+     *  order
+     */
+    public List<Command<K, V, C>> getCommands() {
+        return Collections.unmodifiableList(snapshot.getCommands());
+    }
+
+    // ---------------------------------------------------------- Chain Methods
+
+    /**
+     * <p>Append a {@link Command} to this {@link Chain}.  Executions already
+     * started do not execute it.</p>
+     *
+     * @param <CMD> the {@link Command} type to be added in the {@link Chain}
+     * @param command The {@link Command} to be added
+     *
+     * @throws IllegalArgumentException if <code>command</code>
+     *  is <code>null</code>
+     */
+    public <CMD extends Command<K, V, C>> void addCommand(CMD command) {
+        if (command == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (lock) {
+            List<Command<K, V, C>> commands = copy();
+            commands.add(command);
+            publish(commands);
+        }
+    }
+
+    /**
+     * <p>Insert a {@link Command} at the specified position of this
+     * {@link Chain}.  Executions already started do not execute it.</p>
+     *
+     * @param index The position of the new {@link Command}
+     * @param command The {@link Command} to be inserted
+     *
+     * @throws IllegalArgumentException if <code>command</code>
+     *  is <code>null</code>
+     * @throws IndexOutOfBoundsException if <code>index</code> is negative
+     *  or greater than the number of commands
+     */
+    public void insertCommand(int index, Command<K, V, C> command) {
+        if (command == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (lock) {
+            List<Command<K, V, C>> commands = copy();
+            commands.add(index, command);
+            publish(commands);
+        }
+    }
+
+    /**
+     * <p>Remove a {@link Command} from this {@link Chain}.  Executions
+     * already started may still execute it.</p>
+     *
+     * @param command The {@link Command} to be removed
+     * @return <code>true</code> if the {@link Command} was found, and its
+     *  first occurrence removed
+     */
+    public boolean removeCommand(Command<K, V, C> command) {
+        synchronized (lock) {
+            List<Command<K, V, C>> commands = copy();
+            int index = indexOf(commands, command);
+            if (index < 0) {
+                return false;
+            }
+            commands.remove(index);
+            publish(commands);
+            return true;
+        }
+    }
+
+    /**
+     * <p>Replace a {@link Command} of this {@link Chain} by another one.
+     * Executions already started may still execute the replaced
+     * {@link Command}.</p>
+     *
+     * @param command The {@link Command} to be replaced
+     * @param replacement The {@link Command} to be executed instead
+     * @return <code>true</code> if the {@link Command} was found, and its
+     *  first occurrence replaced
+     *
+     * @throws IllegalArgumentException if <code>replacement</code>
+     *  is <code>null</code>
+     */
+    public boolean replaceCommand(Command<K, V, C> command, Command<K, V, C> replacement) {
+        if (replacement == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (lock) {
+            List<Command<K, V, C>> commands = copy();
+            int index = indexOf(commands, command);
+            if (index < 0) {
+                return false;
+            }
+            commands.set(index, replacement);
+            publish(commands);
+            return true;
+        }
+    }
+
+    /**
+     * <p>Execute the {@link Command}s of the current snapshot, as described
+     * by the {@link Chain} Javadoc.</p>
+     *
+     * @param context The {@link Context} to be processed by this
+     *  {@link Chain}
+     *
+     * @throws IllegalArgumentException if <code>context</code>
+     *  is <code>null</code>
+     *
+     * @return The {@link Processing} result of the last executed command
+     */
+    public Processing execute(C context) {
+        return snapshot.execute(context);
+    }
+
+    /**
+     * <p>Execute the {@link Command}s of the current snapshot over each
+     * context of a batch.  The whole batch is processed by the same
+     * snapshot.</p>
+     *
+     * @param contexts The contexts to be processed by this {@link Chain}
+     *
+     * @throws IllegalArgumentException if <code>contexts</code>
+     *  is <code>null</code>
+     *
+     * @return The per-context results and failures
+     */
+    public BatchResult<K, V, C> executeAll(Collection<? extends C> contexts) {
+        return snapshot.executeAll(contexts);
+    }
+
+    // -------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Record the {@link CatalogBase} this {@link Chain} is registered
+     * in, unless it was already registered in another one, and recompile
+     * the current snapshot for its interceptors.</p>
+     *
+     * @param catalog The {@link CatalogBase}
+     */
+    void registerIn(CatalogBase<K, V, C> catalog) {
+        synchronized (lock) {
+            if (this.catalog == null) {
+                this.catalog = catalog;
+                publish(snapshot.getCommands());
+            }
+        }
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Return a mutable copy of the commands of the current snapshot.</p>
+     */
+    private List<Command<K, V, C>> copy() {
+        return new ArrayList<Command<K, V, C>>(snapshot.getCommands());
+    }
+
+    /**
+     * <p>Compile a snapshot of the specified commands, then make it the
+     * current one.</p>
+     */
+    private void publish(List<Command<K, V, C>> commands) {
+        ChainBase<K, V, C> next = new ChainBase<K, V, C>(commands);
+        next.setName(name);
+        next.setTimeout(timeout);
+        next.setLatencyRecorder(latencyRecorder);
+        next.setInlineNestedChains(inlineNestedChains);
+        next.setSpecialized(specialized);
+        next.setBatchParallelism(batchParallelism);
+        if (catalog != null) {
+            next.registerIn(catalog);
+        }
+        next.getExecutionPlan();
+        snapshot = next;
+    }
+
+    private static int indexOf(List<?> commands, Object command) {
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i) == command) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
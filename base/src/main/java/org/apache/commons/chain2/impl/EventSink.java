@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+/**
+ * <p>Sink of the events of {@link ExecutionEvents}.  This implementation
+ * discards them; on Java 11 and later, a subclass emits them through
+ * JFR.</p>
+ *
+ * @since 2.0
+ */
+class EventSink {
+
+    boolean isAvailable() {
+        return false;
+    }
+
+    Object beginChainExecution() {
+        return null;
+    }
+
+    void endChainExecution(Object event, Command<?, ?, ?> chain, String name, Processing result) {
+        // do nothing
+    }
+
+    Object beginCommandExecution() {
+        return null;
+    }
+
+    void endCommandExecution(Object event, Command<?, ?, ?> command, String catalog, String name, int position,
+            Processing result) {
+        // do nothing
+    }
+
+    Object beginFilterPostprocess() {
+        return null;
+    }
+
+    void endFilterPostprocess(Object event, Filter<?, ?, ?> filter, String catalog, String name, int position,
+            Exception exception, boolean handled) {
+        // do nothing
+    }
+
+    Object beginCatalogLookup() {
+        return null;
+    }
+
+    void endCatalogLookup(Object event, String catalog, String name, Command<?, ?, ?> command) {
+        // do nothing
+    }
+
+}
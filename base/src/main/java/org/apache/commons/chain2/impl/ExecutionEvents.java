@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+/**
+ * <p>Emits the Java Flight Recorder events of chain execution:
+ * <code>org.apache.commons.chain2.ChainExecution</code>,
+ * <code>CommandExecution</code>, <code>FilterPostprocess</code> and
+ * <code>CatalogLookup</code>.  They carry the class of the
+ * {@link Command}, the name of the catalog and command when known, and the
+ * {@link Processing} result, and are enabled through the usual JFR
+ * settings.  Only <code>ChainExecution</code> events longer than 20 ms are
+ * enabled by default.</p>
+ *
+ * <p>The event classes are compiled for, and only loaded on, Java 11 and
+ * later, when the <code>jdk.jfr</code> module is present.  Otherwise every
+ * method of this class does nothing, and <code>begin*()</code> methods
+ * return <code>null</code>.</p>
+ *
+ * <p>Every <code>begin*()</code> call returns an event, or
+ * <code>null</code> if the event is not enabled; it is passed to the
+ * matching <code>end*()</code> call, that accepts <code>null</code>.</p>
+ *
+ * @since 2.0
+ */
+public final class ExecutionEvents {
+
+    /**
+     * <p>The name of the class emitting the events through JFR.</p>
+     */
+    private static final String FLIGHT_RECORDER_SINK = "org.apache.commons.chain2.impl.FlightRecorderEventSink";
+
+    /**
+     * <p>The sink of the events.</p>
+     */
+    private static final EventSink SINK = loadSink();
+
+    /**
+     * Private constructor, this class cannot be instantiated directly.
+     */
+    private ExecutionEvents() {
+        // do nothing
+    }
+
+    /**
+     * <p>Return whether the events are emitted through JFR on this JVM.</p>
+     *
+     * @return <code>true</code> if JFR is available
+     */
+    public static boolean isAvailable() {
+        return SINK.isAvailable();
+    }
+
+    /**
+     * <p>Begin a <code>ChainExecution</code> event.</p>
+     *
+     * @return The event, or <code>null</code> if it is not enabled
+     */
+    public static Object beginChainExecution() {
+        return SINK.beginChainExecution();
+    }
+
+    /**
+     * <p>End a <code>ChainExecution</code> event.</p>
+     *
+     * @param event The event, or <code>null</code>
+     * @param chain The executed chain
+     * @param name The name of the chain, or <code>null</code>
+     * @param result The result, or <code>null</code> if the chain failed
+     */
+    public static void endChainExecution(Object event, Command<?, ?, ?> chain, String name, Processing result) {
+        SINK.endChainExecution(event, chain, name, result);
+    }
+
+    /**
+     * <p>Begin a <code>CommandExecution</code> event.</p>
+     *
+     * @return The event, or <code>null</code> if it is not enabled
+     */
+    public static Object beginCommandExecution() {
+        return SINK.beginCommandExecution();
+    }
+
+    /**
+     * <p>End a <code>CommandExecution</code> event.</p>
+     *
+     * @param event The event, or <code>null</code>
+     * @param command The executed command
+     * @param catalog The name of the catalog the command was looked up in,
+     *  or <code>null</code>
+     * @param name The name of the command, or of its chain, or
+     *  <code>null</code>
+     * @param position The position of the command in its chain, or
+     *  <code>-1</code>
+     * @param result The result, or <code>null</code> if the command failed
+     */
+    public static void endCommandExecution(Object event, Command<?, ?, ?> command, String catalog, String name,
+            int position, Processing result) {
+        SINK.endCommandExecution(event, command, catalog, name, position, result);
+    }
+
+    /**
+     * <p>Begin a <code>FilterPostprocess</code> event.</p>
+     *
+     * @return The event, or <code>null</code> if it is not enabled
+     */
+    public static Object beginFilterPostprocess() {
+        return SINK.beginFilterPostprocess();
+    }
+
+    /**
+     * <p>End a <code>FilterPostprocess</code> event.</p>
+     *
+     * @param event The event, or <code>null</code>
+     * @param filter The postprocessed filter
+     * @param catalog The name of the catalog the filter was looked up in,
+     *  or <code>null</code>
+     * @param name The name of the filter, or of its chain, or
+     *  <code>null</code>
+     * @param position The position of the filter in its chain, or
+     *  <code>-1</code>
+     * @param exception The exception being postprocessed, or
+     *  <code>null</code>
+     * @param handled Whether the exception was handled
+     */
+    public static void endFilterPostprocess(Object event, Filter<?, ?, ?> filter, String catalog, String name,
+            int position, Exception exception, boolean handled) {
+        SINK.endFilterPostprocess(event, filter, catalog, name, position, exception, handled);
+    }
+
+    /**
+     * <p>Begin a <code>CatalogLookup</code> event.</p>
+     *
+     * @return The event, or <code>null</code> if it is not enabled
+     */
+    public static Object beginCatalogLookup() {
+        return SINK.beginCatalogLookup();
+    }
+
+    /**
+     * <p>End a <code>CatalogLookup</code> event.</p>
+     *
+     * @param event The event, or <code>null</code>
+     * @param catalog The name of the catalog, or <code>null</code> for the
+     *  default catalog
+     * @param name The name of the command
+     * @param command The command found, or <code>null</code>
+     */
+    public static void endCatalogLookup(Object event, String catalog, String name, Command<?, ?, ?> command) {
+        SINK.endCatalogLookup(event, catalog, name, command);
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Load the JFR sink if the <code>jdk.jfr</code> module is present,
+     * and the classes compiled for Java 11 can be loaded.</p>
+     */
+    private static EventSink loadSink() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (EventSink) Class.forName(FLIGHT_RECORDER_SINK).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            return new EventSink();
+        } catch (LinkageError e) {
+            return new EventSink();
+        }
+    }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>Immutable, array-backed representation of the {@link Command}s of a
+ * frozen {@link ChainBase}.  The plan is compiled once, when the chain
+ * configuration is frozen, so that the execution loop does not need to
+ * walk a <code>List</code> or test every command for being a
+ * {@link Filter} on the postprocess walk.</p>
+ *
+ * <p>When nested chains are inlined, their commands take the place of the
+ * chain in the plan, and are invoked through an {@link InlinedCommand}
+ * reproducing the way the nested chain reported their failures.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this plan
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this plan
+ *
+ * @since 2.0
+ */
+final class ExecutionPlan<K, V, C extends Map<K, V>> {
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The {@link Command}s of the chain, in execution order.</p>
+     */
+    final Command<K, V, C>[] commands;
+
+    /**
+     * <p>The objects whose <code>execute()</code> method is called for each
+     * element of <code>commands</code>: the very same array, unless
+     * execution is instrumented.</p>
+     */
+    final Command<K, V, C>[] invokers;
+
+    /**
+     * <p>The {@link Filter}s of the chain, in execution order.</p>
+     */
+    final Filter<K, V, C>[] filters;
+
+    /**
+     * <p>The objects whose <code>postprocess()</code> method is called for
+     * each element of <code>filters</code>: the very same array, unless
+     * postprocessing is intercepted.</p>
+     */
+    final Filter<K, V, C>[] filterInvokers;
+
+    /**
+     * <p>The index in <code>commands</code> of each element of
+     * <code>filters</code>.</p>
+     */
+    final int[] filterIndices;
+
+    /**
+     * <p>For every index <code>i</code> in <code>commands</code>, the number
+     * of {@link Filter}s found in <code>commands[0..i]</code>.  The reverse
+     * postprocess walk after executing <code>commands[i]</code> starts at
+     * <code>filters[filterCounts[i] - 1]</code>.</p>
+     */
+    final int[] filterCounts;
+
+    /**
+     * <p>For every index <code>i</code> in <code>commands</code>, whether
+     * the command was inlined from a nested chain, or <code>null</code> if
+     * no command was.</p>
+     */
+    final boolean[] inlined;
+
+    /**
+     * <p>The specialization of this plan, or <code>null</code> if it is
+     * executed by the interpreted loop of {@link ChainBase}.</p>
+     */
+    final SpecializedPlan specialized;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Compile the specified list of {@link Command}s.  The
+     * {@link InlinedCommand}s of the list are compiled into the commands
+     * they wrap, invoked through the wrapper.</p>
+     *
+     * @param commands The {@link Command}s to be compiled, in execution order
+     */
+    ExecutionPlan(List<Command<K, V, C>> commands) {
+        int n = commands.size();
+        this.commands = commands.toArray(ExecutionPlan.<K, V, C>newCommands(n));
+        this.filterCounts = new int[n];
+
+        boolean[] inlined = null;
+        Command<K, V, C>[] invokers = this.commands;
+        for (int i = 0; i < n; i++) {
+            if (this.commands[i] instanceof InlinedCommand) {
+                if (inlined == null) {
+                    inlined = new boolean[n];
+                    invokers = this.commands.clone();
+                }
+                inlined[i] = true;
+                this.commands[i] = ((InlinedCommand<K, V, C>) invokers[i]).command;
+            }
+        }
+        this.inlined = inlined;
+        this.invokers = invokers;
+        this.specialized = null;
+
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (this.commands[i] instanceof Filter) {
+                count++;
+            }
+            filterCounts[i] = count;
+        }
+
+        this.filters = newFilters(count);
+        this.filterInvokers = this.filters;
+        this.filterIndices = new int[count];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (this.commands[i] instanceof Filter) {
+                filters[j] = (Filter<K, V, C>) this.commands[i];
+                filterIndices[j] = i;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * <p>Copy the specified plan, invoking its {@link Command}s and
+     * {@link Filter}s through the specified objects.</p>
+     *
+     * @param plan The plan to be copied
+     * @param invokers The objects invoked for each {@link Command}
+     * @param filterInvokers The objects invoked for each {@link Filter}
+     */
+    private ExecutionPlan(ExecutionPlan<K, V, C> plan, Command<K, V, C>[] invokers,
+            Filter<K, V, C>[] filterInvokers) {
+        this.commands = plan.commands;
+        this.invokers = invokers;
+        this.filters = plan.filters;
+        this.filterInvokers = filterInvokers;
+        this.filterIndices = plan.filterIndices;
+        this.filterCounts = plan.filterCounts;
+        this.inlined = plan.inlined;
+        this.specialized = null;
+    }
+
+    /**
+     * <p>Copy the specified plan, executed through the specified
+     * specialization.</p>
+     *
+     * @param plan The plan to be copied
+     * @param specialized The specialization of the plan
+     */
+    private ExecutionPlan(ExecutionPlan<K, V, C> plan, SpecializedPlan specialized) {
+        this.commands = plan.commands;
+        this.invokers = plan.invokers;
+        this.filters = plan.filters;
+        this.filterInvokers = plan.filterInvokers;
+        this.filterIndices = plan.filterIndices;
+        this.filterCounts = plan.filterCounts;
+        this.inlined = plan.inlined;
+        this.specialized = specialized;
+    }
+
+    // --------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Return a copy of this plan recording the latency of each
+     * <code>execute()</code> call into the specified recorder, under the
+     * key <code>name#position</code>.  The latency of an
+     * <code>executeAsync()</code> call lasts until the returned stage
+     * completes.</p>
+     *
+     * @param recorder The recorder of the latencies
+     * @param name The name of the chain
+     * @return The recording plan
+     */
+    ExecutionPlan<K, V, C> recording(LatencyRecorder recorder, String name) {
+        Command<K, V, C>[] timed = newCommands(commands.length);
+        for (int i = 0; i < commands.length; i++) {
+            LatencyHistogram histogram = recorder.histogram(name + "#" + i);
+            timed[i] = invokers[i] instanceof AsyncCommand
+                    ? new TimedAsyncCommand<K, V, C>((AsyncCommand<K, V, C>) invokers[i], histogram)
+                    : new TimedCommand<K, V, C>(invokers[i], histogram);
+        }
+        return new ExecutionPlan<K, V, C>(this, timed, filterInvokers);
+    }
+
+    /**
+     * <p>Return a copy of this plan calling the <code>execute()</code>,
+     * <code>executeAsync()</code> and <code>postprocess()</code> methods
+     * through the specified interceptors.</p>
+     *
+     * @param interceptors The interceptors, outermost first
+     * @return The intercepted plan
+     */
+    ExecutionPlan<K, V, C> intercepted(List<CommandInterceptor<K, V, C>> interceptors) {
+        Command<K, V, C>[] intercepted = newCommands(commands.length);
+        for (int i = 0; i < commands.length; i++) {
+            intercepted[i] = Interceptors.intercept(interceptors, commands[i], invokers[i]);
+        }
+        Filter<K, V, C>[] interceptedFilters = newFilters(filters.length);
+        for (int j = 0; j < filters.length; j++) {
+            interceptedFilters[j] = Interceptors.interceptPostprocess(interceptors, filterInvokers[j]);
+        }
+        return new ExecutionPlan<K, V, C>(this, intercepted, interceptedFilters);
+    }
+
+    /**
+     * <p>Return a copy of this plan executed through a
+     * {@link SpecializedPlan}, or this very plan if it cannot be
+     * specialized.</p>
+     *
+     * @return The specialized plan
+     */
+    ExecutionPlan<K, V, C> specialized() {
+        try {
+            return new ExecutionPlan<K, V, C>(this, new SpecializedPlan(this));
+        } catch (ReflectiveOperationException e) {
+            return this;
+        } catch (RuntimeException e) {
+            return this;
+        }
+    }
+
+    /**
+     * <p>Return the number of {@link Filter}s whose <code>postprocess()</code>
+     * method has to be called once the command at the specified index has
+     * been executed.</p>
+     *
+     * @param lastIndex Index of the last executed command, or <code>-1</code>
+     *  if no command was executed
+     * @return The number of {@link Filter}s to be postprocessed
+     */
+    int filtersToPostprocess(int lastIndex) {
+        return lastIndex < 0 ? 0 : filterCounts[lastIndex];
+    }
+
+    /**
+     * <p>Return whether the command at the specified index was inlined from
+     * a nested chain.</p>
+     *
+     * @param index Index of the command
+     * @return <code>true</code> if the command was inlined
+     */
+    boolean isInlined(int index) {
+        return inlined != null && inlined[index];
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Create an array of {@link Command}s: generic arrays cannot be
+     * created directly, and the array is only ever filled with commands of
+     * the same type.</p>
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V, C extends Map<K, V>> Command<K, V, C>[] newCommands(int length) {
+        return (Command<K, V, C>[]) new Command<?, ?, ?>[length];
+    }
+
+    /**
+     * <p>Create an array of {@link Filter}s, as {@link #newCommands(int)}
+     * does.</p>
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V, C extends Map<K, V>> Filter<K, V, C>[] newFilters(int length) {
+        return (Filter<K, V, C>[]) new Filter<?, ?, ?>[length];
+    }
+
+    // --------------------------------------------------------- Package Classes
+
+    /**
+     * <p>Invoker of a {@link Command} inlined from a nested chain, which
+     * reports a failure, or a <code>null</code> result, the way the nested
+     * chain would have reported it to the enclosing one.</p>
+     */
+    static final class InlinedCommand<K, V, C extends Map<K, V>> implements Command<K, V, C> {
+
+        final Command<K, V, C> command;
+
+        InlinedCommand(Command<K, V, C> command) {
+            this.command = command;
+        }
+
+        public Processing execute(C context) {
+            Processing result;
+            try {
+                result = command.execute(context);
+            } catch (Exception e) {
+                throw ChainBase.wrap(e, context, command);
+            }
+            if (result == null) {
+                throw ChainBase.invalidProcessing(command);
+            }
+            return result;
+        }
+
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>Invoker recording the latency of a {@link Command}.</p>
+     */
+    private static final class TimedCommand<K, V, C extends Map<K, V>> implements Command<K, V, C> {
+
+        private final Command<K, V, C> command;
+
+        private final LatencyHistogram histogram;
+
+        TimedCommand(Command<K, V, C> command, LatencyHistogram histogram) {
+            this.command = command;
+            this.histogram = histogram;
+        }
+
+        public Processing execute(C context) {
+            long start = System.nanoTime();
+            try {
+                return command.execute(context);
+            } finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        }
+
+    }
+
+    /**
+     * <p>Invoker recording the latency of an {@link AsyncCommand}, up to
+     * the completion of its stage when it is started asynchronously.</p>
+     */
+    private static final class TimedAsyncCommand<K, V, C extends Map<K, V>> implements AsyncCommand<K, V, C> {
+
+        private final AsyncCommand<K, V, C> command;
+
+        private final LatencyHistogram histogram;
+
+        TimedAsyncCommand(AsyncCommand<K, V, C> command, LatencyHistogram histogram) {
+            this.command = command;
+            this.histogram = histogram;
+        }
+
+        public Processing execute(C context) {
+            long start = System.nanoTime();
+            try {
+                return command.execute(context);
+            } finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        }
+
+        public CompletionStage<Processing> executeAsync(C context) {
+            final long start = System.nanoTime();
+            CompletionStage<Processing> stage;
+            try {
+                stage = command.executeAsync(context);
+            } catch (RuntimeException e) {
+                histogram.record(System.nanoTime() - start);
+                throw e;
+            }
+            if (stage == null) {
+                histogram.record(System.nanoTime() - start);
+                return null;
+            }
+            stage.whenComplete(new BiConsumer<Processing, Throwable>() {
+                public void accept(Processing result, Throwable failure) {
+                    histogram.record(System.nanoTime() - start);
+                }
+            });
+            return stage;
+        }
+
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.Catalog;
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * <p>Utility methods applying {@link CommandInterceptor}s to
+ * {@link Command}s and {@link Filter}s.  An intercepted invocation is a
+ * stack of small wrappers, one per interceptor, built once and reused:
+ * {@link ChainBase} builds them when its configuration is frozen.</p>
+ *
+ * @since 2.0
+ */
+public final class Interceptors {
+
+    /**
+     * Private constructor, this class cannot be instantiated directly.
+     */
+    private Interceptors() {
+        // do nothing
+    }
+
+    /**
+     * <p>Return the interceptors that apply to the commands of the
+     * specified {@link Catalog}: those of the specified factory, outermost,
+     * then those of the catalog.  Only {@link CatalogFactoryBase} and
+     * {@link CatalogBase} instances hold interceptors.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the context
+     * @param factory The {@link CatalogFactory}, or <code>null</code>
+     * @param catalog The {@link Catalog}, or <code>null</code>
+     * @return The interceptors, possibly empty
+     */
+    public static <K, V, C extends Map<K, V>> List<CommandInterceptor<K, V, C>> of(CatalogFactory<K, V, C> factory,
+            Catalog<K, V, C> catalog) {
+        List<CommandInterceptor<K, V, C>> factoryInterceptors = factory instanceof CatalogFactoryBase
+                ? ((CatalogFactoryBase<K, V, C>) factory).getInterceptors()
+                : Collections.<CommandInterceptor<K, V, C>>emptyList();
+        List<CommandInterceptor<K, V, C>> catalogInterceptors = catalog instanceof CatalogBase
+                ? ((CatalogBase<K, V, C>) catalog).getInterceptors()
+                : Collections.<CommandInterceptor<K, V, C>>emptyList();
+        if (catalogInterceptors.isEmpty()) {
+            return factoryInterceptors;
+        }
+        if (factoryInterceptors.isEmpty()) {
+            return catalogInterceptors;
+        }
+        List<CommandInterceptor<K, V, C>> interceptors = new ArrayList<CommandInterceptor<K, V, C>>(factoryInterceptors);
+        interceptors.addAll(catalogInterceptors);
+        return interceptors;
+    }
+
+    /**
+     * <p>Return the number of interceptors that apply to the commands of
+     * the specified {@link Catalog}, without merging them as
+     * {@link #of(CatalogFactory, Catalog)} does.  Interceptors are only
+     * ever added, so an unchanged count means unchanged interceptors.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the context
+     * @param factory The {@link CatalogFactory}, or <code>null</code>
+     * @param catalog The {@link Catalog}, or <code>null</code>
+     * @return The number of interceptors
+     */
+    public static <K, V, C extends Map<K, V>> int count(CatalogFactory<K, V, C> factory, Catalog<K, V, C> catalog) {
+        int count = 0;
+        if (factory instanceof CatalogFactoryBase) {
+            count += ((CatalogFactoryBase<K, V, C>) factory).getInterceptors().size();
+        }
+        if (catalog instanceof CatalogBase) {
+            count += ((CatalogBase<K, V, C>) catalog).getInterceptors().size();
+        }
+        return count;
+    }
+
+    /**
+     * <p>Return a {@link Command} calling the <code>execute()</code> method
+     * of the specified {@link Command} through the specified interceptors,
+     * or the {@link Command} itself if there are none.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the context
+     * @param interceptors The interceptors, outermost first
+     * @param command The intercepted {@link Command}
+     * @return The intercepted invocation
+     */
+    public static <K, V, C extends Map<K, V>> Command<K, V, C> intercept(
+            List<CommandInterceptor<K, V, C>> interceptors, Command<K, V, C> command) {
+        return intercept(interceptors, command, command);
+    }
+
+    /**
+     * <p>Return a {@link Command} running the specified invocation of the
+     * specified {@link Command} through the specified interceptors, or the
+     * invocation itself if there are none.  When both the {@link Command}
+     * and the invocation are {@link AsyncCommand}s, so is the returned
+     * {@link Command}, whose <code>executeAsync()</code> method is
+     * intercepted as well.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the context
+     * @param interceptors The interceptors, outermost first
+     * @param command The intercepted {@link Command}, as seen by the
+     *  interceptors
+     * @param invocation The invocation actually performed by the innermost
+     *  interceptor
+     * @return The intercepted invocation
+     */
+    public static <K, V, C extends Map<K, V>> Command<K, V, C> intercept(
+            List<CommandInterceptor<K, V, C>> interceptors, Command<K, V, C> command, Command<K, V, C> invocation) {
+        if (command instanceof AsyncCommand && invocation instanceof AsyncCommand) {
+            AsyncCommand<K, V, C> asyncCommand = (AsyncCommand<K, V, C>) command;
+            AsyncCommand<K, V, C> next = (AsyncCommand<K, V, C>) invocation;
+            for (int i = interceptors.size() - 1; i >= 0; i--) {
+                next = new InterceptedAsyncCommand<K, V, C>(interceptors.get(i), asyncCommand, next);
+            }
+            return next;
+        }
+        Command<K, V, C> next = invocation;
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+            next = new InterceptedCommand<K, V, C>(interceptors.get(i), command, next);
+        }
+        return next;
+    }
+
+    /**
+     * <p>Return a {@link Filter} calling the <code>postprocess()</code>
+     * method of the specified {@link Filter} through the specified
+     * interceptors, or the {@link Filter} itself if there are none.  The
+     * <code>execute()</code> method of the returned {@link Filter} is not
+     * intercepted.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the context
+     * @param interceptors The interceptors, outermost first
+     * @param filter The intercepted {@link Filter}
+     * @return The intercepted postprocessing
+     */
+    public static <K, V, C extends Map<K, V>> Filter<K, V, C> interceptPostprocess(
+            List<CommandInterceptor<K, V, C>> interceptors, Filter<K, V, C> filter) {
+        Filter<K, V, C> next = filter;
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+            next = new InterceptedFilter<K, V, C>(interceptors.get(i), filter, next);
+        }
+        return next;
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    private static final class InterceptedCommand<K, V, C extends Map<K, V>> implements Command<K, V, C> {
+
+        private final CommandInterceptor<K, V, C> interceptor;
+
+        private final Command<K, V, C> command;
+
+        private final Command<K, V, C> next;
+
+        InterceptedCommand(CommandInterceptor<K, V, C> interceptor, Command<K, V, C> command, Command<K, V, C> next) {
+            this.interceptor = interceptor;
+            this.command = command;
+            this.next = next;
+        }
+
+        public Processing execute(C context) {
+            return interceptor.execute(command, context, next);
+        }
+
+    }
+
+    private static final class InterceptedAsyncCommand<K, V, C extends Map<K, V>> implements AsyncCommand<K, V, C> {
+
+        private final CommandInterceptor<K, V, C> interceptor;
+
+        private final AsyncCommand<K, V, C> command;
+
+        private final AsyncCommand<K, V, C> next;
+
+        InterceptedAsyncCommand(CommandInterceptor<K, V, C> interceptor, AsyncCommand<K, V, C> command,
+                AsyncCommand<K, V, C> next) {
+            this.interceptor = interceptor;
+            this.command = command;
+            this.next = next;
+        }
+
+        public Processing execute(C context) {
+            return interceptor.execute(command, context, next);
+        }
+
+        public CompletionStage<Processing> executeAsync(C context) {
+            return interceptor.executeAsync(command, context, next);
+        }
+
+    }
+
+    private static final class InterceptedFilter<K, V, C extends Map<K, V>> implements Filter<K, V, C> {
+
+        private final CommandInterceptor<K, V, C> interceptor;
+
+        private final Filter<K, V, C> filter;
+
+        private final Filter<K, V, C> next;
+
+        InterceptedFilter(CommandInterceptor<K, V, C> interceptor, Filter<K, V, C> filter, Filter<K, V, C> next) {
+            this.interceptor = interceptor;
+            this.filter = filter;
+            this.next = next;
+        }
+
+        public Processing execute(C context) {
+            return next.execute(context);
+        }
+
+        public boolean postprocess(C context, Exception exception) {
+            return interceptor.postprocess(filter, context, exception, next);
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock-free histogram of latencies, in nanoseconds, with logarithmic
+ * buckets: every power of two is split into eight buckets, so that a
+ * reported percentile is at most 12.5% above the recorded value.  Latencies
+ * below eight nanoseconds are recorded exactly.</p>
+ *
+ * <p>Recording is wait-free apart from the update of the maximum, and may
+ * be called from any number of threads.  <code>snapshotAndReset()</code>
+ * moves the recorded values into a {@link LatencySnapshot}; every recorded
+ * value ends up in exactly one snapshot.</p>
+ *
+ * @since 2.0
+ */
+public final class LatencyHistogram {
+
+    // ------------------------------------------------------ Static Variables
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * <p>Number of buckets: the exact ones, then eight per power of two up
+     * to <code>2^62</code>.</p>
+     */
+    static final int BUCKETS = (62 - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong max = new AtomicLong();
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Record a latency.  Negative values are recorded as zero.</p>
+     *
+     * @param nanos The latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : nanos;
+        counts.incrementAndGet(bucket(value));
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * <p>Return the latencies recorded since the previous call, and reset
+     * this histogram.</p>
+     *
+     * @return The recorded latencies
+     */
+    public LatencySnapshot snapshotAndReset() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                snapshot[i] = counts.getAndSet(i, 0);
+            }
+        }
+        return new LatencySnapshot(snapshot, max.getAndSet(0));
+    }
+
+    // -------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Return the index of the bucket of the specified value.</p>
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * <p>Return the highest value recorded in the specified bucket.</p>
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Set of {@link LatencyHistogram}s, keyed by command.  A recorder can be
+ * shared by several {@link ChainBase}s and
+ * {@link org.apache.commons.chain2.base.LookupCommand}s, which use the
+ * following keys:</p>
+ * <ul>
+ * <li><code>chainName#position</code> for the command at the specified
+ *     position (starting at zero) of a {@link ChainBase};</li>
+ * <li><code>catalogName:commandName</code> for the command executed by a
+ *     {@link org.apache.commons.chain2.base.LookupCommand}, where the
+ *     default catalog is named <code>default</code>.</li>
+ * </ul>
+ *
+ * @since 2.0
+ */
+public class LatencyRecorder {
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Return the histogram registered under the specified key, creating
+     * it if necessary.</p>
+     *
+     * @param key The key of the histogram
+     * @return The histogram
+     *
+     * @throws IllegalArgumentException if <code>key</code>
+     *  is <code>null</code>
+     */
+    public LatencyHistogram histogram(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("'key' parameter must be not null");
+        }
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram previous = histograms.putIfAbsent(key, histogram);
+            if (previous != null) {
+                histogram = previous;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * <p>Return the latencies recorded by every histogram since the previous
+     * call, and reset them.</p>
+     *
+     * @return The snapshots, sorted by key
+     */
+    public Map<String, LatencySnapshot> snapshotAndReset() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<String, LatencySnapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshotAndReset());
+        }
+        return snapshots;
+    }
+
+}
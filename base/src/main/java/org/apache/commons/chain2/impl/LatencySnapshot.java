@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Immutable distribution of the latencies recorded by a
+ * {@link LatencyHistogram} between two resets.  Latencies are expressed in
+ * nanoseconds; percentiles are the upper bounds of the buckets they fall
+ * into, capped by the maximum.</p>
+ *
+ * @since 2.0
+ */
+public final class LatencySnapshot {
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long max;
+
+    // ----------------------------------------------------------- Constructors
+
+    LatencySnapshot(long[] counts, long max) {
+        this.counts = counts;
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        this.count = total;
+        this.max = max;
+    }
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the number of recorded latencies.</p>
+     * @return The number of recorded latencies.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * <p>Return the highest recorded latency.</p>
+     * @return The maximum, in nanoseconds, or zero if nothing was recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * <p>Return the median latency.</p>
+     * @return The 50th percentile, in nanoseconds.
+     */
+    public long getP50() {
+        return getValueAtPercentile(50.0);
+    }
+
+    /**
+     * <p>Return the 99th percentile of the latencies.</p>
+     * @return The 99th percentile, in nanoseconds.
+     */
+    public long getP99() {
+        return getValueAtPercentile(99.0);
+    }
+
+    /**
+     * <p>Return the 99.9th percentile of the latencies.</p>
+     * @return The 99.9th percentile, in nanoseconds.
+     */
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Return the latency below which the specified percentage of the
+     * recorded latencies fall.</p>
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The latency, in nanoseconds, or zero if nothing was recorded.
+     *
+     * @throws IllegalArgumentException if <code>percentile</code> is not
+     *  between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * <p>Return a summary of this snapshot, in microseconds.</p>
+     * @return The summary.
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%dus p99=%dus p999=%dus max=%dus",
+                count,
+                TimeUnit.NANOSECONDS.toMicros(getP50()),
+                TimeUnit.NANOSECONDS.toMicros(getP99()),
+                TimeUnit.NANOSECONDS.toMicros(getP999()),
+                TimeUnit.NANOSECONDS.toMicros(max));
+    }
+
+}
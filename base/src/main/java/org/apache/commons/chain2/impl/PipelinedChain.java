@@ -0,0 +1,560 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.BatchResult;
+import org.apache.commons.chain2.Chain;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Staged (SEDA style) executor of a {@link ChainBase}, for throughput
+ * oriented processing of many contexts.  The commands of the chain are
+ * split into consecutive stages; each stage has its own bounded queue and
+ * its own worker threads, so that while a context is processed by stage
+ * <em>N</em>, the previous one can already be processed by stage
+ * <em>N+1</em>.</p>
+ *
+ * <p>A pipeline is configured by calls to <code>addStage()</code>, one
+ * per stage in execution order, then started by <code>start()</code>,
+ * which freezes the configuration of the chain.  The stages must cover
+ * every command of the chain.  Contexts are submitted by
+ * <code>executeAsync()</code> or <code>executeAll()</code>; the pipeline
+ * is stopped by <code>close()</code>.</p>
+ *
+ * <p>The semantics of {@link Chain#execute(Map)} are preserved for each
+ * context: its commands are executed in order until one of them returns
+ * {@link Processing#FINISHED} or fails, without entering the next stages,
+ * then the <code>postprocess()</code> method of every executed
+ * {@link Filter} is called in reverse order.  Postprocessing takes place
+ * on a worker of the stage where the execution ended, which may not be the
+ * thread that executed the {@link Filter}.</p>
+ *
+ * <p>Backpressure is applied when a queue is full: a worker handing a
+ * context over to the next stage, or a thread submitting a context to the
+ * first stage, blocks until room is available.  The queue depth, its high
+ * water mark, the number of blocked hand-overs and the number of processed
+ * contexts of every stage are exposed to find bottleneck stages.</p>
+ *
+ * @param <K> the type of keys maintained by the context associated with this pipeline
+ * @param <V> the type of mapped values
+ * @param <C> Type of the context associated with this pipeline
+ *
+ * @since 2.0
+ */
+public class PipelinedChain<K, V, C extends Map<K, V>> implements AsyncCommand<K, V, C> {
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a pipeline, with no configured stages, executing the
+     * commands of the specified {@link ChainBase}.</p>
+     *
+     * @param chain The {@link ChainBase} to be executed
+     *
+     * @throws IllegalArgumentException if <code>chain</code>
+     *  is <code>null</code>
+     */
+    public PipelinedChain(ChainBase<K, V, C> chain) {
+        if (chain == null) {
+            throw new IllegalArgumentException("'chain' parameter must be not null");
+        }
+        this.chain = chain;
+    }
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final ChainBase<K, V, C> chain;
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+
+    /**
+     * <p>The {@link ExecutionPlan} of the chain, once started.</p>
+     */
+    private volatile ExecutionPlan<K, V, C> plan = null;
+
+    private volatile boolean closed = false;
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Add a stage executing the next <code>commandCount</code> commands
+     * of the chain.</p>
+     *
+     * @param commandCount The number of commands executed by this stage
+     * @param parallelism The number of worker threads of this stage
+     * @param queueCapacity The capacity of the queue of this stage
+     *
+     * @throws IllegalArgumentException if any parameter is not strictly
+     *  positive
+     * @throws IllegalStateException if this pipeline has already been
+     *  started
+     */
+    public synchronized void addStage(int commandCount, int parallelism, int queueCapacity) {
+        if (commandCount <= 0 || parallelism <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Stage command count, parallelism and queue capacity must be strictly positive");
+        }
+        if (plan != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        int from = stages.isEmpty() ? 0 : stages.get(stages.size() - 1).to;
+        stages.add(new Stage(stages.size(), from, from + commandCount, parallelism, queueCapacity));
+    }
+
+    /**
+     * <p>Freeze the configuration of the chain and start the worker threads
+     * of every stage.</p>
+     *
+     * @throws IllegalStateException if this pipeline has already been
+     *  started, or if its stages do not cover the commands of the chain
+     */
+    public synchronized void start() {
+        if (plan != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        ExecutionPlan<K, V, C> compiled = chain.getExecutionPlan();
+        int covered = stages.isEmpty() ? 0 : stages.get(stages.size() - 1).to;
+        if (stages.isEmpty() || covered != compiled.commands.length) {
+            throw new IllegalStateException(String.format(
+                    "Stages cover %s commands, while the chain has %s", covered, compiled.commands.length));
+        }
+        plan = compiled;
+        for (Stage stage : stages) {
+            stage.start();
+        }
+    }
+
+    /**
+     * <p>Submit the specified context to the first stage of this pipeline,
+     * blocking while its queue is full.</p>
+     *
+     * @param context The {@link Context} to be processed by the chain
+     *
+     * @throws IllegalArgumentException if <code>context</code>
+     *  is <code>null</code>
+     * @throws IllegalStateException if this pipeline is not started, or
+     *  closed
+     *
+     * @return A stage completing with the {@link Processing} value of the
+     *  last executed command, or completing exceptionally with the exception
+     *  that was not handled by a {@link Filter}
+     */
+    public CompletionStage<Processing> executeAsync(C context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Can't execute a null context");
+        }
+        if (plan == null || closed) {
+            throw new IllegalStateException("Pipeline not running");
+        }
+
+        Item item = new Item(context);
+        Stage first = stages.get(0);
+        try {
+            first.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            item.result.completeExceptionally(e);
+            return item.result;
+        }
+        // Do not leave the item behind if the pipeline was closed meanwhile
+        if (closed && first.queue.remove(item)) {
+            first.cancel(item);
+        }
+        return item.result;
+    }
+
+    /**
+     * <p>Submit every context of a batch and wait for all of them.  An
+     * exception thrown while processing a context is recorded in the
+     * result, and does not prevent the processing of the remaining
+     * contexts.</p>
+     *
+     * @param contexts The contexts to be processed by the chain
+     *
+     * @throws IllegalArgumentException if <code>contexts</code>
+     *  is <code>null</code>
+     * @throws IllegalStateException if this pipeline is not started, or
+     *  closed
+     *
+     * @return The per-context results and failures
+     */
+    public BatchResult<K, V, C> executeAll(Collection<? extends C> contexts) {
+        if (contexts == null) {
+            throw new IllegalArgumentException("Can't execute a null batch");
+        }
+        List<C> batch = new ArrayList<C>(contexts);
+        int n = batch.size();
+        List<CompletableFuture<Processing>> submitted = new ArrayList<CompletableFuture<Processing>>(n);
+        for (C context : batch) {
+            CompletableFuture<Processing> future;
+            try {
+                future = executeAsync(context).toCompletableFuture();
+            } catch (IllegalArgumentException e) {
+                future = new CompletableFuture<Processing>();
+                future.completeExceptionally(e);
+            }
+            submitted.add(future);
+        }
+
+        Processing[] results = new Processing[n];
+        RuntimeException[] failures = new RuntimeException[n];
+        for (int i = 0; i < n; i++) {
+            try {
+                results[i] = submitted.get(i).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                failures[i] = cause instanceof RuntimeException ? (RuntimeException) cause : e;
+            } catch (CancellationException e) {
+                failures[i] = e;
+            }
+        }
+        return new BatchResult<K, V, C>(batch, results, failures);
+    }
+
+    /**
+     * <p>Stop this pipeline: interrupt and wait for the worker threads, and
+     * cancel the contexts still waiting in a queue, after postprocessing the
+     * {@link Filter}s they already executed with a
+     * <code>CancellationException</code>.  Contexts submitted afterwards are
+     * rejected.</p>
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (Stage stage : stages) {
+            stage.interrupt();
+        }
+        boolean interrupted = false;
+        for (Stage stage : stages) {
+            interrupted |= stage.join();
+        }
+        for (Stage stage : stages) {
+            stage.cancelQueued();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * <p>Return the number of configured stages.</p>
+     * @return The number of stages.
+     */
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    /**
+     * <p>Return the number of contexts waiting in the queue of the
+     * specified stage.</p>
+     *
+     * @param stage The index of the stage
+     * @return The current queue depth.
+     */
+    public int getQueueDepth(int stage) {
+        return stages.get(stage).queue.size();
+    }
+
+    /**
+     * <p>Return the capacity of the queue of the specified stage.</p>
+     *
+     * @param stage The index of the stage
+     * @return The queue capacity.
+     */
+    public int getQueueCapacity(int stage) {
+        return stages.get(stage).capacity;
+    }
+
+    /**
+     * <p>Return the highest number of contexts that waited in the queue of
+     * the specified stage.</p>
+     *
+     * @param stage The index of the stage
+     * @return The queue depth high water mark.
+     */
+    public int getMaxQueueDepth(int stage) {
+        return stages.get(stage).maxDepth.get();
+    }
+
+    /**
+     * <p>Return the number of times a context could not be handed over to
+     * the specified stage without blocking, because its queue was
+     * full.</p>
+     *
+     * @param stage The index of the stage
+     * @return The number of blocked hand-overs.
+     */
+    public long getBlockedCount(int stage) {
+        return stages.get(stage).blocked.sum();
+    }
+
+    /**
+     * <p>Return the number of contexts processed by the specified
+     * stage.</p>
+     *
+     * @param stage The index of the stage
+     * @return The number of processed contexts.
+     */
+    public long getProcessedCount(int stage) {
+        return stages.get(stage).processed.sum();
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>A context travelling through the pipeline.</p>
+     */
+    private final class Item {
+
+        private final C context;
+
+        private final CompletableFuture<Processing> result = new CompletableFuture<Processing>();
+
+        Item(C context) {
+            this.context = context;
+        }
+
+    }
+
+    /**
+     * <p>A stage of the pipeline: a range of commands, a bounded queue and
+     * the worker threads taking contexts from it.</p>
+     */
+    private final class Stage implements Runnable {
+
+        private final int index;
+
+        private final int from;
+
+        private final int to;
+
+        private final int capacity;
+
+        private final BlockingQueue<Item> queue;
+
+        private final Thread[] workers;
+
+        private final AtomicInteger maxDepth = new AtomicInteger();
+
+        private final LongAdder blocked = new LongAdder();
+
+        private final LongAdder processed = new LongAdder();
+
+        Stage(int index, int from, int to, int parallelism, int capacity) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.capacity = capacity;
+            this.queue = new ArrayBlockingQueue<Item>(capacity);
+            this.workers = new Thread[parallelism];
+        }
+
+        void start() {
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(this, "commons-chain2-stage-" + index + "-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+
+        /**
+         * <p>Hand a context over to this stage, blocking while its queue is
+         * full.</p>
+         */
+        void put(Item item) throws InterruptedException {
+            if (!queue.offer(item)) {
+                blocked.increment();
+                queue.put(item);
+            }
+            int depth = queue.size();
+            int max = maxDepth.get();
+            while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+                max = maxDepth.get();
+            }
+        }
+
+        public void run() {
+            try {
+                while (!closed) {
+                    process(queue.take());
+                }
+            } catch (InterruptedException e) {
+                // The pipeline is being closed
+            }
+        }
+
+        /**
+         * <p>Execute the commands of this stage, then either hand the
+         * context over to the next stage or complete its execution.</p>
+         */
+        private void process(Item item) throws InterruptedException {
+            final Command<K, V, C>[] commands = plan.commands;
+            final Command<K, V, C>[] invokers = plan.invokers;
+            Processing saveResult = Processing.CONTINUE;
+            Exception saveException = null;
+            int i = from;
+            try {
+                for (i = from; i < to; i++) {
+                    try {
+                        saveResult = invokers[i].execute(item.context);
+                    } catch (Exception e) {
+                        saveException = e;
+                        break;
+                    }
+                    if (saveResult != Processing.CONTINUE) {
+                        if (saveResult == null) {
+                            saveException = ChainBase.invalidProcessing(commands[i]);
+                        }
+                        break;
+                    }
+                }
+            } catch (Error e) {
+                fail(item, i, e);
+                return;
+            } finally {
+                processed.increment();
+            }
+
+            if (i >= to) {
+                if (index + 1 < stages.size()) {
+                    Stage next = stages.get(index + 1);
+                    try {
+                        next.put(item);
+                    } catch (InterruptedException e) {
+                        next.cancel(item);
+                        throw e;
+                    }
+                    return;
+                }
+                i--;
+            }
+            complete(item, i, saveResult, saveException);
+        }
+
+        /**
+         * <p>Postprocess the executed {@link Filter}s in reverse order and
+         * complete the execution of the context.</p>
+         */
+        private void complete(Item item, int lastIndex, Processing saveResult, Exception saveException) {
+            boolean handled;
+            try {
+                handled = chain.postprocess(plan, lastIndex, item.context, saveException);
+            } catch (Error e) {
+                item.result.completeExceptionally(e);
+                return;
+            }
+            if (saveException != null && !handled) {
+                item.result.completeExceptionally(chain.wrapUnhandledExceptions(saveException, item.context,
+                        plan.commands[lastIndex]));
+            } else {
+                item.result.complete(saveResult);
+            }
+        }
+
+        /**
+         * <p>Postprocess the executed {@link Filter}s, up to the one at
+         * <code>lastIndex</code> that threw the specified error, and complete
+         * the execution of the context with this error.</p>
+         */
+        private void fail(Item item, int lastIndex, Error error) {
+            try {
+                chain.postprocess(plan, lastIndex, item.context,
+                        ChainBase.wrap(error, item.context, plan.commands[lastIndex]));
+            } catch (Error e) {
+                error.addSuppressed(e);
+            }
+            item.result.completeExceptionally(error);
+        }
+
+        /**
+         * <p>Postprocess the {@link Filter}s executed by the previous stages
+         * and cancel the execution of a context that will not enter this
+         * stage.</p>
+         */
+        void cancel(Item item) {
+            CancellationException cancellation = new CancellationException("Pipeline closed");
+            try {
+                chain.postprocess(plan, from - 1, item.context, cancellation);
+            } catch (Error e) {
+                item.result.completeExceptionally(e);
+                return;
+            }
+            item.result.completeExceptionally(cancellation);
+        }
+
+        void interrupt() {
+            for (Thread worker : workers) {
+                if (worker != null) {
+                    worker.interrupt();
+                }
+            }
+        }
+
+        /**
+         * <p>Wait for the worker threads to terminate.</p>
+         *
+         * @return <code>true</code> if the calling thread was interrupted
+         */
+        boolean join() {
+            boolean interrupted = false;
+            for (Thread worker : workers) {
+                while (worker != null && worker.isAlive()) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            return interrupted;
+        }
+
+        void cancelQueued() {
+            Item item;
+            while ((item = queue.poll()) != null) {
+                cancel(item);
+            }
+        }
+
+    }
+
+}
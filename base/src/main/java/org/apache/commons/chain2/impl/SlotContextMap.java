@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.ContextKey;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>{@link CompactContextMap} also storing values under {@link ContextKey}s,
+ * in an array indexed by the ordinal of each key.  Reading or writing such a
+ * value through {@link #get(ContextKey)}, {@link #put(ContextKey, Object)}
+ * or {@link #remove(ContextKey)} neither hashes the key nor requires a
+ * cast, while keys unknown until execution are still stored through the
+ * ordinary <code>Map</code> methods.</p>
+ *
+ * <p>The values stored under {@link ContextKey}s are not part of the
+ * <code>Map</code> view of the context: they are not counted by
+ * <code>size()</code>, iterated, compared by <code>equals()</code>, nor
+ * removed by <code>clear()</code>.  They are not serialized either, as
+ * ordinals depend on the order in which keys are registered.  As for
+ * {@link CompactContextMap}, instances are not thread-safe.</p>
+ *
+ * <p>The typed methods are overloads of the <code>Map</code> methods, so
+ * they are only selected when the context is referenced as a
+ * {@link SlotContextMap}: <code>get()</code> called with a
+ * {@link ContextKey} through a <code>Map</code> reference looks the key up
+ * as an ordinary map key.</p>
+ *
+ * @param <K> the type of keys maintained by this context
+ * @param <V> the type of mapped values
+ *
+ * @since 2.0
+ */
+public class SlotContextMap<K, V> extends CompactContextMap<K, V> {
+
+    // ------------------------------------------------------ Manifest Constants
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 20120724L;
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    // ------------------------------------------------------ Instance Variables
+
+    /**
+     * <p>The value stored under each {@link ContextKey}, at the ordinal of
+     * the key, or <code>null</code>.  It is allocated by the first typed
+     * <code>put()</code>, so that a context only used as a map does not
+     * pay for the keys registered.</p>
+     */
+    private transient Object[] values;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * Creates a new, empty Context, allocating room for the
+     * {@link ContextKey}s registered when the first typed value is stored.
+     */
+    public SlotContextMap() {
+        values = NO_VALUES;
+    }
+
+    /**
+     * Creates a new Context with the same mappings as the given map,
+     * allocating room for the {@link ContextKey}s registered when the first
+     * typed value is stored.
+     *
+     * @param t Map whose key-value pairs are added
+     */
+    public SlotContextMap(Map<? extends K, ? extends V> t) {
+        super(t);
+        values = NO_VALUES;
+    }
+
+    // ------------------------------------------------------- Typed Methods
+
+    /**
+     * <p>Return the value stored under the specified key.</p>
+     *
+     * @param <T> the type of the value
+     * @param key The key
+     * @return The value, or <code>null</code> if none is stored
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(ContextKey<T> key) {
+        int ordinal = key.getOrdinal();
+        Object[] current = values;
+        return ordinal < current.length ? (T) current[ordinal] : null;
+    }
+
+    /**
+     * <p>Store the specified value under the specified key.</p>
+     *
+     * @param <T> the type of the value
+     * @param key The key
+     * @param value The value
+     * @return The value previously stored, or <code>null</code>
+     * @throws NullPointerException if <code>value</code> is <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T put(ContextKey<T> key, T value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int ordinal = key.getOrdinal();
+        if (ordinal >= values.length) {
+            // First typed value, or key registered since the allocation
+            values = Arrays.copyOf(values, Math.max(ContextKey.count(), ordinal + 1));
+        }
+        T previous = (T) values[ordinal];
+        values[ordinal] = value;
+        return previous;
+    }
+
+    /**
+     * <p>Remove the value stored under the specified key.</p>
+     *
+     * @param <T> the type of the value
+     * @param key The key
+     * @return The value previously stored, or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T remove(ContextKey<T> key) {
+        int ordinal = key.getOrdinal();
+        if (ordinal >= values.length) {
+            return null;
+        }
+        T previous = (T) values[ordinal];
+        values[ordinal] = null;
+        return previous;
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        values = NO_VALUES;
+    }
+
+}
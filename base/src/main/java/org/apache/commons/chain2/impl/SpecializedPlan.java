@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+import static java.lang.invoke.MethodHandles.catchException;
+import static java.lang.invoke.MethodHandles.constant;
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.foldArguments;
+import static java.lang.invoke.MethodHandles.guardWithTest;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * <p>Specialization of an {@link ExecutionPlan} into a tree of
+ * <code>MethodHandle</code>s, one per command and one per {@link Filter},
+ * each bound to its receiver and resolved against its concrete class.</p>
+ *
+ * <p>The interpreted loop of {@link ChainBase} calls every command from the
+ * same <code>execute()</code> call site, which sees as many receiver types
+ * as there are command classes in the application: the JIT compiler cannot
+ * inline it.  In the tree, each command has its own call site, and once the
+ * JVM has customized the hot tree of a chain, each of them is a direct,
+ * monomorphic call.  The postprocess walk is unrolled the same way: there is
+ * one tree per number of {@link Filter}s to be postprocessed.</p>
+ *
+ * <p>A tree nests one level per command, and the JIT compiler gives up on
+ * inlining deep trees, which are then slower than the interpreted loop.
+ * Commands and {@link Filter}s are therefore grouped into segments of
+ * {@link #SEGMENT_LENGTH}, each of them a tree of its own, executed in
+ * turn.</p>
+ *
+ * <p>The tree reproduces the interpreted loop step by step, including the
+ * {@link Deadline} checks and the execution events.  A command whose class
+ * is not accessible from this package is called through the
+ * {@link Command} interface instead.</p>
+ *
+ * @since 2.0
+ */
+final class SpecializedPlan {
+
+    /**
+     * <p>The number of commands, or of {@link Filter}s, per tree.</p>
+     */
+    static final int SEGMENT_LENGTH = 32;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType EXECUTE = methodType(Processing.class, Map.class);
+
+    private static final MethodType POSTPROCESS = methodType(boolean.class, Map.class, Exception.class);
+
+    private static final MethodHandle BEFORE;
+
+    private static final MethodHandle AFTER;
+
+    private static final MethodHandle FAILED;
+
+    private static final MethodHandle BEGIN_POSTPROCESS;
+
+    private static final MethodHandle END_POSTPROCESS;
+
+    private static final MethodHandle IGNORE;
+
+    private static final MethodHandle NOTHING;
+
+    private static final MethodHandle CONTEXT;
+
+    private static final MethodHandle EXCEPTION;
+
+    private static final MethodHandle TRUE = dropArguments(constant(boolean.class, true), 0, Execution.class);
+
+    private static final MethodHandle FALSE = dropArguments(constant(boolean.class, false), 0, Execution.class);
+
+    static {
+        try {
+            BEFORE = LOOKUP.findStatic(SpecializedPlan.class, "before",
+                    methodType(boolean.class, Execution.class, int.class));
+            AFTER = LOOKUP.findStatic(SpecializedPlan.class, "after",
+                    methodType(boolean.class, Processing.class, Execution.class, int.class));
+            FAILED = LOOKUP.findStatic(SpecializedPlan.class, "failed",
+                    methodType(boolean.class, Exception.class, Execution.class, int.class));
+            BEGIN_POSTPROCESS = LOOKUP.findStatic(SpecializedPlan.class, "beginPostprocess",
+                    methodType(void.class, Execution.class));
+            END_POSTPROCESS = LOOKUP.findStatic(SpecializedPlan.class, "endPostprocess",
+                    methodType(void.class, boolean.class, Execution.class, int.class));
+            IGNORE = LOOKUP.findStatic(SpecializedPlan.class, "ignore",
+                    methodType(boolean.class, Exception.class, Execution.class));
+            NOTHING = LOOKUP.findStatic(SpecializedPlan.class, "nothing",
+                    methodType(void.class, Execution.class));
+            CONTEXT = LOOKUP.findGetter(Execution.class, "context", Map.class);
+            EXCEPTION = LOOKUP.findGetter(Execution.class, "exception", Exception.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>For each segment of commands, executes them, returning
+     * <code>true</code> if none of them stopped the execution.</p>
+     */
+    private final MethodHandle[] segments;
+
+    /**
+     * <p>For each segment <code>s</code> of {@link Filter}s, and each
+     * number <code>k</code> of its {@link Filter}s to be postprocessed,
+     * postprocesses the <code>k</code> first {@link Filter}s of the segment
+     * in reverse order.</p>
+     */
+    private final MethodHandle[][] postprocess;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Specialize the specified plan.</p>
+     *
+     * @param plan The plan to be specialized
+     * @throws ReflectiveOperationException if a command or a {@link Filter}
+     *  cannot be resolved
+     */
+    SpecializedPlan(ExecutionPlan<?, ?, ?> plan) throws ReflectiveOperationException {
+        int n = plan.commands.length;
+        this.segments = new MethodHandle[(n + SEGMENT_LENGTH - 1) / SEGMENT_LENGTH];
+        for (int s = 0; s < segments.length; s++) {
+            MethodHandle tail = TRUE;
+            for (int i = Math.min(n, (s + 1) * SEGMENT_LENGTH) - 1; i >= s * SEGMENT_LENGTH; i--) {
+                // (Execution)Processing, then (Execution)boolean
+                MethodHandle command = filterArguments(bind(plan.invokers[i], "execute", EXECUTE, Command.class),
+                        0, CONTEXT);
+                MethodHandle step = foldArguments(insertArguments(AFTER, 2, i), command);
+                step = catchException(step, Exception.class, insertArguments(FAILED, 2, i));
+                step = guardWithTest(insertArguments(BEFORE, 1, i), step, FALSE);
+                tail = guardWithTest(step, tail, FALSE);
+            }
+            segments[s] = tail;
+        }
+
+        int k = plan.filters.length;
+        this.postprocess = new MethodHandle[(k + SEGMENT_LENGTH - 1) / SEGMENT_LENGTH][];
+        for (int s = 0; s < postprocess.length; s++) {
+            int from = s * SEGMENT_LENGTH;
+            postprocess[s] = new MethodHandle[Math.min(SEGMENT_LENGTH, k - from) + 1];
+            postprocess[s][0] = NOTHING;
+            for (int j = from; j < from + postprocess[s].length - 1; j++) {
+                // (Execution)boolean, then (Execution)void
+                MethodHandle filter = filterArguments(bind(plan.filterInvokers[j], "postprocess", POSTPROCESS,
+                        Filter.class), 0, CONTEXT, EXCEPTION);
+                filter = permuteArguments(filter, methodType(boolean.class, Execution.class), 0, 0);
+                filter = catchException(filter, Exception.class, IGNORE);
+                MethodHandle step = foldArguments(insertArguments(END_POSTPROCESS, 2, j), filter);
+                step = foldArguments(step, BEGIN_POSTPROCESS);
+                postprocess[s][j - from + 1] = foldArguments(postprocess[s][j - from], step);
+            }
+        }
+    }
+
+    // -------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Execute the commands until one of them does not return
+     * <code>CONTINUE</code>, recording the outcome in the specified
+     * execution.</p>
+     *
+     * @param execution The state of the execution
+     * @return <code>true</code> if every command returned
+     *  <code>CONTINUE</code>
+     */
+    @IgnoreJRERequirement // invokeExact() is signature polymorphic
+    boolean execute(Execution<?, ?, ?> execution) {
+        try {
+            for (MethodHandle segment : segments) {
+                if (!(boolean) segment.invokeExact(execution)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * <p>Postprocess the specified number of {@link Filter}s in reverse
+     * order, recording whether one of them handled the exception.</p>
+     *
+     * @param execution The state of the execution
+     * @param count The number of {@link Filter}s to be postprocessed
+     */
+    @IgnoreJRERequirement // invokeExact() is signature polymorphic
+    void postprocess(Execution<?, ?, ?> execution, int count) {
+        try {
+            int s = count / SEGMENT_LENGTH;
+            if (count % SEGMENT_LENGTH > 0) {
+                postprocess[s][count % SEGMENT_LENGTH].invokeExact(execution);
+            }
+            for (s--; s >= 0; s--) {
+                postprocess[s][SEGMENT_LENGTH].invokeExact(execution);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Resolve the specified method against the class of the specified
+     * receiver, or against the specified interface if the class is not
+     * accessible, and bind it to the receiver.</p>
+     */
+    private static MethodHandle bind(Object receiver, String name, MethodType type, Class<?> iface)
+            throws ReflectiveOperationException {
+        MethodHandle method;
+        try {
+            method = LOOKUP.findVirtual(receiver.getClass(), name, type);
+        } catch (IllegalAccessException e) {
+            method = LOOKUP.findVirtual(iface, name, type);
+        }
+        return method.bindTo(receiver);
+    }
+
+    private static <K, V, C extends Map<K, V>> boolean before(Execution<K, V, C> execution, int i) {
+        Deadline deadline = execution.deadline;
+        if (deadline != null && deadline.isExpired()) {
+            execution.skipped = execution.plan.commands[i];
+            execution.exception = new DeadlineExceededException(deadline, execution.context, execution.skipped);
+            return false;
+        }
+        execution.index = i;
+        execution.event = ExecutionEvents.beginCommandExecution();
+        return true;
+    }
+
+    private static <K, V, C extends Map<K, V>> boolean after(Processing result, Execution<K, V, C> execution,
+            int i) {
+        ExecutionEvents.endCommandExecution(execution.event, execution.plan.commands[i], null, execution.name, i,
+                result);
+        execution.result = result;
+        if (result != Processing.CONTINUE) {
+            if (result == null) {
+                execution.exception = ChainBase.invalidProcessing(execution.plan.commands[i]);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static <K, V, C extends Map<K, V>> boolean failed(Exception exception, Execution<K, V, C> execution,
+            int i) {
+        ExecutionEvents.endCommandExecution(execution.event, execution.plan.commands[i], null, execution.name, i,
+                null);
+        execution.exception = exception;
+        return false;
+    }
+
+    private static void beginPostprocess(Execution<?, ?, ?> execution) {
+        execution.event = ExecutionEvents.beginFilterPostprocess();
+    }
+
+    private static <K, V, C extends Map<K, V>> void endPostprocess(boolean result, Execution<K, V, C> execution,
+            int j) {
+        if (result) {
+            execution.handled = true;
+        }
+        ExecutionEvents.endFilterPostprocess(execution.event, execution.plan.filters[j], null, execution.name,
+                execution.plan.filterIndices[j], execution.exception, result);
+    }
+
+    private static boolean ignore(Exception exception, Execution<?, ?, ?> execution) {
+        // Silently ignore
+        return false;
+    }
+
+    private static void nothing(Execution<?, ?, ?> execution) {
+        // do nothing
+    }
+
+    // --------------------------------------------------------- Package Classes
+
+    /**
+     * <p>State of one execution of a specialized plan.</p>
+     */
+    static final class Execution<K, V, C extends Map<K, V>> {
+
+        final ExecutionPlan<K, V, C> plan;
+
+        final C context;
+
+        final Deadline deadline;
+
+        final String name;
+
+        /**
+         * The result of the last executed command.
+         */
+        Processing result = Processing.CONTINUE;
+
+        /**
+         * The exception to be postprocessed, if any.
+         */
+        Exception exception = null;
+
+        /**
+         * Index of the last executed command, or <code>-1</code>.
+         */
+        int index = -1;
+
+        /**
+         * The command skipped because the deadline had passed, if any.
+         */
+        Command<K, V, C> skipped = null;
+
+        /**
+         * Whether a {@link Filter} handled the exception.
+         */
+        boolean handled = false;
+
+        /**
+         * The execution event in progress, if any.
+         */
+        Object event = null;
+
+        Execution(ExecutionPlan<K, V, C> plan, C context, String name) {
+            this.plan = plan;
+            this.context = context;
+            this.deadline = Deadline.isUsed() ? Deadline.get(context) : null;
+            this.name = name;
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>{@link SpanExporter} keeping the finished {@link Span}s in memory,
+ * in the order they finished.  Intended for tests.</p>
+ *
+ * @since 2.0
+ */
+public class InMemorySpanExporter implements SpanExporter {
+
+    private final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<Span>();
+
+    public void export(Span span) {
+        spans.add(span);
+    }
+
+    /**
+     * <p>Return the {@link Span}s exported so far.</p>
+     *
+     * @return A copy of the exported spans, in the order they finished
+     */
+    public List<Span> getSpans() {
+        return new ArrayList<Span>(spans);
+    }
+
+    /**
+     * <p>Forget the {@link Span}s exported so far.</p>
+     */
+    public void reset() {
+        spans.clear();
+    }
+
+}
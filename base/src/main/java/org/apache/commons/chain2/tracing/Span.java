@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.tracing;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Processing;
+
+/**
+ * <p>The record of one traced execution of a {@link Command}: a chain
+ * executed through {@link Tracer#trace(Command, java.util.Map)}, or a
+ * command executed through the {@link Tracer} interceptor.  Spans are only
+ * created for sampled traces, and are handed to the {@link SpanExporter}
+ * once finished.</p>
+ *
+ * @since 2.0
+ */
+public final class Span {
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final TraceContext context;
+
+    private final long parentSpanId;
+
+    private final String name;
+
+    private final Class<?> commandClass;
+
+    private final long startMillis;
+
+    private final long startNanos;
+
+    private long durationNanos;
+
+    private Processing result;
+
+    private Throwable failure;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Start a span.</p>
+     *
+     * @param context The {@link TraceContext} of this span
+     * @param parentSpanId The identifier of the parent span, or
+     *  <code>0</code> for a root span
+     * @param name The name of this span
+     * @param commandClass The class of the traced {@link Command}
+     */
+    Span(TraceContext context, long parentSpanId, String name, Class<?> commandClass) {
+        this.context = context;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.commandClass = commandClass;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The {@link TraceContext} of this span
+     */
+    public TraceContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return The trace identifier, as 32 hexadecimal digits
+     */
+    public String getTraceId() {
+        return context.getTraceId();
+    }
+
+    /**
+     * @return The identifier of this span
+     */
+    public long getSpanId() {
+        return context.getSpanId();
+    }
+
+    /**
+     * @return The identifier of the parent span, or <code>0</code> for a
+     *  root span
+     */
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * @return Whether this span is the root of its trace
+     */
+    public boolean isRoot() {
+        return parentSpanId == 0L;
+    }
+
+    /**
+     * @return The name of the chain, or the simple name of the class of the
+     *  traced {@link Command}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The class of the traced {@link Command}
+     */
+    public Class<?> getCommandClass() {
+        return commandClass;
+    }
+
+    /**
+     * @return The start time, in milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return The duration, in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return The {@link Processing} result, or <code>null</code> if the
+     *  execution failed
+     */
+    public Processing getResult() {
+        return result;
+    }
+
+    /**
+     * @return The exception thrown by the execution, or <code>null</code>
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + context + (isRoot() ? "" : ", parent=" + TraceContext.toHex(parentSpanId))
+                + ", " + durationNanos + "ns, " + (failure == null ? result : failure) + "]";
+    }
+
+    // --------------------------------------------------------- Package Methods
+
+    /**
+     * <p>Finish this span.</p>
+     *
+     * @param result The {@link Processing} result, or <code>null</code>
+     * @param failure The exception thrown, or <code>null</code>
+     */
+    void end(Processing result, Throwable failure) {
+        this.durationNanos = System.nanoTime() - startNanos;
+        this.result = result;
+        this.failure = failure;
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.tracing;
+
+/**
+ * <p>Receives the finished {@link Span}s of a {@link Tracer}, for instance
+ * to forward them to a tracing backend.</p>
+ *
+ * <p>{@link SpanExporter} implementations should be designed in a
+ * thread-safe manner, and should not block the calling thread.</p>
+ *
+ * @since 2.0
+ */
+public interface SpanExporter {
+
+    /**
+     * <p>Export a finished {@link Span}.</p>
+     *
+     * @param span The finished {@link Span}
+     */
+    void export(Span span);
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.tracing;
+
+/**
+ * <p>Identifiers of the current span of a trace, carried in the
+ * <code>Context</code> under the reserved {@link #KEY} while a traced
+ * command executes.  A caller continuing a trace started elsewhere puts a
+ * {@link TraceContext} built from the propagated identifiers under that key
+ * before executing the chain; a command calling another service reads it to
+ * propagate the trace further.  The concurrent branches of a
+ * {@link org.apache.commons.chain2.base.ParallelCommand} share the
+ * <code>Context</code>, which keeps the {@link TraceContext} they were
+ * forked from; {@link Tracer#current(java.util.Map)} returns the one of
+ * the command executing on the current thread.</p>
+ *
+ * <p>Instances are immutable.</p>
+ *
+ * @since 2.0
+ */
+public final class TraceContext {
+
+    /**
+     * <p>The reserved <code>Context</code> key of the current
+     * {@link TraceContext}.</p>
+     */
+    public static final String KEY = "org.apache.commons.chain2.tracing.TraceContext";
+
+    /**
+     * <p>The {@link TraceContext} of executions that are not sampled: no
+     * span is recorded for them.</p>
+     */
+    public static final TraceContext UNSAMPLED = new TraceContext(0L, 0L, 0L, false);
+
+    private final long traceIdHigh;
+
+    private final long traceIdLow;
+
+    private final long spanId;
+
+    private final boolean sampled;
+
+    /**
+     * <p>Create a {@link TraceContext}.</p>
+     *
+     * @param traceIdHigh The high 64 bits of the trace identifier
+     * @param traceIdLow The low 64 bits of the trace identifier
+     * @param spanId The identifier of the current span
+     * @param sampled Whether the trace is sampled
+     */
+    public TraceContext(long traceIdHigh, long traceIdLow, long spanId, boolean sampled) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * @return The high 64 bits of the trace identifier
+     */
+    public long getTraceIdHigh() {
+        return traceIdHigh;
+    }
+
+    /**
+     * @return The low 64 bits of the trace identifier
+     */
+    public long getTraceIdLow() {
+        return traceIdLow;
+    }
+
+    /**
+     * @return The identifier of the current span
+     */
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return Whether the trace is sampled
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * <p>Return the trace identifier as 32 lowercase hexadecimal
+     * digits.</p>
+     *
+     * @return The trace identifier
+     */
+    public String getTraceId() {
+        return toHex(traceIdHigh) + toHex(traceIdLow);
+    }
+
+    @Override
+    public String toString() {
+        return getTraceId() + "-" + toHex(spanId) + (sampled ? "-01" : "-00");
+    }
+
+    /**
+     * <p>Format an identifier as 16 lowercase hexadecimal digits.</p>
+     *
+     * @param id The identifier
+     * @return The formatted identifier
+     */
+    static String toHex(long id) {
+        String hex = Long.toHexString(id);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+}
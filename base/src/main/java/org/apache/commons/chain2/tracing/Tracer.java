@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.tracing;
+
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.ChainBase;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Records a {@link Span} per traced chain execution, and a child
+ * {@link Span} per command executed within it.</p>
+ *
+ * <p>A trace is started by {@link #trace(Command, Map)}, that decides
+ * whether it is sampled according to the sampling rate, or continued from
+ * the {@link TraceContext} a caller put in the <code>Context</code> under
+ * {@link TraceContext#KEY}.  Registered as a {@link CommandInterceptor} on
+ * a {@link org.apache.commons.chain2.impl.CatalogBase} or
+ * {@link org.apache.commons.chain2.impl.CatalogFactoryBase}, it records the
+ * commands of the chains of the catalog, nested chains included, and the
+ * commands looked up by a {@link org.apache.commons.chain2.base.LookupCommand}
+ * or {@link org.apache.commons.chain2.base.DispatchLookupCommand}.  While a
+ * command executes, the <code>Context</code> holds its
+ * {@link TraceContext}; commands executed outside of any trace are not
+ * recorded.</p>
+ *
+ * <p>The span of the executing command is also tracked per thread, and
+ * {@link #current(Map)} returns it.  The branches of a
+ * {@link org.apache.commons.chain2.base.ParallelCommand} share their
+ * <code>Context</code>, so each branch is executed by
+ * {@link #executeBranch(TraceContext, Command, Map)}: the spans of a branch
+ * are children of the span current when the branches were forked, and they
+ * leave the <code>Context</code> holding that span, which the commands of
+ * every branch see under {@link TraceContext#KEY}.</p>
+ *
+ * <p>Executions that are not sampled do not allocate: the
+ * <code>Context</code> holds the shared {@link TraceContext#UNSAMPLED}
+ * instance, and the interceptor proceeds directly.</p>
+ *
+ * @param <C> Type of the context associated with this tracer
+ *
+ * @since 2.0
+ */
+public class Tracer<C extends Map<String, Object>> implements CommandInterceptor<String, Object, C> {
+
+    // ------------------------------------------------------- Static Variables
+
+    /**
+     * <p>The innermost span recorded by the current thread, if any.</p>
+     */
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<Scope>();
+
+    // ----------------------------------------------------- Instance Variables
+
+    private final SpanExporter exporter;
+
+    private final double samplingRate;
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Create a {@link Tracer}.</p>
+     *
+     * @param exporter The {@link SpanExporter} of the finished spans
+     * @param samplingRate The fraction of the traces started by this
+     *  tracer that are sampled, between <code>0.0</code> and
+     *  <code>1.0</code>
+     *
+     * @throws IllegalArgumentException if <code>exporter</code> is
+     *  <code>null</code> or <code>samplingRate</code> is out of range
+     */
+    public Tracer(SpanExporter exporter, double samplingRate) {
+        if (exporter == null) {
+            throw new IllegalArgumentException("'exporter' parameter must be not null");
+        }
+        if (!(samplingRate >= 0.0 && samplingRate <= 1.0)) {
+            throw new IllegalArgumentException("'samplingRate' parameter must be between 0.0 and 1.0");
+        }
+        this.exporter = exporter;
+        this.samplingRate = samplingRate;
+    }
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The {@link SpanExporter} of the finished spans
+     */
+    public SpanExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * @return The fraction of the traces started by this tracer that are
+     *  sampled
+     */
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    // --------------------------------------------------------- Static Methods
+
+    /**
+     * <p>Return the {@link TraceContext} of the command executing on the
+     * current thread with the specified <code>Context</code>, or else the
+     * one held by the <code>Context</code>.</p>
+     *
+     * @param context The <code>Context</code> being processed
+     * @return The current {@link TraceContext}, or <code>null</code>
+     *  outside of any trace
+     */
+    public static TraceContext current(Map<?, ?> context) {
+        Scope scope = SCOPE.get();
+        if (scope != null && scope.context == context) {
+            return scope.traceContext;
+        }
+        Object current = context.get(TraceContext.KEY);
+        return current instanceof TraceContext ? (TraceContext) current : null;
+    }
+
+    /**
+     * <p>Execute one of several concurrent branches sharing a
+     * <code>Context</code>, within the specified {@link TraceContext}: the
+     * spans recorded by the branch are its children, and do not replace
+     * the {@link TraceContext} held by the <code>Context</code>.</p>
+     *
+     * @param <K> Context key type
+     * @param <V> Context value type
+     * @param <C> Type of the context
+     * @param traceContext The value of {@link #current(Map)} before the
+     *  branches were forked, or <code>null</code>
+     * @param command The {@link Command} of the branch
+     * @param context The shared <code>Context</code>
+     * @return The result of <code>command.execute(context)</code>
+     */
+    public static <K, V, C extends Map<K, V>> Processing executeBranch(TraceContext traceContext,
+            Command<K, V, C> command, C context) {
+        if (traceContext == null || !traceContext.isSampled()) {
+            return command.execute(context);
+        }
+        Scope scope = enter(context, traceContext, true);
+        try {
+            return command.execute(context);
+        } finally {
+            exit(scope);
+        }
+    }
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Execute the specified {@link Command}, usually a chain, as the
+     * root span of a new trace, or as a child span if the
+     * <code>Context</code> already holds a {@link TraceContext}.</p>
+     *
+     * @param command The {@link Command} to be executed
+     * @param context The <code>Context</code> to be processed
+     * @return The result of the execution
+     */
+    public Processing trace(Command<String, Object, C> command, C context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Can't execute a null context");
+        }
+        if (current(context) != null) {
+            return execute(command, context, command);
+        }
+        if (!sample()) {
+            context.put(TraceContext.KEY, TraceContext.UNSAMPLED);
+            try {
+                return command.execute(context);
+            } finally {
+                context.remove(TraceContext.KEY);
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        TraceContext root = new TraceContext(random.nextLong(), nonZero(random.nextLong()), newSpanId(), true);
+        return record(command, context, command, root, 0L, null);
+    }
+
+    /**
+     * <p>Record a child span of the current {@link TraceContext}, if
+     * any and sampled, around the execution of a command.</p>
+     *
+     * @param command The intercepted {@link Command}
+     * @param context The <code>Context</code> to be processed
+     * @param next The rest of the invocation
+     * @return The result of <code>next.execute(context)</code>
+     */
+    public Processing execute(Command<String, Object, C> command, C context, Command<String, Object, C> next) {
+        TraceContext parent = current(context);
+        if (parent == null || !parent.isSampled()) {
+            return next.execute(context);
+        }
+        TraceContext child = new TraceContext(parent.getTraceIdHigh(), parent.getTraceIdLow(), newSpanId(), true);
+        return record(command, context, next, child, parent.getSpanId(), parent);
+    }
+
+    /**
+     * <p>Record a child span of the current {@link TraceContext}, if
+     * any and sampled, from the start of an {@link AsyncCommand} to the
+     * completion of its stage.  The <code>Context</code> holds the
+     * {@link TraceContext} of the span while the command is started.</p>
+     *
+     * @param command The intercepted {@link AsyncCommand}
+     * @param context The <code>Context</code> to be processed
+     * @param next The rest of the invocation
+     * @return The stage returned by <code>next.executeAsync(context)</code>
+     */
+    public CompletionStage<Processing> executeAsync(AsyncCommand<String, Object, C> command, C context,
+            AsyncCommand<String, Object, C> next) {
+        TraceContext parent = current(context);
+        if (parent == null || !parent.isSampled()) {
+            return next.executeAsync(context);
+        }
+        TraceContext child = new TraceContext(parent.getTraceIdHigh(), parent.getTraceIdLow(), newSpanId(), true);
+        final Span span = new Span(child, parent.getSpanId(), getSpanName(command), command.getClass());
+        Scope scope = enter(context, child, false);
+        if (!scope.branch) {
+            context.put(TraceContext.KEY, child);
+        }
+        CompletionStage<Processing> stage;
+        try {
+            stage = next.executeAsync(context);
+        } catch (RuntimeException e) {
+            finish(span, null, e);
+            throw e;
+        } catch (Error e) {
+            finish(span, null, e);
+            throw e;
+        } finally {
+            exit(scope);
+            if (!scope.branch) {
+                context.put(TraceContext.KEY, parent);
+            }
+        }
+        if (stage == null) {
+            finish(span, null, null);
+            return null;
+        }
+        stage.whenComplete(new BiConsumer<Processing, Throwable>() {
+            public void accept(Processing result, Throwable failure) {
+                if (failure instanceof CompletionException && failure.getCause() != null) {
+                    failure = failure.getCause();
+                }
+                finish(span, result, failure);
+            }
+        });
+        return stage;
+    }
+
+    // ------------------------------------------------------ Protected Methods
+
+    /**
+     * <p>Decide whether a new trace is sampled.  The default implementation
+     * samples a random fraction of the traces, as configured by the
+     * sampling rate.</p>
+     *
+     * @return <code>true</code> if the trace is sampled
+     */
+    protected boolean sample() {
+        return samplingRate >= 1.0 || (samplingRate > 0.0 && ThreadLocalRandom.current().nextDouble() < samplingRate);
+    }
+
+    /**
+     * <p>Return the name of the span of a {@link Command}: the name of a
+     * named {@link ChainBase}, or the simple name of its class.</p>
+     *
+     * @param command The traced {@link Command}
+     * @return The name of the span
+     */
+    protected String getSpanName(Command<String, Object, C> command) {
+        if (command instanceof ChainBase && ((ChainBase<?, ?, ?>) command).getName() != null) {
+            return ((ChainBase<?, ?, ?>) command).getName();
+        }
+        return command.getClass().getSimpleName();
+    }
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * <p>Record a span around an invocation, holding its
+     * {@link TraceContext} in the <code>Context</code> meanwhile, unless
+     * within a branch.</p>
+     */
+    private Processing record(Command<String, Object, C> command, C context, Command<String, Object, C> next,
+            TraceContext traceContext, long parentSpanId, TraceContext parent) {
+        Span span = new Span(traceContext, parentSpanId, getSpanName(command), command.getClass());
+        Scope scope = enter(context, traceContext, false);
+        if (!scope.branch) {
+            context.put(TraceContext.KEY, traceContext);
+        }
+        Processing result = null;
+        Throwable failure = null;
+        try {
+            result = next.execute(context);
+            return result;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } catch (Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            exit(scope);
+            if (!scope.branch) {
+                if (parent == null) {
+                    context.remove(TraceContext.KEY);
+                } else {
+                    context.put(TraceContext.KEY, parent);
+                }
+            }
+            finish(span, result, failure);
+        }
+    }
+
+    /**
+     * <p>Make the specified {@link TraceContext} current on this thread
+     * for the specified <code>Context</code>.  Within a branch, so are the
+     * spans it records.</p>
+     */
+    private static Scope enter(Map<?, ?> context, TraceContext traceContext, boolean branch) {
+        Scope outer = SCOPE.get();
+        if (outer != null && outer.context == context && outer.branch) {
+            branch = true;
+        }
+        Scope scope = new Scope(context, traceContext, branch, outer);
+        SCOPE.set(scope);
+        return scope;
+    }
+
+    /**
+     * <p>Restore the {@link TraceContext} current on this thread before
+     * the specified scope was entered.</p>
+     */
+    private static void exit(Scope scope) {
+        if (scope.outer == null) {
+            SCOPE.remove();
+        } else {
+            SCOPE.set(scope.outer);
+        }
+    }
+
+    /**
+     * <p>End a span and hand it to the exporter.</p>
+     */
+    private void finish(Span span, Processing result, Throwable failure) {
+        span.end(result, failure);
+        export(span);
+    }
+
+    /**
+     * <p>Hand a finished span to the exporter; a failing exporter never
+     * fails the traced execution.</p>
+     */
+    private void export(Span span) {
+        try {
+            exporter.export(span);
+        } catch (RuntimeException e) {
+            Log log = LogFactory.getLog(Tracer.class);
+            log.warn("Failed to export span " + span, e);
+        }
+    }
+
+    private static long newSpanId() {
+        return nonZero(ThreadLocalRandom.current().nextLong());
+    }
+
+    private static long nonZero(long id) {
+        return id == 0L ? 1L : id;
+    }
+
+
+    // --------------------------------------------------------- Private Classes
+
+    /**
+     * <p>A {@link TraceContext} current on a thread for a
+     * <code>Context</code>.</p>
+     */
+    private static final class Scope {
+
+        final Map<?, ?> context;
+
+        final TraceContext traceContext;
+
+        /**
+         * <p>Whether the span belongs to a branch, and must not be put in
+         * the shared <code>Context</code>.</p>
+         */
+        final boolean branch;
+
+        final Scope outer;
+
+        Scope(Map<?, ?> context, TraceContext traceContext, boolean branch, Scope outer) {
+            this.context = context;
+            this.traceContext = traceContext;
+            this.branch = branch;
+            this.outer = outer;
+        }
+
+    }
+
+}
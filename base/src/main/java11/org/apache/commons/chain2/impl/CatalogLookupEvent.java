@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>JFR event recording the lookup of a command in a catalog.</p>
+ *
+ * @since 2.0
+ */
+@Name("org.apache.commons.chain2.CatalogLookup")
+@Label("Catalog Lookup")
+@Category("Apache Commons Chain")
+@Description("Lookup of a command in a catalog")
+@Enabled(false)
+@StackTrace(false)
+final class CatalogLookupEvent extends Event {
+
+    @Label("Catalog")
+    @Description("Name of the catalog, absent for the default catalog")
+    String catalog;
+
+    @Label("Command")
+    String command;
+
+    @Label("Command Class")
+    @Description("Class of the command found, absent if none")
+    Class<?> commandClass;
+
+}
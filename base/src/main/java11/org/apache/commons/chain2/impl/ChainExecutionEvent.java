@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * <p>JFR event recording the execution of a whole chain.</p>
+ *
+ * @since 2.0
+ */
+@Name("org.apache.commons.chain2.ChainExecution")
+@Label("Chain Execution")
+@Category("Apache Commons Chain")
+@Description("Execution of a chain, from its first command to its last postprocessed filter")
+@Threshold("20 ms")
+@StackTrace(false)
+final class ChainExecutionEvent extends Event {
+
+    @Label("Chain Class")
+    Class<?> chainClass;
+
+    @Label("Chain")
+    String chain;
+
+    @Label("Result")
+    @Description("Processing result, absent if the chain failed")
+    String result;
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>JFR event recording the execution of a command, in a chain or looked up in a catalog.</p>
+ *
+ * @since 2.0
+ */
+@Name("org.apache.commons.chain2.CommandExecution")
+@Label("Command Execution")
+@Category("Apache Commons Chain")
+@Description("Execution of a command of a chain, or of a command looked up in a catalog")
+@Enabled(false)
+@StackTrace(false)
+final class CommandExecutionEvent extends Event {
+
+    @Label("Command Class")
+    Class<?> commandClass;
+
+    @Label("Catalog")
+    String catalog;
+
+    @Label("Command")
+    @Description("Name of the command, or name and position of the command in its chain")
+    String command;
+
+    @Label("Result")
+    @Description("Processing result, absent if the command failed")
+    String result;
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import jdk.jfr.EventType;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+/**
+ * <p>Sink emitting the events of {@link ExecutionEvents} through JFR.  An
+ * event object is only allocated when its type is enabled in a running
+ * recording.</p>
+ *
+ * @since 2.0
+ */
+final class FlightRecorderEventSink extends EventSink {
+
+    private static final EventType CHAIN_EXECUTION = EventType.getEventType(ChainExecutionEvent.class);
+
+    private static final EventType COMMAND_EXECUTION = EventType.getEventType(CommandExecutionEvent.class);
+
+    private static final EventType FILTER_POSTPROCESS = EventType.getEventType(FilterPostprocessEvent.class);
+
+    private static final EventType CATALOG_LOOKUP = EventType.getEventType(CatalogLookupEvent.class);
+
+    @Override
+    boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    Object beginChainExecution() {
+        if (!CHAIN_EXECUTION.isEnabled()) {
+            return null;
+        }
+        ChainExecutionEvent event = new ChainExecutionEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endChainExecution(Object event, Command<?, ?, ?> chain, String name, Processing result) {
+        if (event == null) {
+            return;
+        }
+        ChainExecutionEvent chainEvent = (ChainExecutionEvent) event;
+        chainEvent.end();
+        if (chainEvent.shouldCommit()) {
+            chainEvent.chainClass = chain.getClass();
+            chainEvent.chain = name;
+            chainEvent.result = result == null ? null : result.name();
+            chainEvent.commit();
+        }
+    }
+
+    @Override
+    Object beginCommandExecution() {
+        if (!COMMAND_EXECUTION.isEnabled()) {
+            return null;
+        }
+        CommandExecutionEvent event = new CommandExecutionEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endCommandExecution(Object event, Command<?, ?, ?> command, String catalog, String name, int position,
+            Processing result) {
+        if (event == null) {
+            return;
+        }
+        CommandExecutionEvent commandEvent = (CommandExecutionEvent) event;
+        commandEvent.end();
+        if (commandEvent.shouldCommit()) {
+            commandEvent.commandClass = command.getClass();
+            commandEvent.catalog = catalog;
+            commandEvent.command = qualify(name, position);
+            commandEvent.result = result == null ? null : result.name();
+            commandEvent.commit();
+        }
+    }
+
+    @Override
+    Object beginFilterPostprocess() {
+        if (!FILTER_POSTPROCESS.isEnabled()) {
+            return null;
+        }
+        FilterPostprocessEvent event = new FilterPostprocessEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endFilterPostprocess(Object event, Filter<?, ?, ?> filter, String catalog, String name, int position,
+            Exception exception, boolean handled) {
+        if (event == null) {
+            return;
+        }
+        FilterPostprocessEvent filterEvent = (FilterPostprocessEvent) event;
+        filterEvent.end();
+        if (filterEvent.shouldCommit()) {
+            filterEvent.filterClass = filter.getClass();
+            filterEvent.catalog = catalog;
+            filterEvent.filter = qualify(name, position);
+            filterEvent.exceptionClass = exception == null ? null : exception.getClass();
+            filterEvent.handled = handled;
+            filterEvent.commit();
+        }
+    }
+
+    @Override
+    Object beginCatalogLookup() {
+        if (!CATALOG_LOOKUP.isEnabled()) {
+            return null;
+        }
+        CatalogLookupEvent event = new CatalogLookupEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void endCatalogLookup(Object event, String catalog, String name, Command<?, ?, ?> command) {
+        if (event == null) {
+            return;
+        }
+        CatalogLookupEvent lookupEvent = (CatalogLookupEvent) event;
+        lookupEvent.end();
+        if (lookupEvent.shouldCommit()) {
+            lookupEvent.catalog = catalog;
+            lookupEvent.command = name;
+            lookupEvent.commandClass = command == null ? null : command.getClass();
+            lookupEvent.commit();
+        }
+    }
+
+    /**
+     * <p>Append the position of a command to the name of its chain.</p>
+     */
+    private static String qualify(String name, int position) {
+        if (position < 0) {
+            return name;
+        }
+        return (name == null ? "chain" : name) + "#" + position;
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.CatalogBase;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>CachingCommand</code> class.</p>
+ *
+ */
+public class CachingCommandTestCase {
+
+    private CachingCommand<String, Object, Context<String, Object>> command;
+    private Computing delegate;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = new Computing();
+        command = new CachingCommand<String, Object, Context<String, Object>>();
+        command.setCommand(delegate);
+        command.setKeys("user, locale");
+        command.setOutputKeys("greeting");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CatalogFactoryBase.clear();
+        command = null;
+        delegate = null;
+    }
+
+    @Test
+    public void hitRestoresOutputs() {
+        Context<String, Object> first = newContext("alice", "en");
+        assertEquals(Processing.FINISHED, command.execute(first));
+        assertEquals("hello alice", first.get("greeting"));
+
+        Context<String, Object> second = newContext("alice", "en");
+        assertEquals(Processing.FINISHED, command.execute(second));
+        assertEquals("hello alice", second.get("greeting"));
+
+        assertEquals(1, delegate.executions.get());
+        assertEquals(1L, command.getMissCount());
+        assertEquals(1L, command.getHitCount());
+    }
+
+    @Test
+    public void differentKeysMiss() {
+        command.execute(newContext("alice", "en"));
+        command.execute(newContext("alice", "fr"));
+        command.execute(newContext("bob", "en"));
+
+        assertEquals(3, delegate.executions.get());
+        assertEquals(3, command.getSize());
+    }
+
+    @Test
+    public void lookedUpDelegate() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addCommand("compute", delegate);
+        CatalogFactory<String, Object, Context<String, Object>> factory = CatalogFactoryBase.getInstance();
+        factory.setCatalog(catalog);
+
+        command.setCommand(null);
+        command.setName("compute");
+        command.execute(newContext("alice", "en"));
+        command.execute(newContext("alice", "en"));
+
+        assertEquals(1, delegate.executions.get());
+    }
+
+    @Test
+    public void expiredEntryIsRecomputed() throws Exception {
+        command.setTimeToLive(10L);
+        command.execute(newContext("alice", "en"));
+        Thread.sleep(50L);
+        command.execute(newContext("alice", "en"));
+
+        assertEquals(2, delegate.executions.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        command.setMaxSize(10);
+        for (int i = 0; i < 10; i++) {
+            command.execute(newContext("user" + i, "en"));
+        }
+        // Use the first entry again, so that it is not the eldest one
+        command.execute(newContext("user0", "en"));
+        command.execute(newContext("user10", "en"));
+
+        assertEquals(9, command.getSize());
+        assertEquals(2L, command.getEvictionCount());
+
+        command.execute(newContext("user0", "en"));
+        assertEquals(11, delegate.executions.get());
+        command.execute(newContext("user1", "en"));
+        assertEquals(12, delegate.executions.get());
+    }
+
+    @Test
+    public void concurrentMissesExecuteOnce() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        delegate.started = started;
+        delegate.release = release;
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Object> task = new Callable<Object>() {
+                public Object call() {
+                    Context<String, Object> context = newContext("alice", "en");
+                    command.execute(context);
+                    return context.get("greeting");
+                }
+            };
+            Future<Object> first = pool.submit(task);
+            assertEquals(true, started.await(5, TimeUnit.SECONDS));
+            Future<Object> second = pool.submit(task);
+            release.countDown();
+
+            assertEquals("hello alice", first.get(5, TimeUnit.SECONDS));
+            assertEquals("hello alice", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, delegate.executions.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waiterGivesUpAtDeadline() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        delegate.started = started;
+        delegate.release = release;
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Processing> loading = pool.submit(new Callable<Processing>() {
+                public Processing call() {
+                    return command.execute(newContext("alice", "en"));
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Context<String, Object> context = newContext("alice", "en");
+            Deadline.put(context, Deadline.after(50L, TimeUnit.MILLISECONDS));
+            try {
+                command.execute(context);
+                fail("Expected DeadlineExceededException");
+            } catch (DeadlineExceededException e) {
+                assertSame(command, e.getFailedCommand());
+            }
+
+            // An interrupted waiter gives up as well
+            Thread.currentThread().interrupt();
+            try {
+                command.execute(newContext("alice", "en"));
+                fail("Expected ChainException");
+            } catch (ChainException e) {
+                assertTrue(Thread.interrupted());
+            }
+
+            release.countDown();
+            assertEquals(Processing.FINISHED, loading.get(5, TimeUnit.SECONDS));
+            assertEquals(1, delegate.executions.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reentrantExecutionFailsFast() {
+        command.setCommand(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                return command.execute(context);
+            }
+        });
+        try {
+            command.execute(newContext("alice", "en"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(0, command.getSize());
+        }
+    }
+
+    @Test
+    public void failureIsNotCached() {
+        delegate.failure = new IllegalStateException("boom");
+        try {
+            command.execute(newContext("alice", "en"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertSame(delegate.failure, e);
+        }
+        assertEquals(0, command.getSize());
+
+        delegate.failure = null;
+        Context<String, Object> context = newContext("alice", "en");
+        command.execute(context);
+        assertEquals("hello alice", context.get("greeting"));
+        assertEquals(2, delegate.executions.get());
+    }
+
+    @Test
+    public void clearForgetsEntries() {
+        command.execute(newContext("alice", "en"));
+        command.clear();
+        assertEquals(0, command.getSize());
+
+        command.execute(newContext("alice", "en"));
+        assertEquals(2, delegate.executions.get());
+    }
+
+    @Test
+    public void hitDoesNotPostprocessDelegate() {
+        Postprocessing filter = new Postprocessing();
+        command.setCommand(filter);
+
+        Context<String, Object> first = newContext("alice", "en");
+        command.execute(first);
+        // The context only holds the keys and the outputs
+        assertEquals(3, first.size());
+        assertEquals(true, command.postprocess(first, null));
+        assertEquals(1, filter.postprocessed);
+
+        Context<String, Object> second = newContext("alice", "en");
+        command.execute(second);
+        assertEquals(false, command.postprocess(second, null));
+        assertEquals(1, filter.postprocessed);
+        assertEquals("hello alice", second.get("greeting"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveMaxSizeIsRejected() {
+        command.setMaxSize(0);
+    }
+
+    private static Context<String, Object> newContext(String user, String locale) {
+        Context<String, Object> context = new ContextBase();
+        context.put("user", user);
+        context.put("locale", locale);
+        return context;
+    }
+
+    // Greets the user of the context, counting its executions
+    private static class Computing implements Command<String, Object, Context<String, Object>> {
+
+        final AtomicInteger executions = new AtomicInteger();
+        volatile RuntimeException failure;
+        volatile CountDownLatch started;
+        volatile CountDownLatch release;
+
+        public Processing execute(Context<String, Object> context) {
+            executions.incrementAndGet();
+            if (started != null) {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            context.put("greeting", "hello " + context.get("user"));
+            return Processing.FINISHED;
+        }
+
+        }
+
+    // Counts the calls of its postprocess() method
+    private static class Postprocessing extends Computing
+            implements Filter<String, Object, Context<String, Object>> {
+
+        int postprocessed = 0;
+
+        public boolean postprocess(Context<String, Object> context, Exception exception) {
+            postprocessed++;
+            return true;
+        }
+
+    }
+
+}
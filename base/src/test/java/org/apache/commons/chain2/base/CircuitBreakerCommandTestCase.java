@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.CatalogBase;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>CircuitBreakerCommand</code> class.</p>
+ *
+ */
+public class CircuitBreakerCommandTestCase {
+
+    private CircuitBreakerCommand<String, Object, Context<String, Object>> breaker;
+    private Outcome delegate;
+
+    // Time source of the breaker, in nanoseconds
+    private long now = 0L;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = new Outcome();
+        breaker = new CircuitBreakerCommand<String, Object, Context<String, Object>>() {
+            @Override
+            protected long nanoTime() {
+                return now;
+            }
+        };
+        breaker.setCommand(delegate);
+        breaker.setWindowSize(10);
+        breaker.setMinimumCalls(4);
+        breaker.setOpenDuration(1000L);
+        breaker.setHalfOpenCalls(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CatalogFactoryBase.clear();
+        breaker = null;
+        delegate = null;
+    }
+
+    @Test
+    public void opensOnFailureRate() {
+        execute(2, false);
+        execute(1, true);
+        assertEquals(CircuitBreakerCommand.State.CLOSED, breaker.getState());
+        // 2 failures out of 4 calls reach the default 50% threshold
+        execute(1, true);
+        assertEquals(CircuitBreakerCommand.State.OPEN, breaker.getState());
+
+        try {
+            breaker.execute(new ContextBase());
+            fail("Expected RejectedCommandException");
+        } catch (RejectedCommandException e) {
+            assertEquals(4, delegate.executions);
+        }
+        assertEquals(1L, breaker.getShortCircuitedCount());
+    }
+
+    @Test
+    public void doesNotOpenBelowMinimumCalls() {
+        execute(3, true);
+        assertEquals(CircuitBreakerCommand.State.CLOSED, breaker.getState());
+        assertEquals(100.0, breaker.getFailureRate(), 0.0);
+    }
+
+    @Test
+    public void slidingWindowForgetsOldOutcomes() {
+        execute(1, true);
+        execute(10, false);
+        assertEquals(0.0, breaker.getFailureRate(), 0.0);
+
+        execute(4, true);
+        assertEquals(CircuitBreakerCommand.State.CLOSED, breaker.getState());
+        execute(1, true);
+        assertEquals(CircuitBreakerCommand.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void opensOnSlowCallRate() {
+        breaker.setSlowCallDuration(100L);
+        breaker.setSlowCallRateThreshold(75.0);
+        delegate.duration = TimeUnit.MILLISECONDS.toNanos(200L);
+        execute(3, false);
+        delegate.duration = 0L;
+        execute(1, false);
+        assertEquals(CircuitBreakerCommand.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenTrialsClose() {
+        execute(4, true);
+        assertEquals(CircuitBreakerCommand.State.OPEN, breaker.getState());
+
+        now += TimeUnit.MILLISECONDS.toNanos(1000L);
+        execute(1, false);
+        assertEquals(CircuitBreakerCommand.State.HALF_OPEN, breaker.getState());
+        execute(1, false);
+        assertEquals(CircuitBreakerCommand.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenTrialFailureReopens() {
+        execute(4, true);
+        now += TimeUnit.MILLISECONDS.toNanos(1000L);
+        execute(1, false);
+        execute(1, true);
+        assertEquals(CircuitBreakerCommand.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void fallbackWhileOpen() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addCommand("degraded", new NonDelegatingCommand("fallback"));
+        CatalogFactory<String, Object, Context<String, Object>> factory = CatalogFactoryBase.getInstance();
+        factory.setCatalog(catalog);
+        breaker.setFallback("degraded");
+
+        execute(4, true);
+        Context<String, Object> context = new ContextBase();
+        assertEquals(Processing.FINISHED, breaker.execute(context));
+        assertThat(context, hasLog("fallback"));
+        assertEquals(4, delegate.executions);
+    }
+
+    @Test
+    public void shortCircuitDoesNotPostprocessDelegate() {
+        final int[] postprocessed = new int[1];
+        delegate = new PostprocessedOutcome(postprocessed);
+        breaker.setCommand(delegate);
+
+        execute(4, true);
+        assertEquals(CircuitBreakerCommand.State.OPEN, breaker.getState());
+        Context<String, Object> context = new ContextBase();
+        try {
+            breaker.execute(context);
+            fail("Expected RejectedCommandException");
+        } catch (RejectedCommandException e) {
+            assertFalse(breaker.postprocess(context, e));
+        }
+        assertEquals(0, postprocessed[0]);
+        assertEquals(0, context.size());
+    }
+
+    @Test
+    public void concurrentOutcomesAreAllRecorded() throws Exception {
+        final CircuitBreakerCommand<String, Object, Context<String, Object>> shared =
+                new CircuitBreakerCommand<String, Object, Context<String, Object>>();
+        shared.setCommand(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                if (context.containsKey("fail")) {
+                    throw new IllegalStateException("down");
+                }
+                return Processing.CONTINUE;
+            }
+        });
+        shared.setWindowSize(800);
+        shared.setMinimumCalls(800);
+        shared.setFailureRateThreshold(60.0);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        Context<String, Object> context = new ContextBase();
+                        if (i % 2 == 0) {
+                            context.put("fail", Boolean.TRUE);
+                        }
+                        try {
+                            shared.execute(context);
+                        } catch (IllegalStateException e) {
+                            // Expected failure of the delegate
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000L);
+        }
+        assertEquals(CircuitBreakerCommand.State.CLOSED, shared.getState());
+        assertEquals(50.0, shared.getFailureRate(), 0.0);
+    }
+
+    private void execute(int times, boolean fail) {
+        delegate.fail = fail;
+        for (int i = 0; i < times; i++) {
+            try {
+                breaker.execute(new ContextBase());
+                if (fail) {
+                    fail("Expected IllegalStateException");
+                }
+            } catch (IllegalStateException e) {
+                // Expected failure of the delegate
+            }
+        }
+    }
+
+    // Fails or succeeds on demand, advancing the time source
+    private class Outcome implements Command<String, Object, Context<String, Object>> {
+
+        int executions = 0;
+        boolean fail = false;
+        long duration = 0L;
+
+        public Processing execute(Context<String, Object> context) {
+            executions++;
+            now += duration;
+            if (fail) {
+                throw new IllegalStateException("down");
+            }
+            return Processing.CONTINUE;
+        }
+
+        }
+
+    // Outcome counting the calls of its postprocess() method
+    private class PostprocessedOutcome extends Outcome
+            implements Filter<String, Object, Context<String, Object>> {
+
+        private final int[] postprocessed;
+
+        PostprocessedOutcome(int[] postprocessed) {
+            this.postprocessed = postprocessed;
+        }
+
+        public boolean postprocess(Context<String, Object> context, Exception exception) {
+            postprocessed[0]++;
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.CatalogBase;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>ConcurrencyLimitCommand</code> class.</p>
+ *
+ */
+public class ConcurrencyLimitCommandTestCase {
+
+    private ConcurrencyLimitCommand<String, Object, Context<String, Object>> command;
+    private Context<String, Object> context;
+
+    @Before
+    public void setUp() throws Exception {
+        command = new ConcurrencyLimitCommand<String, Object, Context<String, Object>>();
+        context = new ContextBase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CatalogFactoryBase.clear();
+        command = null;
+        context = null;
+    }
+
+    @Test
+    public void executesDelegateWithinLimit() {
+        command.setCommand(new NonDelegatingCommand("1"));
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertThat(context, hasLog("1"));
+
+        ConcurrencyLimiter limiter = command.getLimiter("");
+        assertEquals(1L, limiter.getAcceptedCount());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void rejectsBeyondLimit() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        command.setInitialLimit(1);
+        command.setCommand(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Processing.CONTINUE;
+            }
+        });
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Processing> blocked = pool.submit(new Callable<Processing>() {
+                public Processing call() {
+                    return command.execute(new ContextBase());
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            try {
+                command.execute(context);
+                fail("Expected RejectedCommandException");
+            } catch (RejectedCommandException e) {
+                assertSame(command, e.getFailedCommand());
+            }
+            release.countDown();
+            assertEquals(Processing.CONTINUE, blocked.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1L, command.getLimiter("").getRejectedCount());
+    }
+
+    @Test
+    public void limiterPerLookedUpName() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addCommand("a", new NonDelegatingCommand("a"));
+        catalog.addCommand("b", new NonDelegatingCommand("b"));
+        CatalogFactory<String, Object, Context<String, Object>> factory = CatalogFactoryBase.getInstance();
+        factory.setCatalog(catalog);
+        command.setNameKey("target");
+
+        context.put("target", "a");
+        command.execute(context);
+        context.put("target", "b");
+        command.execute(context);
+        command.execute(context);
+
+        assertEquals(2, command.getLimiters().size());
+        assertEquals(1L, command.getLimiter("a").getAcceptedCount());
+        assertEquals(2L, command.getLimiter("b").getAcceptedCount());
+    }
+
+    @Test
+    public void unknownNamesGetNoLimiter() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addCommand("a", new NonDelegatingCommand("a"));
+        CatalogFactory<String, Object, Context<String, Object>> factory = CatalogFactoryBase.getInstance();
+        factory.setCatalog(catalog);
+        command.setNameKey("target");
+
+        context.put("target", "unknown");
+        try {
+            command.execute(context);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected lookup failure
+        }
+        command.setOptional(true);
+        assertEquals(Processing.CONTINUE, command.execute(context));
+
+        assertTrue(command.getLimiters().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveMinLimitIsRejected() {
+        command.setMinLimit(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveInitialLimitIsRejected() {
+        command.setInitialLimit(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveMaxLimitIsRejected() {
+        command.setMaxLimit(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toleranceBelowOneIsRejected() {
+        command.setTolerance(0.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backoffRatioOfOneIsRejected() {
+        command.setBackoffRatio(1.0);
+    }
+
+}
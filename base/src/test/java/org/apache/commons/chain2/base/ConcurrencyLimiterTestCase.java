@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>ConcurrencyLimiter</code> class.</p>
+ *
+ */
+public class ConcurrencyLimiterTestCase {
+
+    private ConcurrencyLimiter limiter;
+
+    @Before
+    public void setUp() throws Exception {
+        limiter = new ConcurrencyLimiter(4, 2, 8);
+        limiter.setLatencyThreshold(10L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void failsFastAtLimit() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.acquire(0L, TimeUnit.MILLISECONDS));
+        }
+        assertFalse(limiter.acquire(0L, TimeUnit.MILLISECONDS));
+        assertEquals(4, limiter.getInFlight());
+        assertEquals(4L, limiter.getAcceptedCount());
+        assertEquals(1L, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void waitsForRelease() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire(0L, TimeUnit.MILLISECONDS);
+        }
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                limiter.release(0L);
+            }
+        };
+        releaser.start();
+        assertTrue(limiter.acquire(5L, TimeUnit.SECONDS));
+        releaser.join();
+    }
+
+    @Test
+    public void waitTimesOut() {
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire(0L, TimeUnit.MILLISECONDS);
+        }
+        assertFalse(limiter.acquire(20L, TimeUnit.MILLISECONDS));
+        assertEquals(1L, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void slowExecutionsDecreaseLimit() {
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(0L, TimeUnit.MILLISECONDS);
+            limiter.release(TimeUnit.SECONDS.toNanos(1L));
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void fastExecutionsIncreaseLimitWhenBusy() {
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire(0L, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < 100; i++) {
+            limiter.release(1L);
+            assertTrue(limiter.acquire(0L, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void idleExecutionsDoNotIncreaseLimit() {
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(0L, TimeUnit.MILLISECONDS);
+            limiter.release(1L);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void baselineLatencyIsUsedWithoutThreshold() {
+        limiter.setLatencyThreshold(0L, TimeUnit.MILLISECONDS);
+        limiter.acquire(0L, TimeUnit.MILLISECONDS);
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(1L));
+        limiter.acquire(0L, TimeUnit.MILLISECONDS);
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(5L));
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimitsAreRejected() {
+        new ConcurrencyLimiter(1, 2, 8);
+    }
+
+}
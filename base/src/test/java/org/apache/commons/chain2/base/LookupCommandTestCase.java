@@ -18,18 +18,28 @@ package org.apache.commons.chain2.base;
 
 import static org.apache.commons.chain2.testutils.HasLog.hasLog;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.CatalogFactory;
 import org.apache.commons.chain2.Chain;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
 import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
 import org.apache.commons.chain2.Processing;
 import org.apache.commons.chain2.impl.CatalogBase;
 import org.apache.commons.chain2.impl.CatalogFactoryBase;
 import org.apache.commons.chain2.impl.ChainBase;
 import org.apache.commons.chain2.impl.ContextBase;
+import org.apache.commons.chain2.impl.LatencyRecorder;
+import org.apache.commons.chain2.impl.LatencySnapshot;
 import org.apache.commons.chain2.testutils.DelegatingCommand;
 import org.apache.commons.chain2.testutils.NonDelegatingCommand;
 import org.junit.After;
@@ -194,4 +204,87 @@ public class LookupCommandTestCase {
         assertThat(context, hasLog("3a"));
     }
 
+    // Test recording of the latency of the looked-up command
+    @Test
+    public void testExecuteMethodLookup_4a() {
+
+        // use default catalog
+        catalog.addCommand("foo", new NonDelegatingCommand("4a"));
+        LatencyRecorder recorder = new LatencyRecorder();
+        command.setLatencyRecorder(recorder);
+        command.setName("foo");
+
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertEquals(Processing.FINISHED, command.execute(context));
+        Map<String, LatencySnapshot> snapshots = recorder.snapshotAndReset();
+        assertEquals(1, snapshots.size());
+        assertEquals(2, snapshots.get("default:foo").getCount());
+        assertThat(context, hasLog("4a/4a"));
+    }
+
+    // Test interception of the looked-up command by the catalog interceptors
+    @Test
+    public void testExecuteMethodLookup_4b() {
+
+        // use default catalog
+        catalog.addCommand("foo", new NonDelegatingCommand("4b"));
+        ((CatalogBase<String, Object, Context<String, Object>>) catalog).addInterceptor(
+            new CommandInterceptor<String, Object, Context<String, Object>>() {
+                public Processing execute(Command<String, Object, Context<String, Object>> command,
+                        Context<String, Object> context, Command<String, Object, Context<String, Object>> next) {
+                    context.put("intercepted", command);
+                    return next.execute(context);
+                }
+            });
+        command.setName("foo");
+
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertEquals(catalog.getCommand("foo"), context.get("intercepted"));
+        assertThat(context, hasLog("4b"));
+    }
+
+    // Test that an expired deadline stops the lookup before the execution
+    @Test
+    public void testExecuteMethodLookup_4c() {
+
+        catalog.addCommand("foo", new NonDelegatingCommand("4c"));
+        command.setName("foo");
+        Deadline.put(context, Deadline.after(0L, TimeUnit.MILLISECONDS));
+
+        try {
+            command.execute(context);
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertEquals(catalog.getCommand("foo"), e.getFailedCommand());
+        }
+        assertNull(context.get("log"));
+    }
+
+
+    // Test that the reused invocation follows the interceptors and commands
+    @Test
+    public void testExecuteMethodLookup_4d() {
+
+        catalog.addCommand("foo", new NonDelegatingCommand("4d"));
+        command.setName("foo");
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertNull(context.get("intercepted"));
+
+        ((CatalogBase<String, Object, Context<String, Object>>) catalog).addInterceptor(
+            new CommandInterceptor<String, Object, Context<String, Object>>() {
+                public Processing execute(Command<String, Object, Context<String, Object>> command,
+                        Context<String, Object> context, Command<String, Object, Context<String, Object>> next) {
+                    context.put("intercepted", command);
+                    return next.execute(context);
+                }
+            });
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertEquals(catalog.getCommand("foo"), context.get("intercepted"));
+
+        catalog.addCommand("foo", new NonDelegatingCommand("4e"));
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertEquals(catalog.getCommand("foo"), context.get("intercepted"));
+        assertThat(context, hasLog("4d/4d/4e"));
+    }
+
 }
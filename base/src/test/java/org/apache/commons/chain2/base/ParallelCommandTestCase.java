@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.apache.commons.chain2.testutils.NullReturningCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>ParallelCommand</code> class.</p>
+ *
+ */
+public class ParallelCommandTestCase {
+
+    // Executes forked children on the calling thread, in order
+    private static final Executor DIRECT = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private ParallelCommand<String, Object, Context<String, Object>> command;
+    private Context<String, Object> context;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        command = new ParallelCommand<String, Object, Context<String, Object>>(DIRECT);
+        context = new ContextBase();
+        pool = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+        command = null;
+        context = null;
+    }
+
+    @Test
+    public void defaultPolicyIsAllContinue() {
+        assertEquals(ParallelCommand.Policy.ALL_CONTINUE, command.getPolicy());
+    }
+
+    @Test
+    public void emptyCommandContinues() {
+        assertEquals(Processing.CONTINUE, command.execute(context));
+    }
+
+    @Test
+    public void allContinueReturnsContinue() {
+        command.addCommand(new DelegatingCommand("1"));
+        command.addCommand(new DelegatingCommand("2"));
+        command.addCommand(new DelegatingCommand("3"));
+
+        assertEquals(Processing.CONTINUE, command.execute(context));
+        assertThat(context, hasLog("1/2/3"));
+    }
+
+    @Test
+    public void allContinueWaitsForEveryChild() {
+        command.addCommand(new DelegatingCommand("1"));
+        command.addCommand(new NonDelegatingCommand("2"));
+        command.addCommand(new DelegatingCommand("3"));
+
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertThat(context, hasLog("1/2/3"));
+    }
+
+    @Test
+    public void firstFinishedReturnsFinished() {
+        command.setPolicy(ParallelCommand.Policy.FIRST_FINISHED);
+        command.addCommand(new DelegatingCommand("1"));
+        command.addCommand(new NonDelegatingCommand("2"));
+        command.addCommand(new DelegatingCommand("3"));
+
+        assertEquals(Processing.FINISHED, command.execute(context));
+    }
+
+    @Test
+    public void firstFinishedContinuesIfNoChildFinishes() {
+        command.setPolicy(ParallelCommand.Policy.FIRST_FINISHED);
+        command.addCommand(new DelegatingCommand("1"));
+        command.addCommand(new DelegatingCommand("2"));
+
+        assertEquals(Processing.CONTINUE, command.execute(context));
+        assertThat(context, hasLog("1/2"));
+    }
+
+    @Test
+    public void firstFinishedDoesNotWaitForSlowChildren() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        command.setExecutor(pool);
+        command.setPolicy(ParallelCommand.Policy.FIRST_FINISHED);
+        command.addCommand(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Processing.CONTINUE;
+            }
+        });
+        command.addCommand(new NonDelegatingCommand("2"));
+
+        try {
+            assertEquals(Processing.FINISHED, command.execute(context));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void childrenRunConcurrently() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(3);
+        Command<String, Object, Context<String, Object>> child =
+                new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return Processing.CONTINUE;
+            }
+        };
+        command.setExecutor(pool);
+        command.addCommand(child);
+        command.addCommand(child);
+        command.addCommand(child);
+
+        assertEquals(Processing.CONTINUE, command.execute(context));
+    }
+
+    @Test
+    public void failuresAreAggregated() {
+        Command<String, Object, Context<String, Object>> first = new FailingCommand("1");
+        command.addCommand(first);
+        command.addCommand(new DelegatingCommand("2"));
+        command.addCommand(new FailingCommand("3"));
+
+        try {
+            command.execute(context);
+            fail("Expected ChainException");
+        } catch (ChainException e) {
+            assertSame(first, e.getFailedCommand());
+            assertSame(context, e.getContext());
+            assertEquals("1", e.getCause().getMessage());
+            assertEquals(1, e.getSuppressed().length);
+            assertEquals("3", e.getSuppressed()[0].getMessage());
+        }
+        assertThat(context, hasLog("1/2/3"));
+    }
+
+    @Test
+    public void nullResultIsAFailure() {
+        command.addCommand(new DelegatingCommand("1"));
+        command.addCommand(new NullReturningCommand("2"));
+
+        try {
+            command.execute(context);
+            fail("Expected ChainException");
+        } catch (ChainException e) {
+            assertTrue(e.getFailedCommand() instanceof NullReturningCommand);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addCommandAfterExecute() {
+        command.addCommand(new DelegatingCommand("1"));
+        command.execute(context);
+        command.addCommand(new DelegatingCommand("2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullContextIsRejected() {
+        command.execute(null);
+    }
+
+    // Logs its identifier and throws an exception carrying it
+    private static class FailingCommand extends NonDelegatingCommand {
+
+        public FailingCommand(String id) {
+            super(id);
+        }
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            log(context, id);
+            throw new IllegalStateException(id);
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>RateLimitFilter</code> class.</p>
+ *
+ */
+public class RateLimitFilterTestCase {
+
+    private RateLimitFilter<String, Object, Context<String, Object>> filter;
+
+    // Time source of the filter, in nanoseconds
+    private long now = 0L;
+
+    @Before
+    public void setUp() throws Exception {
+        filter = new RateLimitFilter<String, Object, Context<String, Object>>() {
+            @Override
+            protected long nanoTime() {
+                return now;
+            }
+        };
+        filter.setKey("client");
+        filter.setRate(10.0);
+        filter.setBurst(3);
+        filter.setOutcomeKey("outcome");
+        filter.setOutcome("throttled");
+        filter.setRetryAfterKey("retryAfter");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        filter = null;
+    }
+
+    @Test
+    public void burstIsAllowed() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Processing.CONTINUE, filter.execute(newContext("a")));
+        }
+        Context<String, Object> context = newContext("a");
+        assertEquals(Processing.FINISHED, filter.execute(context));
+        assertEquals("throttled", context.get("outcome"));
+        assertEquals(100L, context.get("retryAfter"));
+        assertEquals(1L, filter.getThrottledCount());
+    }
+
+    @Test
+    public void tokensAreRefilledAtRate() {
+        for (int i = 0; i < 3; i++) {
+            filter.execute(newContext("a"));
+        }
+        now += TimeUnit.MILLISECONDS.toNanos(100L);
+        Context<String, Object> context = newContext("a");
+        assertEquals(Processing.CONTINUE, filter.execute(context));
+        assertNull(context.get("outcome"));
+        assertEquals(Processing.FINISHED, filter.execute(newContext("a")));
+    }
+
+    @Test
+    public void clientsHaveSeparateBuckets() {
+        for (int i = 0; i < 3; i++) {
+            filter.execute(newContext("a"));
+        }
+        assertEquals(Processing.FINISHED, filter.execute(newContext("a")));
+        assertEquals(Processing.CONTINUE, filter.execute(newContext("b")));
+        assertEquals(2, filter.getBucketCount());
+    }
+
+    @Test
+    public void clientFromMapEntry() {
+        filter.setKey("header");
+        filter.setEntry("X-Client-Id");
+        filter.setBurst(1);
+
+        assertEquals(Processing.CONTINUE, filter.execute(newHeaderContext("a")));
+        assertEquals(Processing.FINISHED, filter.execute(newHeaderContext("a")));
+        assertEquals(Processing.CONTINUE, filter.execute(newHeaderContext("b")));
+        // Without the header, executions share an anonymous bucket
+        assertEquals(Processing.CONTINUE, filter.execute(new ContextBase()));
+        assertEquals(Processing.FINISHED, filter.execute(new ContextBase()));
+    }
+
+    @Test
+    public void idleBucketsAreEvicted() {
+        filter.execute(newContext("a"));
+        filter.execute(newContext("b"));
+        filter.execute(newContext("b"));
+        filter.execute(newContext("b"));
+
+        now += TimeUnit.MILLISECONDS.toNanos(150L);
+        filter.evictIdle();
+        // "a" is full again, "b" still misses a token
+        assertEquals(1, filter.getBucketCount());
+        assertEquals(1L, filter.getEvictionCount());
+
+        now += TimeUnit.MILLISECONDS.toNanos(150L);
+        filter.evictIdle();
+        assertEquals(0, filter.getBucketCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Processing.CONTINUE, filter.execute(newContext("b")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveRateIsRejected() {
+        filter.setRate(0.0);
+    }
+
+    private static Context<String, Object> newContext(String client) {
+        Context<String, Object> context = new ContextBase();
+        context.put("client", client);
+        return context;
+    }
+
+    private static Context<String, Object> newHeaderContext(String client) {
+        Map<String, String> header = new HashMap<String, String>();
+        header.put("X-Client-Id", client);
+        Context<String, Object> context = new ContextBase();
+        context.put("header", header);
+        return context;
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.CatalogBase;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>RetryCommand</code> class.</p>
+ *
+ */
+public class RetryCommandTestCase {
+
+    private RetryCommand<String, Object, Context<String, Object>> command;
+    private Context<String, Object> context;
+
+    @Before
+    public void setUp() throws Exception {
+        command = new RetryCommand<String, Object, Context<String, Object>>();
+        command.setInitialDelay(0L);
+        command.setBudget(new RetryBudget(0.1, 100));
+        context = new ContextBase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CatalogFactoryBase.clear();
+        command = null;
+        context = null;
+    }
+
+    @Test
+    public void retriesUntilSuccess() {
+        Flaky flaky = new Flaky(2, new IllegalStateException("transient"));
+        command.setCommand(flaky);
+
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertEquals(3, flaky.executions.get());
+        assertEquals(3L, command.getAttemptCount());
+        assertEquals(2L, command.getRetryCount());
+        assertEquals(0L, command.getExhaustedCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        IllegalStateException failure = new IllegalStateException("down");
+        Flaky flaky = new Flaky(Integer.MAX_VALUE, failure);
+        command.setCommand(flaky);
+        command.setMaxAttempts(4);
+
+        try {
+            command.execute(context);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(4, flaky.executions.get());
+        assertEquals(1L, command.getExhaustedCount());
+    }
+
+    @Test
+    public void onlyConfiguredExceptionsAreRetried() {
+        command.setRetryOn("java.lang.IllegalStateException, java.io.IOException");
+        Flaky flaky = new Flaky(1, new IllegalArgumentException("permanent"));
+        command.setCommand(flaky);
+
+        try {
+            command.execute(context);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals(1, flaky.executions.get());
+        }
+        assertEquals(0L, command.getRetryCount());
+        assertEquals("java.lang.IllegalStateException,java.io.IOException", command.getRetryOn());
+    }
+
+    @Test
+    public void causesAreMatched() {
+        command.setRetryOn("java.lang.IllegalStateException");
+        Flaky flaky = new Flaky(1, new RuntimeException(new IllegalStateException("transient")));
+        command.setCommand(flaky);
+
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertEquals(2, flaky.executions.get());
+    }
+
+    @Test
+    public void errorsAreNotRetried() {
+        Flaky flaky = new Flaky(1, new AssertionError("bug"));
+        command.setCommand(flaky);
+
+        try {
+            command.execute(context);
+            fail("Expected AssertionError");
+        } catch (AssertionError e) {
+            assertEquals(1, flaky.executions.get());
+        }
+    }
+
+    @Test
+    public void budgetLimitsRetries() {
+        command.setBudget(new RetryBudget(0.0, 1));
+        command.setMaxAttempts(2);
+        command.setCommand(new Flaky(Integer.MAX_VALUE, new IllegalStateException("down")));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                command.execute(context);
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+        assertEquals(3L, command.getAttemptCount());
+        assertEquals(1L, command.getRetryCount());
+        assertEquals(1L, command.getBudgetRejectedCount());
+    }
+
+    @Test
+    public void budgetIsReplenishedByExecutions() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        assertEquals(true, budget.tryWithdraw());
+        assertEquals(true, budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertEquals(true, budget.tryWithdraw());
+
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+        assertEquals(2.0, budget.getBalance(), 0.0);
+    }
+
+    @Test
+    public void restoreKeysBetweenAttempts() {
+        command.setRestoreKeys("total, partial");
+        context.put("total", 10);
+        command.setCommand(new Command<String, Object, Context<String, Object>>() {
+            private int executions = 0;
+            public Processing execute(Context<String, Object> context) {
+                // A retry must see the values as they were before the first attempt
+                assertEquals(10, context.get("total"));
+                assertNull(context.get("partial"));
+                context.put("total", (Integer) context.get("total") + 1);
+                context.put("partial", "yes");
+                if (++executions < 3) {
+                    throw new IllegalStateException("transient");
+                }
+                return Processing.CONTINUE;
+            }
+        });
+
+        assertEquals(Processing.CONTINUE, command.execute(context));
+        assertEquals(11, context.get("total"));
+        assertEquals("yes", context.get("partial"));
+    }
+
+    @Test(timeout = 5000)
+    public void failedRestoreCompletesScheduledRetry() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            command.setScheduler(scheduler);
+            command.setRestoreKeys("partial");
+            final UnsupportedOperationException unremovable = new UnsupportedOperationException("partial");
+            Context<String, Object> strict = new ContextBase() {
+                @Override
+                public Object remove(Object key) {
+                    throw unremovable;
+                }
+            };
+            Flaky flaky = new Flaky(1, new IllegalStateException("transient")) {
+                @Override
+                public Processing execute(Context<String, Object> context) {
+                    context.put("partial", "yes");
+                    return super.execute(context);
+                }
+            };
+            command.setCommand(flaky);
+
+            CompletableFuture<Processing> stage = command.executeAsync(strict).toCompletableFuture();
+            try {
+                stage.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertSame(unremovable, e.getCause());
+            }
+            assertEquals(1, flaky.executions.get());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void scheduledRetriesDoNotBlock() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            command.setScheduler(scheduler);
+            command.setInitialDelay(100L);
+            command.setJitter(0.0);
+            final AtomicInteger executions = new AtomicInteger();
+            command.setCommand(new AsyncCommand<String, Object, Context<String, Object>>() {
+                public CompletionStage<Processing> executeAsync(Context<String, Object> context) {
+                    CompletableFuture<Processing> result = new CompletableFuture<Processing>();
+                    if (executions.incrementAndGet() == 1) {
+                        result.completeExceptionally(new IllegalStateException("transient"));
+                    } else {
+                        result.complete(Processing.FINISHED);
+                    }
+                    return result;
+                }
+            });
+
+            CompletableFuture<Processing> stage = command.executeAsync(context).toCompletableFuture();
+            assertFalse(stage.isDone());
+            assertEquals(Processing.FINISHED, stage.get(5, TimeUnit.SECONDS));
+            assertEquals(2, executions.get());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void lookedUpAsyncDelegateDoesNotBlock() throws Exception {
+        final CompletableFuture<Processing> pending = new CompletableFuture<Processing>();
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addCommand("remote", new AsyncCommand<String, Object, Context<String, Object>>() {
+            public CompletionStage<Processing> executeAsync(Context<String, Object> context) {
+                return pending;
+            }
+        });
+        CatalogFactoryBase.<String, Object, Context<String, Object>>getInstance().setCatalog(catalog);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            command.setScheduler(scheduler);
+            command.setName("remote");
+
+            CompletableFuture<Processing> stage = command.executeAsync(context).toCompletableFuture();
+            assertFalse(stage.isDone());
+            pending.complete(Processing.FINISHED);
+            assertEquals(Processing.FINISHED, stage.get(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void expiringDeadlineStopsRetries() {
+        Flaky flaky = new Flaky(5, new IllegalStateException("transient"));
+        command.setCommand(flaky);
+        command.setInitialDelay(100L);
+        command.setJitter(0.0);
+        Deadline.put(context, Deadline.after(50L, TimeUnit.MILLISECONDS));
+
+        try {
+            command.execute(context);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(1, flaky.executions.get());
+            assertEquals(0L, command.getRetryCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownExceptionClassIsRejected() {
+        command.setRetryOn("org.example.NoSuchException");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveMaxAttemptsIsRejected() {
+        command.setMaxAttempts(0);
+    }
+
+    // Fails a number of times, then finishes
+    private static class Flaky implements Command<String, Object, Context<String, Object>> {
+
+        final AtomicInteger executions = new AtomicInteger();
+        private final int failures;
+        private final Throwable failure;
+
+        Flaky(int failures, Throwable failure) {
+            this.failures = failures;
+            this.failure = failure;
+        }
+
+        public Processing execute(Context<String, Object> context) {
+            if (executions.incrementAndGet() <= failures) {
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            return Processing.FINISHED;
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.base;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>SwitchCommand</code> class.</p>
+ *
+ */
+public class SwitchCommandTestCase {
+
+    private SwitchCommand<String, Object, Context<String, Object>> command;
+    private Context<String, Object> context;
+
+    @Before
+    public void setUp() throws Exception {
+        command = new SwitchCommand<String, Object, Context<String, Object>>();
+        command.setKey("value");
+        context = new ContextBase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        command = null;
+        context = null;
+    }
+
+    @Test
+    public void executesMatchingCase() {
+        command.addCase("a", new DelegatingCommand("1"));
+        command.addCase("b", new NonDelegatingCommand("2"));
+        command.setDefaultCommand(new DelegatingCommand("3"));
+
+        context.put("value", "b");
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertThat(context, hasLog("2"));
+    }
+
+    @Test
+    public void executesDefaultWhenNoCaseMatches() {
+        command.addCase("a", new DelegatingCommand("1"));
+        command.setDefaultCommand(new NonDelegatingCommand("3"));
+
+        context.put("value", "z");
+        assertEquals(Processing.FINISHED, command.execute(context));
+        assertThat(context, hasLog("3"));
+    }
+
+    @Test
+    public void executesDefaultWhenValueIsMissing() {
+        command.addCase("a", new DelegatingCommand("1"));
+        command.setDefaultCommand(new DelegatingCommand("3"));
+
+        assertEquals(Processing.CONTINUE, command.execute(context));
+        assertThat(context, hasLog("3"));
+    }
+
+    @Test
+    public void continuesWithoutDefault() {
+        command.addCase("a", new NonDelegatingCommand("1"));
+
+        context.put("value", "z");
+        assertEquals(Processing.CONTINUE, command.execute(context));
+        assertNull(context.get("log"));
+    }
+
+    @Test
+    public void resolvesCollidingValues() {
+        // "Aa" and "BB" have the same hash code
+        command.addCase("Aa", new DelegatingCommand("1"));
+        command.addCase("BB", new DelegatingCommand("2"));
+        command.addCase(42, new DelegatingCommand("3"));
+
+        context.put("value", "BB");
+        command.execute(context);
+        context.put("value", "Aa");
+        command.execute(context);
+        context.put("value", 42);
+        command.execute(context);
+        assertThat(context, hasLog("2/1/3"));
+    }
+
+    @Test
+    public void tableIsAtMostHalfFull() {
+        for (int i = 0; i < 17; i++) {
+            command.addCase(i, new DelegatingCommand(Integer.toString(i)));
+        }
+        command.execute(context);
+        assertEquals(64, command.getCapacity());
+    }
+
+    @Test
+    public void matchesEnumValuesByName() {
+        command.addCase("SECONDS", new DelegatingCommand("1"));
+        command.addCase(TimeUnit.DAYS, new DelegatingCommand("2"));
+        command.addCase("FINISHED", new DelegatingCommand("3"));
+        command.setDefaultCommand(new DelegatingCommand("4"));
+
+        context.put("value", TimeUnit.SECONDS);
+        command.execute(context);
+        context.put("value", "DAYS");
+        command.execute(context);
+        context.put("value", TimeUnit.HOURS);
+        command.execute(context);
+        // Every enum type has its own ordinal table
+        context.put("value", Processing.FINISHED);
+        command.execute(context);
+        context.put("value", TimeUnit.DAYS);
+        command.execute(context);
+        assertThat(context, hasLog("1/2/4/3/2"));
+        assertEquals(2, command.getEnumTableCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateCases() {
+        command.addCase(TimeUnit.DAYS, new DelegatingCommand("1"));
+        command.addCase("DAYS", new DelegatingCommand("2"));
+    }
+
+    @Test
+    public void rejectsConfigurationOnceFrozen() {
+        command.execute(context);
+        try {
+            command.addCase("a", new DelegatingCommand("1"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+        try {
+            command.setDefaultCommand(new DelegatingCommand("1"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullContext() {
+        command.execute(null);
+    }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.DelegatingFilter;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.apache.commons.chain2.testutils.NonDelegatingFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>AsyncChainBase</code> class.</p>
+ */
+public class AsyncChainBaseTestCase {
+
+    private AsyncChainBase<String, Object, Context<String, Object>> chain;
+
+    private Context<String, Object> context;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        chain = new AsyncChainBase<String, Object, Context<String, Object>>();
+        context = new ContextBase();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        chain = null;
+        context = null;
+    }
+
+    @Test
+    public void mixesSynchronousAndAsynchronousCommands() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new LoggingAsyncCommand("2", Processing.CONTINUE));
+        chain.addCommand(new DelegatingCommand("3"));
+        chain.addCommand(new LoggingAsyncCommand("4", Processing.CONTINUE));
+
+        assertEquals(Processing.CONTINUE, chain.executeAsync(context).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertThat(context, hasLog("1/2/3/4/a"));
+    }
+
+    @Test
+    public void finishedStageStopsTheChain() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new LoggingAsyncCommand("2", Processing.FINISHED));
+        chain.addCommand(new NonDelegatingCommand("3"));
+
+        assertEquals(Processing.FINISHED, chain.executeAsync(context).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertThat(context, hasLog("1/2/a"));
+    }
+
+    @Test
+    public void failedStageIsPostprocessedAndRethrown() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new DelegatingFilter("2", "b"));
+        chain.addCommand(new LoggingAsyncCommand("3", null));
+        chain.addCommand(new NonDelegatingCommand("4"));
+
+        CompletableFuture<Processing> result = chain.executeAsync(context).toCompletableFuture();
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected the stage to complete exceptionally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ChainException);
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+            assertEquals("3", e.getCause().getCause().getMessage());
+        }
+        assertThat(context, hasLog("1/2/3/b/a"));
+    }
+
+    @Test
+    public void handledFailureCompletesNormally() throws Exception {
+        chain.addCommand(new HandlingFilter());
+        chain.addCommand(new LoggingAsyncCommand("1", null));
+
+        assertEquals(Processing.CONTINUE, chain.executeAsync(context).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertThat(context, hasLog("h/1/handled"));
+    }
+
+    @Test
+    public void callingThreadIsReleased() throws Exception {
+        final CompletableFuture<Processing> pending = new CompletableFuture<Processing>();
+        chain.addCommand(new AsyncCommand<String, Object, Context<String, Object>>() {
+            public CompletionStage<Processing> executeAsync(Context<String, Object> context) {
+                return pending;
+            }
+        });
+        chain.addCommand(new NonDelegatingCommand("1"));
+
+        CompletableFuture<Processing> result = chain.executeAsync(context).toCompletableFuture();
+        assertFalse(result.isDone());
+        pending.complete(Processing.CONTINUE);
+        assertEquals(Processing.FINISHED, result.get(5, TimeUnit.SECONDS));
+        assertThat(context, hasLog("1"));
+    }
+
+    @Test
+    public void asyncCommandsAreIntercepted() throws Exception {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addInterceptor(new LoggingInterceptor("x"));
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(new LoggingAsyncCommand("2", Processing.CONTINUE));
+        catalog.addCommand("chain", chain);
+
+        assertEquals(Processing.CONTINUE, chain.executeAsync(context).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertThat(context, hasLog("x(/1/x)/x</2/x>"));
+    }
+
+    @Test
+    public void asyncLatencyLastsUntilTheStageCompletes() throws Exception {
+        final CompletableFuture<Processing> pending = new CompletableFuture<Processing>();
+        LatencyRecorder recorder = new LatencyRecorder();
+        chain.setLatencyRecorder(recorder);
+        chain.addCommand(new AsyncCommand<String, Object, Context<String, Object>>() {
+            public CompletionStage<Processing> executeAsync(Context<String, Object> context) {
+                return pending;
+            }
+        });
+
+        CompletableFuture<Processing> result = chain.executeAsync(context).toCompletableFuture();
+        assertEquals(0, recorder.snapshotAndReset().get("chain#0").getCount());
+        Thread.sleep(20);
+        pending.complete(Processing.FINISHED);
+        assertEquals(Processing.FINISHED, result.get(5, TimeUnit.SECONDS));
+        LatencySnapshot snapshot = recorder.snapshotAndReset().get("chain#0");
+        assertEquals(1, snapshot.getCount());
+        assertTrue(snapshot.getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void timeoutAppliesToAsyncExecution() throws Exception {
+        chain.setTimeout(50L);
+        chain.addCommand(new AsyncCommand<String, Object, Context<String, Object>>() {
+            public CompletionStage<Processing> executeAsync(final Context<String, Object> context) {
+                context.put("remaining", Deadline.get(context).remaining(TimeUnit.MILLISECONDS));
+                return CompletableFuture.supplyAsync(new Supplier<Processing>() {
+                    public Processing get() {
+                        try {
+                            Thread.sleep(100L);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return Processing.CONTINUE;
+                    }
+                }, executor);
+            }
+        });
+        chain.addCommand(new NonDelegatingCommand("2"));
+
+        CompletableFuture<Processing> result = chain.executeAsync(context).toCompletableFuture();
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected the stage to complete exceptionally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlineExceededException);
+        }
+        assertTrue((Long) context.get("remaining") <= 50L);
+        assertNull(Deadline.get(context));
+        assertNull(context.get("log"));
+    }
+
+    @Test
+    public void errorCompletesTheResultExceptionally() throws Exception {
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(new ErrorCommand());
+
+        assertFailsWithError(chain.executeAsync(context).toCompletableFuture());
+    }
+
+    @Test
+    public void errorOnCallbackThreadCompletesTheResultExceptionally() throws Exception {
+        chain.addCommand(new LoggingAsyncCommand("1", Processing.CONTINUE));
+        chain.addCommand(new ErrorCommand());
+
+        assertFailsWithError(chain.executeAsync(context).toCompletableFuture());
+        assertThat(context, hasLog("1"));
+    }
+
+    @Test
+    public void errorInPostprocessOnCallbackThreadCompletesTheResultExceptionally() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a") {
+            @Override
+            public boolean postprocess(Context<String, Object> context, Exception exception) {
+                throw new AssertionError("postprocess");
+            }
+        });
+        chain.addCommand(new LoggingAsyncCommand("2", Processing.CONTINUE));
+
+        assertFailsWithError(chain.executeAsync(context).toCompletableFuture());
+    }
+
+    @Test
+    public void synchronousExecutionWaitsForStages() {
+        chain.addCommand(new LoggingAsyncCommand("1", Processing.CONTINUE));
+        chain.addCommand(new NonDelegatingFilter("2", "b"));
+
+        assertEquals(Processing.FINISHED, chain.execute(context));
+        assertThat(context, hasLog("1/2/b"));
+    }
+
+    @Test
+    public void asyncCommandCanBeExecutedSynchronously() {
+        LoggingAsyncCommand command = new LoggingAsyncCommand("1", null);
+        try {
+            command.execute(context);
+            fail("Expected the failure of the stage to be rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("1", e.getMessage());
+        }
+        assertSame(Processing.FINISHED, new LoggingAsyncCommand("2", Processing.FINISHED).execute(context));
+    }
+
+    // ------------------------------------------------------- Support Classes
+
+    /**
+     * {@link AsyncCommand} that logs its identifier on the executor thread,
+     * then completes with the configured result, or fails if none.
+     */
+    private class LoggingAsyncCommand extends NonDelegatingCommand
+            implements AsyncCommand<String, Object, Context<String, Object>> {
+
+        private final Processing result;
+
+        LoggingAsyncCommand(String id, Processing result) {
+            super(id);
+            this.result = result;
+        }
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            return AsyncCommand.super.execute(context);
+        }
+
+        public CompletionStage<Processing> executeAsync(final Context<String, Object> context) {
+            final CompletableFuture<Processing> stage = new CompletableFuture<Processing>();
+            executor.execute(new Runnable() {
+                public void run() {
+                    log(context, id);
+                    if (result == null) {
+                        stage.completeExceptionally(new IllegalStateException(id));
+                    } else {
+                        stage.complete(result);
+                    }
+                }
+            });
+            return stage;
+        }
+
+    }
+
+    /**
+     * Interceptor logging around synchronous executions with parentheses,
+     * and around asynchronous ones, up to the completion of their stage,
+     * with angle brackets.
+     */
+    private static class LoggingInterceptor extends NonDelegatingCommand
+            implements CommandInterceptor<String, Object, Context<String, Object>> {
+
+        LoggingInterceptor(String id) {
+            super(id);
+        }
+
+        public Processing execute(Command<String, Object, Context<String, Object>> command,
+                Context<String, Object> context, Command<String, Object, Context<String, Object>> next) {
+            log(context, id + "(");
+            try {
+                return next.execute(context);
+            } finally {
+                log(context, id + ")");
+            }
+        }
+
+        public CompletionStage<Processing> executeAsync(AsyncCommand<String, Object, Context<String, Object>> command,
+                final Context<String, Object> context, AsyncCommand<String, Object, Context<String, Object>> next) {
+            log(context, id + "<");
+            return next.executeAsync(context).whenComplete(new BiConsumer<Processing, Throwable>() {
+                public void accept(Processing result, Throwable failure) {
+                    log(context, id + ">");
+                }
+            });
+        }
+
+    }
+
+    private static void assertFailsWithError(CompletableFuture<Processing> result) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected the stage to complete exceptionally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    /**
+     * Command that throws an <code>Error</code>.
+     */
+    private static class ErrorCommand extends NonDelegatingCommand {
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            throw new AssertionError("error");
+        }
+
+    }
+
+    /**
+     * Filter that handles any exception.
+     */
+    private static class HandlingFilter extends DelegatingFilter {
+
+        HandlingFilter() {
+            super("h", "handled");
+        }
+
+        @Override
+        public boolean postprocess(Context<String, Object> context, Exception exception) {
+            super.postprocess(context, exception);
+            return exception != null;
+        }
+
+    }
+
+}
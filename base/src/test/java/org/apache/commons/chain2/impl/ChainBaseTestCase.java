@@ -19,18 +19,30 @@ package org.apache.commons.chain2.impl;
 import static org.apache.commons.chain2.testutils.HasLog.hasLog;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.chain2.BatchResult;
 import org.apache.commons.chain2.Chain;
 import org.apache.commons.chain2.ChainException;
 import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
 import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Deadline;
+import org.apache.commons.chain2.DeadlineExceededException;
+import org.apache.commons.chain2.Filter;
 import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.base.LookupCommand;
 import org.apache.commons.chain2.testutils.AddingCommand;
 import org.apache.commons.chain2.testutils.DelegatingCommand;
 import org.apache.commons.chain2.testutils.DelegatingFilter;
@@ -347,7 +359,394 @@ public class ChainBaseTestCase {
     }
 
 
+    // Test repeated execution of a frozen chain mixing commands and filters
+    @Test
+    public void testExecute5a() {
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(new DelegatingFilter("2", "b"));
+        chain.addCommand(new DelegatingCommand("3"));
+        chain.addCommand(new NonDelegatingFilter("4", "d"));
+        chain.addCommand(new NonDelegatingFilter("5", "e"));
+        for (int i = 0; i < 3; i++) {
+            context.remove("log");
+            assertEquals(Processing.FINISHED, chain.execute(context));
+            assertThat(context, hasLog("1/2/3/4/d/b"));
+        }
+        assertTrue(((ChainBase<String, Object, Context<String, Object>>) chain).isFrozen());
+    }
+
+
+    // Test that the configuration can't be changed once frozen
+    @Test(expected = IllegalStateException.class)
+    public void testAddCommandAfterExecute() {
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.execute(context);
+        chain.addCommand(new DelegatingCommand("2"));
+    }
+
+
+    // Execute a batch where one context fails
+    @Test
+    public void testExecuteAll() {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new FailingOnKeyCommand("2"));
+        chain.addCommand(new NonDelegatingCommand("3"));
+
+        Context<String, Object> failing = new ContextBase();
+        failing.put("fail", Boolean.TRUE);
+        List<Context<String, Object>> contexts = new ArrayList<Context<String, Object>>();
+        contexts.add(context);
+        contexts.add(failing);
+        contexts.add(new ContextBase());
+
+        BatchResult<String, Object, Context<String, Object>> result = chain.executeAll(contexts);
+        assertEquals(3, result.size());
+        assertEquals(1, result.getFailureCount());
+        assertEquals(Processing.FINISHED, result.getProcessing(0));
+        assertNull(result.getProcessing(1));
+        assertTrue(result.getFailure(1) instanceof ChainException);
+        assertEquals(Processing.FINISHED, result.getProcessing(2));
+        assertThat(context, hasLog("1/2/3/a"));
+        assertThat(failing, hasLog("1/2/a"));
+        assertThat(result.getContext(2), hasLog("1/2/3/a"));
+    }
+
+    // Execute a batch split into partitions
+    @Test
+    public void testExecuteAllPartitioned() {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new FailingOnKeyCommand("2"));
+        chain.addCommand(new NonDelegatingCommand("3"));
+        ((ChainBase<String, Object, Context<String, Object>>) chain).setBatchParallelism(4);
+
+        List<Context<String, Object>> contexts = new ArrayList<Context<String, Object>>();
+        for (int i = 0; i < 101; i++) {
+            Context<String, Object> batchContext = new ContextBase();
+            if (i % 10 == 0) {
+                batchContext.put("fail", Boolean.TRUE);
+            }
+            contexts.add(batchContext);
+        }
+
+        BatchResult<String, Object, Context<String, Object>> result = chain.executeAll(contexts);
+        assertEquals(101, result.size());
+        assertEquals(11, result.getFailureCount());
+        for (int i = 0; i < 101; i++) {
+            assertEquals(i % 10 == 0, result.isFailed(i));
+            assertThat(result.getContext(i), hasLog(i % 10 == 0 ? "1/2/a" : "1/2/3/a"));
+        }
+    }
+
+    // A null context fails alone
+    @Test
+    public void testExecuteAllNullContext() {
+        chain.addCommand(new DelegatingCommand("1"));
+        List<Context<String, Object>> contexts = new ArrayList<Context<String, Object>>();
+        contexts.add(null);
+        contexts.add(context);
+
+        BatchResult<String, Object, Context<String, Object>> result = chain.executeAll(contexts);
+        assertTrue(result.getFailure(0) instanceof IllegalArgumentException);
+        assertEquals(Processing.CONTINUE, result.getProcessing(1));
+    }
+
+
+    // Record the latency of every command, keyed by position
+    @Test
+    public void testLatencyRecording() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        ChainBase<String, Object, Context<String, Object>> chainBase =
+            (ChainBase<String, Object, Context<String, Object>>) chain;
+        chainBase.setName("main");
+        chainBase.setLatencyRecorder(recorder);
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new DelegatingCommand("2"));
+        chain.addCommand(new NonDelegatingCommand("3"));
+        chain.addCommand(new DelegatingCommand("4"));
+
+        chain.execute(context);
+        chain.execute(new ContextBase());
+        assertThat(context, hasLog("1/2/3/a"));
+
+        Map<String, LatencySnapshot> snapshots = recorder.snapshotAndReset();
+        assertEquals(4, snapshots.size());
+        assertEquals(2, snapshots.get("main#0").getCount());
+        assertEquals(2, snapshots.get("main#2").getCount());
+        assertEquals(0, snapshots.get("main#3").getCount());
+        assertEquals(0, recorder.snapshotAndReset().get("main#1").getCount());
+    }
+
+    // The command that failed is reported, not its recording wrapper
+    @Test
+    public void testLatencyRecordingFailure() {
+        ((ChainBase<String, Object, Context<String, Object>>) chain).setLatencyRecorder(new LatencyRecorder());
+        Command<String, Object, Context<String, Object>> failing = new FailingOnKeyCommand("1");
+        context.put("fail", Boolean.TRUE);
+        chain.addCommand(failing);
+
+        try {
+            chain.execute(context);
+            fail("Expected ChainException");
+        } catch (ChainException e) {
+            assertEquals(failing, e.getFailedCommand());
+        }
+    }
+
+    // Catalog interceptors wrap execute and postprocess, first registered outermost
+    @Test
+    public void testCatalogInterceptors() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addInterceptor(new LoggingInterceptor("x"));
+        catalog.addInterceptor(new LoggingInterceptor("y"));
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new NonDelegatingCommand("2"));
+        catalog.addCommand("chain", chain);
+
+        chain.execute(context);
+        assertThat(context, hasLog("x</y</1/y>/x>/x</y</2/y>/x>/x[/y[/a/y]/x]"));
+    }
+
+    // Commands of nested chains are intercepted as well, exactly once
+    @Test
+    public void testCatalogInterceptorsNestedChain() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addInterceptor(new LoggingInterceptor("x"));
+        ChainBase<String, Object, Context<String, Object>> nested =
+            new ChainBase<String, Object, Context<String, Object>>(new NonDelegatingCommand("2"));
+        chain.addCommand(nested);
+        catalog.addCommand("chain", chain);
+
+        chain.execute(context);
+        assertThat(context, hasLog("x</x</2/x>/x>"));
+    }
+
+    // Without interceptors the plan invokes the commands themselves
+    @Test
+    public void testNoInterceptors() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        catalog.addCommand("chain", chain);
+
+        ExecutionPlan<String, Object, Context<String, Object>> plan =
+            ((ChainBase<String, Object, Context<String, Object>>) chain).getExecutionPlan();
+        assertSame(plan.commands, plan.invokers);
+        assertSame(plan.filters, plan.filterInvokers);
+    }
+
+    // Factory interceptors are outer to catalog interceptors
+    @Test
+    public void testFactoryInterceptors() {
+        CatalogFactoryBase<String, Object, Context<String, Object>> factory =
+                (CatalogFactoryBase<String, Object, Context<String, Object>>) CatalogFactoryBase.<String, Object, Context<String, Object>>getInstance();
+        try {
+            factory.addInterceptor(new LoggingInterceptor("f"));
+            CatalogBase<String, Object, Context<String, Object>> catalog =
+                new CatalogBase<String, Object, Context<String, Object>>();
+            catalog.addInterceptor(new LoggingInterceptor("c"));
+            chain.addCommand(new NonDelegatingCommand("1"));
+            catalog.addCommand("chain", chain);
+
+            chain.execute(context);
+            assertThat(context, hasLog("f</c</1/c>/f>"));
+        } finally {
+            CatalogFactoryBase.clear();
+        }
+    }
+
     // Test state of newly created instance
+    // Test that a cancelled deadline stops the chain and postprocesses the executed filters
+    @Test
+    public void testDeadlineCancelled() {
+        Deadline.put(context, Deadline.after(1L, TimeUnit.HOURS));
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new CancellingCommand("2"));
+        NonDelegatingFilter third = new NonDelegatingFilter("3", "c");
+        chain.addCommand(third);
+        try {
+            chain.execute(context);
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertSame(third, e.getFailedCommand());
+            assertSame(Deadline.get(context), e.getDeadline());
+        }
+        assertThat(context, hasLog("1/2/a"));
+    }
+
+
+    // Test that the command skipped by a cancelled deadline is reported as the failed command
+    @Test
+    public void testDeadlineCancelledFailedCommand() {
+        final List<Command<String, Object, Context<String, Object>>> failed =
+            new ArrayList<Command<String, Object, Context<String, Object>>>();
+        ChainBase<String, Object, Context<String, Object>> reporting =
+            new ChainBase<String, Object, Context<String, Object>>() {
+                @Override
+                protected ChainException wrapUnhandledExceptions(Throwable unhandled,
+                        Context<String, Object> context, Command<String, Object, Context<String, Object>> failedCommand) {
+                    failed.add(failedCommand);
+                    return super.wrapUnhandledExceptions(unhandled, context, failedCommand);
+                }
+            };
+        reporting.setSpecialized(((ChainBase<String, Object, Context<String, Object>>) chain).isSpecialized());
+        Deadline.put(context, Deadline.after(1L, TimeUnit.HOURS));
+        reporting.addCommand(new DelegatingCommand("1"));
+        reporting.addCommand(new CancellingCommand("2"));
+        NonDelegatingCommand third = new NonDelegatingCommand("3");
+        reporting.addCommand(third);
+        try {
+            reporting.execute(context);
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertSame(third, e.getFailedCommand());
+        }
+        assertEquals(Collections.singletonList(third), failed);
+    }
+
+
+    // Test that an expired deadline prevents the execution of any command
+    @Test
+    public void testDeadlineExpired() {
+        Deadline.put(context, Deadline.after(0L, TimeUnit.MILLISECONDS));
+        assertTrue(Deadline.isUsed());
+        chain.addCommand(new NonDelegatingCommand("1"));
+        try {
+            chain.execute(context);
+            fail("Expected DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue(e.getMessage().startsWith("Deadline exceeded"));
+        }
+        assertNull(context.get("log"));
+    }
+
+
+    // Test that nested chains inherit the tighter deadline, restored afterwards
+    @Test
+    public void testTimeout() {
+        ChainBase<String, Object, Context<String, Object>> nested =
+            new ChainBase<String, Object, Context<String, Object>>();
+        nested.setTimeout(60000L);
+        nested.addCommand(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                context.put("remaining", Deadline.get(context).remaining(TimeUnit.MILLISECONDS));
+                return Processing.CONTINUE;
+            }
+        });
+        ((ChainBase<String, Object, Context<String, Object>>) chain).setTimeout(1000L);
+        chain.addCommand(nested);
+
+        assertEquals(Processing.CONTINUE, chain.execute(context));
+        assertTrue((Long) context.get("remaining") <= 1000L);
+        assertNull(Deadline.get(context));
+    }
+
+
+    // Test that nested chains are flattened into the plan of the outer chain
+    @Test
+    public void testInlineNestedChains() {
+        ChainBase<String, Object, Context<String, Object>> inner =
+            new ChainBase<String, Object, Context<String, Object>>(
+                new DelegatingCommand("3"), new DelegatingCommand("4"));
+        ChainBase<String, Object, Context<String, Object>> middle =
+            new ChainBase<String, Object, Context<String, Object>>(new DelegatingCommand("2"), inner);
+        ChainBase<String, Object, Context<String, Object>> outer =
+            (ChainBase<String, Object, Context<String, Object>>) chain;
+        outer.setInlineNestedChains(true);
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(middle);
+        chain.addCommand(new DelegatingCommand("5"));
+
+        assertEquals(Processing.CONTINUE, chain.execute(context));
+        assertThat(context, hasLog("1/2/3/4/5/a"));
+        assertEquals(2, outer.getInlinedLevels());
+        assertEquals(5, outer.getExecutionPlan().commands.length);
+        assertTrue(inner.isFrozen());
+    }
+
+
+    // Test that a nested chain returning FINISHED stops the outer chain as well
+    @Test
+    public void testInlineNestedChainFinished() {
+        ((ChainBase<String, Object, Context<String, Object>>) chain).setInlineNestedChains(true);
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new ChainBase<String, Object, Context<String, Object>>(
+            new NonDelegatingCommand("2"), new DelegatingCommand("3")));
+        chain.addCommand(new DelegatingCommand("4"));
+
+        assertEquals(Processing.FINISHED, chain.execute(context));
+        assertThat(context, hasLog("1/2/a"));
+    }
+
+
+    // Test that filters see the failure of an inlined command as wrapped by the nested chain
+    @Test
+    public void testInlineNestedChainFailure() {
+        final FailingOnKeyCommand failing = new FailingOnKeyCommand("2");
+        ((ChainBase<String, Object, Context<String, Object>>) chain).setInlineNestedChains(true);
+        chain.addCommand(new DelegatingFilter("1", "a") {
+            @Override
+            public boolean postprocess(Context<String, Object> context, Exception exception) {
+                context.put("exception", exception);
+                return super.postprocess(context, exception);
+            }
+        });
+        chain.addCommand(new ChainBase<String, Object, Context<String, Object>>(failing));
+        context.put("fail", Boolean.TRUE);
+
+        try {
+            chain.execute(context);
+            fail("Expected ChainException");
+        } catch (ChainException e) {
+            assertSame(context.get("exception"), e);
+            assertSame(failing, e.getFailedCommand());
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertThat(context, hasLog("1/2/a"));
+        assertEquals(1, ((ChainBase<String, Object, Context<String, Object>>) chain).getInlinedLevels());
+    }
+
+
+    // Test that nested chains with filters are not inlined
+    @Test
+    public void testInlineSkipsNestedFilters() {
+        ((ChainBase<String, Object, Context<String, Object>>) chain).setInlineNestedChains(true);
+        chain.addCommand(new ChainBase<String, Object, Context<String, Object>>(
+            new DelegatingFilter("1", "a")));
+        chain.addCommand(new DelegatingCommand("2"));
+
+        chain.execute(context);
+        assertThat(context, hasLog("1/a/2"));
+        assertEquals(0, ((ChainBase<String, Object, Context<String, Object>>) chain).getInlinedLevels());
+    }
+
+
+    // Test that chains reached through a lookup with a fixed name are inlined
+    @Test
+    public void testInlineLookedUpChain() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addCommand("nested", new ChainBase<String, Object, Context<String, Object>>(
+            new DelegatingCommand("2")));
+        CatalogFactoryBase.<String, Object, Context<String, Object>>getInstance().setCatalog(catalog);
+        try {
+            LookupCommand<String, Object, Context<String, Object>> lookup =
+                new LookupCommand<String, Object, Context<String, Object>>();
+            lookup.setName("nested");
+            ((ChainBase<String, Object, Context<String, Object>>) chain).setInlineNestedChains(true);
+            chain.addCommand(new DelegatingCommand("1"));
+            chain.addCommand(lookup);
+
+            chain.execute(context);
+            assertThat(context, hasLog("1/2"));
+            assertEquals(1, ((ChainBase<String, Object, Context<String, Object>>) chain).getInlinedLevels());
+        } finally {
+            CatalogFactoryBase.clear();
+        }
+    }
+
+
     @Test
     public void testNewInstance() {
         checkCommandCount(0);
@@ -399,4 +798,69 @@ public class ChainBaseTestCase {
         }
     }
 
+    // Logs its identifier and fails if the context contains the "fail" key
+    private static class FailingOnKeyCommand extends DelegatingCommand {
+
+        public FailingOnKeyCommand(String id) {
+            super(id);
+        }
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            super.execute(context);
+            if (context.containsKey("fail")) {
+                throw new IllegalStateException(id);
+            }
+            return Processing.CONTINUE;
+        }
+
+    }
+
+    // Logs its identifier and cancels the deadline of the context
+    private static class CancellingCommand extends DelegatingCommand {
+
+        public CancellingCommand(String id) {
+            super(id);
+        }
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            super.execute(context);
+            Deadline.get(context).cancel();
+            return Processing.CONTINUE;
+        }
+
+    }
+
+    // Logs its identifier around every intercepted call
+    private static class LoggingInterceptor extends NonDelegatingCommand
+            implements CommandInterceptor<String, Object, Context<String, Object>> {
+
+        public LoggingInterceptor(String id) {
+            super(id);
+        }
+
+        public Processing execute(Command<String, Object, Context<String, Object>> command,
+                Context<String, Object> context, Command<String, Object, Context<String, Object>> next) {
+            log(context, id + "<");
+            try {
+                return next.execute(context);
+            } finally {
+                log(context, id + ">");
+            }
+        }
+
+        public boolean postprocess(Filter<String, Object, Context<String, Object>> filter,
+                Context<String, Object> context, Exception exception,
+                Filter<String, Object, Context<String, Object>> next) {
+            log(context, id + "[");
+            try {
+                return next.postprocess(context, exception);
+            } finally {
+                log(context, id + "]");
+            }
+        }
+
+    }
+
 }
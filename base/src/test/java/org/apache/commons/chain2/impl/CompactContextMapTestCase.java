@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>CompactContextMap</code> class, running the
+ * <code>ContextBaseTestCase</code> tests against it.</p>
+ *
+ */
+public class CompactContextMapTestCase extends ContextBaseTestCase {
+
+    // Keys sharing their lower hash bits, so that they collide
+    private static String key(int i) {
+        return "key" + (i * 64);
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        for (int i = 0; i < 100; i++) {
+            context.put(key(i), Integer.valueOf(i));
+        }
+        assertEquals(100, context.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), context.get(key(i)));
+        }
+    }
+
+    @Test
+    public void behavesLikeHashMap() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String key = key(random.nextInt(40));
+            switch (random.nextInt(3)) {
+            case 0:
+                assertEquals(expected.remove(key), context.remove(key));
+                break;
+            default:
+                Integer value = Integer.valueOf(i);
+                assertEquals(expected.put(key, value), context.put(key, value));
+                break;
+            }
+            assertEquals(expected.size(), context.size());
+        }
+        assertEquals(expected, context);
+        for (String key : expected.keySet()) {
+            assertEquals(expected.get(key), context.get(key));
+        }
+    }
+
+    @Test
+    public void iteratorRemovesCurrentEntry() {
+        for (int i = 0; i < 10; i++) {
+            context.put(key(i), Integer.valueOf(i));
+        }
+        int visited = 0;
+        Iterator<Map.Entry<String, Object>> entries = context.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Object> entry = entries.next();
+            visited++;
+            if (((Integer) entry.getValue()).intValue() % 2 == 0) {
+                entries.remove();
+            }
+        }
+        assertEquals(10, visited);
+        assertEquals(5, context.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), context.get(key(i)));
+        }
+    }
+
+    @Test
+    public void entryWritesValueThrough() {
+        context.put("foo", "foo value");
+        context.entrySet().iterator().next().setValue("new value");
+        assertEquals("new value", context.get("foo"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void putNullValueThrowsException() {
+        context.put("foo", null);
+    }
+
+    @Test
+    public void executesChain() {
+        ChainBase<String, Object, Context<String, Object>> chain =
+            new ChainBase<String, Object, Context<String, Object>>();
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(new NonDelegatingCommand("2"));
+
+        assertEquals(Processing.FINISHED, chain.execute(context));
+        assertThat(context, hasLog("1/2"));
+        context.remove("log");
+        assertNull(context.get("log"));
+        assertFalse(context.containsKey("log"));
+    }
+
+    @Test
+    public void serializationRebuildsTable() throws Exception {
+        CompactContextMap<Object, Object> map = new CompactContextMap<Object, Object>();
+        for (int i = 0; i < 20; i++) {
+            map.put(new IdentityKey(i), Integer.valueOf(i));
+        }
+        map.remove(map.keySet().iterator().next());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(map);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        @SuppressWarnings("unchecked")
+        CompactContextMap<Object, Object> copy = (CompactContextMap<Object, Object>) ois.readObject();
+        ois.close();
+
+        // The deserialized keys have new identity hash codes
+        assertEquals(19, copy.size());
+        for (Map.Entry<Object, Object> entry : copy.entrySet()) {
+            assertEquals(Integer.valueOf(((IdentityKey) entry.getKey()).id), copy.get(entry.getKey()));
+        }
+        copy.put(new IdentityKey(20), Integer.valueOf(20));
+        assertEquals(20, copy.size());
+    }
+
+    @Override
+    protected Context<String, Object> createContext() {
+        return new CompactContextMap<String, Object>();
+    }
+
+    // Key hashed by identity, whose hash code changes on deserialization
+    private static class IdentityKey implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final int id;
+
+        IdentityKey(int id) {
+            this.id = id;
+        }
+
+    }
+
+}
@@ -21,16 +21,20 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.chain2.Context;
 import org.junit.After;
@@ -276,6 +280,28 @@ public class ContextBaseTestCase {
     }
 
 
+    // Test that creating an instance allocates no more than its own map
+    @Test
+    public void testConstructionAllocation() {
+        final Set<String> keys = createContext().keySet();
+        long contexts = allocatedBytes(new Runnable() {
+            public void run() {
+                createContext();
+            }
+        });
+        long maps = allocatedBytes(new Runnable() {
+            public void run() {
+                Map<String, Object> map = new ConcurrentHashMap<String, Object>();
+                for (String key : keys) {
+                    map.put(key, key);
+                }
+            }
+        });
+        assertTrue("Allocated " + contexts + " bytes per context, " + maps + " per map",
+                   contexts <= maps + 64);
+    }
+
+
     // Test state of newly created instance
     @Test
     public void testPristine() {
@@ -383,6 +409,29 @@ public class ContextBaseTestCase {
     }
 
 
+    // Return the bytes allocated by the current thread per run of the task,
+    // skipping the test if the JVM cannot measure them
+    protected long allocatedBytes(Runnable task) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported()
+                   && allocations.isThreadAllocatedMemoryEnabled());
+
+        long id = Thread.currentThread().getId();
+        int n = 1000;
+        long allocated = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = allocations.getThreadAllocatedBytes(id);
+            for (int i = 0; i < n; i++) {
+                task.run();
+            }
+            allocated = (allocations.getThreadAllocatedBytes(id) - start) / n;
+        }
+        return allocated;
+    }
+
+
     // Create a new instance of the appropriate Context type for this test case
     protected Context<String, Object> createContext() {
         return new ContextBase();
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.CommandInterceptor;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.DelegatingFilter;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>CopyOnWriteChain</code> class.</p>
+ *
+ */
+public class CopyOnWriteChainTestCase {
+
+    private CopyOnWriteChain<String, Object, Context<String, Object>> chain;
+    private Context<String, Object> context;
+
+    @Before
+    public void setUp() throws Exception {
+        chain = new CopyOnWriteChain<String, Object, Context<String, Object>>();
+        context = new ContextBase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        chain = null;
+        context = null;
+    }
+
+    @Test
+    public void emptyChainContinues() {
+        assertEquals(Processing.CONTINUE, chain.execute(context));
+        assertTrue(chain.getCommands().isEmpty());
+    }
+
+    @Test
+    public void addsCommandsAfterExecution() {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.execute(context);
+        chain.addCommand(new NonDelegatingCommand("2"));
+
+        assertEquals(Processing.FINISHED, chain.execute(context));
+        assertThat(context, hasLog("1/a/1/2/a"));
+    }
+
+    @Test
+    public void insertsRemovesAndReplacesCommands() {
+        DelegatingCommand first = new DelegatingCommand("1");
+        DelegatingCommand second = new DelegatingCommand("2");
+        chain.addCommand(first);
+        chain.addCommand(second);
+        chain.insertCommand(1, new DelegatingCommand("3"));
+        assertTrue(chain.replaceCommand(second, new DelegatingCommand("4")));
+        assertTrue(chain.removeCommand(first));
+        assertFalse(chain.removeCommand(first));
+        assertFalse(chain.replaceCommand(second, new DelegatingCommand("5")));
+
+        chain.execute(context);
+        assertThat(context, hasLog("3/4"));
+        assertEquals(2, chain.getCommands().size());
+    }
+
+    @Test
+    public void inFlightExecutionKeepsItsSnapshot() {
+        final DelegatingCommand last = new DelegatingCommand("3");
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(new DelegatingCommand("2") {
+            @Override
+            public Processing execute(Context<String, Object> context) {
+                chain.removeCommand(last);
+                chain.addCommand(new DelegatingCommand("4"));
+                return super.execute(context);
+            }
+        });
+        chain.addCommand(last);
+
+        chain.execute(context);
+        assertThat(context, hasLog("1/2/3"));
+        chain.execute(context);
+        assertThat(context, hasLog("1/2/3/1/2/4"));
+    }
+
+    @Test
+    public void concurrentExecutionSeesConsistentSnapshots() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        chain.addCommand(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                started.countDown();
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Processing.CONTINUE;
+            }
+        });
+        chain.addCommand(new DelegatingCommand("1"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Context<String, Object> blocked = new ContextBase();
+            Future<Processing> result = executor.submit(new Callable<Processing>() {
+                public Processing call() {
+                    return chain.execute(blocked);
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            chain.replaceCommand(chain.getCommands().get(1), new NonDelegatingCommand("2"));
+            released.countDown();
+
+            assertEquals(Processing.CONTINUE, result.get(10, TimeUnit.SECONDS));
+            assertThat(blocked, hasLog("1"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void appliesCatalogInterceptors() {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addInterceptor(new CommandInterceptor<String, Object, Context<String, Object>>() {
+            public Processing execute(Command<String, Object, Context<String, Object>> command,
+                    Context<String, Object> context, Command<String, Object, Context<String, Object>> next) {
+                context.put("intercepted", Boolean.TRUE);
+                return next.execute(context);
+            }
+        });
+        chain.addCommand(new DelegatingCommand("1"));
+        catalog.addCommand("chain", chain);
+
+        chain.execute(context);
+        assertEquals(Boolean.TRUE, context.get("intercepted"));
+    }
+
+    @Test
+    public void forwardsPropertiesToSnapshots() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        chain.setLatencyRecorder(recorder);
+        chain.setInlineNestedChains(true);
+        chain.setSpecialized(true);
+        chain.setBatchParallelism(2);
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.execute(context);
+        chain.addCommand(new DelegatingCommand("2"));
+        chain.execute(context);
+
+        assertSame(recorder, chain.getLatencyRecorder());
+        assertTrue(chain.isInlineNestedChains());
+        assertTrue(chain.isSpecialized());
+        assertEquals(2, chain.getBatchParallelism());
+        Map<String, LatencySnapshot> latencies = recorder.snapshotAndReset();
+        assertEquals(2, latencies.get("chain#0").getCount());
+        assertEquals(1, latencies.get("chain#1").getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveBatchParallelism() {
+        chain.setBatchParallelism(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullCommand() {
+        chain.addCommand(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullContext() {
+        chain.execute(null);
+    }
+
+}
@@ -17,13 +17,28 @@
 package org.apache.commons.chain2.impl;
 
 import static org.apache.commons.chain2.Chains.on;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.BatchResult;
 import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.Chain;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.ChainExecutor;
 import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.ConcurrentChainExecutor;
 import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
 import org.apache.commons.chain2.testutils.AddingCommand;
 import org.apache.commons.chain2.testutils.DelegatingCommand;
 import org.apache.commons.chain2.testutils.DelegatingFilter;
@@ -85,6 +100,116 @@ public final class FluentInterfacesTestCase {
         assertTrue(context.containsKey("log"));
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void doesNotAcceptNonPositiveInFlightLimit() {
+        on(new ChainBase<String, Object, Context<String, Object>>())
+        .add(new NonDelegatingFilter("3", "c"))
+        .onVirtualThreads(0);
+    }
+
+    @Test
+    public void concurrentExecutionRunsOnAnotherThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final Thread[] executing = new Thread[1];
+        ContextBase context = new ContextBase();
+
+        CompletableFuture<Processing> result = on(new ChainBase<String, Object, Context<String, Object>>())
+        .add(new DelegatingFilter("1", "a"))
+        .add(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                executing[0] = Thread.currentThread();
+                return Processing.FINISHED;
+            }
+        })
+        .onVirtualThreads(10)
+        .execute(context);
+
+        assertSame(Processing.FINISHED, result.get(10, TimeUnit.SECONDS));
+        assertNotSame(caller, executing[0]);
+        assertTrue(context.containsKey("log"));
+    }
+
+    @Test
+    public void concurrentExecutionIsBounded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ConcurrentChainExecutor<String, Object, Context<String, Object>> executor =
+            on(new ChainBase<String, Object, Context<String, Object>>())
+            .add(new Command<String, Object, Context<String, Object>>() {
+                public Processing execute(Context<String, Object> context) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return Processing.CONTINUE;
+                }
+            })
+            .onVirtualThreads(2);
+
+        CompletableFuture<Processing> first = executor.execute(new ContextBase());
+        CompletableFuture<Processing> second = executor.execute(new ContextBase());
+        assertEquals(2, executor.getMaxInFlight());
+        assertEquals(2, executor.getInFlight());
+
+        release.countDown();
+        assertSame(Processing.CONTINUE, first.get(10, TimeUnit.SECONDS));
+        assertSame(Processing.CONTINUE, second.get(10, TimeUnit.SECONDS));
+        assertSame(Processing.CONTINUE, executor.execute(new ContextBase()).get(10, TimeUnit.SECONDS));
+        assertEquals(0, executor.getInFlight());
+    }
+
+    @Test
+    public void concurrentExecutionReportsFailures() throws Exception {
+        CompletableFuture<Processing> result = on(new ChainBase<String, Object, Context<String, Object>>())
+        .add(new DelegatingFilter("1", "a"))
+        .add(new Command<String, Object, Context<String, Object>>() {
+            public Processing execute(Context<String, Object> context) {
+                throw new ArithmeticException("2");
+            }
+        })
+        .onVirtualThreads(1)
+        .execute(new ContextBase());
+
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ChainException);
+            assertTrue(e.getCause().getCause() instanceof ArithmeticException);
+        }
+    }
+
+    @Test
+    public void customExecutorRunsOnVirtualThreads() throws Exception {
+        ConcurrentChainExecutor<String, Object, Context<String, Object>> executor =
+            new FinishingExecutor().onVirtualThreads(1);
+        ContextBase context = new ContextBase();
+
+        assertSame(Processing.FINISHED, executor.execute(context).get(10, TimeUnit.SECONDS));
+        assertEquals("executed", context.get("log"));
+        assertEquals(1, executor.getMaxInFlight());
+    }
+
+    @Test
+    public void customExecutorExecutesBatches() {
+        ContextBase first = new ContextBase();
+        ContextBase second = new ContextBase();
+
+        BatchResult<String, Object, Context<String, Object>> result =
+            new FinishingExecutor().executeAll(Arrays.<Context<String, Object>>asList(first, second));
+
+        assertEquals(2, result.size());
+        assertSame(Processing.FINISHED, result.getProcessing(0));
+        assertSame(Processing.FINISHED, result.getProcessing(1));
+        assertEquals("executed", first.get("log"));
+        assertEquals("executed", second.get("log"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void customExecutorDoesNotAcceptNullBatch() {
+        new FinishingExecutor().executeAll(null);
+    }
+
     @Test
     public void justMakeSureCatalogIsSetup() {
         CatalogBase<String, Object, Context<String, Object>> catalog =
@@ -110,4 +235,22 @@ public final class FluentInterfacesTestCase {
         assertNotNull(catalog.getCommand("ChainBase"));
     }
 
+    /**
+     * Executor implementing only the abstract methods of {@link ChainExecutor}.
+     */
+    private static final class FinishingExecutor
+        implements ChainExecutor<String, Object, Context<String, Object>> {
+
+        public <CMD extends Command<String, Object, Context<String, Object>>>
+            ChainExecutor<String, Object, Context<String, Object>> add(CMD command) {
+            return this;
+        }
+
+        public Processing execute(Context<String, Object> context) {
+            context.put("log", "executed");
+            return Processing.FINISHED;
+        }
+
+    }
+
 }
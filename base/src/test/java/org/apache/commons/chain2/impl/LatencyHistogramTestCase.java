@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>LatencyHistogram</code> class.</p>
+ */
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long previous = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucket(highest));
+            previous = highest;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void emptySnapshot() {
+        LatencySnapshot snapshot = new LatencyHistogram().snapshotAndReset();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getP50());
+        assertEquals(0, snapshot.getMax());
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        LatencySnapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000000, snapshot.getMax());
+        assertWithin(5000000, snapshot.getP50());
+        assertWithin(9900000, snapshot.getP99());
+        assertWithin(9990000, snapshot.getP999());
+    }
+
+    @Test
+    public void snapshotResets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.record(-1);
+
+        LatencySnapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(0));
+        assertEquals(42, snapshot.getMax());
+        assertEquals(0, histogram.snapshotAndReset().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileMustBeValid() {
+        new LatencyHistogram().snapshotAndReset().getValueAtPercentile(100.5);
+    }
+
+    // Reported values are bucket upper bounds, at most 12.5% above
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.BatchResult;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.DelegatingFilter;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>PipelinedChain</code> class.</p>
+ */
+public class PipelinedChainTestCase {
+
+    private ChainBase<String, Object, Context<String, Object>> chain;
+
+    private PipelinedChain<String, Object, Context<String, Object>> pipeline;
+
+    @Before
+    public void setUp() {
+        chain = new ChainBase<String, Object, Context<String, Object>>();
+        pipeline = new PipelinedChain<String, Object, Context<String, Object>>(chain);
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.close();
+        pipeline = null;
+        chain = null;
+    }
+
+    @Test
+    public void executesEveryStageInOrder() {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new DelegatingCommand("2"));
+        chain.addCommand(new DelegatingFilter("3", "c"));
+        chain.addCommand(new NonDelegatingCommand("4"));
+        pipeline.addStage(2, 2, 4);
+        pipeline.addStage(2, 3, 4);
+        pipeline.start();
+
+        BatchResult<String, Object, Context<String, Object>> result = pipeline.executeAll(contexts(50));
+        assertTrue(result.isSuccessful());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(Processing.FINISHED, result.getProcessing(i));
+            assertThat(result.getContext(i), hasLog("1/2/3/4/c/a"));
+        }
+        assertEquals(50, pipeline.getProcessedCount(0));
+        assertEquals(50, pipeline.getProcessedCount(1));
+    }
+
+    @Test
+    public void finishedContextSkipsLaterStages() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new NonDelegatingCommand("2"));
+        chain.addCommand(new DelegatingCommand("3"));
+        pipeline.addStage(2, 1, 1);
+        pipeline.addStage(1, 1, 1);
+        pipeline.start();
+
+        Context<String, Object> context = new ContextBase();
+        assertEquals(Processing.FINISHED, pipeline.executeAsync(context).toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertThat(context, hasLog("1/2/a"));
+        assertEquals(0, pipeline.getProcessedCount(1));
+    }
+
+    @Test
+    public void failureIsPostprocessedAcrossStages() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new DelegatingFilter("2", "b"));
+        chain.addCommand(new FailingCommand("3"));
+        pipeline.addStage(1, 1, 1);
+        pipeline.addStage(2, 1, 1);
+        pipeline.start();
+
+        Context<String, Object> context = new ContextBase();
+        try {
+            pipeline.executeAsync(context).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("Expected the execution to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ChainException);
+            assertEquals("3", e.getCause().getCause().getMessage());
+        }
+        assertThat(context, hasLog("1/2/3/b/a"));
+    }
+
+    @Test
+    public void fullQueueAppliesBackpressure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(new DelegatingCommand("2") {
+            @Override
+            public Processing execute(Context<String, Object> context) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.execute(context);
+            }
+        });
+        pipeline.addStage(1, 1, 1);
+        pipeline.addStage(1, 1, 1);
+        pipeline.start();
+
+        // First context blocks the second stage, second one waits in its
+        // queue, third one blocks the worker of the first stage
+        List<CompletableFuture<Processing>> results = new ArrayList<CompletableFuture<Processing>>();
+        for (Context<String, Object> context : contexts(3)) {
+            results.add(pipeline.executeAsync(context).toCompletableFuture());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.getBlockedCount(1) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pipeline.getQueueDepth(1));
+        assertEquals(1, pipeline.getMaxQueueDepth(1));
+        assertTrue(pipeline.getBlockedCount(1) >= 1);
+
+        release.countDown();
+        for (CompletableFuture<Processing> result : results) {
+            assertEquals(Processing.CONTINUE, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, pipeline.getQueueDepth(1));
+    }
+
+    @Test
+    public void errorIsPostprocessed() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new DelegatingCommand("2") {
+            @Override
+            public Processing execute(Context<String, Object> context) {
+                super.execute(context);
+                throw new AssertionError("2");
+            }
+        });
+        pipeline.addStage(1, 1, 1);
+        pipeline.addStage(1, 1, 1);
+        pipeline.start();
+
+        Context<String, Object> context = new ContextBase();
+        try {
+            pipeline.executeAsync(context).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("Expected the execution to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        assertThat(context, hasLog("1/2/a"));
+    }
+
+    @Test
+    public void closeCancelsAndPostprocessesWaitingContexts() throws Exception {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new DelegatingCommand("2") {
+            @Override
+            public Processing execute(Context<String, Object> context) {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.execute(context);
+            }
+        });
+        pipeline.addStage(1, 1, 1);
+        pipeline.addStage(1, 1, 1);
+        pipeline.start();
+
+        // First context blocks the second stage until the pipeline is
+        // closed, second one waits in its queue, third one is being handed
+        // over to it by the worker of the first stage
+        List<Context<String, Object>> contexts = contexts(3);
+        List<CompletableFuture<Processing>> results = new ArrayList<CompletableFuture<Processing>>();
+        for (Context<String, Object> context : contexts) {
+            results.add(pipeline.executeAsync(context).toCompletableFuture());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((pipeline.getProcessedCount(0) < 3 || pipeline.getQueueDepth(1) < 1)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        pipeline.close();
+
+        assertEquals(Processing.CONTINUE, results.get(0).get(5, TimeUnit.SECONDS));
+        assertThat(contexts.get(0), hasLog("1/2/a"));
+        for (int i = 1; i < 3; i++) {
+            assertTrue(results.get(i).isCancelled());
+            assertThat(contexts.get(i), hasLog("1/a"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stagesMustCoverTheChain() {
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(new DelegatingCommand("2"));
+        pipeline.addStage(1, 1, 1);
+        pipeline.start();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedPipelineRejectsContexts() {
+        chain.addCommand(new DelegatingCommand("1"));
+        pipeline.addStage(1, 1, 1);
+        pipeline.start();
+        pipeline.close();
+        pipeline.executeAsync(new ContextBase());
+    }
+
+    // -------------------------------------------------------- Support Methods
+
+    private static List<Context<String, Object>> contexts(int count) {
+        List<Context<String, Object>> contexts = new ArrayList<Context<String, Object>>();
+        for (int i = 0; i < count; i++) {
+            contexts.add(new ContextBase());
+        }
+        return contexts;
+    }
+
+    // Logs its identifier and throws an exception carrying it
+    private static class FailingCommand extends NonDelegatingCommand {
+
+        public FailingCommand(String id) {
+            super(id);
+        }
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            log(context, id);
+            throw new IllegalStateException(id);
+        }
+
+    }
+
+}
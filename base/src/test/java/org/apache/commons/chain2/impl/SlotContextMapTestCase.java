@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.ContextKey;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>SlotContextMap</code> class, running the
+ * <code>ContextBaseTestCase</code> tests against it.</p>
+ *
+ */
+public class SlotContextMapTestCase extends ContextBaseTestCase {
+
+    private static final ContextKey<String> USER = ContextKey.of("slot.user", String.class);
+
+    private static final ContextKey<Integer> COUNT = ContextKey.of("slot.count", Integer.class);
+
+    @Test
+    public void registersKeysOnce() {
+        assertSame(USER, ContextKey.of("slot.user", String.class));
+        assertNotEquals(USER.getOrdinal(), COUNT.getOrdinal());
+        assertEquals("slot.user", USER.getName());
+        assertEquals(String.class, USER.getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsKeyWithAnotherType() {
+        ContextKey.of("slot.user", Integer.class);
+    }
+
+    @Test
+    public void storesTypedValues() {
+        SlotContextMap<String, Object> slots = slotContext();
+        assertNull(slots.put(USER, "alice"));
+        assertNull(slots.put(COUNT, Integer.valueOf(1)));
+        String user = slots.get(USER);
+        assertEquals("alice", user);
+        assertEquals("alice", slots.put(USER, "bob"));
+        assertEquals(Integer.valueOf(1), slots.remove(COUNT));
+        assertNull(slots.get(COUNT));
+        assertEquals("bob", slots.get(USER));
+    }
+
+    @Test
+    public void typedValuesAreNotInMapView() {
+        SlotContextMap<String, Object> slots = slotContext();
+        slots.put(USER, "alice");
+        checkAttributeCount(0);
+        assertFalse(slots.containsKey("slot.user"));
+        assertEquals(createContext(), slots);
+        slots.clear();
+        assertEquals("alice", slots.get(USER));
+    }
+
+    @Test
+    public void acceptsKeysRegisteredLater() {
+        SlotContextMap<String, Object> slots = slotContext();
+        ContextKey<String> late = ContextKey.of("slot.late." + ContextKey.count(), String.class);
+        assertNull(slots.get(late));
+        assertNull(slots.remove(late));
+        slots.put(late, "late");
+        assertEquals("late", slots.get(late));
+        slots.put(USER, "alice");
+        assertEquals("alice", slots.get(USER));
+    }
+
+    @Test
+    public void registryDoesNotPinValueTypes() throws Exception {
+        ContextKey<?> key = registerUnloadable("slot.unloadable");
+        for (int i = 0; i < 50 && key.getType() != null; i++) {
+            System.gc();
+            Thread.sleep(100L);
+        }
+        assertNull(key.getType());
+
+        // Registering the key again, e.g. on a redeployment, keeps its ordinal
+        ContextKey<String> again = ContextKey.of("slot.unloadable", String.class);
+        assertEquals(key.getOrdinal(), again.getOrdinal());
+        assertEquals(String.class, again.getType());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void putNullTypedValueThrowsException() {
+        slotContext().put(USER, null);
+    }
+
+    @Test
+    public void typedValuesAreNotSerialized() throws Exception {
+        SlotContextMap<String, Object> slots = slotContext();
+        slots.put(USER, "alice");
+        slots.put("foo", "foo value");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(slots);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        @SuppressWarnings("unchecked")
+        SlotContextMap<String, Object> copy = (SlotContextMap<String, Object>) ois.readObject();
+        ois.close();
+
+        assertEquals("foo value", copy.get("foo"));
+        assertNull(copy.get(USER));
+        copy.put(USER, "bob");
+        assertEquals("bob", copy.get(USER));
+    }
+
+    @Test
+    public void executesChainSharingTypedValues() {
+        ChainBase<String, Object, SlotContextMap<String, Object>> chain =
+            new ChainBase<String, Object, SlotContextMap<String, Object>>();
+        chain.addCommand(new Command<String, Object, SlotContextMap<String, Object>>() {
+            public Processing execute(SlotContextMap<String, Object> context) {
+                context.put(COUNT, Integer.valueOf(41));
+                return Processing.CONTINUE;
+            }
+        });
+        chain.addCommand(new Command<String, Object, SlotContextMap<String, Object>>() {
+            public Processing execute(SlotContextMap<String, Object> context) {
+                context.put(COUNT, Integer.valueOf(context.get(COUNT).intValue() + 1));
+                return new NonDelegatingCommand("2").execute(context);
+            }
+        });
+
+        SlotContextMap<String, Object> slots = slotContext();
+        assertEquals(Processing.FINISHED, chain.execute(slots));
+        assertEquals(Integer.valueOf(42), slots.get(COUNT));
+        assertThat(slots, hasLog("2"));
+    }
+
+    @Override
+    protected Context<String, Object> createContext() {
+        return new SlotContextMap<String, Object>();
+    }
+
+    private SlotContextMap<String, Object> slotContext() {
+        return (SlotContextMap<String, Object>) context;
+    }
+
+    // Register a key whose value type is defined by a throwaway class loader
+    private static ContextKey<?> registerUnloadable(String name) throws IOException {
+        InputStream in = Unloadable.class.getResourceAsStream("SlotContextMapTestCase$Unloadable.class");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                bytes.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        Class<?> type = new IsolatingClassLoader().define(Unloadable.class.getName(), bytes.toByteArray());
+        return ContextKey.of(name, type);
+    }
+
+    // Value type loaded again by an IsolatingClassLoader
+    private static class Unloadable {
+    }
+
+    private static class IsolatingClassLoader extends ClassLoader {
+
+        IsolatingClassLoader() {
+            super(null);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.DelegatingFilter;
+import org.apache.commons.chain2.testutils.NonDelegatingFilter;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Runs the test case for the <code>ChainBase</code> class against a
+ * chain whose execution plan is specialized.</p>
+ *
+ */
+public class SpecializedChainBaseTestCase extends ChainBaseTestCase {
+
+    /**
+     * Set up instance variables required by this test case.
+     */
+    @Override
+    @Before
+    public void setUp() {
+        ChainBase<String, Object, Context<String, Object>> specialized =
+            new ChainBase<String, Object, Context<String, Object>>();
+        specialized.setSpecialized(true);
+        chain = specialized;
+        context = new ContextBase();
+    }
+
+    // Test that the plan is specialized, whatever the accessibility of the command classes
+    @Test
+    public void testSpecializedPlan() {
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new DelegatingCommand("2") {
+            // Anonymous, hence inaccessible, class
+        });
+        chain.addCommand(new NonDelegatingFilter("3", "c"));
+
+        chain.execute(context);
+        assertThat(context, hasLog("1/2/3/c/a"));
+        assertNotNull(((ChainBase<String, Object, Context<String, Object>>) chain).getExecutionPlan().specialized);
+    }
+
+    // Test that long chains are split into segments, and postprocessed across segments
+    @Test
+    public void testLongChain() {
+        StringBuilder expected = new StringBuilder();
+        StringBuilder postprocessed = new StringBuilder();
+        int n = SpecializedPlan.SEGMENT_LENGTH * 2 + 5;
+        for (int i = 0; i < n; i++) {
+            if (i % 2 == 0) {
+                chain.addCommand(new DelegatingFilter(Integer.toString(i), "p" + i));
+                postprocessed.insert(0, "/p" + i);
+            } else {
+                chain.addCommand(new DelegatingCommand(Integer.toString(i)));
+            }
+            expected.append(i == 0 ? "" : "/").append(i);
+        }
+        chain.addCommand(new NonDelegatingFilter("x", "y"));
+        chain.addCommand(new DelegatingCommand("never"));
+
+        assertEquals(Processing.FINISHED, chain.execute(context));
+        assertThat(context, hasLog(expected + "/x/y" + postprocessed));
+        assertNotNull(((ChainBase<String, Object, Context<String, Object>>) chain).getExecutionPlan().specialized);
+    }
+
+}
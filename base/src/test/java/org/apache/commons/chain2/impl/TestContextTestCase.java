@@ -21,6 +21,7 @@ import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import org.apache.commons.chain2.Context;
 import org.junit.Before;
@@ -97,6 +98,27 @@ public class TestContextTestCase extends ContextBaseTestCase {
         assertEquals("new readWrite", context.get("readWrite"));
     }
 
+    @Test
+    public void getPropertyAllocatesNothing() {
+        long allocated = allocatedBytes(new Runnable() {
+            public void run() {
+                context.get("readWrite");
+            }
+        });
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void putWrongTypeKeepsCause() {
+        try {
+            context.put("readWrite", Integer.valueOf(1));
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            assertThat(e.getCause(), instanceOf(ClassCastException.class));
+        }
+        assertEquals("readWrite", context.get("readWrite"));
+    }
+
     @Override
     protected Context<String, Object> createContext() {
         return (new TestContext());
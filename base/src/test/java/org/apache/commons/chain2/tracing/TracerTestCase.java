@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.tracing;
+
+import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.base.LookupCommand;
+import org.apache.commons.chain2.base.ParallelCommand;
+import org.apache.commons.chain2.impl.AsyncChainBase;
+import org.apache.commons.chain2.impl.CatalogBase;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.apache.commons.chain2.impl.ChainBase;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.apache.commons.chain2.testutils.DelegatingCommand;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the <code>Tracer</code> class.</p>
+ */
+public class TracerTestCase {
+
+    // ---------------------------------------------------- Instance Variables
+
+    private InMemorySpanExporter exporter;
+
+    private CatalogBase<String, Object, Context<String, Object>> catalog;
+
+    private ChainBase<String, Object, Context<String, Object>> chain;
+
+    private Context<String, Object> context;
+
+    // -------------------------------------------------- Overall Test Methods
+
+    @Before
+    public void setUp() {
+        exporter = new InMemorySpanExporter();
+        catalog = new CatalogBase<String, Object, Context<String, Object>>();
+        CatalogFactoryBase.<String, Object, Context<String, Object>>getInstance().setCatalog(catalog);
+        chain = new ChainBase<String, Object, Context<String, Object>>();
+        chain.setName("main");
+        context = new ContextBase();
+    }
+
+    @After
+    public void tearDown() {
+        CatalogFactoryBase.clear();
+    }
+
+    // ------------------------------------------------ Individual Test Methods
+
+    // A sampled trace has a root span for the chain and a child span per command, lookups included
+    @Test
+    public void sampledTrace() {
+        Tracer<Context<String, Object>> tracer = new Tracer<Context<String, Object>>(exporter, 1.0);
+        catalog.addInterceptor(tracer);
+        catalog.addCommand("target", new NonDelegatingCommand("2"));
+        LookupCommand<String, Object, Context<String, Object>> lookup =
+            new LookupCommand<String, Object, Context<String, Object>>();
+        lookup.setName("target");
+        chain.addCommand(new DelegatingCommand("1"));
+        chain.addCommand(lookup);
+        catalog.addCommand("main", chain);
+
+        assertEquals(Processing.FINISHED, tracer.trace(chain, context));
+        assertThat(context, hasLog("1/2"));
+        assertNull(context.get(TraceContext.KEY));
+
+        List<Span> spans = exporter.getSpans();
+        assertEquals(4, spans.size());
+        Span first = spans.get(0);
+        Span target = spans.get(1);
+        Span hop = spans.get(2);
+        Span root = spans.get(3);
+        assertTrue(root.isRoot());
+        assertEquals("main", root.getName());
+        assertEquals(Processing.FINISHED, root.getResult());
+        assertEquals("DelegatingCommand", first.getName());
+        assertEquals(root.getSpanId(), first.getParentSpanId());
+        assertEquals(root.getSpanId(), hop.getParentSpanId());
+        assertEquals(LookupCommand.class, hop.getCommandClass());
+        assertEquals(hop.getSpanId(), target.getParentSpanId());
+        assertEquals(NonDelegatingCommand.class, target.getCommandClass());
+        for (Span span : spans) {
+            assertEquals(root.getTraceId(), span.getTraceId());
+        }
+    }
+
+    // Unsampled traces record nothing and leave the context clean
+    @Test
+    public void unsampledTrace() {
+        Tracer<Context<String, Object>> tracer = new Tracer<Context<String, Object>>(exporter, 0.0);
+        catalog.addInterceptor(tracer);
+        chain.addCommand(new TraceContextCommand());
+        catalog.addCommand("main", chain);
+
+        tracer.trace(chain, context);
+        assertSame(TraceContext.UNSAMPLED, context.get("seen"));
+        assertNull(context.get(TraceContext.KEY));
+        assertTrue(exporter.getSpans().isEmpty());
+    }
+
+    // A trace context put by the caller is continued, and restored afterwards
+    @Test
+    public void propagatedTrace() {
+        Tracer<Context<String, Object>> tracer = new Tracer<Context<String, Object>>(exporter, 0.0);
+        catalog.addInterceptor(tracer);
+        chain.addCommand(new TraceContextCommand());
+        catalog.addCommand("main", chain);
+        TraceContext remote = new TraceContext(1L, 2L, 3L, true);
+        context.put(TraceContext.KEY, remote);
+
+        chain.execute(context);
+        assertSame(remote, context.get(TraceContext.KEY));
+        List<Span> spans = exporter.getSpans();
+        assertEquals(1, spans.size());
+        Span span = spans.get(0);
+        assertEquals("00000000000000010000000000000002", span.getTraceId());
+        assertEquals(3L, span.getParentSpanId());
+        assertSame(span.getContext(), context.get("seen"));
+    }
+
+    // Failures are recorded on the span of the failing command and of the chain
+    @Test
+    public void failedTrace() {
+        Tracer<Context<String, Object>> tracer = new Tracer<Context<String, Object>>(exporter, 1.0);
+        catalog.addInterceptor(tracer);
+        chain.addCommand(new FailingCommand());
+        catalog.addCommand("main", chain);
+
+        try {
+            tracer.trace(chain, context);
+            fail("Expected ChainException");
+        } catch (ChainException e) {
+            List<Span> spans = exporter.getSpans();
+            assertEquals(2, spans.size());
+            assertNull(spans.get(0).getResult());
+            assertTrue(spans.get(0).getFailure() instanceof ArithmeticException);
+            assertSame(e, spans.get(1).getFailure());
+        }
+    }
+
+    // The span of an asynchronous command lasts until its stage completes
+    @Test
+    public void asyncTrace() throws Exception {
+        Tracer<Context<String, Object>> tracer = new Tracer<Context<String, Object>>(exporter, 0.0);
+        catalog.addInterceptor(tracer);
+        final CompletableFuture<Processing> pending = new CompletableFuture<Processing>();
+        AsyncChainBase<String, Object, Context<String, Object>> asyncChain =
+            new AsyncChainBase<String, Object, Context<String, Object>>();
+        asyncChain.addCommand(new AsyncCommand<String, Object, Context<String, Object>>() {
+            public CompletionStage<Processing> executeAsync(Context<String, Object> context) {
+                context.put("seen", context.get(TraceContext.KEY));
+                return pending;
+            }
+        });
+        catalog.addCommand("async", asyncChain);
+        TraceContext remote = new TraceContext(1L, 2L, 3L, true);
+        context.put(TraceContext.KEY, remote);
+
+        CompletableFuture<Processing> result = asyncChain.executeAsync(context).toCompletableFuture();
+        assertSame(remote, context.get(TraceContext.KEY));
+        assertTrue(exporter.getSpans().isEmpty());
+
+        pending.complete(Processing.FINISHED);
+        assertEquals(Processing.FINISHED, result.get(5, TimeUnit.SECONDS));
+        List<Span> spans = exporter.getSpans();
+        assertEquals(1, spans.size());
+        assertEquals(3L, spans.get(0).getParentSpanId());
+        assertEquals(Processing.FINISHED, spans.get(0).getResult());
+        assertSame(spans.get(0).getContext(), context.get("seen"));
+    }
+
+    // Concurrent branches record children of the span they were forked from
+    @Test
+    public void parallelTrace() {
+        Tracer<Context<String, Object>> tracer = new Tracer<Context<String, Object>>(exporter, 1.0);
+        catalog.addInterceptor(tracer);
+        ParallelCommand<String, Object, Context<String, Object>> parallel =
+            new ParallelCommand<String, Object, Context<String, Object>>();
+        for (String name : new String[] {"a", "b", "c"}) {
+            catalog.addCommand(name, new SlowCommand());
+            LookupCommand<String, Object, Context<String, Object>> lookup =
+                new LookupCommand<String, Object, Context<String, Object>>();
+            lookup.setName(name);
+            parallel.addCommand(lookup);
+        }
+        chain.addCommand(parallel);
+        catalog.addCommand("main", chain);
+
+        assertEquals(Processing.CONTINUE, tracer.trace(chain, context));
+        assertNull(context.get(TraceContext.KEY));
+
+        // The children of a parallel command are not intercepted, the looked up commands are
+        List<Span> spans = exporter.getSpans();
+        assertEquals(5, spans.size());
+        Span fork = spans.get(3);
+        assertEquals(ParallelCommand.class, fork.getCommandClass());
+        assertEquals(spans.get(4).getSpanId(), fork.getParentSpanId());
+        for (Span target : spans.subList(0, 3)) {
+            assertEquals(SlowCommand.class, target.getCommandClass());
+            assertEquals(fork.getSpanId(), target.getParentSpanId());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void samplingRateOutOfRange() {
+        new Tracer<Context<String, Object>>(exporter, 1.5);
+    }
+
+    // Always fails
+    private static class FailingCommand extends NonDelegatingCommand {
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            throw new ArithmeticException();
+        }
+
+    }
+
+    // Stays long enough for the branches to overlap
+    private static class SlowCommand extends NonDelegatingCommand {
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            try {
+                Thread.sleep(50L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Processing.CONTINUE;
+        }
+
+    }
+
+    // Records the trace context it sees
+    private static class TraceContextCommand extends NonDelegatingCommand {
+
+        @Override
+        public Processing execute(Context<String, Object> context) {
+            context.put("seen", context.get(TraceContext.KEY));
+            return Processing.CONTINUE;
+        }
+
+    }
+
+}
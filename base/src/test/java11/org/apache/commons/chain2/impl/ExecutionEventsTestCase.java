@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.commons.chain2.AsyncCommand;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.base.LookupCommand;
+import org.apache.commons.chain2.testutils.DelegatingFilter;
+import org.apache.commons.chain2.testutils.NonDelegatingCommand;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * <p>Test case for the JFR events of {@link ExecutionEvents}.</p>
+ */
+public class ExecutionEventsTestCase {
+
+    @After
+    public void tearDown() {
+        CatalogFactoryBase.clear();
+    }
+
+    @Test
+    public void eventsAreDisabledOutsideRecordings() {
+        assertTrue(ExecutionEvents.isAvailable());
+        assertNull(ExecutionEvents.beginCommandExecution());
+    }
+
+    @Test
+    public void chainExecutionEvents() throws Exception {
+        ChainBase<String, Object, Context<String, Object>> chain =
+            new ChainBase<String, Object, Context<String, Object>>();
+        chain.setName("main");
+        chain.addCommand(new DelegatingFilter("1", "a"));
+        chain.addCommand(new NonDelegatingCommand("2"));
+
+        List<RecordedEvent> events = record(chain, new ContextBase());
+
+        RecordedEvent chainEvent = find(events, "org.apache.commons.chain2.ChainExecution", 0);
+        assertEquals("main", chainEvent.getString("chain"));
+        assertEquals("FINISHED", chainEvent.getString("result"));
+        assertEquals(ChainBase.class.getName(), chainEvent.getClass("chainClass").getName());
+
+        RecordedEvent commandEvent = find(events, "org.apache.commons.chain2.CommandExecution", 1);
+        assertEquals("main#1", commandEvent.getString("command"));
+        assertEquals(NonDelegatingCommand.class.getName(), commandEvent.getClass("commandClass").getName());
+        assertEquals("FINISHED", commandEvent.getString("result"));
+
+        RecordedEvent filterEvent = find(events, "org.apache.commons.chain2.FilterPostprocess", 0);
+        assertEquals("main#0", filterEvent.getString("filter"));
+        assertEquals(false, filterEvent.getBoolean("handled"));
+    }
+
+    @Test
+    public void lookupEvents() throws Exception {
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+            new CatalogBase<String, Object, Context<String, Object>>();
+        catalog.addCommand("foo", new NonDelegatingCommand("1"));
+        CatalogFactoryBase.<String, Object, Context<String, Object>>getInstance().addCatalog("named", catalog);
+        LookupCommand<String, Object, Context<String, Object>> lookup =
+            new LookupCommand<String, Object, Context<String, Object>>();
+        lookup.setCatalogName("named");
+        lookup.setName("foo");
+
+        List<RecordedEvent> events = record(lookup, new ContextBase());
+
+        RecordedEvent lookupEvent = find(events, "org.apache.commons.chain2.CatalogLookup", 0);
+        assertEquals("named", lookupEvent.getString("catalog"));
+        assertEquals("foo", lookupEvent.getString("command"));
+
+        RecordedEvent commandEvent = find(events, "org.apache.commons.chain2.CommandExecution", 0);
+        assertEquals("named", commandEvent.getString("catalog"));
+        assertEquals("foo", commandEvent.getString("command"));
+        assertEquals("FINISHED", commandEvent.getString("result"));
+    }
+
+    @Test
+    public void asyncCommandExecutionEvents() throws Exception {
+        final AsyncChainBase<String, Object, Context<String, Object>> chain =
+            new AsyncChainBase<String, Object, Context<String, Object>>();
+        chain.setName("async");
+        chain.addCommand(new AsyncCommand<String, Object, Context<String, Object>>() {
+            public CompletionStage<Processing> executeAsync(Context<String, Object> context) {
+                return CompletableFuture.supplyAsync(new Supplier<Processing>() {
+                    public Processing get() {
+                        return Processing.FINISHED;
+                    }
+                });
+            }
+        });
+
+        List<RecordedEvent> events = record(new Callable<Processing>() {
+            public Processing call() throws Exception {
+                return chain.executeAsync(new ContextBase()).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            }
+        });
+
+        RecordedEvent commandEvent = find(events, "org.apache.commons.chain2.CommandExecution", 0);
+        assertEquals("async#0", commandEvent.getString("command"));
+        assertEquals("FINISHED", commandEvent.getString("result"));
+    }
+
+    // ------------------------------------------------------ Private Methods
+
+    private List<RecordedEvent> record(final Command<String, Object, Context<String, Object>> command,
+            final Context<String, Object> context) throws Exception {
+        return record(new Callable<Processing>() {
+            public Processing call() {
+                return command.execute(context);
+            }
+        });
+    }
+
+    private List<RecordedEvent> record(Callable<Processing> execution) throws Exception {
+        Path file = Files.createTempFile("chain", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ChainExecution", "CommandExecution", "FilterPostprocess",
+                    "CatalogLookup"}) {
+                recording.enable("org.apache.commons.chain2." + name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            assertEquals(Processing.FINISHED, execution.call());
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name, int index) {
+        List<RecordedEvent> found = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                found.add(event);
+            }
+        }
+        assertTrue("Missing " + name + " event", found.size() > index);
+        return found.get(index);
+    }
+
+}
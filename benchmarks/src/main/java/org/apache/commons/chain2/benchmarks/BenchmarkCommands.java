@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Cheap {@link Command} and {@link Filter} implementations used to build
+ * benchmark chains.  Several distinct classes are provided so that the
+ * <code>execute()</code> call site of a chain sees a realistic number of
+ * receiver types.</p>
+ */
+public final class BenchmarkCommands {
+
+    private BenchmarkCommands() {
+        // do nothing
+    }
+
+    /**
+     * <p>Build a list of <code>length</code> commands that all return
+     * <code>CONTINUE</code>.  If <code>withFilters</code> is set, every
+     * third command is a {@link Filter}.</p>
+     *
+     * @param length The number of commands
+     * @param withFilters Whether filters should be mixed in
+     * @return The commands, in execution order
+     */
+    public static List<Command<String, Object, Map<String, Object>>> commands(int length, boolean withFilters) {
+        List<Command<String, Object, Map<String, Object>>> commands =
+                new ArrayList<Command<String, Object, Map<String, Object>>>(length);
+        for (int i = 0; i < length; i++) {
+            if (withFilters && i % 3 == 2) {
+                commands.add(new CountingFilter());
+            } else {
+                switch (i % 4) {
+                    case 0:
+                        commands.add(new Increment());
+                        break;
+                    case 1:
+                        commands.add(new Read());
+                        break;
+                    case 2:
+                        commands.add(new Touch());
+                        break;
+                    default:
+                        commands.add(new Noop());
+                        break;
+                }
+            }
+        }
+        return commands;
+    }
+
+    public static final class Increment implements Command<String, Object, Map<String, Object>> {
+        private int counter;
+
+        public Processing execute(Map<String, Object> context) {
+            counter++;
+            return Processing.CONTINUE;
+        }
+    }
+
+    public static final class Read implements Command<String, Object, Map<String, Object>> {
+        public Processing execute(Map<String, Object> context) {
+            return context.isEmpty() ? Processing.CONTINUE : Processing.CONTINUE;
+        }
+    }
+
+    public static final class Touch implements Command<String, Object, Map<String, Object>> {
+        private volatile Object last;
+
+        public Processing execute(Map<String, Object> context) {
+            last = context;
+            return Processing.CONTINUE;
+        }
+    }
+
+    public static final class Noop implements Command<String, Object, Map<String, Object>> {
+        public Processing execute(Map<String, Object> context) {
+            return Processing.CONTINUE;
+        }
+    }
+
+    public static final class CountingFilter implements Filter<String, Object, Map<String, Object>> {
+        private int executed;
+
+        private int postprocessed;
+
+        public Processing execute(Map<String, Object> context) {
+            executed++;
+            return Processing.CONTINUE;
+        }
+
+        public boolean postprocess(Map<String, Object> context, Exception exception) {
+            postprocessed++;
+            return false;
+        }
+    }
+
+}
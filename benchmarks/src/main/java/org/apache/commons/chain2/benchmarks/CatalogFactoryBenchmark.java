@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.impl.CatalogBase;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures <code>CatalogFactoryBase.getCommand()</code> resolving
+ * <code>catalog:command</code> identifiers, and plain command names from
+ * the default catalog.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CatalogFactoryBenchmark {
+
+    @Param({"1", "32"})
+    private int catalogs;
+
+    private CatalogFactory<String, Object, Map<String, Object>> factory;
+
+    private String qualifiedId;
+
+    @Setup
+    public void setUp() {
+        CatalogFactoryBase.clear();
+        factory = CatalogFactoryBase.getInstance();
+        CatalogBase<String, Object, Map<String, Object>> catalog = newCatalog();
+        factory.setCatalog(catalog);
+        for (int i = 0; i < catalogs; i++) {
+            factory.addCatalog("catalog" + i, newCatalog());
+        }
+        qualifiedId = "catalog" + (catalogs / 2) + CatalogFactory.DELIMITER + "command5";
+    }
+
+    @TearDown
+    public void tearDown() {
+        CatalogFactoryBase.clear();
+    }
+
+    @Benchmark
+    public Command<String, Object, Map<String, Object>> qualifiedId() {
+        return factory.getCommand(qualifiedId);
+    }
+
+    @Benchmark
+    public Command<String, Object, Map<String, Object>> defaultCatalog() {
+        return factory.getCommand("command5");
+    }
+
+    private static CatalogBase<String, Object, Map<String, Object>> newCatalog() {
+        CatalogBase<String, Object, Map<String, Object>> catalog = new CatalogBase<String, Object, Map<String, Object>>();
+        for (int i = 0; i < 10; i++) {
+            catalog.addCommand("command" + i, new BenchmarkCommands.Noop());
+        }
+        return catalog;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.impl.ChainBase;
+import org.apache.commons.chain2.impl.LatencyRecorder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Compares <code>ChainBase.execute()</code>, which runs a compiled,
+ * array-backed execution plan, against the previous list-walking
+ * algorithm kept in {@link ListWalkingChain}, and against the same plan
+ * specialized into a <code>MethodHandle</code> tree, and measures the cost
+ * of per-command latency recording.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ChainBaseBenchmark {
+
+    @Param({"5", "15", "30", "100"})
+    private int length;
+
+    @Param({"false", "true"})
+    private boolean withFilters;
+
+    private ChainBase<String, Object, Map<String, Object>> compiled;
+
+    private ChainBase<String, Object, Map<String, Object>> specialized;
+
+    private ChainBase<String, Object, Map<String, Object>> recording;
+
+    private ListWalkingChain<String, Object, Map<String, Object>> listWalking;
+
+    private Map<String, Object> context;
+
+    @Setup
+    public void setUp() {
+        compiled = new ChainBase<String, Object, Map<String, Object>>();
+        specialized = new ChainBase<String, Object, Map<String, Object>>();
+        specialized.setSpecialized(true);
+        recording = new ChainBase<String, Object, Map<String, Object>>();
+        recording.setLatencyRecorder(new LatencyRecorder());
+        listWalking = new ListWalkingChain<String, Object, Map<String, Object>>();
+        for (Command<String, Object, Map<String, Object>> command : BenchmarkCommands.commands(length, withFilters)) {
+            compiled.addCommand(command);
+            specialized.addCommand(command);
+            recording.addCommand(command);
+            listWalking.addCommand(command);
+        }
+        context = new HashMap<String, Object>();
+        context.put("key", "value");
+    }
+
+    @Benchmark
+    public Processing compiledPlan() {
+        return compiled.execute(context);
+    }
+
+    @Benchmark
+    public Processing specializedPlan() {
+        return specialized.execute(context);
+    }
+
+    @Benchmark
+    public Processing compiledPlanRecordingLatencies() {
+        return recording.execute(context);
+    }
+
+    @Benchmark
+    public Processing listWalking() {
+        return listWalking.execute(context);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.impl.CompactContextMap;
+import org.apache.commons.chain2.impl.ContextMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Compares the single-threaded <code>CompactContextMap</code> with the
+ * concurrent <code>ContextMap</code>: <code>get()</code> and
+ * <code>put()</code> latency on a populated context, and the cost of
+ * creating and populating a context.  Run with <code>-prof gc</code> to
+ * compare the bytes allocated by <code>populate</code>, which hold the
+ * footprint of a context of each size.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CompactContextMapBenchmark {
+
+    @Param({"concurrent", "compact"})
+    private String implementation;
+
+    @Param({"4", "16", "64"})
+    private int size;
+
+    private Context<String, Object> context;
+
+    private String[] keys;
+
+    private Object[] values;
+
+    private String key;
+
+    @Setup
+    public void setUp() {
+        keys = new String[size];
+        values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "key" + i;
+            values[i] = Integer.valueOf(i);
+        }
+        context = populate();
+        key = keys[size / 2];
+    }
+
+    @Benchmark
+    public Object get() {
+        return context.get(key);
+    }
+
+    @Benchmark
+    public Object getMissing() {
+        return context.get("missing");
+    }
+
+    @Benchmark
+    public Object put() {
+        return context.put(key, values[0]);
+    }
+
+    @Benchmark
+    public Context<String, Object> populate() {
+        Context<String, Object> result = "compact".equals(implementation)
+            ? new CompactContextMap<String, Object>()
+            : new ContextMap<String, Object>();
+        for (int i = 0; i < keys.length; i++) {
+            result.put(keys[i], values[i]);
+        }
+        return result;
+    }
+
+}
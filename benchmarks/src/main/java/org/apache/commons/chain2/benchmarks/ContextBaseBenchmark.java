@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.impl.ContextBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures <code>ContextBase</code> attribute and property access, and
+ * instance creation, on a context without JavaBeans properties and on one
+ * exposing a few of them through <em>Attribute-Property
+ * Transparency</em>.  Run with <code>-prof gc</code> to compare the bytes
+ * allocated by each construction.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ContextBaseBenchmark {
+
+    @Param({"false", "true"})
+    private boolean withProperties;
+
+    private ContextBase context;
+
+    private String value = "value";
+
+    private Map<String, Object> attributes;
+
+    @Setup
+    public void setUp() {
+        context = newContext();
+        context.put("attribute", value);
+        if (withProperties) {
+            context.put("name", value);
+        }
+        attributes = new HashMap<String, Object>();
+        attributes.put("attribute", value);
+        attributes.put(withProperties ? "name" : "other", value);
+    }
+
+    @Benchmark
+    public Object getAttribute() {
+        return context.get("attribute");
+    }
+
+    @Benchmark
+    public Object getMissing() {
+        return context.get("missing");
+    }
+
+    @Benchmark
+    public Object putAttribute() {
+        return context.put("attribute", value);
+    }
+
+    @Benchmark
+    public Object getProperty() {
+        return context.get(withProperties ? "name" : "attribute");
+    }
+
+    @Benchmark
+    public Object putProperty() {
+        return context.put(withProperties ? "name" : "attribute", value);
+    }
+
+    @Benchmark
+    public ContextBase newInstance() {
+        return newContext();
+    }
+
+    @Benchmark
+    public ContextBase newInstanceFromMap() {
+        return withProperties ? new BeanContext(attributes) : new ContextBase(attributes);
+    }
+
+    private ContextBase newContext() {
+        return withProperties ? new BeanContext() : new ContextBase();
+    }
+
+    /**
+     * <p>Context exposing three JavaBeans properties.</p>
+     */
+    public static class BeanContext extends ContextBase {
+
+        private static final long serialVersionUID = 1L;
+
+        private String name;
+
+        private int count;
+
+        private boolean active;
+
+        public BeanContext() {
+        }
+
+        public BeanContext(Map<String, Object> map) {
+            super(map);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+    }
+
+}
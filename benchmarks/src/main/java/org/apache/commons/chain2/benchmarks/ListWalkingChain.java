@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import org.apache.commons.chain2.ChainException;
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.Filter;
+import org.apache.commons.chain2.Processing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Reference implementation of the <code>ChainBase.execute()</code>
+ * algorithm as it was before frozen chains were compiled into an execution
+ * plan: the command list is walked on every call and every executed command
+ * is tested for being a {@link Filter} on the postprocess walk.  Used as the
+ * baseline of {@link ChainBaseBenchmark}.</p>
+ *
+ * @param <K> Context key type
+ * @param <V> Context value type
+ * @param <C> Type of the context associated with this chain
+ */
+public class ListWalkingChain<K, V, C extends Map<K, V>> implements Command<K, V, C> {
+
+    private final List<Command<K, V, C>> commands = new ArrayList<Command<K, V, C>>();
+
+    private boolean frozen = false;
+
+    public void addCommand(Command<K, V, C> command) {
+        if (frozen) {
+            throw new IllegalStateException();
+        }
+        commands.add(command);
+    }
+
+    public Processing execute(C context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Can't execute a null context");
+        }
+
+        frozen = true;
+
+        Processing saveResult = Processing.CONTINUE;
+        Exception saveException = null;
+        int i = 0;
+        int n = commands.size();
+        Command<K, V, C> lastCommand = null;
+        for (i = 0; i < n; i++) {
+            try {
+                lastCommand = commands.get(i);
+                saveResult = lastCommand.execute(context);
+                if (saveResult == null) {
+                    String format = String.format("The command '%s' returned an invalid processing value: '%s'",
+                            lastCommand.getClass().getName(), saveResult);
+                    throw new ChainException(format);
+                } else if (saveResult != Processing.CONTINUE) {
+                    break;
+                }
+            } catch (Exception e) {
+                saveException = e;
+                break;
+            }
+        }
+
+        if (i >= n) {
+            i--;
+        }
+        boolean handled = false;
+        boolean result;
+        for (int j = i; j >= 0; j--) {
+            if (commands.get(j) instanceof Filter) {
+                try {
+                    result = ((Filter<K, V, C>) commands.get(j)).postprocess(context, saveException);
+                    if (result) {
+                        handled = true;
+                    }
+                } catch (Exception e) {
+                    // Silently ignore
+                }
+            }
+        }
+
+        if (saveException != null && !handled) {
+            throw new ChainException("An error occurred when executing the chain", saveException,
+                    context, lastCommand);
+        }
+        return saveResult;
+    }
+
+}
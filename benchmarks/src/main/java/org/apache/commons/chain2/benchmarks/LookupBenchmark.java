@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Context;
+import org.apache.commons.chain2.Processing;
+import org.apache.commons.chain2.base.DispatchCommand;
+import org.apache.commons.chain2.base.DispatchLookupCommand;
+import org.apache.commons.chain2.base.LookupCommand;
+import org.apache.commons.chain2.impl.CatalogBase;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.apache.commons.chain2.impl.ContextBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures the dispatch overhead of <code>LookupCommand</code>,
+ * <code>DispatchCommand</code> and <code>DispatchLookupCommand</code>
+ * against a direct call of the target command.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    private Target target;
+
+    private LookupCommand<String, Object, Context<String, Object>> lookupByName;
+
+    private LookupCommand<String, Object, Context<String, Object>> lookupByNameKey;
+
+    private Target dispatchByMethod;
+
+    private Target dispatchByMethodKey;
+
+    private DispatchLookupCommand<String, Object, Context<String, Object>> dispatchLookup;
+
+    private Context<String, Object> context;
+
+    @Setup
+    public void setUp() {
+        CatalogFactoryBase.clear();
+        CatalogFactory<String, Object, Context<String, Object>> factory = CatalogFactoryBase.getInstance();
+        CatalogBase<String, Object, Context<String, Object>> catalog =
+                new CatalogBase<String, Object, Context<String, Object>>();
+        target = new Target();
+        target.setMethod("handle");
+        catalog.addCommand("target", target);
+        factory.setCatalog(catalog);
+        factory.addCatalog("named", catalog);
+
+        lookupByName = new LookupCommand<String, Object, Context<String, Object>>(factory);
+        lookupByName.setName("target");
+
+        lookupByNameKey = new LookupCommand<String, Object, Context<String, Object>>(factory);
+        lookupByNameKey.setCatalogName("named");
+        lookupByNameKey.setNameKey("command");
+
+        dispatchByMethod = new Target();
+        dispatchByMethod.setMethod("handle");
+
+        dispatchByMethodKey = new Target();
+        dispatchByMethodKey.setMethodKey("method");
+
+        dispatchLookup = new DispatchLookupCommand<String, Object, Context<String, Object>>(factory);
+        dispatchLookup.setName("target");
+        dispatchLookup.setMethod("handle");
+
+        context = new ContextBase();
+        context.put("command", "target");
+        context.put("method", "handle");
+    }
+
+    @TearDown
+    public void tearDown() {
+        CatalogFactoryBase.clear();
+    }
+
+    @Benchmark
+    public Processing direct() {
+        return target.handle(context);
+    }
+
+    @Benchmark
+    public Processing lookupByName() {
+        return lookupByName.execute(context);
+    }
+
+    @Benchmark
+    public Processing lookupByNameKey() {
+        return lookupByNameKey.execute(context);
+    }
+
+    @Benchmark
+    public Processing dispatchByMethod() {
+        return dispatchByMethod.execute(context);
+    }
+
+    @Benchmark
+    public Processing dispatchByMethodKey() {
+        return dispatchByMethodKey.execute(context);
+    }
+
+    @Benchmark
+    public Processing dispatchLookup() {
+        return dispatchLookup.execute(context);
+    }
+
+    /**
+     * <p>{@link DispatchCommand} whose dispatch method does nothing; also
+     * the target of the lookups.</p>
+     */
+    public static class Target extends DispatchCommand<String, Object, Context<String, Object>> {
+
+        public Processing handle(Context<String, Object> context) {
+            return Processing.CONTINUE;
+        }
+
+    }
+
+}
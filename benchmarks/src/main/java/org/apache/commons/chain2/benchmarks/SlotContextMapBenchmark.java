@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.ContextKey;
+import org.apache.commons.chain2.impl.SlotContextMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Compares reading and writing a value of a <code>SlotContextMap</code>
+ * under a <code>ContextKey</code> with doing so under a
+ * <code>String</code> key followed by a cast, for contexts of several
+ * sizes.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SlotContextMapBenchmark {
+
+    private static final ContextKey<Integer> KEY = ContextKey.of("benchmark.key", Integer.class);
+
+    @Param({"4", "64"})
+    private int size;
+
+    private SlotContextMap<String, Object> context;
+
+    private String key;
+
+    private Integer value = Integer.valueOf(42);
+
+    @Setup
+    public void setUp() {
+        context = new SlotContextMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            context.put("key" + i, Integer.valueOf(i));
+        }
+        key = "key" + (size / 2);
+        context.put(key, value);
+        context.put(KEY, value);
+    }
+
+    @Benchmark
+    public int getString() {
+        return ((Integer) context.get(key)).intValue();
+    }
+
+    @Benchmark
+    public int getTyped() {
+        return context.get(KEY).intValue();
+    }
+
+    @Benchmark
+    public Object putString() {
+        return context.put(key, value);
+    }
+
+    @Benchmark
+    public Integer putTyped() {
+        return context.put(KEY, value);
+    }
+
+}
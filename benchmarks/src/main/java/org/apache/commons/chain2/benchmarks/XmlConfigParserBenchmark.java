@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.config.xml.XmlConfigParser;
+import org.apache.commons.chain2.impl.CatalogFactoryBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Measures <code>XmlConfigParser.parse()</code> on generated
+ * configurations of several sizes: ten catalogs, each defining a command
+ * alias and holding <code>chains</code> chains of ten commands.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class XmlConfigParserBenchmark {
+
+    private static final int CATALOGS = 10;
+
+    private static final int COMMANDS = 10;
+
+    @Param({"10", "100"})
+    private int chains;
+
+    private XmlConfigParser parser;
+
+    private File file;
+
+    private URL url;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("chain-config", ".xml");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writeConfig(writer);
+        } finally {
+            writer.close();
+        }
+        url = file.toURI().toURL();
+        parser = new XmlConfigParser();
+    }
+
+    @TearDown
+    public void tearDown() {
+        CatalogFactoryBase.clear();
+        file.delete();
+    }
+
+    @Benchmark
+    public CatalogFactory<String, Object, Map<String, Object>> parse() {
+        CatalogFactoryBase.clear();
+        return parser.parse(url);
+    }
+
+    private void writeConfig(Writer writer) throws IOException {
+        String noop = BenchmarkCommands.Noop.class.getName();
+        String filter = BenchmarkCommands.CountingFilter.class.getName();
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<catalogs>\n");
+        for (int i = 0; i < CATALOGS; i++) {
+            writer.write("  <catalog name=\"catalog" + i + "\">\n");
+            writer.write("    <define name=\"counting-filter\" className=\"" + filter + "\"/>\n");
+            for (int j = 0; j < chains; j++) {
+                writer.write("    <chain name=\"chain" + j + "\">\n");
+                for (int k = 0; k < COMMANDS; k++) {
+                    if (k % 3 == 2) {
+                        writer.write("      <counting-filter/>\n");
+                    } else {
+                        writer.write("      <command className=\"" + noop + "\"/>\n");
+                    }
+                }
+                writer.write("    </chain>\n");
+            }
+            writer.write("  </catalog>\n");
+        }
+        writer.write("</catalogs>\n");
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.config.xml;
+
+import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.base.SwitchCommand;
+import org.apache.commons.digester3.Rule;
+import org.xml.sax.Attributes;
+
+import java.util.Map;
+
+/**
+ * <p>Digester rule that will cause the top-most element on the Digester
+ * stack (if it is a {@link org.apache.commons.chain2.Command}) to be
+ * registered as a case of the next-to-top element on the Digester stack (if
+ * it is a {@link org.apache.commons.chain2.base.SwitchCommand}), for the
+ * value of the specified attribute.  Without an attribute name, the
+ * top-most element is set as the default command of the switch instead.</p>
+ *
+ */
+class ConfigCaseRule extends Rule {
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a new instance of this rule that looks for an attribute
+     * with the specified name.</p>
+     *
+     * @param valueAttribute Name of the attribute containing the value
+     *  selecting this case, or <code>null</code> for the default case
+     */
+    public ConfigCaseRule(String valueAttribute) {
+        this.valueAttribute = valueAttribute;
+    }
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The name of the attribute under which we can retrieve the value
+     * selecting this case.</p>
+     */
+    private final String valueAttribute;
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Register the top {@link org.apache.commons.chain2.Command} with the
+     * next {@link org.apache.commons.chain2.base.SwitchCommand} if
+     * appropriate.</p>
+     *
+     * @param namespace the namespace URI of the matching element, or an
+     *   empty string if the parser is not namespace aware or the element has
+     *   no namespace
+     * @param name the local name if the parser is namespace aware, or just
+     *   the element name otherwise
+     * @param attributes The attribute list of this element
+     */
+    @Override
+    public void begin(String namespace, String name, Attributes attributes) throws Exception {
+        Object top = getDigester().peek(0);
+        Object next = getDigester().peek(1);
+        if (!(top instanceof Command) || !(next instanceof SwitchCommand)) {
+            return;
+        }
+
+        /* Like ConfigRegisterRule, we depend on the configuration being
+         * correct because the rule binding is dynamic. */
+        @SuppressWarnings("unchecked")
+        Command<Object, Object, Map<Object, Object>> command =
+                (Command<Object, Object, Map<Object, Object>>) top;
+        @SuppressWarnings("unchecked")
+        SwitchCommand<Object, Object, Map<Object, Object>> switchCommand =
+                (SwitchCommand<Object, Object, Map<Object, Object>>) next;
+
+        if (valueAttribute == null) {
+            switchCommand.setDefaultCommand(command);
+        } else {
+            String value = attributes.getValue(valueAttribute);
+            if (value == null) {
+                throw new IllegalArgumentException(String.format(
+                        "The '%s' element requires a '%s' attribute", name, valueAttribute));
+            }
+            switchCommand.addCase(value, command);
+        }
+    }
+
+}
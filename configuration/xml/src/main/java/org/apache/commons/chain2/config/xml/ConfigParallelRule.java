@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.chain2.config.xml;
+
+import org.apache.commons.chain2.base.ParallelCommand;
+import org.apache.commons.digester3.Rule;
+import org.xml.sax.Attributes;
+
+import java.util.Locale;
+
+/**
+ * <p>Digester rule that will configure the merge policy of the top-most
+ * element on the Digester stack (if it is a
+ * {@link org.apache.commons.chain2.base.ParallelCommand}) from the value of
+ * the specified attribute.  The value is the name of a
+ * {@link org.apache.commons.chain2.base.ParallelCommand.Policy} constant,
+ * matched case insensitively and with dashes standing for underscores
+ * (for instance <code>first-finished</code>).</p>
+ *
+ */
+class ConfigParallelRule extends Rule {
+
+    // ----------------------------------------------------------- Constructors
+
+    /**
+     * <p>Construct a new instance of this rule that looks for an attribute
+     * with the specified name.</p>
+     *
+     * @param policyAttribute Name of the attribute containing the merge
+     *  policy of the parallel command
+     */
+    public ConfigParallelRule(String policyAttribute) {
+        this.policyAttribute = policyAttribute;
+    }
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * <p>The name of the attribute under which we can retrieve the merge
+     * policy of the parallel command.</p>
+     */
+    private final String policyAttribute;
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * <p>Configure the merge policy of the top
+     * {@link org.apache.commons.chain2.base.ParallelCommand} if appropriate.</p>
+     *
+     * @param namespace the namespace URI of the matching element, or an
+     *   empty string if the parser is not namespace aware or the element has
+     *   no namespace
+     * @param name the local name if the parser is namespace aware, or just
+     *   the element name otherwise
+     * @param attributes The attribute list of this element
+     */
+    @Override
+    public void begin(String namespace, String name, Attributes attributes) throws Exception {
+        Object top = getDigester().peek(0);
+        if (!(top instanceof ParallelCommand)) {
+            return;
+        }
+
+        String policyValue = attributes.getValue(policyAttribute);
+        if (policyValue != null) {
+            String constant = policyValue.trim().replace('-', '_').toUpperCase(Locale.ENGLISH);
+            ((ParallelCommand<?, ?, ?>) top).setPolicy(ParallelCommand.Policy.valueOf(constant));
+        }
+    }
+
+}
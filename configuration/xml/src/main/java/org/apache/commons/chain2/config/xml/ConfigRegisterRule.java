@@ -19,6 +19,7 @@ package org.apache.commons.chain2.config.xml;
 import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.Chain;
 import org.apache.commons.chain2.Command;
+import org.apache.commons.chain2.base.DecoratingCommand;
 import org.apache.commons.digester3.Rule;
 import org.xml.sax.Attributes;
 
@@ -27,7 +28,8 @@ import java.util.Map;
 /**
  * <p>Digester rule that will cause the top-most element on the Digester
  * stack (if it is a {@link org.apache.commons.chain2.Command} to be registered with the next-to-top
- * element on the Digester stack (if it is a {@link org.apache.commons.chain2.Catalog} or {@link org.apache.commons.chain2.Chain}).
+ * element on the Digester stack (if it is a {@link org.apache.commons.chain2.Catalog} or {@link org.apache.commons.chain2.Chain}),
+ * or set as the delegate of the next-to-top element (if it is a {@link DecoratingCommand}).
  * To be registered with a {@link org.apache.commons.chain2.Catalog}, the top-most element must contain
  * a value for the specified attribute that contains the name under which
  * it should be registered.</p>
@@ -104,6 +106,12 @@ class ConfigRegisterRule extends Rule {
              * so we can add a generic context signature at compile-time. */
             Chain<Object, Object, Map<Object, Object>> chain = (Chain<Object, Object, Map<Object, Object>>) next;
             chain.addCommand(command);
+        } else if (next instanceof DecoratingCommand) {
+            // Like above, the delegate is set with a generic context signature
+            @SuppressWarnings("unchecked")
+            DecoratingCommand<Object, Object, Map<Object, Object>> decorator =
+                    (DecoratingCommand<Object, Object, Map<Object, Object>>) next;
+            decorator.setCommand(command);
         }
     }
 
@@ -27,6 +27,34 @@ import org.apache.commons.digester3.RuleSetBase;
  * method in order to influence the rules that get added, with default
  * values in square brackets:</p>
  * <ul>
+ * <li><strong>breakerClass</strong> -- Fully qualified name of the
+ *     implementation class used to create new circuit breakers.
+ *     If not specified, the default value is
+ *     <code>org.apache.commons.chain2.base.CircuitBreakerCommand</code>.</li>
+ * <li><strong>breakerElement</strong> -- Name of the XML element
+ *     representing the addition of a
+ *     {@link org.apache.commons.chain2.base.CircuitBreakerCommand},
+ *     guarding the command nested in it, or the command named by its
+ *     <code>command</code> attribute, like a cache element.  Other
+ *     attributes, such as <code>failureRateThreshold</code> and
+ *     <code>fallback</code>, set the properties of the circuit breaker.
+ *     [breaker]</li>
+ * <li><strong>cacheClass</strong> -- Fully qualified name of the
+ *     implementation class used to create new caching commands.
+ *     If not specified, the default value is
+ *     <code>org.apache.commons.chain2.base.CachingCommand</code>.</li>
+ * <li><strong>cacheElement</strong> -- Name of the XML element representing
+ *     the addition of a {@link org.apache.commons.chain2.base.CachingCommand},
+ *     memoizing the outcome of the command nested in it, or of the command
+ *     named by its <code>command</code> attribute and looked up in the
+ *     catalog named by its <code>catalog</code> attribute.  Other
+ *     attributes, such as <code>keys</code> and <code>outputKeys</code>,
+ *     set the properties of the caching command.  [cache]</li>
+ * <li><strong>caseElement</strong> -- Name of the XML element, nested in a
+ *     switch element, representing one of its cases.  A case element has
+ *     the same functionality as a chain element, and is selected when the
+ *     switch value is equal to its attribute named by the
+ *     <code>valueAttribute</code> property.  [case]</li>
  * <li><strong>catalogClass</strong> -- Fully qualified name of the
  *     implementation class used to create new
  *     {@link org.apache.commons.chain2.Catalog} instances.
@@ -62,10 +90,63 @@ import org.apache.commons.digester3.RuleSetBase;
  *     attributes with a {@link org.apache.commons.chain2.Command} or
  *     {@link org.apache.commons.chain2.Chain} implementation class
  *     named by the <code>classAttribute</code> attribute.  [define]</li>
+ * <li><strong>defaultElement</strong> -- Name of the XML element, nested
+ *     in a switch element, representing the case selected when no other
+ *     case matches.  It has the same functionality as a chain element.
+ *     [default]</li>
+ * <li><strong>limitClass</strong> -- Fully qualified name of the
+ *     implementation class used to create new concurrency limiting
+ *     commands.  If not specified, the default value is
+ *     <code>org.apache.commons.chain2.base.ConcurrencyLimitCommand</code>.</li>
+ * <li><strong>limitElement</strong> -- Name of the XML element representing
+ *     the addition of a
+ *     {@link org.apache.commons.chain2.base.ConcurrencyLimitCommand},
+ *     bounding the concurrent executions of the command nested in it, or
+ *     of the command named by its <code>command</code> attribute, like a
+ *     cache element.  Other attributes, such as <code>initialLimit</code>
+ *     and <code>maxWait</code>, set the properties of the limiting
+ *     command.  [limit]</li>
  * <li><strong>nameAttribute</strong> -- Attribute on an outermost chain or
  *     command element that will be used to register this command with the
  *     associated {@link org.apache.commons.chain2.Catalog} instance on the stack.
  *     [name]</li>
+ * <li><strong>parallelClass</strong> -- Fully qualified name of the
+ *     implementation class used to create new parallel composite commands.
+ *     If not specified, the default value is
+ *     <code>org.apache.commons.chain2.base.ParallelCommand</code>.</li>
+ * <li><strong>parallelElement</strong> -- Name of the XML element representing
+ *     the addition of a {@link org.apache.commons.chain2.base.ParallelCommand},
+ *     whose nested commands are executed concurrently.  A parallel element
+ *     has the same functionality as a chain element, and additionally
+ *     accepts the merge policy in the attribute named by the
+ *     <code>policyAttribute</code> property.  [parallel]</li>
+ * <li><strong>policyAttribute</strong> -- Attribute on a parallel element
+ *     (optional) that specifies the
+ *     {@link org.apache.commons.chain2.base.ParallelCommand.Policy}, for
+ *     instance <code>first-finished</code> or <code>all-continue</code>.
+ *     [policy]</li>
+ * <li><strong>retryClass</strong> -- Fully qualified name of the
+ *     implementation class used to create new retrying commands.
+ *     If not specified, the default value is
+ *     <code>org.apache.commons.chain2.base.RetryCommand</code>.</li>
+ * <li><strong>retryElement</strong> -- Name of the XML element representing
+ *     the addition of a {@link org.apache.commons.chain2.base.RetryCommand},
+ *     retrying the command nested in it, or the command named by its
+ *     <code>command</code> attribute, like a cache element.  Other
+ *     attributes, such as <code>retryOn</code> and
+ *     <code>maxAttempts</code>, set the properties of the retrying
+ *     command.  [retry]</li>
+ * <li><strong>switchClass</strong> -- Fully qualified name of the
+ *     implementation class used to create new switch commands.
+ *     If not specified, the default value is
+ *     <code>org.apache.commons.chain2.base.SwitchCommand</code>.</li>
+ * <li><strong>switchElement</strong> -- Name of the XML element representing
+ *     the addition of a {@link org.apache.commons.chain2.base.SwitchCommand},
+ *     executing one of its nested case elements, or its nested default
+ *     element, depending on the context value stored under its
+ *     <code>key</code> attribute.  [switch]</li>
+ * <li><strong>valueAttribute</strong> -- Attribute on a case element that
+ *     specifies the value selecting this case.  [value]</li>
  * <li><strong>namespaceURI</strong> -- The XML namespace URI with which these
  *     rules will be associated, or <code>null</code> for no namespace.
  *     [null]</li>
@@ -76,6 +157,16 @@ public class ConfigRuleSet extends RuleSetBase {
 
     // ----------------------------------------------------- Instance Variables
 
+    private String breakerClass = "org.apache.commons.chain2.base.CircuitBreakerCommand";
+
+    private String breakerElement = "breaker";
+
+    private String cacheClass = "org.apache.commons.chain2.base.CachingCommand";
+
+    private String cacheElement = "cache";
+
+    private String caseElement = "case";
+
     private String catalogClass = "org.apache.commons.chain2.impl.CatalogBase";
 
     private String catalogElement = "catalog";
@@ -88,12 +179,123 @@ public class ConfigRuleSet extends RuleSetBase {
 
     private String commandElement = "command";
 
+    private String defaultElement = "default";
+
     private String defineElement = "define";
 
+    private String limitClass = "org.apache.commons.chain2.base.ConcurrencyLimitCommand";
+
+    private String limitElement = "limit";
+
     private String nameAttribute = "name";
 
+    private String parallelClass = "org.apache.commons.chain2.base.ParallelCommand";
+
+    private String parallelElement = "parallel";
+
+    private String policyAttribute = "policy";
+
+    private String retryClass = "org.apache.commons.chain2.base.RetryCommand";
+
+    private String retryElement = "retry";
+
+    private String switchClass = "org.apache.commons.chain2.base.SwitchCommand";
+
+    private String switchElement = "switch";
+
+    private String valueAttribute = "value";
+
     // ------------------------------------------------------------- Properties
 
+    /**
+     * <p>Return the fully qualified circuit breaker implementation
+     * class.</p>
+     * @return The circuit breaker's class name.
+     */
+    public String getBreakerClass() {
+        return (this.breakerClass);
+    }
+
+    /**
+     * <p>Set the fully qualified circuit breaker implementation
+     * class.</p>
+     *
+     * @param breakerClass The new circuit breaker implementation class
+     */
+    public void setBreakerClass(String breakerClass) {
+        this.breakerClass = breakerClass;
+    }
+
+    /**
+     * <p>Return the element name of a breaker element.</p>
+     * @return The element name of a breaker element.
+     */
+    public String getBreakerElement() {
+        return (this.breakerElement);
+    }
+
+    /**
+     * <p>Set the element name of a breaker element.</p>
+     *
+     * @param breakerElement The new element name
+     */
+    public void setBreakerElement(String breakerElement) {
+        this.breakerElement = breakerElement;
+    }
+
+    /**
+     * <p>Return the fully qualified caching command implementation
+     * class.</p>
+     * @return The caching command's class name.
+     */
+    public String getCacheClass() {
+        return (this.cacheClass);
+    }
+
+    /**
+     * <p>Set the fully qualified caching command implementation
+     * class.</p>
+     *
+     * @param cacheClass The new caching command implementation class
+     */
+    public void setCacheClass(String cacheClass) {
+        this.cacheClass = cacheClass;
+    }
+
+    /**
+     * <p>Return the element name of a cache element.</p>
+     * @return The element name of a cache element.
+     */
+    public String getCacheElement() {
+        return (this.cacheElement);
+    }
+
+    /**
+     * <p>Set the element name of a cache element.</p>
+     *
+     * @param cacheElement The new element name
+     */
+    public void setCacheElement(String cacheElement) {
+        this.cacheElement = cacheElement;
+    }
+
+    /**
+     * <p>Return the element name of a case element.</p>
+     * @return The element name of a case element.
+     */
+    public String getCaseElement() {
+        return (this.caseElement);
+    }
+
+    /**
+     * <p>Set the element name of a case element.</p>
+     *
+     * @param caseElement The new element name
+     */
+    public void setCaseElement(String caseElement) {
+        this.caseElement = caseElement;
+    }
+
     /**
      * <p>Return the fully qualified {@link org.apache.commons.chain2.Catalog}
      *  implementation class.</p>
@@ -202,6 +404,23 @@ public class ConfigRuleSet extends RuleSetBase {
         this.commandElement = commandElement;
     }
 
+    /**
+     * <p>Return the element name of a default element.</p>
+     * @return The element name of a default element.
+     */
+    public String getDefaultElement() {
+        return (this.defaultElement);
+    }
+
+    /**
+     * <p>Set the element name of a default element.</p>
+     *
+     * @param defaultElement The new element name
+     */
+    public void setDefaultElement(String defaultElement) {
+        this.defaultElement = defaultElement;
+    }
+
     /**
      * <p>Return the element name of a define element.</p>
      * @return The element name of a define element.
@@ -219,6 +438,42 @@ public class ConfigRuleSet extends RuleSetBase {
         this.defineElement = defineElement;
     }
 
+    /**
+     * <p>Return the fully qualified concurrency limiting command
+     * implementation class.</p>
+     * @return The concurrency limiting command's class name.
+     */
+    public String getLimitClass() {
+        return (this.limitClass);
+    }
+
+    /**
+     * <p>Set the fully qualified concurrency limiting command
+     * implementation class.</p>
+     *
+     * @param limitClass The new concurrency limiting command implementation class
+     */
+    public void setLimitClass(String limitClass) {
+        this.limitClass = limitClass;
+    }
+
+    /**
+     * <p>Return the element name of a limit element.</p>
+     * @return The element name of a limit element.
+     */
+    public String getLimitElement() {
+        return (this.limitElement);
+    }
+
+    /**
+     * <p>Set the element name of a limit element.</p>
+     *
+     * @param limitElement The new element name
+     */
+    public void setLimitElement(String limitElement) {
+        this.limitElement = limitElement;
+    }
+
     /**
      * <p>Return the attribute name of a name attribute.</p>
      * @return The attribute name of an attribute element.
@@ -236,6 +491,148 @@ public class ConfigRuleSet extends RuleSetBase {
         this.nameAttribute = nameAttribute;
     }
 
+    /**
+     * <p>Return the fully qualified parallel command implementation
+     * class.</p>
+     * @return The parallel command's class name.
+     */
+    public String getParallelClass() {
+        return (this.parallelClass);
+    }
+
+    /**
+     * <p>Set the fully qualified parallel command implementation
+     * class.</p>
+     *
+     * @param parallelClass The new parallel command implementation class
+     */
+    public void setParallelClass(String parallelClass) {
+        this.parallelClass = parallelClass;
+    }
+
+    /**
+     * <p>Return the element name of a parallel element.</p>
+     * @return The element name of a parallel element.
+     */
+    public String getParallelElement() {
+        return (this.parallelElement);
+    }
+
+    /**
+     * <p>Set the element name of a parallel element.</p>
+     *
+     * @param parallelElement The new element name
+     */
+    public void setParallelElement(String parallelElement) {
+        this.parallelElement = parallelElement;
+    }
+
+    /**
+     * <p>Return the attribute name of a policy attribute.</p>
+     * @return The attribute name of a policy attribute.
+     */
+    public String getPolicyAttribute() {
+        return (this.policyAttribute);
+    }
+
+    /**
+     * <p>Set the attribute name of a policy attribute.</p>
+     *
+     * @param policyAttribute The new attribute name
+     */
+    public void setPolicyAttribute(String policyAttribute) {
+        this.policyAttribute = policyAttribute;
+    }
+
+    /**
+     * <p>Return the fully qualified retrying command implementation
+     * class.</p>
+     * @return The retrying command's class name.
+     */
+    public String getRetryClass() {
+        return (this.retryClass);
+    }
+
+    /**
+     * <p>Set the fully qualified retrying command implementation
+     * class.</p>
+     *
+     * @param retryClass The new retrying command implementation class
+     */
+    public void setRetryClass(String retryClass) {
+        this.retryClass = retryClass;
+    }
+
+    /**
+     * <p>Return the element name of a retry element.</p>
+     * @return The element name of a retry element.
+     */
+    public String getRetryElement() {
+        return (this.retryElement);
+    }
+
+    /**
+     * <p>Set the element name of a retry element.</p>
+     *
+     * @param retryElement The new element name
+     */
+    public void setRetryElement(String retryElement) {
+        this.retryElement = retryElement;
+    }
+
+    /**
+     * <p>Return the fully qualified switch command implementation
+     * class.</p>
+     * @return The switch command's class name.
+     */
+    public String getSwitchClass() {
+        return (this.switchClass);
+    }
+
+    /**
+     * <p>Set the fully qualified switch command implementation
+     * class.</p>
+     *
+     * @param switchClass The new switch command implementation class
+     */
+    public void setSwitchClass(String switchClass) {
+        this.switchClass = switchClass;
+    }
+
+    /**
+     * <p>Return the element name of a switch element.</p>
+     * @return The element name of a switch element.
+     */
+    public String getSwitchElement() {
+        return (this.switchElement);
+    }
+
+    /**
+     * <p>Set the element name of a switch element.</p>
+     *
+     * @param switchElement The new element name
+     */
+    public void setSwitchElement(String switchElement) {
+        this.switchElement = switchElement;
+    }
+
+    /**
+     * <p>Return the attribute name of a value attribute.</p>
+     * @return The attribute name of a value attribute.
+     */
+    public String getValueAttribute() {
+        return (this.valueAttribute);
+    }
+
+    /**
+     * <p>Set the attribute name of a value attribute.</p>
+     *
+     * @param valueAttribute The new attribute name
+     */
+    public void setValueAttribute(String valueAttribute) {
+        this.valueAttribute = valueAttribute;
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -251,6 +648,12 @@ public class ConfigRuleSet extends RuleSetBase {
         addCatalogRules(digester);
         addChainRules(digester);
         addCommandRules(digester);
+        addParallelRules(digester);
+        addSwitchRules(digester);
+        addDecoratorRules(digester, getCacheElement(), getCacheClass());
+        addDecoratorRules(digester, getRetryElement(), getRetryClass());
+        addDecoratorRules(digester, getLimitElement(), getLimitClass());
+        addDecoratorRules(digester, getBreakerElement(), getBreakerClass());
         addDefineElementRule(digester);
     }
 
@@ -278,6 +681,61 @@ public class ConfigRuleSet extends RuleSetBase {
                 new ConfigRegisterRule(nameAttribute));
     }
 
+    private void addParallelRules(Digester digester) {
+        digester.addObjectCreate("*/" + getParallelElement(),
+                getParallelClass(),
+                getClassAttribute());
+        // The policy is an enumeration, which is converted by its own rule
+        digester.addSetProperties("*/" + getParallelElement(),
+                new String[] { getPolicyAttribute() },
+                new String[] { null });
+        digester.addRule("*/" + getParallelElement(),
+                new ConfigParallelRule(getPolicyAttribute()));
+        digester.addRule("*/" + getParallelElement(),
+                new ConfigRegisterRule(nameAttribute));
+    }
+
+    private void addSwitchRules(Digester digester) {
+        digester.addObjectCreate("*/" + getSwitchElement(),
+                getSwitchClass(),
+                getClassAttribute());
+        digester.addSetProperties("*/" + getSwitchElement());
+        digester.addRule("*/" + getSwitchElement(),
+                new ConfigRegisterRule(nameAttribute));
+
+        // Cases are chains, registered with the switch by their own rule
+        String casePattern = "*/" + getSwitchElement() + "/" + getCaseElement();
+        digester.addObjectCreate(casePattern,
+                getChainClass(),
+                getClassAttribute());
+        digester.addSetProperties(casePattern,
+                new String[] { getValueAttribute() },
+                new String[] { null });
+        digester.addRule(casePattern,
+                new ConfigCaseRule(getValueAttribute()));
+
+        String defaultPattern = "*/" + getSwitchElement() + "/" + getDefaultElement();
+        digester.addObjectCreate(defaultPattern,
+                getChainClass(),
+                getClassAttribute());
+        digester.addSetProperties(defaultPattern);
+        digester.addRule(defaultPattern,
+                new ConfigCaseRule(null));
+    }
+
+    private void addDecoratorRules(Digester digester, String element, String className) {
+        digester.addObjectCreate("*/" + element,
+                className,
+                getClassAttribute());
+        // The name attribute only registers the decorator, the delegate
+        // is named by the command attribute
+        digester.addSetProperties("*/" + element,
+                new String[] { getNameAttribute(), "command", "catalog" },
+                new String[] { null, "name", "catalogName" });
+        digester.addRule("*/" + element,
+                new ConfigRegisterRule(nameAttribute));
+    }
+
     private void addDefineElementRule(Digester digester) {
         digester.addRule("*/" + getDefineElement(),
                          new ConfigDefineRule(getNameAttribute(),
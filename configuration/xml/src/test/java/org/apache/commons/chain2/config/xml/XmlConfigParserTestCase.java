@@ -19,6 +19,7 @@ package org.apache.commons.chain2.config.xml;
 
 import static org.apache.commons.chain2.testutils.HasCommandCount.hasCommandCount;
 import static org.apache.commons.chain2.testutils.HasLog.hasLog;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -32,9 +33,16 @@ import java.util.List;
 
 import org.apache.commons.chain2.Catalog;
 import org.apache.commons.chain2.CatalogFactory;
+import org.apache.commons.chain2.Chain;
 import org.apache.commons.chain2.Context;
 import org.apache.commons.chain2.Processing;
 import org.apache.commons.chain2.testutils.AddingCommand;
+import org.apache.commons.chain2.base.CachingCommand;
+import org.apache.commons.chain2.base.CircuitBreakerCommand;
+import org.apache.commons.chain2.base.ConcurrencyLimitCommand;
+import org.apache.commons.chain2.base.ParallelCommand;
+import org.apache.commons.chain2.base.RetryCommand;
+import org.apache.commons.chain2.base.SwitchCommand;
 import org.apache.commons.chain2.impl.CatalogBase;
 import org.apache.commons.chain2.impl.CatalogFactoryBase;
 import org.apache.commons.chain2.impl.ChainBase;
@@ -106,7 +114,7 @@ public class XmlConfigParserTestCase {
     public void testDefault() throws Exception {
 
         // Check overall command count
-        assertThat(catalog, hasCommandCount(17));
+        assertThat(catalog, hasCommandCount(32));
 
         // Check individual single command instances
         {
@@ -257,6 +265,192 @@ public class XmlConfigParserTestCase {
     }
 
 
+    // Test the configuration and execution of parallel commands
+    @Test
+    public void testParallel() throws Exception {
+
+        ParallelCommand<String, Object, Context<String, Object>> allContinue =
+            catalog.getCommand("ParallelAllContinue");
+        assertEquals(ParallelCommand.Policy.ALL_CONTINUE, allContinue.getPolicy());
+        assertEquals(Processing.CONTINUE, allContinue.execute(context));
+
+        ParallelCommand<String, Object, Context<String, Object>> firstFinished =
+            catalog.getCommand("ParallelFirstFinished");
+        assertEquals(ParallelCommand.Policy.FIRST_FINISHED, firstFinished.getPolicy());
+        assertEquals(Processing.FINISHED, firstFinished.execute(new ContextBase()));
+
+    }
+
+
+    // Test execution of chain "ParallelNested"
+    @Test
+    public void testExecuteParallelNested() throws Exception {
+
+        assertEquals(Processing.FINISHED, catalog.getCommand("ParallelNested").execute(context));
+        assertThat(context, hasLog("1/2/3"));
+
+    }
+
+
+    // Test the configuration and execution of a cache around a nested command
+    @Test
+    public void testCache() throws Exception {
+
+        CachingCommand<String, Object, Context<String, Object>> cached = catalog.getCommand("Cached");
+        assertEquals("user", cached.getKeys());
+        assertEquals(10, cached.getMaxSize());
+        assertEquals(DelegatingCommand.class, cached.getCommand().getClass());
+        assertNull(cached.getName());
+
+        context.put("user", "alice");
+        assertEquals(Processing.CONTINUE, cached.execute(context));
+        assertThat(context, hasLog("1"));
+
+        // Served from the cache: the delegate does not log again
+        Context<String, Object> second = new ContextBase();
+        second.put("user", "alice");
+        assertEquals(Processing.CONTINUE, cached.execute(second));
+        assertNull(second.get("log"));
+
+    }
+
+
+    // Test execution of chain "CacheNested"
+    @Test
+    public void testExecuteCacheNested() throws Exception {
+
+        context.put("user", "alice");
+        assertEquals(Processing.FINISHED, catalog.getCommand("CacheNested").execute(context));
+        assertThat(context, hasLog("1/2"));
+
+        Context<String, Object> second = new ContextBase();
+        second.put("user", "alice");
+        assertEquals(Processing.FINISHED, catalog.getCommand("CacheNested").execute(second));
+        assertThat(second, hasLog("1"));
+
+    }
+
+
+    // Test the configuration and execution of a retry around a nested command
+    @Test
+    public void testRetry() throws Exception {
+
+        RetryCommand<String, Object, Context<String, Object>> retried = catalog.getCommand("Retried");
+        assertEquals("java.lang.IllegalStateException", retried.getRetryOn());
+        assertEquals(5, retried.getMaxAttempts());
+        assertEquals(10L, retried.getInitialDelay());
+        assertEquals("log", retried.getRestoreKeys());
+        assertEquals(DelegatingCommand.class, retried.getCommand().getClass());
+
+        assertEquals(Processing.CONTINUE, retried.execute(context));
+        assertThat(context, hasLog("1"));
+
+    }
+
+
+    // Test execution of chain "RetryNested"
+    @Test
+    public void testExecuteRetryNested() throws Exception {
+
+        assertEquals(Processing.FINISHED, catalog.getCommand("RetryNested").execute(context));
+        assertThat(context, hasLog("1/2"));
+
+    }
+
+
+    // Test the configuration and execution of a limit around a nested command
+    @Test
+    public void testLimit() throws Exception {
+
+        ConcurrencyLimitCommand<String, Object, Context<String, Object>> limited = catalog.getCommand("Limited");
+        assertEquals(5, limited.getInitialLimit());
+        assertEquals(50, limited.getMaxLimit());
+        assertEquals(100L, limited.getMaxWait());
+        assertEquals(DelegatingCommand.class, limited.getCommand().getClass());
+
+        assertEquals(Processing.CONTINUE, limited.execute(context));
+        assertThat(context, hasLog("1"));
+
+    }
+
+
+    // Test execution of chain "LimitNested"
+    @Test
+    public void testExecuteLimitNested() throws Exception {
+
+        assertEquals(Processing.FINISHED, catalog.getCommand("LimitNested").execute(context));
+        assertThat(context, hasLog("1/2"));
+
+    }
+
+
+    // Test the configuration and execution of a breaker around a nested command
+    @Test
+    public void testBreaker() throws Exception {
+
+        CircuitBreakerCommand<String, Object, Context<String, Object>> guarded = catalog.getCommand("Guarded");
+        assertEquals(25.0, guarded.getFailureRateThreshold(), 0.0);
+        assertEquals(5000L, guarded.getOpenDuration());
+        assertEquals("Fallback", guarded.getFallback());
+        assertEquals("foo", guarded.getCatalogName());
+        assertEquals(DelegatingCommand.class, guarded.getCommand().getClass());
+
+        assertEquals(Processing.CONTINUE, guarded.execute(context));
+        assertThat(context, hasLog("1"));
+
+    }
+
+
+    // Test execution of chain "BreakerNested"
+    @Test
+    public void testExecuteBreakerNested() throws Exception {
+
+        assertEquals(Processing.FINISHED, catalog.getCommand("BreakerNested").execute(context));
+        assertThat(context, hasLog("1/2"));
+
+    }
+
+
+    // Test the configuration and execution of a switch with a default case
+    @Test
+    public void testSwitch() throws Exception {
+
+        SwitchCommand<String, Object, Context<String, Object>> switched = catalog.getCommand("Switched");
+        assertEquals("method", switched.getKey());
+        assertThat(switched.getDefaultCommand(), instanceOf(Chain.class));
+
+        context.put("method", "GET");
+        assertEquals(Processing.CONTINUE, switched.execute(context));
+        assertThat(context, hasLog("1/2"));
+
+        Context<String, Object> post = new ContextBase();
+        post.put("method", "POST");
+        assertEquals(Processing.FINISHED, switched.execute(post));
+        assertThat(post, hasLog("3"));
+
+        Context<String, Object> delete = new ContextBase();
+        delete.put("method", "DELETE");
+        assertEquals(Processing.CONTINUE, switched.execute(delete));
+        assertThat(delete, hasLog("4"));
+
+    }
+
+
+    // Test execution of chain "SwitchNested"
+    @Test
+    public void testExecuteSwitchNested() throws Exception {
+
+        context.put("method", "GET");
+        assertEquals(Processing.FINISHED, catalog.getCommand("SwitchNested").execute(context));
+        assertThat(context, hasLog("1/2"));
+
+        Context<String, Object> unmatched = new ContextBase();
+        assertEquals(Processing.CONTINUE, catalog.getCommand("SwitchNested").execute(unmatched));
+        assertThat(unmatched, hasLog("1/3"));
+
+    }
+
+
     // Test a pristine ConfigParser instance
     @Test
     public void testPristine() throws Exception {